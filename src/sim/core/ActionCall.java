@@ -0,0 +1,280 @@
+/*
+ * BehaviorSim - version 1.0 
+ * 
+ * Copyright (C) 2010 The BehaviorSim Development Team, fasheng@cs.gsu.edu.
+ * 
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * 
+ * Info, Questions, Suggestions & Bugs Report to fasheng@cs.gsu.edu.
+ *  
+ */
+
+package sim.core;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import sim.model.entity.Entity;
+import sim.util.MethodUtils;
+
+/**
+ * A single method call of an action string, such as
+ * <code>move(2, speed)</code>, compiled for a class of entities.
+ * 
+ * <p>
+ * The method and its signature are resolved once. Each parameter is either a
+ * constant literal, converted once, or a property of the entity, read from
+ * the resolved field or getter each time the call is invoked. The rules are
+ * those of {@link AppEngine#evaluateAction(Entity, String)}: the first method
+ * of the given name whose parameters can all be resolved is called. If a
+ * property can not be read when the call is invoked, e.g. it is not a number,
+ * the next method is tried. Only the types <code>double</code>,
+ * <code>int</code>, <code>float</code> and <code>Object</code> are read from
+ * the properties, the other parameters are passed as strings.
+ * </p>
+ * 
+ * @version 1.0
+ */
+public final class ActionCall {
+
+	/** Value of a parameter */
+	private static abstract class Argument {
+
+		abstract Object value(Object entity) throws Exception;
+
+	}
+
+	/** A constant literal */
+	private static final class Constant extends Argument {
+
+		private final Object value;
+
+		Constant(Object value) {
+			this.value = value;
+		}
+
+		Object value(Object entity) {
+			return value;
+		}
+
+	}
+
+	/** A property read from a field or a getter of the entity */
+	private static final class PropertyArgument extends Argument {
+
+		private final Field field;
+
+		private final Method getter;
+
+		private final Class type;
+
+		PropertyArgument(Field field, Method getter, Class type) {
+			this.field = field;
+			this.getter = getter;
+			this.type = type;
+		}
+
+		Object value(Object entity) throws Exception {
+			if (field != null) {
+				Object value = field.get(entity);
+				if (type == Object.class)
+					return value;
+				if (value instanceof Number)
+					return convert((Number) value);
+			}
+			// Not a number, try the getter
+			if (getter == null)
+				throw new RuntimeException("The returned value is not a number!");
+			Object value = getter.invoke(entity, (Object[]) null);
+			if (type == Object.class)
+				return value;
+			if (!(value instanceof Number))
+				throw new RuntimeException("The returned value is not a number!");
+			return convert((Number) value);
+		}
+
+		private Object convert(Number n) {
+			if (type == Double.class)
+				return new Double(n.doubleValue());
+			if (type == Integer.class)
+				return new Integer(n.intValue());
+			return new Float(n.floatValue());
+		}
+
+	}
+
+	// The class the call is compiled for
+	private final Class type;
+
+	// The methods whose signature matches, in the order they are tried
+	private final Method[] methods;
+
+	// The values of the parameters of each method
+	private final Argument[][] arguments;
+
+	/* Constructor */
+	private ActionCall(Class type, Method[] methods, Argument[][] arguments) {
+		this.type = type;
+		this.methods = methods;
+		this.arguments = arguments;
+	}
+
+	/**
+	 * Compile the method call for the class of the given entity. The action
+	 * string is a single method call without the trailing ";".
+	 * 
+	 * @param entity
+	 *            An entity of the class
+	 * @param methodName
+	 *            The name of the method
+	 * @param methodCall
+	 *            The method call, including the parameter values
+	 * @return The compiled call
+	 */
+	public static ActionCall compile(Entity entity, String methodName,
+			String methodCall) {
+		Class clss = entity.getClass();
+		List params = splitParameters(methodCall);
+		List matched = new ArrayList();
+		List values = new ArrayList();
+		Method[] methods = clss.getMethods();
+		for (int i = 0; methods != null && i < methods.length; i++) {
+			if (!methods[i].getName().equals(methodName))
+				continue;
+			Class[] types = methods[i].getParameterTypes();
+			if (params.size() != types.length)
+				continue;
+			Argument[] arguments = new Argument[types.length];
+			boolean resolved = true;
+			for (int k = 0; resolved && k < types.length; k++) {
+				arguments[k] = resolve(clss, types[k], (String) params.get(k));
+				resolved = arguments[k] != null;
+			}
+			if (!resolved)
+				continue;
+			Method method = MethodUtils.getAccessibleMethod(clss, methodName,
+					types);
+			if (method != null) {
+				matched.add(method);
+				values.add(arguments);
+			}
+		}
+		return new ActionCall(clss, (Method[]) matched
+				.toArray(new Method[matched.size()]), (Argument[][]) values
+				.toArray(new Argument[values.size()][]));
+	}
+
+	/* Split the parameter values of the method call */
+	private static List splitParameters(String methodString) {
+		List params = new ArrayList();
+		String parameters = methodString.substring(
+				methodString.indexOf('(') + 1, methodString.indexOf(')'));
+		if ((parameters = parameters.trim()).equals("")) {
+			return params;
+		}
+		while (parameters.indexOf(',') != -1) {
+			params.add(parameters.substring(0, parameters.indexOf(',')).trim());
+			parameters = parameters.substring(parameters.indexOf(',') + 1);
+		}
+		if (!parameters.trim().equals("")) {
+			params.add(parameters.trim());
+		}
+		return params;
+	}
+
+	/* Resolve a parameter, null if it can not be resolved */
+	private static Argument resolve(Class clss, Class type, String param) {
+		Class boxed = null;
+		if (type == double.class || type == Double.class) {
+			boxed = Double.class;
+			try {
+				return new Constant(Double.valueOf(param));
+			} catch (Exception e) {
+			}
+		} else if (type == int.class || type == Integer.class) {
+			boxed = Integer.class;
+			try {
+				return new Constant(Integer.valueOf(param));
+			} catch (Exception e) {
+			}
+		} else if (type == float.class || type == Float.class) {
+			boxed = Float.class;
+			try {
+				return new Constant(Float.valueOf(param));
+			} catch (Exception e) {
+			}
+		} else if (type == Object.class) {
+			boxed = Object.class;
+		} else {
+			// Other types are passed as they are
+			return new Constant(param);
+		}
+
+		// Property of the entity
+		Field field = null;
+		try {
+			field = clss.getDeclaredField(param);
+		} catch (Exception e) {
+		}
+		Method getter = null;
+		if (param.length() > 0)
+			getter = MethodUtils.getAccessibleMethod(clss, "get"
+					+ param.substring(0, 1).toUpperCase() + param.substring(1),
+					new Class[0]);
+		if (field == null && getter == null)
+			return null;
+		return new PropertyArgument(field, getter, boxed);
+	}
+
+	/**
+	 * @return the class the call is compiled for
+	 */
+	public Class getType() {
+		return type;
+	}
+
+	/**
+	 * Invoke the call on the given entity, which is of the class the call is
+	 * compiled for.
+	 * 
+	 * @param entity
+	 *            The target entity
+	 * @return The result of the call, <code>null</code> if no method matches
+	 * @throws Exception
+	 *             Any exception thrown by the method
+	 */
+	public Object invoke(Entity entity) throws Exception {
+		for (int m = 0; m < methods.length; m++) {
+			Object[] values = null;
+			if (arguments[m].length > 0) {
+				values = new Object[arguments[m].length];
+				try {
+					for (int i = 0; i < values.length; i++)
+						values[i] = arguments[m][i].value(entity);
+				} catch (Exception e) {
+					// The property can not be read, try the next signature
+					continue;
+				}
+			}
+			return methods[m].invoke(entity, values);
+		}
+		return null;
+	}
+
+}
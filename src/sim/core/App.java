@@ -86,7 +86,8 @@ public class App implements java.io.Serializable {
 	// Application class loader
 	private ClassLoader cl = null;
 
-	// Current active entity
+	// Current active entity in the editors. The computing entity of a running
+	// simulation is kept in its SimulationContext.
 	public Category currentEntity = null;
 
 	// Temporary category object, it is only used in the copy-paste of category
@@ -25,11 +25,10 @@
 
 package sim.core;
 
+import java.awt.Component;
 import java.awt.Graphics;
 import java.awt.Rectangle;
 import java.io.File;
-import java.lang.reflect.Method;
-import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -37,8 +36,6 @@ import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 
-import javax.swing.JComponent;
-
 import sim.core.dclass.DirResourceLoader;
 import sim.core.dclass.JarResourceLoader;
 import sim.core.dclass.ResourceLoader;
@@ -56,7 +53,6 @@ import sim.model.entity.Entity;
 import sim.model.entity.Property;
 import sim.ui.NavigationPanel;
 import sim.util.FileUtils;
-import sim.util.MethodUtils;
 import sim.util.Point;
 import sim.util.SimException;
 
@@ -98,6 +94,15 @@ public class AppEngine {
 	// application resources
 	public AppResources resources = null;
 
+	// decoded images of the application
+	public ImageCache images = null;
+
+	// incremental saving of the application
+	public AppJournal journal = null;
+
+	// boundary between the time steps of the simulation computation
+	TickBoundary tickBoundary = null;
+
 	// application helper
 	public AppHelper helper = null;
 
@@ -107,7 +112,7 @@ public class AppEngine {
 	// behavior network editor
 	public BehaviorNetworkEditor bnEditor = null;
 
-	// category update handler, it should be a JComponent instance
+	// category update handler, the image tracker if it is a component
 	public CategoryUpdateListener categoryUpdateListener = null;
 
 	// category update handler, for <code>SimulationView</code>
@@ -136,6 +141,13 @@ public class AppEngine {
 		// Application resources
 		resources = new AppResources();
 
+		// Decoded images
+		images = new ImageCache();
+
+		// Incremental saving
+		journal = new AppJournal();
+		tickBoundary = new TickBoundary();
+
 		// Application manager
 		appManager = AppManager.getInstance();
 
@@ -181,14 +193,52 @@ public class AppEngine {
 	}
 
 	/**
-	 * Return the current active entity
+	 * Return the system object of the simulation. If a simulation context is
+	 * bound to the calling thread, the system object of the context is
+	 * returned.
+	 * 
+	 * @return The system object
+	 * @see SimulationContext
+	 */
+	public AppSystem getSystem() {
+		SimulationContext context = SimulationContext.getContext();
+		if (context != null)
+			return context.getSystem();
+		return system;
+	}
+
+	/**
+	 * Return the current active entity. If a simulation context is bound to
+	 * the calling thread, the current computing entity of the context is
+	 * returned.
 	 * 
 	 * @return The current active entity
+	 * @see SimulationContext
 	 */
 	public Entity getCurrentEntity() {
+		SimulationContext context = SimulationContext.getContext();
+		if (context != null)
+			return context.getCurrentEntity();
 		return appManager.currentApp.currentEntity;
 	}
 
+	/**
+	 * Change the current active entity. If a simulation context is bound to
+	 * the calling thread, only the current computing entity of the context is
+	 * changed.
+	 * 
+	 * @param entity
+	 *            The new current active entity
+	 * @see SimulationContext
+	 */
+	public void setCurrentEntity(Category entity) {
+		SimulationContext context = SimulationContext.getContext();
+		if (context != null)
+			context.setCurrentEntity(entity);
+		else
+			appManager.currentApp.currentEntity = entity;
+	}
+
 	/**
 	 * Reset the dynamic managers by reset the manager object
 	 */
@@ -374,6 +424,18 @@ public class AppEngine {
 		return this.categoryUpdateListener;
 	}
 
+	/**
+	 * Return the component used to track the loading of the images, which is
+	 * the category update listener if it is a component.
+	 * 
+	 * @return the image tracker, null if there is none, e.g. in a batch run
+	 */
+	public Component getImageTracker() {
+		if (categoryUpdateListener instanceof Component)
+			return (Component) categoryUpdateListener;
+		return null;
+	}
+
 	/**
 	 * Return the registered category update listener
 	 * 
@@ -429,6 +491,37 @@ public class AppEngine {
 	 */
 	public Object evaluateAction(Entity entity, String actionString)
 			throws Exception {
+
+		// Compile the action
+		ActionCall call = compileAction(entity, actionString);
+
+		// Call the method. 
+		try {
+			return call.invoke(entity);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+
+	}
+
+	/**
+	 * Compile the given action for the class of the given entity, so that it
+	 * can be invoked on the entities of that class repeatedly without parsing
+	 * the action string and looking up the method again. The checks are the
+	 * same as in {@link #evaluateAction(Entity, String)}.
+	 * 
+	 * @param entity
+	 *            The entity where the action string is defined
+	 * @param actionString
+	 *            The action to compile. It is a SINGLE method including
+	 *            method name and parameter values, maybe also including a
+	 *            character ";"
+	 * @return The compiled action
+	 * @throws Exception
+	 *             if the action is not a valid method call in the entity
+	 */
+	public ActionCall compileAction(Entity entity, String actionString)
+			throws Exception {
 		
 		// The target entity should be specified
 		if (entity == null) {
@@ -464,204 +557,9 @@ public class AppEngine {
 					+ ((Category) entity).getEntityType() + "'.");
 		}
 
-		// Call the method. 
-		try {
-			return invokeAction(entity, methodName, actionString);
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		}
-
-	}
-	
-	/**
-	 * <p>
-	 * Invoke the specified method (include name and parameter values) in the target 
-	 * entity. In the case of multiple signatures (different parameter types for ex.),
-	 * each signature will be checked until one is found. In the case of no signature
-	 * is found, no method will be invoked.
-	 * </p>
-	 *  
-	 * 
-	 * @param entity 
-	 * 			  Target entity 
-	 * @param methodName
-	 *            The method name to look in
-	 * @return Result of method execution
-	 */
-	private Object invokeAction(Entity entity, String methodName, String methodCall) 
-		throws Exception {
-		Class clss = entity.getClass();
-		Method[] methods = clss.getMethods();
-		if (methods != null) {
-			for (int i = 0; i < methods.length; i++) {
-				if (methods[i].getName().equals(methodName)) {
-					// Parameter types
-					Class[] types = methods[i].getParameterTypes();
-					// Values for parameters
-					Object[] values = null;
-					try {
-						values = _getParameterValues(entity, types, methodCall);
-					} catch(Exception e){
-						continue;
-					}
-					// Invoke the method
-					return MethodUtils.invokeExactMethod(entity, methodName, values, types);
-				}
-			}
-		}
-		return null;
-	}
+		// Resolve the method and its parameters
+		return ActionCall.compile(entity, methodName, actionString);
 
-	/**
-	 * Obtain the parameters of method. It is mainly used in the method call
-	 * invoked in the <code>Action</code>.
-	 * 
-	 * <p>
-	 * Each parameter can only be either a constant literal or property of the
-	 * given entity.
-	 * </p>
-	 * 
-	 * <p>
-	 * For different parameter types, first check the constant literal. If it is
-	 * not successful, then property of the current computing is checked.
-	 * Currently, only types <code>double(Double)</code>,
-	 * <code>int(Integer)</code>, and <code>Object</code> are handled, according
-	 * to the method signatures in the class
-	 * <code>sim.model.engine.SystemFunction</code>.
-	 * </p>
-	 * 
-	 * <p>
-	 * Any exceptions will be thrown out as the <code>RuntimeException</code>.
-	 * </p>
-	 * 
-	 * @param entity
-	 *            Entity to probe
-	 * @param paramTypes
-	 *            Parameter types
-	 * @param methodString
-	 *            The method string, including method name and parameter values
-	 *            such as "compute("1", 2, 3)"
-	 * @return parameter values
-	 */
-	private Object[] _getParameterValues(Entity entity, Class[] paramTypes, String methodString) {
-		String parameters = methodString.substring(
-				methodString.indexOf('(') + 1, methodString.indexOf(')'));
-		if (parameters == null || (parameters = parameters.trim()).equals("")) {
-			return null;
-		}
-		/** Get parameter values */
-		List params = new ArrayList();
-		while (parameters.indexOf(',') != -1) {
-			params.add(parameters.substring(0, parameters.indexOf(',')));
-			parameters = parameters.substring(parameters.indexOf(',') + 1);
-		}
-		if (parameters != null && !parameters.trim().equals("")) {
-			params.add(parameters);
-		}
-		RuntimeException runEx = new RuntimeException();
-		/**
-		 * Translate the parameter values into the actual value based on the
-		 * current state of the entity
-		 */
-		if (params.size() != paramTypes.length) {
-			throw runEx;
-		}
-		for (int i = 0; i < paramTypes.length; i++) {
-			String param = ((String) params.get(i)).trim();
-			if (paramTypes[i] == double.class || paramTypes[i] == Double.class) {
-				Double actualParam;
-				try {
-					/** A constant double value ? */
-					actualParam = Double.valueOf(param);
-				} catch (Exception e) {
-					/** Property of the current entity ? */
-					try {
-						actualParam = new Double(entity.getDoubleValue(param));
-					} catch (Exception ee) {
-						try {
-							actualParam = new Double(((Number) MethodUtils
-									.invokeExactMethod(entity, "get"
-											+ param.substring(0, 1)
-													.toUpperCase()
-											+ param.substring(1), null))
-									.doubleValue());
-						} catch (Exception eee) {
-							throw runEx;
-						}
-					}
-				}
-				params.set(i, actualParam);
-			} 
-			else if (paramTypes[i] == int.class
-					|| paramTypes[i] == Integer.class) {
-				Integer actualParam;
-				try {
-					/** A constant integer value ? */
-					actualParam = Integer.valueOf(param);
-				} catch (Exception e) {
-					/** Property of the current entity ? */
-					try {
-						actualParam = new Integer((int) entity
-								.getDoubleValue(param));
-					} catch (Exception ee) {
-						try {
-							actualParam = new Integer(((Number) MethodUtils
-									.invokeExactMethod(entity, "get"
-											+ param.substring(0, 1)
-													.toUpperCase()
-											+ param.substring(1), null))
-									.intValue());
-						} catch (Exception eee) {
-							throw runEx;
-						}
-					}
-				}
-				params.set(i, actualParam);
-			} 
-			else if (paramTypes[i] == float.class
-					|| paramTypes[i] == Float.class) {
-				Float actualParam;
-				try {
-					/** A constant float value ? */
-					actualParam = Float.valueOf(param);
-				} catch (Exception e) {
-					/** Property of the current entity ? */
-					try {
-						actualParam = new Float(entity.getFloatValue(param));
-					} catch (Exception ee) {
-						try {
-							actualParam = new Float(((Number) MethodUtils
-									.invokeExactMethod(entity, "get"
-											+ param.substring(0, 1)
-													.toUpperCase()
-											+ param.substring(1), null))
-									.floatValue());
-						} catch (Exception eee) {
-							throw runEx;
-						}
-					}
-				}
-				params.set(i, actualParam);
-			} 
-			else if (paramTypes[i] == Object.class) {
-				Object actualParam;
-				/** Property of the current entity */
-				try {
-					actualParam = entity.getValue(param);
-				} catch (Exception ee) {
-					try {
-						actualParam = MethodUtils.invokeExactMethod(entity,
-								"get" + param.substring(0, 1).toUpperCase()
-										+ param.substring(1), null);
-					} catch (Exception eee) {
-						throw runEx;
-					}
-				}
-				params.set(i, actualParam);
-			}
-			/** FIXME: How about the string and other parameters ? */
-		}
-		return params.toArray();
 	}
 
 	/**
@@ -1160,6 +1058,13 @@ public class AppEngine {
 		return this.system.getTotalTimeticks();
 	}
 
+	/**
+	 * Get the default number of time steps kept in the behavior history
+	 */
+	public int getBehaviorHistoryDepth() {
+		return this.system.getBehaviorHistoryDepth();
+	}
+
 	/**
 	 * Obtain the available entity list.
 	 */
@@ -1184,6 +1089,7 @@ public class AppEngine {
 	 */
 	public void addBehaviorToNetwork(BNCategory c, int id) throws Exception {
 		this.bnEditor.addBehaviorToNetwork(c, id);
+		c.markChanged();
 	}
 
 	/**
@@ -1269,8 +1175,10 @@ public class AppEngine {
 				}
 			}
 			for (int k = 0; k < ids.length; k++) {
-				// Verify the validity of behavior definition ahead
-				if (bnEditor.verifyExcitationActionMethod(entity, ids[k])) {
+				// Verify the validity of behavior definition ahead, unless
+				// the category already has the methods of that behavior
+				if (bnEditor.isBehaviorCompiled(entity, ids[k])
+						|| bnEditor.verifyExcitationActionMethod(entity, ids[k])) {
 					addBehaviorToNetwork(entity, ids[k]);
 					/*
 					 * try { navPanel.addNewBehavior(ids[k], names[k], entity );
@@ -1385,6 +1293,7 @@ public class AppEngine {
 
 		/** Save behavior action name */
 		behavior.setBehaviorActionName(bActionName);
+		bn.markChanged();
 
 		return behavior;
 
@@ -1448,6 +1357,7 @@ public class AppEngine {
 			}
 
 		}
+		bnE.markChanged();
 
 	}
 
@@ -1505,6 +1415,7 @@ public class AppEngine {
 		BehaviorNetwork bn = owner.getBehaviorNetwork();
 		bn.removeBehavior(bn.getPosition(b));
 		system.actionRepository.removeBehaviorAction(b.getMyId());
+		owner.markChanged();
 
 		if (removeFromPanel) {
 			try {
@@ -1556,8 +1467,8 @@ public class AppEngine {
 				.getCategory(categoryName);
 
 		// Initialize the category image
-		newEntity.init((JComponent) categoryUpdateListener, newEntity
-				.getEntityType(), newEntity.getImagePath());
+		newEntity.init(getImageTracker(), newEntity.getEntityType(),
+				newEntity.getImagePath());
 
 		// Set the initial position, default is (20, 20)
 		newEntity.setPosition(20, 20);
@@ -51,7 +51,9 @@ public class AppHelper {
 	 */
 	public boolean saveAppAsFile(String path) {
 		try {
-			return AppLoader.appToXML(path);
+			// The file is replaced at once, and its journal removed
+			AppEngine.getInstance().journal.write(path);
+			return true;
 		} catch (Exception e) {
 			MessageUtils.debug(this, "saveAppAsFile", e);
 			MessageUtils.displayError("Can not save the application.");
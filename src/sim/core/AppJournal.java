@@ -0,0 +1,699 @@
+/*
+ * BehaviorSim - version 1.0 
+ * 
+ * Copyright (C) 2010 The BehaviorSim Development Team, fasheng@cs.gsu.edu.
+ * 
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * 
+ * Info, Questions, Suggestions & Bugs Report to fasheng@cs.gsu.edu.
+ *  
+ */
+package sim.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import sim.model.entity.Category;
+import sim.util.MessageUtils;
+import sim.xml.jdom.Attribute;
+import sim.xml.jdom.Element;
+import sim.xml.jdom.input.SAXBuilder;
+import sim.xml.jdom.output.XMLOutputter;
+
+/**
+ * Incremental saving of the application.
+ * 
+ * <p>
+ * The periodic saving, see {@link AppTask}, takes a snapshot of the
+ * application at a boundary between two time steps, see {@link TickBoundary},
+ * so that the states of the entities are consistent. Only the categories and
+ * the entities which are changed since the last snapshot, see
+ * {@link sim.model.entity.Entity#clearChanged()}, are copied at the boundary.
+ * The elements are built, the images are copied and the records are written
+ * by a background thread.
+ * </p>
+ * 
+ * <p>
+ * The application is divided into records: the root element, each section
+ * under it, and each category and each entity, keyed by the category name
+ * and by a number given to the entity by this journal. The entity id is not
+ * used, since the ids of the entities are reused after some entities are
+ * removed. The order of the categories and of the entities is a record of
+ * its own. Only the records which changed since the last save are appended
+ * to the journal, the file named as the application file followed by
+ * {@link #EXTENSION}.
+ * </p>
+ * 
+ * <p>
+ * When the journal grows larger than the application file, it is compacted:
+ * the whole application is written into a temporary file, which then replaces
+ * the application file, and the journal begins again with the order of the
+ * records in the new file. Each record is written with its length, and a
+ * record which is not completely written is ignored, so that the journal left
+ * by an interrupted session is applied to the application file when it is
+ * loaded, see {@link #recover(File)}.
+ * </p>
+ * 
+ * @version 1.0
+ */
+public class AppJournal {
+
+	/** Extension of the journal file, after the application file name */
+	public static final String EXTENSION = ".journal";
+
+	// Extension of the temporary files written by the compaction
+	private static final String TEMPORARY = ".tmp";
+
+	// The sections whose children are separate records
+	private static final String[] SPLIT = { "categories", "entities" };
+
+	// The key of the root element
+	private static final String ROOT = "/";
+
+	// The background writer
+	private final ExecutorService writer;
+
+	// Whether a snapshot is waiting for the tick boundary or being written
+	private boolean pending = false;
+
+	/*
+	 * The state of the snapshots, used at the tick boundary
+	 */
+
+	// Whether the next snapshot copies the whole application
+	private volatile boolean full = true;
+
+	// The application file of the last snapshot
+	private String taken = null;
+
+	// The categories of the last snapshot, "name -> category"
+	private Map categories = new HashMap();
+
+	// The keys of the entities of the last snapshot, "entity -> key"
+	private Map entities = new IdentityHashMap();
+
+	// The next key given to an entity
+	private int nextKey = 0;
+
+	/*
+	 * The state of the written records, used by the writer only
+	 */
+
+	// The application file described by the written records
+	private String path = null;
+
+	// The elements of the records, "key -> element"
+	private Map elements = new LinkedHashMap();
+
+	// The records written, "key -> XML"
+	private Map written = new HashMap();
+
+	// The order of the children of each split section, "name -> keys"
+	private Map orders = new HashMap();
+
+	/**
+	 * Constructor.
+	 */
+	public AppJournal() {
+		writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "AppJournal");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Save the application incrementally. The snapshot is taken at the next
+	 * tick boundary and written in the background. Nothing happens if the
+	 * previous snapshot is not written yet.
+	 * 
+	 * @param path
+	 *            The application file
+	 */
+	public void save(final String path) {
+		synchronized (this) {
+			if (pending)
+				return;
+			pending = true;
+		}
+		AppEngine.getInstance().tickBoundary.invoke(new Runnable() {
+			public void run() {
+				final Future saving;
+				try {
+					saving = submit(path, false);
+				} catch (RuntimeException e) {
+					MessageUtils.debug(AppJournal.this, "save", e);
+					done(false);
+					return;
+				}
+				// The changes from now on are saved next time
+				AppEngine.getInstance().setAppStatus(App.CLEAN);
+				writer.execute(new Runnable() {
+					public void run() {
+						try {
+							get(saving);
+							done(true);
+						} catch (Exception e) {
+							MessageUtils.debug(AppJournal.this, "save", e);
+							done(false);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Save the whole application into the file. The snapshot is taken at the
+	 * next tick boundary, and the method returns when it is written.
+	 * 
+	 * @param path
+	 *            The application file
+	 * @throws Exception
+	 *             If the application can not be saved
+	 */
+	public void write(final String path) throws Exception {
+		FutureTask snapshot = new FutureTask(new Callable() {
+			public Object call() {
+				return submit(path, true);
+			}
+		});
+		AppEngine.getInstance().tickBoundary.invoke(snapshot);
+		get((Future) get(snapshot));
+	}
+
+	/**
+	 * Forget the records written, called when an application is loaded. The
+	 * snapshots already taken are written first.
+	 */
+	public void reset() {
+		synchronized (this) {
+			full = true;
+		}
+		try {
+			writer.submit(new Runnable() {
+				public void run() {
+					path = null;
+				}
+			}).get();
+		} catch (InterruptedException e) {
+		} catch (ExecutionException e) {
+			MessageUtils.debug(this, "reset", e.getCause().toString());
+		}
+	}
+
+	/**
+	 * Apply the journal left by an interrupted session to the application
+	 * file, and remove it.
+	 * 
+	 * @param file
+	 *            The application file
+	 * @throws Exception
+	 *             If the journal can not be applied
+	 */
+	public static void recover(File file) throws Exception {
+		File tmp = new File(file.getPath() + TEMPORARY);
+		File journal = new File(file.getPath() + EXTENSION);
+		new File(journal.getPath() + TEMPORARY).delete();
+		if (tmp.exists()) {
+			// The journal is removed after the temporary file is complete
+			if (journal.exists())
+				tmp.delete();
+			else if (!tmp.renameTo(file)
+					&& !(file.delete() && tmp.renameTo(file)))
+				throw new IOException("Can not replace '" + file + "'.");
+		}
+		if (!journal.exists())
+			return;
+
+		Map elements = new LinkedHashMap();
+		Map orders = new HashMap();
+		// The children of the split sections in the file, "name -> list"
+		Map children = new HashMap();
+		Element root = ElementStream.read(file);
+		elements.put(ROOT, shallow(root));
+		List sections = new ArrayList(root.getChildren());
+		for (int i = 0; i < sections.size(); i++) {
+			Element section = (Element) sections.get(i);
+			if (!isSplit(section.getName())) {
+				elements.put(section.getName(), section.detach());
+				continue;
+			}
+			elements.put(section.getName(), shallow(section));
+			children.put(section.getName(), new ArrayList(section
+					.getChildren()));
+		}
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(journal)));
+		try {
+			while (true) {
+				byte[] b;
+				Element record;
+				try {
+					int length = in.readInt();
+					if (length < 0 || length > journal.length())
+						break;
+					b = new byte[length];
+					in.readFully(b);
+					record = new SAXBuilder().build(
+							new StringReader(new String(b, "UTF-8")))
+							.getRootElement();
+				} catch (EOFException e) {
+					break;
+				} catch (Exception e) {
+					// The last record is not completely written
+					MessageUtils.debug(AppJournal.class, "recover", e);
+					break;
+				}
+				String key = record.getAttributeValue("key");
+				if (!key.endsWith("/")) {
+					elements.put(key, ((Element) record.getChildren().get(0))
+							.detach());
+					continue;
+				}
+				String section = key.substring(0, key.length() - 1);
+				List order = new ArrayList();
+				StringTokenizer st = new StringTokenizer(record.getText());
+				while (st.hasMoreTokens())
+					order.add(st.nextToken());
+				// The first order is the one of the children in the file
+				List base = (List) children.remove(section);
+				for (int i = 0; base != null && i < base.size(); i++) {
+					if (i < order.size())
+						elements.put(section + "/" + order.get(i),
+								((Element) base.get(i)).detach());
+				}
+				orders.put(section, order);
+			}
+		} finally {
+			in.close();
+		}
+		// The sections without any order in the journal
+		for (Iterator i = children.keySet().iterator(); i.hasNext();) {
+			String section = (String) i.next();
+			List base = (List) children.get(section);
+			List order = new ArrayList();
+			for (int k = 0; k < base.size(); k++) {
+				order.add(String.valueOf(k));
+				elements.put(section + "/" + k, ((Element) base.get(k))
+						.detach());
+			}
+			orders.put(section, order);
+		}
+		replace(file, assemble(elements, orders));
+	}
+
+	/*
+	 * Take the snapshot and hand it to the background writer. It is called at
+	 * the tick boundary, and only copies the changed categories and entities
+	 * unless the whole application is asked for.
+	 */
+	private synchronized Future submit(String path, boolean all) {
+		final Snapshot snapshot;
+		try {
+			snapshot = take(path, all || full || !path.equals(taken));
+		} catch (RuntimeException e) {
+			// Some changed marks may be cleared
+			full = true;
+			throw e;
+		}
+		full = false;
+		taken = path;
+		return writer.submit(new Callable() {
+			public Object call() throws Exception {
+				try {
+					apply(snapshot);
+				} catch (Exception e) {
+					// The records written are not known, the snapshots taken
+					// meanwhile fail as well
+					AppJournal.this.path = null;
+					full = true;
+					throw e;
+				}
+				return null;
+			}
+		});
+	}
+
+	/* Copy the state of the application */
+	private Snapshot take(String path, boolean all) {
+		AppEngine engine = AppEngine.getInstance();
+		Snapshot snapshot = new Snapshot(path, all);
+		if (all) {
+			categories = new HashMap();
+			entities = new IdentityHashMap();
+			nextKey = 0;
+		}
+
+		Map allCategories = engine.appManager.currentApp.dm.getCategories();
+		Map kept = new HashMap();
+		for (Iterator i = allCategories.values().iterator(); i.hasNext();) {
+			Category c = (Category) i.next();
+			String key = c.getEntityType();
+			boolean changed = c.clearChanged();
+			if (changed || categories.get(key) != c)
+				snapshot.categories.put(key, new AppLoader.CategoryState(c));
+			snapshot.categoryOrder.add(key);
+			kept.put(key, c);
+		}
+		categories = kept;
+
+		List allEntities = engine.getAvailableEntities();
+		Map keys = new IdentityHashMap();
+		for (int i = 0; i < allEntities.size(); i++) {
+			Category e = (Category) allEntities.get(i);
+			String key = (String) entities.get(e);
+			boolean changed = e.clearChanged();
+			if (key == null) {
+				key = String.valueOf(nextKey++);
+				changed = true;
+			}
+			if (changed)
+				snapshot.entities.put(key, new AppLoader.EntityState(e));
+			snapshot.entityOrder.add(key);
+			keys.put(e, key);
+		}
+		entities = keys;
+		return snapshot;
+	}
+
+	/*
+	 * Build the records of the snapshot, and append the changed ones, compact
+	 * the journal if it is too large
+	 */
+	private void apply(Snapshot snapshot) throws Exception {
+		File file = new File(snapshot.path);
+		if (snapshot.full) {
+			elements = new LinkedHashMap();
+			written = new HashMap();
+			orders = new HashMap();
+		} else if (!file.getPath().equals(path) || !file.exists()) {
+			throw new IOException("The records of '" + file
+					+ "' are not known.");
+		}
+
+		// The records of the snapshot
+		AppLoader.WorldState world = snapshot.world;
+		Map records = new LinkedHashMap();
+		records.put(ROOT, AppLoader.createAppRootElement(world));
+		records.put("shared-parameters", AppLoader.createGlobalElement(world));
+		records.put("world", AppLoader.createWorldElement(world));
+		AppLoader.copyImage(file.getPath(), world.resourceDir,
+				world.relativeImagePath, world.imagePath);
+		records.put("categories", new Element("categories"));
+		Map changed = snapshot.categories;
+		for (Iterator i = changed.keySet().iterator(); i.hasNext();) {
+			String key = (String) i.next();
+			AppLoader.CategoryState c = (AppLoader.CategoryState) changed
+					.get(key);
+			records.put("categories/" + key, AppLoader
+					.createCategoryElement(c));
+			AppLoader.copyImage(file.getPath(), world.resourceDir, c.display
+					.getRelativeImagePath(), c.display.getImagePath());
+		}
+		records.put("entities", new Element("entities"));
+		changed = snapshot.entities;
+		for (Iterator i = changed.keySet().iterator(); i.hasNext();) {
+			String key = (String) i.next();
+			AppLoader.EntityState e = (AppLoader.EntityState) changed.get(key);
+			records.put("entities/" + key, AppLoader.createEntityElement(e));
+			AppLoader.copyImage(file.getPath(), world.resourceDir, e.display
+					.getRelativeImagePath(), e.display.getImagePath());
+		}
+
+		// The changed records and orders
+		XMLOutputter outputter = new XMLOutputter();
+		List changes = new ArrayList();
+		for (Iterator i = records.keySet().iterator(); i.hasNext();) {
+			String key = (String) i.next();
+			Element element = (Element) records.get(key);
+			String xml = outputter.outputString(element);
+			elements.put(key, element);
+			if (!xml.equals(written.get(key))) {
+				changes.add(record(key, xml));
+				written.put(key, xml);
+			}
+		}
+		changes.addAll(order("categories", snapshot.categoryOrder));
+		changes.addAll(order("entities", snapshot.entityOrder));
+
+		File journal = new File(file.getPath() + EXTENSION);
+		if (snapshot.full || !journal.exists()) {
+			compact(file);
+			return;
+		}
+		if (changes.isEmpty())
+			return;
+		FileOutputStream out = new FileOutputStream(journal, true);
+		try {
+			DataOutputStream data = new DataOutputStream(
+					new BufferedOutputStream(out));
+			for (int i = 0; i < changes.size(); i++) {
+				byte[] b = ((String) changes.get(i)).getBytes("UTF-8");
+				data.writeInt(b.length);
+				data.write(b);
+			}
+			data.flush();
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+
+		if (journal.length() > file.length())
+			compact(file);
+	}
+
+	/*
+	 * Keep the order of the children of the section, the records of the
+	 * removed children are forgotten. Return the order record if it is changed
+	 */
+	private List order(String section, List order) {
+		List changes = new ArrayList();
+		if (order.equals(orders.get(section)))
+			return changes;
+		Set kept = new HashSet();
+		for (int i = 0; i < order.size(); i++)
+			kept.add(section + "/" + order.get(i));
+		for (Iterator i = elements.keySet().iterator(); i.hasNext();) {
+			String key = (String) i.next();
+			if (key.startsWith(section + "/") && !kept.contains(key)) {
+				i.remove();
+				written.remove(key);
+			}
+		}
+		orders.put(section, order);
+		changes.add(orderRecord(section, order));
+		return changes;
+	}
+
+	/* Called when the snapshot is written or failed */
+	private void done(boolean saved) {
+		synchronized (this) {
+			pending = false;
+		}
+		if (saved) {
+			MessageUtils
+					.displayNormal("The application is saved successfully.");
+		} else {
+			AppEngine.getInstance().setAppStatus(App.DIRTY);
+			MessageUtils.displayError("Can not save the application.");
+		}
+	}
+
+	/*
+	 * Write the whole application into the file, and begin the journal again
+	 * with the order of the children in the file
+	 */
+	private void compact(File file) throws IOException {
+		File journal = new File(file.getPath() + EXTENSION);
+		// A journal exists while the temporary file is written, see recover
+		if (!journal.exists())
+			journal.createNewFile();
+		replace(file, assemble(elements, orders));
+
+		File tmp = new File(journal.getPath() + TEMPORARY);
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			DataOutputStream data = new DataOutputStream(
+					new BufferedOutputStream(out));
+			for (int i = 0; i < SPLIT.length; i++) {
+				byte[] b = orderRecord(SPLIT[i], (List) orders.get(SPLIT[i]))
+						.getBytes("UTF-8");
+				data.writeInt(b.length);
+				data.write(b);
+			}
+			data.flush();
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(journal))
+			throw new IOException("Can not write '" + journal + "'.");
+		path = file.getPath();
+	}
+
+	/*
+	 * Replace the file by the application, written into a temporary file. The
+	 * journal is removed before the temporary file is renamed
+	 */
+	private static void replace(File file, Element root) throws IOException {
+		File tmp = new File(file.getPath() + TEMPORARY);
+		AppLoader.writeApp(root, tmp, BinaryModel.isBinaryModelName(file
+				.getPath()));
+		RandomAccessFile synced = new RandomAccessFile(tmp, "rw");
+		try {
+			synced.getFD().sync();
+		} finally {
+			synced.close();
+		}
+		new File(file.getPath() + EXTENSION).delete();
+		// An existing file is not replaced by renameTo on some platforms
+		if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file)))
+			throw new IOException("Can not replace '" + file + "'.");
+	}
+
+	/* Return the text of the record */
+	private static String record(String key, String xml) {
+		StringBuffer record = new StringBuffer("<record key=\"");
+		record.append(key).append("\">").append(xml).append("</record>");
+		return record.toString();
+	}
+
+	/* Return the text of the order record of the section */
+	private static String orderRecord(String section, List order) {
+		StringBuffer keys = new StringBuffer();
+		for (int i = 0; order != null && i < order.size(); i++) {
+			if (i > 0)
+				keys.append(' ');
+			keys.append(order.get(i));
+		}
+		return record(section + "/", keys.toString());
+	}
+
+	/* Build the application from its records */
+	private static Element assemble(Map elements, Map orders) {
+		Element root = shallow((Element) elements.get(ROOT));
+		for (Iterator i = elements.keySet().iterator(); i.hasNext();) {
+			String key = (String) i.next();
+			if (key.equals(ROOT) || key.indexOf('/') >= 0)
+				continue;
+			Element section = (Element) ((Element) elements.get(key)).clone();
+			root.addContent(section);
+			List order = (List) orders.get(key);
+			for (int k = 0; isSplit(key) && order != null
+					&& k < order.size(); k++) {
+				Element child = (Element) elements.get(key + "/"
+						+ order.get(k));
+				if (child != null)
+					section.addContent((Element) child.clone());
+			}
+		}
+		return root;
+	}
+
+	/* Return a copy of the element without its content */
+	private static Element shallow(Element element) {
+		Element copy = new Element(element.getName());
+		List attributes = element.getAttributes();
+		for (int i = 0; i < attributes.size(); i++) {
+			Attribute a = (Attribute) attributes.get(i);
+			copy.addAttribute(a.getName(), a.getValue());
+		}
+		return copy;
+	}
+
+	/* Whether the children of the section are separate records */
+	private static boolean isSplit(String section) {
+		for (int i = 0; i < SPLIT.length; i++) {
+			if (SPLIT[i].equals(section))
+				return true;
+		}
+		return false;
+	}
+
+	/* Return the result of the task, the cause of its failure is thrown */
+	private static Object get(Future task) throws Exception {
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw (Error) e.getCause();
+		}
+	}
+
+	/**
+	 * The copied state of the application at a tick boundary.
+	 */
+	private static final class Snapshot {
+
+		// The application file
+		final String path;
+
+		// Whether the whole application is copied
+		final boolean full;
+
+		final AppLoader.WorldState world = new AppLoader.WorldState();
+
+		// The changed categories, "key -> state"
+		final Map categories = new LinkedHashMap();
+
+		// The keys of all categories
+		final List categoryOrder = new ArrayList();
+
+		// The changed entities, "key -> state"
+		final Map entities = new LinkedHashMap();
+
+		// The keys of all entities
+		final List entityOrder = new ArrayList();
+
+		Snapshot(String path, boolean full) {
+			this.path = path;
+			this.full = full;
+		}
+	}
+
+}
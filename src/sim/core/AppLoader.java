@@ -33,21 +33,18 @@ package sim.core;
  * @author Fasheng Qiu
  * @version 1.0
  */
+import java.awt.Component;
 import java.awt.Image;
-import java.awt.MediaTracker;
-import java.awt.Toolkit;
-import java.awt.image.FilteredImageSource;
-import java.awt.image.ImageFilter;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
 
-import javax.swing.JComponent;
-
+import sim.core.dclass.BytecodeCache;
 import sim.core.dclass.JarResourceLoader;
 import sim.model.action.BehaviorAction;
 import sim.model.behavior.Behavior;
@@ -61,11 +58,12 @@ import sim.model.entity.PropertyType;
 import sim.model.entity.WhiteFilter;
 import sim.model.mechanism.CooperativeMechanism;
 import sim.model.mechanism.MutualInhibitionMechanism;
+import sim.model.mechanism.SystemDynamicMechanism;
 import sim.ui.AppStatusbar;
 import sim.util.MessageUtils;
+import sim.util.Point;
 import sim.xml.jdom.Document;
 import sim.xml.jdom.Element;
-import sim.xml.jdom.input.SAXBuilder;
 import sim.xml.jdom.output.XMLOutputter;
 
 public final class AppLoader {
@@ -124,6 +122,11 @@ public final class AppLoader {
 	/**
 	 * Store the whole application in the specified map into the external file
 	 * 
+	 * <p>
+	 * The file is written in the binary format, see {@link BinaryModel}, if
+	 * its name has the extension of the binary files, and in XML otherwise.
+	 * </p>
+	 * 
 	 * @param externalFile
 	 *            The file the app stored
 	 * @return Whether the operation is successful
@@ -137,101 +140,112 @@ public final class AppLoader {
 			throw new IllegalArgumentException(
 					"The configuration file can not be NULL.");
 
-		Element root = createAppRootElement();
-		createGlobalElement(root);
-		createWorldElement(root, externalFile);
-		createCategoriesElement(root, externalFile);
-		createEntitiesElement(root, externalFile);
-		Document doc = new Document(root);
+		writeApp(createAppElement(externalFile), new File(externalFile),
+				BinaryModel.isBinaryModelName(externalFile));
+
+		return true;
+
+	}
 
-		FileWriter writer = new FileWriter(externalFile);
+	/**
+	 * Create the elements of the whole application.
+	 * 
+	 * @param externalFile
+	 *            The file the app will be stored, the images are copied to
+	 *            its resource directory
+	 * @return The root element
+	 * @throws Exception
+	 *             When exceptions happened
+	 */
+	static Element createAppElement(String externalFile) throws Exception {
+		WorldState world = new WorldState();
+		Element root = createAppRootElement(world);
+		root.addContent(createGlobalElement(world));
+		root.addContent(createWorldElement(world));
+		copyImage(externalFile, world.resourceDir, world.relativeImagePath,
+				world.imagePath);
+		createCategoriesElement(root, world, externalFile);
+		createEntitiesElement(root, world, externalFile);
+		return root;
+	}
+
+	/**
+	 * Write the elements of the application into the file.
+	 * 
+	 * @param root
+	 *            The root element
+	 * @param file
+	 *            The file
+	 * @param binary
+	 *            Whether the file is written in the binary format, or in XML
+	 * @throws IOException
+	 *             If the file can not be written
+	 */
+	static void writeApp(Element root, File file, boolean binary)
+			throws IOException {
+		if (binary) {
+			BinaryModel.write(file, root);
+			return;
+		}
+		FileWriter writer = new FileWriter(file);
 		XMLOutputter outputter = new XMLOutputter();
 		outputter.setEncoding("GB2312");
 		outputter.setExpandEmptyElements(true);
 		outputter.setIndent(true);
 		outputter.setNewlines(true);
-		outputter.output(doc, writer);
-		writer.close();
-
-		return true;
-
+		try {
+			outputter.output(new Document(root), writer);
+		} finally {
+			writer.close();
+		}
 	}
 
 	/*
 	 * Write the app root element 'application' which has attributes "name" and
 	 * "basedOnBehaviorNetwork"
 	 */
-	private static Element createAppRootElement() throws Exception {
+	static Element createAppRootElement(WorldState world) throws Exception {
 		Element root = new Element("application");
-		root.addAttribute("name", engineRef.appManager.currentApp.getAppName());
+		root.addAttribute("name", world.appName);
 		root.addAttribute("version", ConfigParameters.version);
 		return root;
 	}
 
 	/* Write the global config info */
-	private static void createGlobalElement(Element root) throws Exception {
+	static Element createGlobalElement(WorldState world) throws Exception {
 
 		// Settings
 		Element global = new Element("shared-parameters");
 
 		Element resourcePath = new Element("resource-path");
-		resourcePath.addContent(engineRef.appManager.currentApp
-				.getAppResourceDir());
+		resourcePath.addContent(world.resourceDir);
 		global.addContent(resourcePath);
 
-		root.addContent(global);
+		return global;
 	}
 
 	/* Write the world info */
-	private static void createWorldElement(Element root, String exF)
-			throws Exception {
+	static Element createWorldElement(WorldState se) throws Exception {
 
-		// World
-		SimulationEnvironment se = AppEngine.getInstance()
-				.getSimulationEnvironment();
 		// Display
 		Element world = new Element("world");
 
 		// The background
 		Element display = new Element("background-image");
-		display.addContent(se.getRelativeImagePath());
+		display.addContent(se.relativeImagePath);
 		world.addContent(display);
 
-		// Check if the background image is already copied to the resource
-		// directory
-		// e.g., the application is created for the first time when the
-		// background
-		// is not copied to the resource directory yet.
-		StringBuffer resourceFullPath = new StringBuffer().append(
-				new File(exF).getParent()).append(File.separator).append(
-				AppEngine.getInstance().appManager.currentApp
-						.getAppResourceDir()).append(File.separator);
-		String rp = resourceFullPath.toString();
-		if (!new File(rp).exists()) {
-			// Create the directory first
-			new File(rp).mkdir();
-		}
-
-		resourceFullPath.append(se.getRelativeImagePath());
-		rp = resourceFullPath.toString();
-		if (!new File(rp).exists()) {
-			// Create the file first
-			new File(rp).createNewFile();
-			// Copy the background image --- PROBLEMATIC!!!
-			sim.util.FileUtils.copyFile(se.getImagePath(), rp);
-		}
-
 		// Size of the background
 		display = new Element("width");
-		display.addContent(se.getWidth() + "");
+		display.addContent(se.width + "");
 		world.addContent(display);
 		
 		display = new Element("height");
-		display.addContent(se.getHeight() + "");
+		display.addContent(se.height + "");
 		world.addContent(display);
 
 		Element envType = new Element("type");
-		int t = AppEngine.getInstance().system.systemParameters.getEnvType();
+		int t = se.envType;
 		if (t == SimulationEnvironment.ROUNDED)
 			envType.addContent("ROUNDED");
 		else if (t == SimulationEnvironment.OPEN)
@@ -242,14 +256,45 @@ public final class AppLoader {
 			throw new RuntimeException("The environment type is not legal.");
 		world.addContent(envType);
 
-		// Save the configuration
-		root.addContent(world);
+		return world;
 
 	}
 
+	/**
+	 * Copy the image into the resource directory of the application file.
+	 * Nothing happens if the image is already copied, e.g. it is copied when
+	 * the application is saved for the first time.
+	 * 
+	 * @param exF
+	 *            The application file
+	 * @param resourceDir
+	 *            The resource directory, relative to the application file
+	 * @param relativePath
+	 *            The path of the image in the resource directory
+	 * @param imagePath
+	 *            The full path of the image to copy
+	 * @throws Exception
+	 *             If the image can not be copied
+	 */
+	static void copyImage(String exF, String resourceDir, String relativePath,
+			String imagePath) throws Exception {
+		File dir = new File(new File(exF).getParent(), resourceDir);
+		if (!dir.exists()) {
+			// Create the directory first
+			dir.mkdir();
+		}
+		File copy = new File(dir, relativePath);
+		if (!copy.exists()) {
+			// Create the file first
+			copy.createNewFile();
+			// Copy the image --- PROBLEMATIC!!!
+			sim.util.FileUtils.copyFile(imagePath, copy.getPath());
+		}
+	}
+
 	/* Write the categories element 'categories' and each category */
-	private static void createCategoriesElement(Element root, String exF)
-			throws Exception {
+	private static void createCategoriesElement(Element root,
+			WorldState world, String exF) throws Exception {
 		// Categories
 		Element categories = new Element("categories");
 		root.addContent(categories);
@@ -258,57 +303,42 @@ public final class AppLoader {
 		Map allCategories = engineRef.appManager.currentApp.dm.getCategories();
 		Iterator iter = allCategories.keySet().iterator();
 		while (iter.hasNext()) {
-			Category c = (Category) allCategories.get(iter.next());
-			createCategoryElement(categories, c, exF);
+			CategoryState c = new CategoryState((Category) allCategories
+					.get(iter.next()));
+			categories.addContent(createCategoryElement(c));
+			copyImage(exF, world.resourceDir, c.display
+					.getRelativeImagePath(), c.display.getImagePath());
 		}
 	}
 
 	/* Write each category element 'category' */
-	private static void createCategoryElement(Element parent, Category c,
-			String exF) throws Exception {
+	static Element createCategoryElement(CategoryState c) throws Exception {
 
 		// Category
 		Element category = new Element("category");
-		category.addAttribute("name", c.getEntityType());
-		parent.addContent(category);
+		category.addAttribute("name", c.name);
 
 		// Display
 		Element displays = new Element("display");
 		Element display = new Element("image");
-		display.addContent(c.getRelativeImagePath());
+		display.addContent(c.display.getRelativeImagePath());
 		displays.addContent(display);
 		
 		display = new Element("width");
-		display.addContent(c.getWidth() + "");
+		display.addContent(c.display.getWidth() + "");
 		displays.addContent(display);
 		
 		display = new Element("height");
-		display.addContent(c.getHeight() + "");
+		display.addContent(c.display.getHeight() + "");
 		displays.addContent(display);
 		
 		display = new Element("direction");
-		display.addContent(String.valueOf(c.getInitialDisplayDirection()));
+		display.addContent(String.valueOf(c.display.getDirection()));
 		displays.addContent(display);
 		category.addContent(displays);
 
-		// Check if the image is already copied to the resource directory
-		// e.g., the application is created for the first time when the image
-		// is not copied to the resource directory yet.
-		StringBuffer resourceFullPath = new StringBuffer().append(
-				new File(exF).getParent()).append(File.separator).append(
-				AppEngine.getInstance().appManager.currentApp
-						.getAppResourceDir()).append(File.separator).append(
-				c.getRelativeImagePath());
-		String rp = resourceFullPath.toString();
-		if (!new File(rp).exists()) {
-			// Create the file first
-			new File(rp).createNewFile();
-			// Copy the background image
-			sim.util.FileUtils.copyFile(c.getImagePath(), rp);
-		}
-
 		// Fields
-		List properties = c.getOriginalProperties();
+		List properties = c.fields;
 		Element fields = new Element("fields");
 		for (int i = 0; i < properties.size(); i++) {
 			Property p = (Property) properties.get(i);
@@ -324,7 +354,7 @@ public final class AppLoader {
 		category.addContent(fields);
 
 		// Methods
-		List methods = c.getAllMethods();
+		List methods = c.methods;
 		Element methds = new Element("methods");
 		for (int i = 0; i < methods.size(); i++) {
 			CMethod p = (CMethod) methods.get(i);
@@ -334,110 +364,85 @@ public final class AppLoader {
 			methds.addContent(method);
 		}
 		category.addContent(methds);
+		return category;
 	}
 
 	/* Write behaviors element */
-	private static void createBehaviorElement(Element parent, Behavior b)
+	private static void createBehaviorElement(Element parent, String[] b)
 			throws Exception {
 		// Behavior
 		Element be = new Element("behavior");
 		parent.addContent(be);
-		// Behavior action
-		Map all = engineRef.system.actionRepository.getAllBehaviorActions();
 		/** Create behavior attributes */
-		be.addAttribute("name", b.getBehaviorName());
-		be.addAttribute("resumable", String.valueOf(b.isResumable()));
+		be.addAttribute("name", b[0]);
+		be.addAttribute("resumable", b[1]);
 
 		/** Add the equation string and action string as the content */
 		Element eqstr = new Element("excitation");
-		eqstr.addContent(b.getBehaviorEquation());
+		eqstr.addContent(b[2]);
 		be.addContent(eqstr);
 
 		Element action = new Element("action");
-		Map actionsInBehavior = (Map) all.get(new Integer(b.getMyId()));
-		action.addContent(((BehaviorAction) actionsInBehavior.get(b.getMyId()
-				+ "Action")).getActionString());
+		action.addContent(b[3]);
 		be.addContent(action);
 	}
 
 	/* Write entities element */
-	private static void createEntitiesElement(Element root, String exF)
-			throws Exception {
+	private static void createEntitiesElement(Element root, WorldState world,
+			String exF) throws Exception {
 		// Entities
 		Element entities = new Element("entities");
 		root.addContent(entities);
 		// Each entity
 		List aEntities = engineRef.getAvailableEntities();
 		for (int i = 0; i < aEntities.size(); i++) {
-			Category categoryObject = (Category) aEntities.get(i);
-			createEntityElement(entities, categoryObject, exF);
+			EntityState e = new EntityState((Category) aEntities.get(i));
+			entities.addContent(createEntityElement(e));
+			copyImage(exF, world.resourceDir, e.display
+					.getRelativeImagePath(), e.display.getImagePath());
 		}
 	}
 
 	/* Write entity element */
-	private static void createEntityElement(Element parent,
-			Category categoryObject, String exF) throws Exception {
-		int inx = ((BNCategory) categoryObject)
-				.getActionSelectionMechanismIndex();
-		String dynamics = "NODYNAMICS";
-		if (inx == BehaviorNetwork.DYNAMICS)
-			dynamics = "DYNAMICS";
-		else if (inx == BehaviorNetwork.MUTUAL)
-			dynamics = "MUTUAL";
-		else if (inx == BehaviorNetwork.COOPERATIVE)
-			dynamics = "COOPERATIVE";
+	static Element createEntityElement(EntityState categoryObject)
+			throws Exception {
 		Element entity = new Element("entity");
-		entity.addAttribute("displayName", categoryObject.getDisplayName());
-		entity.addAttribute("categoryName", categoryObject.getEntityType());
-		entity.addAttribute("dynamics", dynamics);
-		entity.addAttribute("direction", String.valueOf(categoryObject
-				.getDirection()));
-		entity.addAttribute("xposition", ""
-				+ (int)categoryObject.getPosition().x);
-		entity.addAttribute("yposition", ""
-				+ (int)categoryObject.getPosition().y);
+		entity.addAttribute("displayName", categoryObject.displayName);
+		entity.addAttribute("categoryName", categoryObject.categoryName);
+		entity.addAttribute("dynamics", categoryObject.dynamics);
+		entity.addAttribute("direction", String
+				.valueOf(categoryObject.direction));
+		entity.addAttribute("xposition", "" + categoryObject.x);
+		entity.addAttribute("yposition", "" + categoryObject.y);
+		if (categoryObject.historyDepth > 0)
+			entity.addAttribute("historyDepth", ""
+					+ categoryObject.historyDepth);
 
 		// Display
 		Element displays = new Element("display");
 		
 		Element display = new Element("image");
-		display.addContent(categoryObject.getRelativeImagePath());
+		display.addContent(categoryObject.display.getRelativeImagePath());
 		displays.addContent(display);
 		
 		display = new Element("width");
-		display.addContent(categoryObject.getWidth() + "");
+		display.addContent(categoryObject.display.getWidth() + "");
 		displays.addContent(display);
 		
 		display = new Element("height");
-		display.addContent(categoryObject.getHeight() + "");
+		display.addContent(categoryObject.display.getHeight() + "");
 		displays.addContent(display);
 		
 		display = new Element("direction");
-		display.addContent(String.valueOf(categoryObject
-				.getInitialDisplayDirection()));
+		display.addContent(String.valueOf(categoryObject.display
+				.getDirection()));
 		displays.addContent(display);
 		entity.addContent(displays);
 
-		// Check if the image is already copied to the resource directory
-		// e.g., the application is created for the first time when the image
-		// is not copied to the resource directory yet.
-		StringBuffer resourceFullPath = new StringBuffer().append(
-				new File(exF).getParent()).append(File.separator).append(
-				AppEngine.getInstance().appManager.currentApp
-						.getAppResourceDir()).append(File.separator).append(
-				categoryObject.getRelativeImagePath());
-		String rp = resourceFullPath.toString();
-		if (!new File(rp).exists()) {
-			// Create the file first
-			new File(rp).createNewFile();
-			// Copy the background image
-			sim.util.FileUtils.copyFile(categoryObject.getImagePath(), rp);
-		}
-
 		// Fields
 		Element fields = new Element("fields");
 		entity.addContent(fields);
-		List filds = categoryObject.getOriginalProperties();
+		List filds = categoryObject.fields;
 		for (int i = 0; i < filds.size(); i++) {
 			Property p = (Property) filds.get(i);
 			if (p.name.equals("name") || p.name.equals("iconPath")) {
@@ -452,47 +457,276 @@ public final class AppLoader {
 		// Methods - TO DO: ADD METHODS SECTION
 
 		// Behavior network
-		if (categoryObject instanceof BNCategory) {
+		if (categoryObject.network) {
 			Element bn = new Element("entity-dynamics");
 			entity.addContent(bn);
 
-			BNCategory bnc = (BNCategory) categoryObject;
 			// General dynamics???
-			if (bnc.isSystemDynamicMechanism()) {
-				bn.addContent(bnc.getGeneralDynamics() == null ? "" : bnc
-						.getGeneralDynamics());
+			if (categoryObject.generalDynamics != null) {
+				bn.addContent(categoryObject.generalDynamics);
 			} else {
+				List behaviorList = categoryObject.behaviors;
+				for (int i = 0; i < behaviorList.size(); i++) {
+					createBehaviorElement(bn, (String[]) behaviorList.get(i));
+				}
+
+				Element coef = new Element(categoryObject.coefficientsName);
+				coef.addAttribute("dynamic", String
+						.valueOf(categoryObject.dynamic));
+				coef.addContent(categoryObject.coefficients);
+				bn.addContent(coef);
+
+			}
+		}
+		return entity;
+	}
+
+	/**
+	 * The saved state of the application and of its world. The states are
+	 * copied from the application, so that the elements can be built later on
+	 * another thread, see {@link AppJournal}.
+	 */
+	static final class WorldState {
+
+		final String appName;
+
+		final String resourceDir;
+
+		final String imagePath;
+
+		final String relativeImagePath;
+
+		final int width;
+
+		final int height;
+
+		final int envType;
+
+		/**
+		 * Copy the saved state of the current application
+		 */
+		WorldState() {
+			App app = engineRef.appManager.currentApp;
+			SimulationEnvironment se = engineRef.getSimulationEnvironment();
+			appName = app.getAppName();
+			resourceDir = app.getAppResourceDir();
+			imagePath = se.getImagePath();
+			relativeImagePath = se.getRelativeImagePath();
+			width = se.getWidth();
+			height = se.getHeight();
+			envType = engineRef.system.systemParameters.getEnvType();
+		}
+	}
+
+	/**
+	 * The saved state of a category.
+	 */
+	static final class CategoryState {
+
+		final String name;
+
+		final Display display;
+
+		// Copies of the properties
+		final List fields;
+
+		// Copies of the methods
+		final List methods;
+
+		/**
+		 * Copy the saved state of the category
+		 * 
+		 * @param c
+		 *            The category
+		 */
+		CategoryState(Category c) {
+			name = c.getEntityType();
+			display = c.getDisplay();
+			fields = c.getOriginalProperties();
+			methods = new ArrayList();
+			List all = c.getAllMethods();
+			for (int i = 0; i < all.size(); i++) {
+				CMethod m = (CMethod) all.get(i);
+				methods.add(new CMethod(m.name, m.src));
+			}
+		}
+	}
+
+	/**
+	 * The saved state of an entity.
+	 */
+	static final class EntityState {
+
+		final String displayName;
+
+		final String categoryName;
+
+		final String dynamics;
+
+		final double direction;
+
+		final int x;
+
+		final int y;
+
+		// The behavior history depth, 0 for the default one
+		final int historyDepth;
+
+		final Display display;
+
+		// Copies of the properties
+		final List fields;
+
+		// Whether the entity has the entity dynamics
+		final boolean network;
+
+		// The general dynamics, null for a behavior network
+		final String generalDynamics;
+
+		// Each behavior, "{name, resumable, excitation, action}"
+		final List behaviors = new ArrayList();
+
+		// "weights" or "coefs"
+		final String coefficientsName;
+
+		final boolean dynamic;
+
+		final String coefficients;
+
+		/**
+		 * Copy the saved state of the entity
+		 * 
+		 * @param categoryObject
+		 *            The entity
+		 */
+		EntityState(Category categoryObject) {
+			int inx = ((BNCategory) categoryObject)
+					.getActionSelectionMechanismIndex();
+			String dynamics = "NODYNAMICS";
+			if (inx == BehaviorNetwork.DYNAMICS)
+				dynamics = "DYNAMICS";
+			else if (inx == BehaviorNetwork.MUTUAL)
+				dynamics = "MUTUAL";
+			else if (inx == BehaviorNetwork.COOPERATIVE)
+				dynamics = "COOPERATIVE";
+			this.dynamics = dynamics;
+			displayName = categoryObject.getDisplayName();
+			categoryName = categoryObject.getEntityType();
+			direction = categoryObject.getDirection();
+			Point position = categoryObject.getPosition();
+			x = (int) position.x;
+			y = (int) position.y;
+			display = categoryObject.getDisplay();
+			fields = categoryObject.getOriginalProperties();
+
+			network = categoryObject instanceof BNCategory;
+			BNCategory bnc = network ? (BNCategory) categoryObject : null;
+			if (network && bnc.isSystemDynamicMechanism()) {
+				generalDynamics = bnc.getGeneralDynamics() == null ? ""
+						: bnc.getGeneralDynamics();
+				coefficientsName = null;
+				dynamic = false;
+				coefficients = null;
+				historyDepth = 0;
+			} else if (network) {
+				generalDynamics = null;
+				historyDepth = bnc.getBehaviorHistoryDepth();
 				BehaviorNetwork bnw = bnc.getBehaviorNetwork();
+				Map all = engineRef.system.actionRepository
+						.getAllBehaviorActions();
 				List behaviorList = bnw.getBehaviorList();
 				for (int i = 0; i < behaviorList.size(); i++) {
-					createBehaviorElement(bn, (Behavior) behaviorList.get(i));
+					Behavior b = (Behavior) behaviorList.get(i);
+					Map actionsInBehavior = (Map) all.get(new Integer(b
+							.getMyId()));
+					behaviors.add(new String[] {
+							b.getBehaviorName(),
+							String.valueOf(b.isResumable()),
+							b.getBehaviorEquation(),
+							((BehaviorAction) actionsInBehavior.get(b
+									.getMyId()
+									+ "Action")).getActionString() });
 				}
+				coefficientsName = bnc.isMutualInhibitionMechanism() ? "coefs"
+						: "weights";
+				dynamic = bnw.isDynamic();
+				if (dynamic)
+					coefficients = bnw.getDynamicStr();
+				else if (bnc.isMutualInhibitionMechanism())
+					coefficients = bnw.getCoefficientsString();
+				else
+					coefficients = bnw.getWeightsString();
+			} else {
+				generalDynamics = null;
+				coefficientsName = null;
+				dynamic = false;
+				coefficients = null;
+				historyDepth = 0;
+			}
+		}
+	}
 
-				Element coef = null;
-				if (!(bnc.getActionSelectionMechanism() instanceof MutualInhibitionMechanism)) {
-					coef = new Element("weights");
-					coef.addAttribute("dynamic", String
-							.valueOf(bnw.isDynamic()));
-					if (bnw.isDynamic()) {
-						coef.addContent(bnw.getDynamicStr());
-					} else {
-						coef.addContent(bnw.getWeightsString());
-					}
-				} else {
-					coef = new Element("coefs");
-					coef.addAttribute("dynamic", String
-							.valueOf(bnw.isDynamic()));
-					if (bnw.isDynamic()) {
-						coef.addContent(bnw.getDynamicStr());
-					} else {
-						coef.addContent(bnw.getCoefficientsString());
-					}
-				}
-				bn.addContent(coef);
+	/**
+	 * The batch of new methods of the category of the entities being loaded.
+	 * The methods of the behavior networks of the consecutive entities of a
+	 * category are generated in one new version of the category class, and
+	 * the entities are updated to the new version when the batch is
+	 * committed.
+	 */
+	static final class MethodBatch {
+
+		// The category of the open batch, null if there is none
+		private String categoryName = null;
+
+		// The entities to update when the batch is committed
+		private List entities = new ArrayList();
+
+		/* Open the batch of the category, committing that of another one */
+		void begin(String categoryName) throws Exception {
+			if (categoryName.equals(this.categoryName))
+				return;
+			commit();
+			engineRef.appManager.currentApp.dm.beginMethods(categoryName);
+			this.categoryName = categoryName;
+		}
 
+		/* Update the entity to the new version when the batch is committed */
+		void update(Category entity) {
+			entities.add(entity);
+		}
+
+		/* Commit the open batch if it is not of the given category */
+		void commitOther(String categoryName) throws Exception {
+			if (!categoryName.equals(this.categoryName))
+				commit();
+		}
+
+		/* Commit the open batch, if any, and update its entities */
+		void commit() throws Exception {
+			if (categoryName == null)
+				return;
+			String name = categoryName;
+			List updated = entities;
+			categoryName = null;
+			entities = new ArrayList();
+			engineRef.appManager.currentApp.dm.commitMethods(name);
+			for (int i = 0; i < updated.size(); i++)
+				engineRef.system.updateEntity(name, (Category) updated.get(i));
+		}
+
+		/* Close the open batch without updating its entities */
+		void close() {
+			if (categoryName == null)
+				return;
+			String name = categoryName;
+			categoryName = null;
+			entities.clear();
+			try {
+				engineRef.appManager.currentApp.dm.commitMethods(name);
+			} catch (Exception e) {
+				MessageUtils.debug(this, "close", e);
 			}
 		}
-		parent.addContent(entity);
 	}
 
 	/**
@@ -507,15 +741,34 @@ public final class AppLoader {
 	 */
 	public static String preloadAppDef(String externalFile) throws Exception {
 		File file = new File(externalFile);
-		SAXBuilder builder = new SAXBuilder();
-		Document doc = builder.build(file);
-		Element root = doc.getRootElement();
-		String appName = root.getAttributeValue("name");
-		return appName;
+		final String[] appName = new String[1];
+		// Only the root element is read
+		new ElementStream(new String[0]) {
+			protected void root(Element root) throws Exception {
+				appName[0] = root.getAttributeValue("name");
+				stop();
+			}
+
+			protected void element(String section, Element element) {
+			}
+		}.parse(file);
+		return appName[0];
 	}
 
 	/**
-	 * Load the whole application from the external file
+	 * Load the whole application from the external file.
+	 * 
+	 * <p>
+	 * The file is read as a stream, see {@link ElementStream}. The categories
+	 * and the entities are loaded one by one as they are read, so that the
+	 * memory used while loading does not grow with the size of the file.
+	 * </p>
+	 * 
+	 * <p>
+	 * The images are decoded once per file by the image cache, see
+	 * {@link ImageCache}, while the file is read, and the entities which show
+	 * the same image share it.
+	 * </p>
 	 * 
 	 * @param externalFile
 	 *            The file the app loaded from
@@ -526,33 +779,89 @@ public final class AppLoader {
 	public static void loadAppFromFile(String externalFile) throws Exception {
 
 		// External application file
-		File file = new File(externalFile);
+		final File file = new File(externalFile);
+
+		// The changes saved incrementally are applied first
+		engineRef.journal.reset();
+		AppJournal.recover(file);
+
+		// The images may have changed since they were decoded
+		engineRef.images.clear();
 
-		// Get the directory of the file
-		File fileDir = null;
+		// The methods of the entities are generated in batches
+		final MethodBatch batch = new MethodBatch();
 
 		// Load all information
-		SAXBuilder builder = new SAXBuilder();
-		Document doc = builder.build(file);
-		List elements = doc.getRootElement().getChildren();
-		int size = elements.size();
-		for (int i = 0; i < size; i++) {
-			Element element = (Element) elements.get(i);
-			String elementName = element.getName().trim();
-			if (elementName.equals("shared-parameters")) {
-				loadGlobalElement(/* fileDir, */element);
-				fileDir = new File(file.getParent(), File.separator
-						+ AppEngine.getInstance().appManager.currentApp
-								.getAppResourceDir() + File.separator);
-			} else if (elementName.equals("world")) {
-				loadWorldElement(fileDir, element);
-			} else if (elementName.equals("categories")) {
-				loadCategoriesElement(fileDir, element);
-			} else if (elementName.equals("entities")) {
-				loadEntitiesElement(fileDir, element);
-			}
+		try {
+			loadElements(file, batch);
+			// The entities of the last category are updated
+			batch.commit();
+		} finally {
+			// The batch is left open if the loading failed
+			batch.close();
 		}
 
+		// All images are decoded before the application is shown
+		engineRef.images.waitForAll();
+
+	}
+
+	/* Read the file and load its elements one by one */
+	private static void loadElements(final File file, final MethodBatch batch)
+			throws Exception {
+		new ElementStream(new String[] { "categories", "entities" }) {
+
+			// Get the directory of the file
+			File fileDir = null;
+
+			// The display of the previous entity
+			Display display = null;
+
+			// The displays of the packed entities, in the order of their
+			// numbers
+			List displays = new ArrayList();
+
+			protected void element(String section, Element element)
+					throws Exception {
+				// The batch is committed at the end of the entities
+				if (!section.equals("entities"))
+					batch.commit();
+				if (section.equals("shared-parameters")) {
+					loadGlobalElement(/* fileDir, */element);
+					fileDir = new File(file.getParent(), File.separator
+							+ AppEngine.getInstance().appManager.currentApp
+									.getAppResourceDir() + File.separator);
+					// Reuse the methods compiled in earlier loads
+					engineRef.appManager.currentApp.dm
+							.setBytecodeCacheDirectory(new File(fileDir,
+									BytecodeCache.DIRECTORY));
+				} else if (section.equals("world")) {
+					loadWorldElement(fileDir, element);
+				} else if (section.equals("categories")) {
+					loadCategoryElement(fileDir, element);
+				} else if (section.equals("entities")) {
+					display = loadEntityElement(fileDir, element, display,
+							batch);
+				}
+			}
+
+			protected void entity(String section,
+					BinaryModel.PackedEntity entity) throws Exception {
+				// The display shared by the entities is loaded once
+				if (entity.display != null) {
+					if (entity.displayNumber == displays.size())
+						displays.add(loadDisplayElement(fileDir,
+								entity.display));
+					display = ((Display) displays.get(entity.displayNumber))
+							.copy();
+				}
+				display = loadEntity(entity.displayName, entity.categoryName,
+						entity.dynamics, entity.x, entity.y, entity.direction,
+						parseHistoryDepth(entity
+								.getAttributeValue("historyDepth")), display,
+						entity.content, batch);
+			}
+		}.parse(file);
 	}
 
 	/* Load the global element */
@@ -583,37 +892,18 @@ public final class AppLoader {
 			String name = child.getName().trim();
 			String content = child.getText().trim();
 			if (name.equals("background-image")) {
-				// FIXME: Use a more elegant way to setup the image tracker
-				JComponent c = (JComponent) engineRef
-						.getCategoryUpdateListener();
+				// The image tracker, null in a batch run
+				Component c = engineRef.getImageTracker();
 				File imageP = new File(parentDir, content);
 				se.setImagePath(imageP.getAbsolutePath()); // Full path
 				se.setRelativeImagePath(content);
-				Image image = Toolkit.getDefaultToolkit().createImage(
-						JarResourceLoader.getResource(se.getImagePath(),
-								AppLoader.class));
-				MediaTracker tracker = new MediaTracker(c);
-				try {
-					tracker.addImage(image, 0);
-					tracker.waitForAll();
-				} catch (InterruptedException ee) {
-				}
 				// Adjust the image
-				ImageFilter filter = new WhiteFilter();
-				FilteredImageSource filteredImage = new FilteredImageSource(
-						image.getSource(), filter);
-				image = Toolkit.getDefaultToolkit().createImage(filteredImage);
-				tracker = new MediaTracker(c);
-				try {
-					tracker.addImage(image, 0);
-					tracker.waitForAll();
-				} catch (InterruptedException ee) {
-					ee.printStackTrace();
-				} finally {
-					// The image failed to load. Use the blank image instead.
-					if (image.getWidth(c) <= 0 || image.getHeight(c) <= 0) {
-						image = AppEngine.getInstance().resources.seaImage;
-					}
+				Image image = engineRef.images.loadImage(JarResourceLoader
+						.getResource(se.getImagePath(), AppLoader.class),
+						new WhiteFilter(), c);
+				// The image failed to load. Use the blank image instead.
+				if (image.getWidth(c) <= 0 || image.getHeight(c) <= 0) {
+					image = AppEngine.getInstance().resources.seaImage;
 				}
 				se.setImage(image);
 			} 
@@ -632,18 +922,8 @@ public final class AppLoader {
 		}
 	}
 
-	/* Load the categories element 'categories' and each category */
+	/* Load each category element 'category' of 'categories' */
 	/* parentDir is the directory path of the external app file */
-	private static void loadCategoriesElement(File parentDir, Element element)
-			throws Exception {
-		List categories = element.getChildren();
-		for (int i = 0; i < categories.size(); i++) {
-			Element category = (Element) categories.get(i);
-			loadCategoryElement(parentDir, category);
-		}
-	}
-
-	/* Load each category */
 	private static void loadCategoryElement(File parentDir, Element element)
 			throws Exception {
 		String name = element.getAttributeValue("name");
@@ -733,230 +1013,264 @@ public final class AppLoader {
 
 	}
 
-	/* Load the entities element 'entities' and each entity */
-	private static void loadEntitiesElement(File parentDir, Element element)
+	/*
+	 * Load the behaviors and coefficients of the behavior network of an entity.
+	 * The methods of the behaviors are generated in the open batch of the
+	 * category, see MethodBatch. Return whether the entity should be updated.
+	 */
+	private static boolean loadBehaviorNetworkElement(BNCategory bn,
+			Element element, String categoryName, boolean mutual,
+			boolean cooperative) throws Exception {
+		boolean replace = false;
+		List behaviors = element.getChildren();
+		for (int k = 0; k < behaviors.size(); k++) {
+			Element behavior = (Element) behaviors.get(k);
+			if (behavior.getName().trim().equalsIgnoreCase(
+					"behavior")) {
+				// Load the behavior into behavior repository
+				Behavior b = null;
+				try {
+					b = loadBehaviorElement(bn, behavior);
+				} catch (Exception e) {
+				}
+				// Add the loaded behavior into behavior network
+				engineRef.addBehaviorToNetwork(bn, b.getMyId());
+				// Replace?
+				replace = true;
+			} else if (mutual
+					&& behavior.getName().trim()
+							.equalsIgnoreCase("coefs")) {
+				boolean dynamic = Boolean.valueOf(
+						behavior.getAttributeValue("dynamic"))
+						.booleanValue();
+				String coefStr = behavior.getText();
+				if (dynamic) {
+					bn.getBehaviorNetwork()
+							.setDynamicBehaviorNetwork(coefStr);
+					replace = true;
+					continue;
+				}
+				List coefficients = new ArrayList();
+				StringTokenizer st = new StringTokenizer(
+						coefStr);
+				while (st.hasMoreElements()) {
+					coefficients.add(new Double(Double
+							.parseDouble((String) st
+									.nextElement())));
+				}
+				bn.getBehaviorNetwork()
+						.updateEdgesFromCoefficientsList(true,
+								coefficients);
+			} else if (cooperative
+					&& behavior.getName().trim()
+							.equalsIgnoreCase("weights")) {
+				boolean dynamic = Boolean.valueOf(
+						behavior.getAttributeValue("dynamic"))
+						.booleanValue();
+				String coefStr = behavior.getText();
+				if (dynamic) {
+					bn.getBehaviorNetwork()
+							.setDynamicBehaviorNetwork(coefStr);
+					replace = true;
+					continue;
+				}
+				List coefficients = new ArrayList();
+				StringTokenizer st = new StringTokenizer(
+						coefStr);
+				while (st.hasMoreElements()) {
+					coefficients.add(new Double(Double
+							.parseDouble((String) st
+									.nextElement())));
+				}
+				bn.getBehaviorNetwork()
+						.updateEdgesFromCoefficientsList(false,
+								coefficients);
+			}
+		}
+		return replace;
+	}
+
+	/*
+	 * Load an entity element 'entity'. The display of the previous entity is
+	 * given, and used if the entity has no display element. Return the
+	 * display of the entity.
+	 */
+	private static Display loadEntityElement(File parentDir, Element entity,
+			Display display, MethodBatch batch) throws Exception {
+		List children = entity.getChildren();
+		for (int j = 0; j < children.size(); j++) {
+			Element child = (Element) children.get(j);
+			if (child.getName().trim().equals("display"))
+				display = loadDisplayElement(parentDir, child);
+		}
+		return loadEntity(entity.getAttributeValue("displayName"), entity
+				.getAttributeValue("categoryName"), entity
+				.getAttributeValue("dynamics"), Double.parseDouble(entity
+				.getAttributeValue("xposition")), Double.parseDouble(entity
+				.getAttributeValue("yposition")), Double.parseDouble(entity
+				.getAttributeValue("direction")), parseHistoryDepth(entity
+				.getAttributeValue("historyDepth")), display, children, batch);
+	}
+
+	/* Parse the behavior history depth of an entity, 0 if it is not given */
+	private static int parseHistoryDepth(String depth) {
+		return depth == null ? 0 : Integer.parseInt(depth.trim());
+	}
+
+	/* Load the display element 'display' of an entity */
+	private static Display loadDisplayElement(File parentDir, Element element)
 			throws Exception {
-		// Obtain the image tracker - JComponent
-		// FIXME: Use a more elegant way to setup the image tracker
-		JComponent c = (JComponent) engineRef.getCategoryUpdateListener();
-		List entities = element.getChildren();
-		Display display = null;
-		for (int i = 0; i < entities.size(); i++) {
-
-			/** Whether entities of the category need to update */
-			boolean replace = false;
-
-			/** No dynamics */
-			boolean nodynamics = false;
-
-			/** General dynamics */
-			boolean dyna = false;
-			String code = null;
-
-			/** Mutual inhibition mechanism */
-			boolean mutual = false, cooperative = false;
-
-			Element entity = (Element) entities.get(i);
-			String categoryName = entity.getAttributeValue("categoryName");
-			String dynamics = entity.getAttributeValue("dynamics").trim()
-					.toUpperCase();
-			dyna = dynamics.equals("DYNAMICS");
-			mutual = dynamics.equals("MUTUAL");
-			cooperative = dynamics.equals("COOPERATIVE");
-			nodynamics = dynamics.equals("NODYNAMICS");
-
-			Category categoryObject = (Category) engineRef.appManager.currentApp.dm
-					.getCategory(categoryName);
-			categoryObject.init(c, categoryName, categoryObject.getImagePath());
-			categoryObject.setDirection(Double.parseDouble(entity
-					.getAttributeValue("direction")));
-			categoryObject.setVisible(true);// TO DO:SAVE VISIBILITY
-			String position = entity.getAttributeValue("xposition");
-			double x = Double.parseDouble(position);
-			position = entity.getAttributeValue("yposition");
-			double y = Double.parseDouble(position);
-			categoryObject.setPosition(x, y);
-			categoryObject.setDisplayName(entity
-					.getAttributeValue("displayName"));
-			engineRef.appManager.getCurrentApp().setCurrentEntity(
-					categoryObject);
-
-			// Initialize fields
-			List children = entity.getChildren();
-			for (int j = 0; j < children.size(); j++) {
-				Element child = (Element) children.get(j);
-				if (child.getName().trim().equals("display")) {
-					display = new Display();
-					List displays = child.getChildren();
-					for (int k = 0; k < displays.size(); k++) {
-						Element field = (Element) displays.get(k);
-						String fname = field.getName().trim();
-						String fcontent = field.getText().trim();
-						if (fname.equalsIgnoreCase("image")) {
-							File imageP = new File(parentDir, fcontent);
-							display.setImagePath(imageP.getAbsolutePath());
-							display.setRelativeImagePath(fcontent);
-							Image image = Toolkit.getDefaultToolkit()
-									.createImage(
-											JarResourceLoader.getResource(
-													display.getImagePath(),
-													AppLoader.class));
-							MediaTracker tracker = new MediaTracker(c);
-							try {
-								tracker.addImage(image, 0);
-								tracker.waitForAll();
-							} catch (InterruptedException ee) {
-							}
-							// Adjust the image
-							ImageFilter filter = new WhiteFilter();
-							FilteredImageSource filteredImage = new FilteredImageSource(
-									image.getSource(), filter);
-							image = Toolkit.getDefaultToolkit().createImage(
-									filteredImage);
-							tracker = new MediaTracker(c);
-							try {
-								tracker.addImage(image, 0);
-								tracker.waitForAll();
-							} catch (InterruptedException ee) {
-							}
-							display.setImage(image);
-						} 
-						else if (fname.equalsIgnoreCase("width"))
-							display.setWidth(Integer.parseInt(fcontent));
-						else if (fname.equalsIgnoreCase("height"))
-							display.setHeight(Integer.parseInt(fcontent));
-						else if (fname.equalsIgnoreCase("direction"))
-							display.setDirection(Double.parseDouble(fcontent));
-					}
-				} else if (child.getName().trim().equalsIgnoreCase("fields")) {
-					List fields = child.getChildren();
-					for (int k = 0; k < fields.size(); k++) {
-						Element field = (Element) fields.get(k);
-						int type = categoryObject.getPropertyType(field
-								.getAttributeValue("name"));
-						if (type == PropertyType.NUMBER) {
-							categoryObject.setValue(field
-									.getAttributeValue("name"), new Double(
-									Double.parseDouble(field.getText())));
-							categoryObject.updatePropertyInitial(field
-									.getAttributeValue("name"), new Double(
-									Double.parseDouble(field.getText())));
-						} else if (type == PropertyType.STRING) {
-							categoryObject
-									.setValue(field.getAttributeValue("name"),
-											field.getText());
-							categoryObject
-									.updatePropertyInitial(field
-											.getAttributeValue("name"), field
-											.getText());
-						} else if (type == PropertyType.OBJECT) { // FIXME: HOW
-							// TO HANDLE
-							// THIS?
-							categoryObject
-									.setValue(field.getAttributeValue("name"),
-											field.getText());
-							categoryObject
-									.updatePropertyInitial(field
-											.getAttributeValue("name"), field
-											.getText());
-						}
-					}
-				} else if (child.getName().trim().equalsIgnoreCase(
-						"entity-dynamics")) {
-					BNCategory bn = (BNCategory) categoryObject;
-					if (dyna) {
-						code = child.getText().trim();
-						if (code.equals(""))
-							code = null;
-					} else if (!nodynamics) {
-
-						List behaviors = child.getChildren();
-						for (int k = 0; k < behaviors.size(); k++) {
-							Element behavior = (Element) behaviors.get(k);
-							if (behavior.getName().trim().equalsIgnoreCase(
-									"behavior")) {
-								// Load the behavior into behavior repository
-								Behavior b = null;
-								try {
-									b = loadBehaviorElement(bn, behavior);
-								} catch (Exception e) {
-								}
-								// Add the loaded behavior into behavior network
-								engineRef.addBehaviorToNetwork(bn, b.getMyId());
-								// Replace?
-								replace = true;
-							} else if (mutual
-									&& behavior.getName().trim()
-											.equalsIgnoreCase("coefs")) {
-								boolean dynamic = Boolean.valueOf(
-										behavior.getAttributeValue("dynamic"))
-										.booleanValue();
-								String coefStr = behavior.getText();
-								if (dynamic) {
-									bn.getBehaviorNetwork()
-											.setDynamicBehaviorNetwork(coefStr);
-									replace = true;
-									continue;
-								}
-								List coefficients = new ArrayList();
-								StringTokenizer st = new StringTokenizer(
-										coefStr);
-								while (st.hasMoreElements()) {
-									coefficients.add(new Double(Double
-											.parseDouble((String) st
-													.nextElement())));
-								}
-								bn.getBehaviorNetwork()
-										.updateEdgesFromCoefficientsList(true,
-												coefficients);
-							} else if (cooperative
-									&& behavior.getName().trim()
-											.equalsIgnoreCase("weights")) {
-								boolean dynamic = Boolean.valueOf(
-										behavior.getAttributeValue("dynamic"))
-										.booleanValue();
-								String coefStr = behavior.getText();
-								if (dynamic) {
-									bn.getBehaviorNetwork()
-											.setDynamicBehaviorNetwork(coefStr);
-									replace = true;
-									continue;
-								}
-								List coefficients = new ArrayList();
-								StringTokenizer st = new StringTokenizer(
-										coefStr);
-								while (st.hasMoreElements()) {
-									coefficients.add(new Double(Double
-											.parseDouble((String) st
-													.nextElement())));
-								}
-								bn.getBehaviorNetwork()
-										.updateEdgesFromCoefficientsList(false,
-												coefficients);
-							}
-						}
+		// Obtain the image tracker, null in a batch run
+		Component c = engineRef.getImageTracker();
+		Display display = new Display();
+		List displays = element.getChildren();
+		for (int k = 0; k < displays.size(); k++) {
+			Element field = (Element) displays.get(k);
+			String fname = field.getName().trim();
+			String fcontent = field.getText().trim();
+			if (fname.equalsIgnoreCase("image")) {
+				File imageP = new File(parentDir, fcontent);
+				display.setImagePath(imageP.getAbsolutePath());
+				display.setRelativeImagePath(fcontent);
+				// Adjust the image, it is decoded while loading
+				display.setImage(engineRef.images.getImage(JarResourceLoader
+						.getResource(display.getImagePath(), AppLoader.class),
+						new WhiteFilter(), c));
+			} 
+			else if (fname.equalsIgnoreCase("width"))
+				display.setWidth(Integer.parseInt(fcontent));
+			else if (fname.equalsIgnoreCase("height"))
+				display.setHeight(Integer.parseInt(fcontent));
+			else if (fname.equalsIgnoreCase("direction"))
+				display.setDirection(Double.parseDouble(fcontent));
+		}
+		return display;
+	}
+
+	/*
+	 * Load an entity from its attributes, its display and the elements of its
+	 * content, the fields and the dynamics. The display element, and any
+	 * other item, in the content is skipped. The entity is updated when the
+	 * batch of new methods is committed. Return the display of the entity.
+	 */
+	private static Display loadEntity(String displayName, String categoryName,
+			String dynamics, double x, double y, double direction,
+			int historyDepth, Display display, List children,
+			MethodBatch batch) throws Exception {
+		// Obtain the image tracker, null in a batch run
+		Component c = engineRef.getImageTracker();
+
+		/** Whether entities of the category need to update */
+		boolean replace = false;
+
+		/** No dynamics */
+		boolean nodynamics = false;
+
+		/** General dynamics */
+		boolean dyna = false;
+		String code = null;
+
+		/** Mutual inhibition mechanism */
+		boolean mutual = false, cooperative = false;
+
+		dynamics = dynamics.trim().toUpperCase();
+		dyna = dynamics.equals("DYNAMICS");
+		mutual = dynamics.equals("MUTUAL");
+		cooperative = dynamics.equals("COOPERATIVE");
+		nodynamics = dynamics.equals("NODYNAMICS");
+
+		// The general dynamics use the new methods at once
+		if (dyna)
+			batch.commit();
+		else
+			batch.commitOther(categoryName);
+
+		Category categoryObject = (Category) engineRef.appManager.currentApp.dm
+				.getCategory(categoryName);
+		categoryObject.init(c, categoryName, categoryObject.getImagePath());
+		categoryObject.setDirection(direction);
+		categoryObject.setVisible(true);// TO DO:SAVE VISIBILITY
+		categoryObject.setPosition(x, y);
+		categoryObject.setDisplayName(displayName);
+		engineRef.appManager.getCurrentApp().setCurrentEntity(
+				categoryObject);
+
+		// Initialize fields
+		for (int j = 0; j < children.size(); j++) {
+			if (!(children.get(j) instanceof Element))
+				continue;
+			Element child = (Element) children.get(j);
+			if (child.getName().trim().equalsIgnoreCase("fields")) {
+				List fields = child.getChildren();
+				for (int k = 0; k < fields.size(); k++) {
+					Element field = (Element) fields.get(k);
+					int type = categoryObject.getPropertyType(field
+							.getAttributeValue("name"));
+					if (type == PropertyType.NUMBER) {
+						categoryObject.setValue(field
+								.getAttributeValue("name"), new Double(
+								Double.parseDouble(field.getText())));
+						categoryObject.updatePropertyInitial(field
+								.getAttributeValue("name"), new Double(
+								Double.parseDouble(field.getText())));
+					} else if (type == PropertyType.STRING) {
+						categoryObject
+								.setValue(field.getAttributeValue("name"),
+										field.getText());
+						categoryObject
+								.updatePropertyInitial(field
+										.getAttributeValue("name"), field
+										.getText());
+					} else if (type == PropertyType.OBJECT) { // FIXME: HOW
+						// TO HANDLE
+						// THIS?
+						categoryObject
+								.setValue(field.getAttributeValue("name"),
+										field.getText());
+						categoryObject
+								.updatePropertyInitial(field
+										.getAttributeValue("name"), field
+										.getText());
 					}
 				}
+			} else if (child.getName().trim().equalsIgnoreCase(
+					"entity-dynamics")) {
+				BNCategory bn = (BNCategory) categoryObject;
+				if (dyna) {
+					code = child.getText().trim();
+					if (code.equals(""))
+						code = null;
+				} else if (!nodynamics) {
+					batch.begin(categoryName);
+					replace |= loadBehaviorNetworkElement(bn, child,
+							categoryName, mutual, cooperative);
+				}
 			}
-			if (display != null) {
-				categoryObject.setDisplay(display);
-			}
-			if (!nodynamics && !dyna) {
-				if (mutual)
-					((BNCategory) categoryObject)
-							.setActionSelectionMechanism(new MutualInhibitionMechanism());
-				else if (cooperative)
-					((BNCategory) categoryObject)
-							.setActionSelectionMechanism(new CooperativeMechanism());
-			}
-			engineRef.getCategoryUpdateListener().entityAdded(categoryObject);
-			if (!nodynamics && dyna) {
-				((BNCategory) categoryObject).registerGeneralDynamics(code);
-			}
-			if (replace) {
-				engineRef.system.updateEntity(categoryName, categoryObject);
-			}
 		}
+		if (display != null) {
+			categoryObject.setDisplay(display);
+		}
+		if (!nodynamics && !dyna) {
+			if (mutual)
+				((BNCategory) categoryObject)
+						.setActionSelectionMechanism(new MutualInhibitionMechanism());
+			else if (cooperative)
+				((BNCategory) categoryObject)
+						.setActionSelectionMechanism(new CooperativeMechanism());
+			if (historyDepth > 0)
+				((BNCategory) categoryObject)
+						.setBehaviorHistoryDepth(historyDepth);
+		}
+		engineRef.getCategoryUpdateListener().entityAdded(categoryObject);
+		if (!nodynamics && dyna) {
+			((BNCategory) categoryObject)
+					.setActionSelectionMechanism(new SystemDynamicMechanism());
+			((BNCategory) categoryObject).registerGeneralDynamics(code);
+		}
+		if (replace) {
+			batch.update(categoryObject);
+		}
+		return display;
 	}
 
 }
\ No newline at end of file
@@ -31,13 +31,11 @@ import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.util.ArrayList;
 import java.util.Hashtable;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
-import javax.swing.JComponent;
-
 import sim.model.action.BehaviorActionRepository;
+import sim.model.action.MoveCommand;
 import sim.model.behavior.Behavior;
 import sim.model.behavior.BehaviorNetwork;
 import sim.model.entity.BNCategory;
@@ -96,6 +94,29 @@ public class AppSystem {
 	/* Behavior action repository */
 	public BehaviorActionRepository actionRepository = null;
 
+	/*
+	 * Spatial index of the previous entity positions. A new index is built
+	 * for each time slice, so that a query which is still running on another
+	 * thread keeps using a consistent index.
+	 */
+	private SpatialIndex spatialIndex = null;
+
+	/* IR acceleration structure of the previous entity boxes */
+	private RayCastIndex rayCastIndex = null;
+
+	/*
+	 * Structure version of the entity table. It is increased whenever an
+	 * entity is added, removed or replaced, so that the spatial index is
+	 * rebuilt.
+	 */
+	private int structureVersion = 0;
+
+	/*
+	 * Whether the entities are acting in parallel, see
+	 * <code>ParallelTick</code>. The entity table can not be changed then.
+	 */
+	private volatile boolean parallelPhase = false;
+
 	/**
 	 * Reset the simulation and re-initialize all entities to the initial state
 	 * 
@@ -109,6 +130,7 @@ public class AppSystem {
 		// The initial states should be reset to the states when an entity
 		// is added to the system.
 		data.reset();
+		structureChanged();
 
 		for (int i = 0; i < entityList.size(); i++) {
 
@@ -151,6 +173,7 @@ public class AppSystem {
 	 *            The entity's name
 	 */
 	public void addEntity(Entity entity) {
+		checkStructureMutable();
 		// Initialize the entity
 		entity.init();
 		// Initialize id
@@ -327,24 +350,10 @@ public class AppSystem {
 	 */
 	public Entity getClosestEntityByType(Entity fromEntity, String type,
 			int time, double searchRadius) {
-		// !! to do - determine the closest entity based on the time instant
-		List entitiesOfType = (List) entityTypesTable.get(type);
-		Entity resultEntity = null;
-		double closestDistance = Double.MAX_VALUE;
-		if (entitiesOfType != null) // there exist entities of this type
-			for (int i = 0; i < entitiesOfType.size(); i++) {
-				Entity current = (Entity) entitiesOfType.get(i);
-
-				if ((current == fromEntity) || !current.isActive())
-					continue;
-				double distance = fromEntity.getPosition().dist(
-						getPreviousEntityPosition(current, time));
-				if (distance < closestDistance && distance <= searchRadius) {
-					closestDistance = distance;
-					resultEntity = current;
-				}
-			}
-		return resultEntity;
+		if (entityTypesTable.get(type) == null) // no entities of this type
+			return null;
+		return getSpatialIndex(time).closest(this, fromEntity, type,
+				searchRadius);
 	}
 
 	/**
@@ -380,28 +389,8 @@ public class AppSystem {
 	 */
 	public Entity getClosestEntity(Entity fromEntity, int time,
 			double searchRadius) {
-		Iterator types = entityTypesTable.keySet().iterator();// All types
-		double closestDistance = Double.MAX_VALUE; // The closest distance
-		Entity resultEntity = null; // The closest entity
-		while (types.hasNext()) {
-			String type = (String) types.next();
-			List entitiesOfType = (List) entityTypesTable.get(type);// Entities
-			// of that
-			// type
-			if (entitiesOfType != null) // There exist entities of this type
-				for (int i = 0; i < entitiesOfType.size(); i++) {
-					Entity current = (Entity) entitiesOfType.get(i);
-					if ((current == fromEntity) || !current.isActive())
-						continue;
-					double distance = fromEntity.getPosition().dist(
-							getPreviousEntityPosition(current, time));
-					if (distance < closestDistance && distance <= searchRadius) {
-						closestDistance = distance;
-						resultEntity = current;
-					}
-				}
-		}
-		return resultEntity;
+		return getSpatialIndex(time).closest(this, fromEntity, null,
+				searchRadius);
 	}
 
 	/**
@@ -420,26 +409,60 @@ public class AppSystem {
 	 */
 	public List getEntitiesWithinDistance(Entity fromEntity, int time,
 			double searchRadius) {
-		List ret = new ArrayList(); // The result list
-		Iterator types = entityTypesTable.keySet().iterator();// All types
-		while (types.hasNext()) {
-			String type = (String) types.next();
-			List entitiesOfType = (List) entityTypesTable.get(type);// Entities
-			// of that
-			// type
-			if (entitiesOfType != null) // There exist entities of this type
-				for (int i = 0; i < entitiesOfType.size(); i++) {
-					Entity current = (Entity) entitiesOfType.get(i);
-					if ((current == fromEntity) || !current.isActive())
-						continue;
-					double distance = fromEntity.getPosition().dist(
-							getPreviousEntityPosition(current, time));
-					if (distance <= searchRadius) {
-						ret.add(current);
-					}
-				}
+		return getSpatialIndex(time).withinDistance(this, fromEntity,
+				searchRadius);
+	}
+
+	/**
+	 * Return the spatial index of the previous entity positions for the given
+	 * time slice. The index is rebuilt once per time slice, or when the entity
+	 * table is changed.
+	 * 
+	 * @param time
+	 *            The time slice
+	 * @return The spatial index
+	 */
+	private synchronized SpatialIndex getSpatialIndex(int time) {
+		SpatialIndex index = spatialIndex;
+		if (index == null || !index.isValid(time, structureVersion)) {
+			index = new SpatialIndex();
+			index.rebuild(entityTypesTable, data, time, structureVersion);
+			spatialIndex = index;
 		}
-		return ret;
+		return index;
+	}
+
+	/**
+	 * Notify that the entity table or the simulation data is changed, the
+	 * spatial index will be rebuilt on the next query.
+	 */
+	private synchronized void structureChanged() {
+		structureVersion++;
+		spatialIndex = null;
+		rayCastIndex = null;
+	}
+
+	/**
+	 * Specify whether the entities are acting in parallel. The entity table
+	 * can not be changed during that phase.
+	 * 
+	 * @param parallel
+	 *            Whether the entities are acting in parallel
+	 */
+	void setParallelPhase(boolean parallel) {
+		this.parallelPhase = parallel;
+	}
+
+	/**
+	 * Make sure the entity table can be changed.
+	 * 
+	 * @throws RuntimeException
+	 *             If the entities are acting in parallel
+	 */
+	private void checkStructureMutable() {
+		if (parallelPhase)
+			throw new RuntimeException(
+					"Entities can not be added, removed or replaced in the parallel computation.");
 	}
 
 	/**
@@ -452,13 +475,10 @@ public class AppSystem {
 	 * @return The position
 	 */
 	public Point getEntityPosition(Entity entity, int time) {
-		EntityRecord record = data.getEntityRecord(entity, time);
-		Point position;
-		if (record == null)
-			position = new Point(entity.getPosition());
-		else
-			position = record.position;
-		return position;
+		EntityRecord record = new EntityRecord();
+		if (!data.getEntityRecord(entity, time, record))
+			return new Point(entity.getPosition());
+		return record.position;
 	}
 
 	/**
@@ -472,13 +492,10 @@ public class AppSystem {
 	 * @return The previous position
 	 */
 	public Point getPreviousEntityPosition(Entity entity, int time) {
-		EntityRecord record = data.getPreviousEntityRecord(entity, time);
-		Point position;
-		if (record == null || record.position == null)
-			position = new Point(entity.getPosition());
-		else
-			position = record.position;
-		return position;
+		EntityRecord record = new EntityRecord();
+		if (!data.getPreviousEntityRecord(entity, time, record))
+			return new Point(entity.getPosition());
+		return record.position;
 	}
 
 	/**
@@ -491,7 +508,7 @@ public class AppSystem {
 	 * @return The entity state
 	 */
 	public int getEntityState(Entity entity, int timeslice) {
-		return data.getEntityRecord(entity, timeslice).state;
+		return data.getEntityState(entity, timeslice);
 	}
 
 	/**
@@ -519,9 +536,11 @@ public class AppSystem {
 	 *            The entity to remove
 	 */
 	public void removeEntity(Entity entity) {
+		checkStructureMutable();
 		entityList.remove(entity);
 		removeEntityFromType(entity);
 		data.remove(entity);
+		structureChanged();
 	}
 
 	/**
@@ -548,6 +567,7 @@ public class AppSystem {
 		List entitiesOfType = (List) entityTypesTable.get(entity
 				.getEntityType());
 		entitiesOfType.remove(entity);
+		structureChanged();
 	}
 
 	/**
@@ -628,6 +648,7 @@ public class AppSystem {
 	 *            entities to be redefined.
 	 */
 	public void updateEntities(String oldName, String newName) throws Exception {
+		checkStructureMutable();
 		AppEngine engine = AppEngine.getInstance();
 		Category old = null;
 		Category newE = null;
@@ -651,8 +672,7 @@ public class AppSystem {
 				// Copy general states
 				old.copyState(newE);
 				// Re-initialize with new special states
-				newE.init((JComponent) engine.getCategoryUpdateListener(),
-						newName, newIconPath);
+				newE.init(engine.getImageTracker(), newName, newIconPath);
 				newE.setDisplayName(newDisplayName);
 				newE.setId(id);
 				newE.setDisplay(display);
@@ -664,7 +684,8 @@ public class AppSystem {
 				// If successfully, replace the old one with the new one
 				entityList.set(i, newE);
 				// Initialize simulation data
-				data.put(newE, data.getEntityRecord(old));
+				data.replace(old, newE);
+				structureChanged();
 				// Handle type of entities
 				if (entityTypesTable.containsKey(oldName)) {
 					List entitiesOfType = (List) entityTypesTable.get(oldName);
@@ -705,6 +726,7 @@ public class AppSystem {
 	 */
 	public Category updateEntity(String categoryName, Category toUpdate)
 			throws Exception {
+		checkStructureMutable();
 		AppEngine engine = AppEngine.getInstance();
 		Category old = null;
 		Category newE = null;
@@ -732,8 +754,7 @@ public class AppSystem {
 				// Copy general states
 				old.copyState(newE);
 				// Re-initialize with new special states
-				newE.init((JComponent) engine.getCategoryUpdateListener(),
-						categoryName, newIconPath);
+				newE.init(engine.getImageTracker(), categoryName, newIconPath);
 				newE.setDisplayName(newDisplayName);
 				newE.setId(id);
 				newE.setDisplay(display);
@@ -746,7 +767,8 @@ public class AppSystem {
 				// If successfully, replace the old one with the new one
 				entityList.set(i, newE);
 				// Initialize simulation data
-				data.put(newE, data.getEntityRecord(old));
+				data.replace(old, newE);
+				structureChanged();
 				// Handle type of entities
 				if (entityTypesTable.containsKey(categoryName)) {
 					List entitiesOfType = (List) entityTypesTable
@@ -774,6 +796,13 @@ public class AppSystem {
 		return systemParameters.getTotalTimeticks();
 	}
 
+	/**
+	 * Get the default number of time steps kept in the behavior history
+	 */
+	public int getBehaviorHistoryDepth() {
+		return systemParameters.getBehaviorHistoryDepth();
+	}
+
 	/**
 	 * Add an entity to the entity table
 	 * 
@@ -791,6 +820,7 @@ public class AppSystem {
 			entitiesOfType.add(entity);
 			entityTypesTable.put(entity.getEntityType(), entitiesOfType);
 		}
+		structureChanged();
 	}
 	
 	/**
@@ -803,7 +833,7 @@ public class AppSystem {
 	 */
 	public void changeEntityInitialParameters(Entity e, Map initialPos) {
 
-		EntityRecord record = data.getEntityRecord2(e, 0);
+		EntityRecord record = new EntityRecord();
 		
 		if (initialPos != null) {
 			Point pos = (Point)initialPos.get(new Integer(e.getMyId()));
@@ -818,6 +848,7 @@ public class AppSystem {
 		record.state = e.getState();
 		record.display = e.getDisplay();
 		data.store(e, record, 0);
+		structureChanged();
 
 	}
 
@@ -845,7 +876,7 @@ public class AppSystem {
 	 *            The type of the turn (CLOCKWISE or COUNTERCLOCKWISE)
 	 */
 	public void turnWithAngularSpeed(double angularSpeed, int type) {
-		Entity e = AppEngine.getInstance().appManager.currentApp.currentEntity;
+		Entity e = AppEngine.getInstance().getCurrentEntity();
 		if (type == SystemFunction.ROTATECOUNTERCLOCKWISE)
 			e.setDirection(e.getDirection() + angularSpeed);
 		else if (type == SystemFunction.ROTATECLOCKWISE)
@@ -869,6 +900,23 @@ public class AppSystem {
 		return speed + "," + angle + "," + type;
 	}
 
+	/**
+	 * Return a movement command which reflects the moving speed and angle. It
+	 * is what the <code>move</code> system functions hand to the action
+	 * selection mechanisms, instead of the speed vector string.
+	 * 
+	 * @param speed
+	 *            Moving speed
+	 * @param angle
+	 *            Moving direction
+	 * @param type
+	 *            The type of move (<code>MOVEFORWARD, MOVEBACKWARD</code>)
+	 * @return movement command
+	 */
+	public MoveCommand getMoveCommand(double speed, double angle, int type) {
+		return new MoveCommand(speed, angle, type);
+	}
+
 	/**
 	 * Move at the specified speed and angle(direction). It is mainly used in
 	 * the general simulation, since the move (position change) will be
@@ -964,15 +1012,47 @@ public class AppSystem {
 			Fdistance = temp;
 
 		// check the distances to other entities
-		for (int i = 0; i < entityList.size(); i++) {
-			Entity e = (Entity) entityList.get(i);
-			if (e.getMyId() != entityID && e.isActive()) {
-				temp = _getIRDistanceToEntity(e, Sa, Sx, Sy);
-				if (temp < Fdistance)
-					Fdistance = temp;
-			}
+		return getRayCastIndex().cast(entityID, null, Sa, Sx, Sy, Fdistance);
+	}
+
+	/**
+	 * Get the closest IR distances of a fan of rays from the given source to
+	 * all other entities, including the simulation environment. It is the
+	 * same as calling {@link #getIRDistance(int, double, double, double)} for
+	 * each direction, but the walls, the source entity and the boxes of other
+	 * entities are handled only once for all rays.
+	 * 
+	 * @param entityID
+	 *            The id of the source
+	 * @param directions
+	 *            The directions of the rays
+	 * @param posX
+	 *            The position x of the source
+	 * @param posY
+	 *            The position y of the source
+	 * @param distances
+	 *            The array to store the closest IR distance of each ray, it
+	 *            should not be shorter than <code>directions</code>
+	 */
+	public void getIRDistances(int entityID, double[] directions,
+			double posX, double posY, double[] distances) {
+		if (distances.length < directions.length)
+			throw new IllegalArgumentException(
+					"The distance array is shorter than the direction array.");
+
+		// check the distances to the surrounding walls
+		double[] box = _getEnvironmentBox();
+		for (int i = 0; i < directions.length; i++) {
+			double temp = _getIRDistanceToEnvironment(box, directions[i],
+					posX, posY);
+			distances[i] = Double.POSITIVE_INFINITY;
+			if (temp < distances[i])
+				distances[i] = temp;
 		}
-		return Fdistance;
+
+		// check the distances to other entities
+		getRayCastIndex().castAll(entityID, null, directions, posX, posY,
+				distances);
 	}
 
 	/**
@@ -996,19 +1076,39 @@ public class AppSystem {
 	 */
 	public double getIRDistanceToCategory(int entityID, double direction,
 			double positionX, double positionY, String catName) {
-		double Fdistance = Double.MAX_VALUE;
 		// check the distances to other entities
-		for (int i = 0; i < entityList.size(); i++) {
-			Category e = (Category) entityList.get(i);
-			if (e.getEntityType().equals(catName) && e.getMyId() != entityID
-					&& e.isActive()) {
-				double temp = _getIRDistanceToEntity(e, direction, positionX,
-						positionY);
-				if (temp < Fdistance)
-					Fdistance = temp;
-			}
-		}
-		return Fdistance;
+		return getRayCastIndex().cast(entityID, catName, direction,
+				positionX, positionY, Double.MAX_VALUE);
+	}
+
+	/**
+	 * Get the closest IR distances of a fan of rays from the specified entity
+	 * to all other entities belonging to the given category.
+	 * 
+	 * @param entityID
+	 *            The id of the source entity which will not be included in the
+	 *            final result.
+	 * @param directions
+	 *            The directions of the rays
+	 * @param posX
+	 *            The position x of the source entity
+	 * @param posY
+	 *            The position y of the source entity
+	 * @param catName
+	 *            The category name of destination entities
+	 * @param distances
+	 *            The array to store the closest IR distance of each ray, it
+	 *            should not be shorter than <code>directions</code>
+	 */
+	public void getIRDistancesToCategory(int entityID, double[] directions,
+			double posX, double posY, String catName, double[] distances) {
+		if (distances.length < directions.length)
+			throw new IllegalArgumentException(
+					"The distance array is shorter than the direction array.");
+		for (int i = 0; i < directions.length; i++)
+			distances[i] = Double.MAX_VALUE;
+		getRayCastIndex().castAll(entityID, catName, directions, posX, posY,
+				distances);
 	}
 
 	/**
@@ -1024,16 +1124,16 @@ public class AppSystem {
 	 */
 	private double _getIRDistanceToEnvironment(double direction, double pX,
 			double pY) {
-		return _getIRDistanceOfRectangleShape(direction, pX, pY, env
-				.getHeight() / 2, env.getWidth() / 2, 0.0D,
-				env.getHeight() / 2, env.getWidth() / 2);
+		return _getIRDistanceToEnvironment(_getEnvironmentBox(), direction,
+				pX, pY);
 	}
 
 	/**
-	 * Return the IR distance from the source to the given entity.
+	 * Return the IR distance from the source to the given edges of the
+	 * simulation environment.
 	 * 
-	 * @param entity
-	 *            The destination (entity)
+	 * @param box
+	 *            The edges of the simulation environment
 	 * @param direction
 	 *            The source direction
 	 * @param pX
@@ -1042,142 +1142,43 @@ public class AppSystem {
 	 *            The source coordination y
 	 * @return IR distance
 	 */
-	private double _getIRDistanceToEntity(Entity entity, double direction,
-			double pX, double pY) {
-		return _getIRDistanceOfRectangleShape(direction, pX, pY, entity
-				.getHeight() / 2, entity.getWidth() / 2, entity.getDirection(),
-				entity.getPosition().x, entity.getPosition().y);
+	private double _getIRDistanceToEnvironment(double[] box,
+			double direction, double pX, double pY) {
+		double cosA = Math.cos(direction), sinA = Math.sin(direction);
+		return RayCastIndex.distanceToBox(box, 0, sinA, -1 * cosA, pY * cosA
+				- pX * sinA, cosA, sinA, pX, pY);
 	}
 
 	/**
-	 * Get the distance from (Fx, Fy, Fa) to the boundary of the given object
-	 * (entity or simulation environment). It is similar to the IR distance used
-	 * by robots to detect obstacles.
-	 * 
-	 * In the case of the shape of the object is rectangle.
-	 * 
-	 * @param pX
-	 *            The coordination Fx of the source
-	 * @param pY
-	 *            The coordination Fy of the source
-	 * @param direction
-	 *            The angle of source
-	 * @param LhalfSize
-	 *            Half of the destination object height
-	 * @param WhalfSize
-	 *            Half of the destination object width
-	 * @param Angle
-	 *            Moving direction of the dest. object
-	 * @param posX
-	 *            The coordination x of the dest.
-	 * @param posY
-	 *            The coordination y of the dest.
+	 * Return the four edges of the simulation environment.
 	 * 
-	 * @return the distance
+	 * @return The edges of the simulation environment
 	 */
-	private double _getIRDistanceOfRectangleShape(double direction, double pX,
-			double pY, double LhalfSize, double WhalfSize, double Angle,
-			double posX, double posY) {
-		double Fx = pX, Fy = pY, Fa = direction;
-		double Fdistance = Double.POSITIVE_INFINITY, temp;
-		double a1, b1, c1, a2, b2, c2; // each line is described by a*x+b*y+c=0
-		double XBs, XBl, YBs, YBl; // boundary of a segment of a line
-
-		a1 = Math.sin(Fa);
-		b1 = -1 * Math.cos(Fa);
-		c1 = Fy * Math.cos(Fa) - Fx * Math.sin(Fa);
-
-		// check the distance to this worldEntity's front edge
-		a2 = Math.cos(Angle);
-		b2 = Math.sin(Angle);
-		c2 = -1 * LhalfSize - posX * Math.cos(Angle) - posY * Math.sin(Angle);
-		XBs = posX + LhalfSize * Math.cos(Angle) - WhalfSize
-				* Math.abs(Math.sin(Angle));
-		XBl = posX + LhalfSize * Math.cos(Angle) + WhalfSize
-				* Math.abs(Math.sin(Angle));
-		YBs = posY + LhalfSize * Math.sin(Angle) - WhalfSize
-				* Math.abs(Math.cos(Angle));
-		YBl = posY + LhalfSize * Math.sin(Angle) + WhalfSize
-				* Math.abs(Math.cos(Angle));
-		temp = _calcuDist(a1, b1, c1, a2, b2, c2, XBs, XBl, YBs, YBl, Fx, Fy,
-				Fa);
-		if (temp < Fdistance)
-			Fdistance = temp;
-		// check the distance to this worldEntity's back edge
-		a2 = Math.cos(Angle);
-		b2 = Math.sin(Angle);
-		c2 = LhalfSize - posX * Math.cos(Angle) - posY * Math.sin(Angle);
-		XBs = posX - LhalfSize * Math.cos(Angle) - WhalfSize
-				* Math.abs(Math.sin(Angle));
-		XBl = posX - LhalfSize * Math.cos(Angle) + WhalfSize
-				* Math.abs(Math.sin(Angle));
-		YBs = posY - LhalfSize * Math.sin(Angle) - WhalfSize
-				* Math.abs(Math.cos(Angle));
-		YBl = posY - LhalfSize * Math.sin(Angle) + WhalfSize
-				* Math.abs(Math.cos(Angle));
-		temp = _calcuDist(a1, b1, c1, a2, b2, c2, XBs, XBl, YBs, YBl, Fx, Fy,
-				Fa);
-		if (temp < Fdistance)
-			Fdistance = temp;
-		// check the distance to this worldEntity's right edge
-		a2 = Math.sin(Angle);
-		b2 = -1 * Math.cos(Angle);
-		c2 = -1 * WhalfSize - posX * Math.sin(Angle) + posY * Math.cos(Angle);
-		XBs = posX + WhalfSize * Math.sin(Angle) - LhalfSize
-				* Math.abs(Math.cos(Angle));
-		XBl = posX + WhalfSize * Math.sin(Angle) + LhalfSize
-				* Math.abs(Math.cos(Angle));
-		YBs = posY - WhalfSize * Math.cos(Angle) - LhalfSize
-				* Math.abs(Math.sin(Angle));
-		YBl = posY - WhalfSize * Math.cos(Angle) + LhalfSize
-				* Math.abs(Math.sin(Angle));
-		temp = _calcuDist(a1, b1, c1, a2, b2, c2, XBs, XBl, YBs, YBl, Fx, Fy,
-				Fa);
-		if (temp < Fdistance)
-			Fdistance = temp;
-		// check the distance to this worldEntity's left edge
-		a2 = Math.sin(Angle);
-		b2 = -1 * Math.cos(Angle);
-		c2 = WhalfSize - posX * Math.sin(Angle) + posY * Math.cos(Angle);
-		XBs = posX - WhalfSize * Math.sin(Angle) - LhalfSize
-				* Math.abs(Math.cos(Angle));
-		XBl = posX - WhalfSize * Math.sin(Angle) + LhalfSize
-				* Math.abs(Math.cos(Angle));
-		YBs = posY + WhalfSize * Math.cos(Angle) - LhalfSize
-				* Math.abs(Math.sin(Angle));
-		YBl = posY + WhalfSize * Math.cos(Angle) + LhalfSize
-				* Math.abs(Math.sin(Angle));
-		temp = _calcuDist(a1, b1, c1, a2, b2, c2, XBs, XBl, YBs, YBl, Fx, Fy,
-				Fa);
-		if (temp < Fdistance)
-			Fdistance = temp;
-
-		return Fdistance;
+	private double[] _getEnvironmentBox() {
+		double[] box = new double[RayCastIndex.BOX];
+		RayCastIndex.computeBox(env.getHeight() / 2, env.getWidth() / 2, 0.0D,
+				env.getHeight() / 2, env.getWidth() / 2, box, 0);
+		return box;
 	}
 
-	private double _calcuDist(double a1, double b1, double c1, double a2,
-			double b2, double c2, double XBs, double XBl, double YBs,
-			double YBl, double Sx, double Sy, double Sa) {
-		double intectX, intectY, D;
-		if ((a1 * b2 - a2 * b1) == 0)
-			return Double.POSITIVE_INFINITY; // two lines are parallel
-		else {
-			intectX = (b1 * c2 - c1 * b2) / (a1 * b2 - a2 * b1);
-			intectY = (c1 * a2 - a1 * c2) / (a1 * b2 - a2 * b1);
-			D = Math.sqrt((intectX - Sx) * (intectX - Sx) + (intectY - Sy)
-					* (intectY - Sy));
-			// check the intersection point is at "front" or "back"
-			if ((intectX - Sx) * Math.cos(Sa) < 0
-					|| (intectY - Sy) * Math.sin(Sa) < 0)
-				return Double.POSITIVE_INFINITY;
-			else { // check if the intersection point is inside the boundary
-				if ((int) (intectX) < (int) XBs || (int) (intectX) > (int) XBl
-						|| (int) (intectY) < (int) YBs
-						|| (int) (intectY) > (int) YBl)
-					return Double.POSITIVE_INFINITY;
-				else
-					return D;
+	/**
+	 * Return the IR acceleration structure for the current time slice. The
+	 * boxes of the entities are computed from their previous records once per
+	 * time slice, or when the entity list is changed.
+	 * 
+	 * @return The IR acceleration structure
+	 */
+	private RayCastIndex getRayCastIndex() {
+		Entity current = AppEngine.getInstance().getCurrentEntity();
+		int time = current == null ? 0 : current.getTime();
+		synchronized (this) {
+			RayCastIndex index = rayCastIndex;
+			if (index == null || !index.isValid(time, structureVersion)) {
+				index = new RayCastIndex();
+				index.rebuild(entityList, data, time, structureVersion);
+				rayCastIndex = index;
 			}
+			return index;
 		}
 	}
 
@@ -1192,12 +1193,15 @@ public class AppSystem {
 	 * @param timeslice The updated time step
 	 */
 	public void populatePositions(Map positions, int timeslice) {
+		EntityRecord record = new EntityRecord();
 		for (int m = 0; m < entityList.size(); m++) {
 			Entity entity = (Entity) entityList.get(m);
-			EntityRecord record = data.getEntityRecord(entity, timeslice);
-			if (record == null)
-				return;
-			positions.put(new Integer(entity.getMyId()), record.position);
+			Integer id = new Integer(entity.getMyId());
+			if (!data.getEntityRecord(entity, timeslice, record)) {
+				positions.remove(id);
+				continue;
+			}
+			positions.put(id, new Point(record.position));
 		}
 	}
 	
@@ -1211,17 +1215,18 @@ public class AppSystem {
 	 */
 	public void drawAvailableEntities(Graphics g, int timeslice) {
 		Graphics2D g2 = (Graphics2D) g;
+		// Shared by all entities, the values are copied from the data
+		EntityRecord record = new EntityRecord();
 		for (int m = 0; m < entityList.size(); m++) {
 			Entity entity = (Entity) entityList.get(m);
-			EntityRecord record = data.getEntityRecord(entity, timeslice);
-			if (record == null)
+			if (!data.getEntityRecord(entity, timeslice, record))
 				return;
 			Point currentPosition = record.position;
 			double direction = record.direction;
 			Display display = record.display;
-			if (currentPosition == null || display == null)
+			if (display == null)
 				return;
-			int state = this.getEntityState(entity, timeslice);
+			int state = record.state;
 			if (entity.isVisible()) {
 				if (timeslice == 0)
 					direction = display.getDirection();
@@ -1240,13 +1245,13 @@ public class AppSystem {
 	 */
 	public void updatePositionOfEntities( int timeslice ) {
 		
+		EntityRecord record = new EntityRecord();
 		for (int m = 0; m < entityList.size(); m++) {
 			Entity entity = (Entity) entityList.get(m);
-			EntityRecord record = data.getEntityRecord(entity, timeslice);
-			if (record == null)
+			if (!data.getEntityRecord(entity, timeslice, record))
 				continue;
 			entity.setDirection(record.direction);
-			entity.setPosition(record.position);
+			entity.setPosition(record.position.x, record.position.y);
 			entity.setDisplay(record.display);
 			entity.setState(record.state);
 		}
@@ -28,8 +28,6 @@ package sim.core;
 import java.io.File;
 import java.util.TimerTask;
 
-import sim.util.MessageUtils;
-
 /**
  * Application periodic saving task.
  * 
@@ -73,7 +71,8 @@ public class AppTask extends TimerTask {
 	}
 
 	/**
-	 * Save the current configuration
+	 * Save the current configuration. Only the changes are saved, at the next
+	 * tick boundary and in the background, see {@link AppJournal}.
 	 */
 	protected void saveFile() {
 		boolean isDirty = false;
@@ -92,25 +91,9 @@ public class AppTask extends TimerTask {
 		if (dir == null || !isDirty) {
 			return;
 		} else {
-			saveAsFile0(dir
-					+ File.separator
-					+ AppEngine.getInstance().appManager.currentApp
-							.getAppFileName());
-		}
-	}
-
-	/**
-	 * Save the current configuration into the external file
-	 * 
-	 * @param path
-	 *            The full path of the configuration file
-	 */
-	private void saveAsFile0(String path) {
-		if (AppEngine.getInstance().saveAppAsFile(path)) {
-			MessageUtils
-					.displayNormal("The application is saved successfully.");
-			AppEngine.getInstance().setAppStatus(sim.core.App.CLEAN);
-			return;
+			App app = AppEngine.getInstance().appManager.currentApp;
+			AppEngine.getInstance().journal.save(dir + File.separator
+					+ app.getAppFileName());
 		}
 	}
 
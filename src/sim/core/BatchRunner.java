@@ -0,0 +1,429 @@
+/*
+ * BehaviorSim - version 1.0 
+ * 
+ * Copyright (C) 2010 The BehaviorSim Development Team, fasheng@cs.gsu.edu.
+ * 
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * 
+ * Info, Questions, Suggestions & Bugs Report to fasheng@cs.gsu.edu.
+ *  
+ */
+
+package sim.core;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import sim.model.entity.BNCategory;
+import sim.model.entity.Category;
+import sim.model.entity.Entity;
+import sim.model.entity.PropertyType;
+import sim.model.entity.SystemFunction;
+import sim.util.MessageUtils;
+
+/**
+ * Headless batch runner of the simulation. The application is loaded from
+ * its configuration file through <code>AppLoader</code> and the given number
+ * of time steps is computed without any views, dialogs or the display thread.
+ * A summary of the run is written to the standard output, and the states of
+ * all the entities in each time step are optionally written to a file.
+ * 
+ * <p>
+ * Usage:
+ * <code>java sim.core.BatchRunner [-seed n] [-set Category.property=value]... [-record run.bstr] app.xml timesteps [trajectory.csv]</code>
+ * </p>
+ * 
+ * With a seed, the entities start from random positions and directions, and
+ * the random generator of <code>SystemFunction</code> is seeded, so that the
+ * run can be repeated. The initial value of a property of all the entities of
+ * a category is replaced by <code>-set</code>. The time steps are recorded
+ * by <code>TrajectoryRecorder</code> with <code>-record</code>.
+ * 
+ * The <code>SIM_HOME</code> property is the current directory if it is not
+ * given. The parallel computation is used if it is enabled in
+ * behaviorsim.properties. The number of the live versions of the dynamic
+ * classes is reported if the <code>sim.classVersions</code> property is
+ * <code>true</code>, which triggers a garbage collection.
+ * 
+ * @version 1.0
+ */
+public class BatchRunner {
+
+	// Property which enables the report of the live class versions
+	private static final String CLASS_VERSIONS = "sim.classVersions";
+
+	// Application engine
+	private AppEngine engine = AppEngine.getInstance();
+
+	// Writer of the states in each time step, null if they are not written
+	private PrintWriter trajectory = null;
+
+	// Recorder of the time steps, null if they are not recorded
+	private TrajectoryRecorder recorder = null;
+
+	/**
+	 * Entity sink for the application loader. It is not a component, so that
+	 * the images are loaded without an image tracker.
+	 */
+	private static class HeadlessWorld implements CategoryUpdateListener {
+
+		public void categoryAdded(Category newCategory) {
+			newCategory.init(null, newCategory.getEntityType(), newCategory
+					.getImagePath());
+		}
+
+		public void categoryDeleted(String categoryName) {
+		}
+
+		public void categoryUpdated(String oldCategoryName, Category newCategory) {
+			categoryAdded(newCategory);
+		}
+
+		public void entityAdded(Entity newEntity) {
+			AppEngine.getInstance().addEntity(newEntity);
+		}
+
+		public void entityUpdated() {
+		}
+
+	}
+
+	/**
+	 * Constructor. The engine is initialized with the class path under
+	 * <code>SIM_HOME</code>.
+	 * 
+	 * @throws Exception
+	 *             If the engine can not be initialized
+	 */
+	public BatchRunner() throws Exception {
+		engine.init(System.getProperty("SIM_HOME"));
+		engine.registerCategoryUpdateListener(new HeadlessWorld());
+	}
+
+	/**
+	 * Load the application from the given configuration file and make it the
+	 * current application.
+	 * 
+	 * @param xml
+	 *            The application configuration file
+	 * @throws Exception
+	 *             If the application can not be loaded
+	 */
+	public void load(String xml) throws Exception {
+		File file = new File(xml).getAbsoluteFile();
+		App app = engine.appManager.newApp();
+		app.setAppDir(file.getParent());
+		app.setAppFileName(file.getName());
+		app.setAppName(AppLoader.preloadAppDef(file.getPath()));
+		app.setDirty(false);
+		engine.appManager.initApp(app);
+		engine.appManager.setCurrentApp(app);
+		AppLoader.loadAppFromFile(file.getPath());
+	}
+
+	/**
+	 * Replace the initial value of the given property of all the entities of
+	 * the given category.
+	 * 
+	 * @param categoryName
+	 *            The category of the entities
+	 * @param propertyName
+	 *            The property to set
+	 * @param value
+	 *            The new initial value
+	 * @return The number of the entities changed
+	 */
+	public int setProperty(String categoryName, String propertyName,
+			String value) {
+		List entityList = engine.getAvailableEntities();
+		int changed = 0;
+		for (int i = 0; i < entityList.size(); i++) {
+			Entity entity = (Entity) entityList.get(i);
+			if (!(entity instanceof Category)
+					|| !entity.getEntityType().equals(categoryName))
+				continue;
+			Category category = (Category) entity;
+			int type = category.getPropertyType(propertyName);
+			if (type == -1)
+				throw new RuntimeException("The category '" + categoryName
+						+ "' has no property '" + propertyName + "'.");
+			Object v = value;
+			if (type == PropertyType.NUMBER)
+				v = new Double(Double.parseDouble(value));
+			category.updatePropertyInitial(propertyName, v);
+			changed++;
+		}
+		return changed;
+	}
+
+	/**
+	 * Place the entities which move at random positions with random
+	 * directions in the world, and seed the random generator used by the
+	 * entities. The entities without dynamics, e.g. obstacles, stay where they
+	 * are.
+	 * 
+	 * @param seed
+	 *            The seed of the random numbers
+	 */
+	public void randomize(long seed) {
+		Random random = new Random(seed);
+		SimulationEnvironment env = engine.getSimulationEnvironment();
+		List entityList = engine.getAvailableEntities();
+		for (int i = 0; i < entityList.size(); i++) {
+			Entity entity = (Entity) entityList.get(i);
+			if (!(entity instanceof BNCategory)
+					|| ((BNCategory) entity).isNoDynamicsMechanism())
+				continue;
+			entity.setPosition(random.nextDouble() * env.getWidth(), random
+					.nextDouble()
+					* env.getHeight());
+			entity.setDirection(random.nextDouble() * 2 * Math.PI);
+		}
+		SystemFunction.setRandomSeed(seed);
+	}
+
+	/**
+	 * Write the states of all the entities in each time step to the given
+	 * file, as comma separated values.
+	 * 
+	 * @param path
+	 *            The file to write to
+	 * @throws Exception
+	 *             If the file can not be created
+	 */
+	public void setTrajectoryFile(String path) throws Exception {
+		trajectory = new PrintWriter(new FileWriter(path));
+		trajectory.println("timestep,id,category,name,x,y,direction,state");
+	}
+
+	/**
+	 * Record the states of all the entities in each time step to the given
+	 * file, see {@link TrajectoryRecorder}.
+	 * 
+	 * @param path
+	 *            The file to record to
+	 * @throws Exception
+	 *             If the file can not be created
+	 */
+	public void setRecordFile(String path) throws Exception {
+		recorder = new TrajectoryRecorder(new File(path));
+	}
+
+	/**
+	 * Compute the given number of time steps of the loaded application. The
+	 * entities start from their current positions, and the time steps are
+	 * computed by {@link TickStepper}. The data arrays are switched each time
+	 * they are filled, as in <code>SimulationComputeThread</code>.
+	 * 
+	 * @param timesteps
+	 *            Number of time steps to compute
+	 * @return The elapsed milliseconds of the computation
+	 * @throws Exception
+	 *             If any exception occurs in the computation
+	 */
+	public long run(int timesteps) throws Exception {
+
+		AppSystem system = engine.system;
+		SimulationData data = system.getSimulationData();
+		int totalTimeTicks = system.getTotalTimeticks();
+
+		// Start from the current positions
+		List entityList = system.getAvailableEntities();
+		Map initialPos = new HashMap();
+		for (int i = 0; i < entityList.size(); i++) {
+			Entity entity = (Entity) entityList.get(i);
+			initialPos.put(new Integer(entity.getMyId()), entity.getPosition());
+		}
+		system.resetSimulation(initialPos);
+		writeTimestep(0, entityList);
+		if (recorder != null)
+			recorder.record(0, entityList);
+
+		TickStepper stepper = new TickStepper(system);
+		SimulationContext.enter(new SimulationContext(system));
+
+		long start = System.currentTimeMillis();
+		try {
+			for (int timestep = 1; timestep <= timesteps; timestep++) {
+
+				// Switch to the other data array when one is filled
+				int simulationStep = timestep % totalTimeTicks;
+				if (simulationStep == 0)
+					data.setComputeSwitched(!data.isComputeSwitched());
+
+				entityList = system.getAvailableEntities();
+				stepper.step(entityList, simulationStep);
+
+				writeTimestep(timestep, entityList);
+				if (recorder != null)
+					recorder.record(timestep, entityList);
+			}
+		} finally {
+			SimulationContext.exit();
+			stepper.shutdown();
+			if (trajectory != null)
+				trajectory.flush();
+		}
+		return System.currentTimeMillis() - start;
+
+	}
+
+	/* Write the states of the entities in the given time step */
+	private void writeTimestep(int timestep, List entityList) {
+		if (trajectory == null)
+			return;
+		for (int i = 0; i < entityList.size(); i++) {
+			Entity entity = (Entity) entityList.get(i);
+			StringBuffer line = new StringBuffer();
+			line.append(timestep).append(',');
+			line.append(entity.getMyId()).append(',');
+			line.append(entity.getEntityType()).append(',');
+			line.append(entity.getDisplayName()).append(',');
+			line.append(entity.getPosition().x).append(',');
+			line.append(entity.getPosition().y).append(',');
+			line.append(entity.getDirection()).append(',');
+			line.append(entity.getState());
+			trajectory.println(line.toString());
+		}
+	}
+
+	/**
+	 * Close the trajectory file and the recorded file if any
+	 */
+	public void close() {
+		if (trajectory != null)
+			trajectory.close();
+		trajectory = null;
+		try {
+			if (recorder != null)
+				recorder.close();
+		} catch (IOException e) {
+			MessageUtils.debug(this, "close", e);
+		}
+		recorder = null;
+	}
+
+	/**
+	 * Entry point of the batch runner.
+	 * 
+	 * @param args
+	 *            The configuration file, the number of time steps and
+	 *            optionally the trajectory file
+	 */
+	public static void main(String[] args) {
+
+		// Options
+		List sets = new java.util.ArrayList();
+		Long seed = null;
+		String record = null;
+		int k = 0;
+		while (k + 1 < args.length && args[k].startsWith("-")) {
+			if (args[k].equals("-seed"))
+				seed = Long.valueOf(args[k + 1]);
+			else if (args[k].equals("-set"))
+				sets.add(args[k + 1]);
+			else if (args[k].equals("-record"))
+				record = args[k + 1];
+			else
+				break;
+			k += 2;
+		}
+		String[] rest = new String[args.length - k];
+		System.arraycopy(args, k, rest, 0, rest.length);
+		args = rest;
+
+		if (args.length < 2) {
+			System.err.println("Usage: java sim.core.BatchRunner [-seed n] "
+					+ "[-set Category.property=value]... [-record run."
+					+ TrajectoryRecorder.EXTENSION + "] "
+					+ "app.xml timesteps [trajectory.csv]");
+			System.exit(2);
+		}
+
+		// No display is needed, and none may be available
+		if (System.getProperty("java.awt.headless") == null)
+			System.setProperty("java.awt.headless", "true");
+		if (System.getProperty("SIM_HOME") == null)
+			System.setProperty("SIM_HOME", System.getProperty("user.dir"));
+
+		BatchRunner runner = null;
+		try {
+			int timesteps = Integer.parseInt(args[1]);
+			runner = new BatchRunner();
+			long loadStart = System.currentTimeMillis();
+			runner.load(args[0]);
+			long loadTime = System.currentTimeMillis() - loadStart;
+			if (seed != null)
+				runner.randomize(seed.longValue());
+			for (int i = 0; i < sets.size(); i++) {
+				String set = (String) sets.get(i);
+				int dot = set.indexOf('.'), eq = set.indexOf('=');
+				if (dot <= 0 || eq < dot)
+					throw new IllegalArgumentException("Invalid setting '"
+							+ set + "', Category.property=value is expected.");
+				runner.setProperty(set.substring(0, dot), set.substring(
+						dot + 1, eq), set.substring(eq + 1));
+			}
+			if (args.length > 2)
+				runner.setTrajectoryFile(args[2]);
+			if (record != null)
+				runner.setRecordFile(record);
+			long time = runner.run(timesteps);
+
+			// Summary
+			int entities = runner.engine.getAvailableEntities().size();
+			System.out.println("Application: "
+					+ runner.engine.appManager.currentApp.getAppName());
+			System.out.println("Entities: " + entities);
+			System.out.println("Time steps: " + timesteps);
+			if (seed != null)
+				System.out.println("Seed: " + seed);
+			System.out.println("Load time (ms): " + loadTime);
+			System.out.println("Compute time (ms): " + time);
+			System.out.println("Time steps per second: "
+					+ (time == 0 ? "-" : String.valueOf(timesteps * 1000.0
+							/ time)));
+			if (args.length > 2)
+				System.out.println("Trajectory: " + args[2]);
+			if (record != null)
+				System.out.println("Recorded time steps: "
+						+ runner.recorder.getTimesteps() + " in " + record);
+			// Superseded class versions are counted once they are collectable
+			if (Boolean.getBoolean(CLASS_VERSIONS)) {
+				System.gc();
+				System.out.println("Live class versions: "
+						+ runner.engine.appManager.currentApp.dm
+								.getLiveClassVersions());
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		} finally {
+			if (runner != null)
+				runner.close();
+		}
+		System.exit(0);
+
+	}
+
+}
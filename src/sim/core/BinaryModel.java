@@ -0,0 +1,975 @@
+/*
+ * BehaviorSim - version 1.0 
+ * 
+ * Copyright (C) 2010 The BehaviorSim Development Team, fasheng@cs.gsu.edu.
+ * 
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * 
+ * Info, Questions, Suggestions & Bugs Report to fasheng@cs.gsu.edu.
+ *  
+ */
+package sim.core;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import sim.xml.jdom.Attribute;
+import sim.xml.jdom.CDATA;
+import sim.xml.jdom.Document;
+import sim.xml.jdom.Element;
+import sim.xml.jdom.Text;
+import sim.xml.jdom.input.SAXBuilder;
+import sim.xml.jdom.output.XMLOutputter;
+
+/**
+ * Binary format of the application files, an alternative to the XML format.
+ * 
+ * <p>
+ * The binary file holds the same elements as the XML file, so that it is
+ * loaded by the same code, see {@link ElementStream}, and it is converted to
+ * and from XML without loss. The whitespace which only formats the XML file
+ * is not kept. The layout (version 2) is:
+ * </p>
+ * <ul>
+ * <li>The header: the magic number "BSIM", the version of the format and the
+ * offset of the index;</li>
+ * <li>The sections, which are the elements under the root element;</li>
+ * <li>The index: the table of the repeated strings, the root element and the
+ * offset and length of each section.</li>
+ * </ul>
+ * 
+ * <p>
+ * The <code>entities</code> section is stored as columns: the x and y
+ * positions and the direction of all entities as doubles, then the numbers
+ * of their category and dynamics in the string table, the number of their
+ * display and whether each number is written as an integer, then the rest
+ * of each entity. The display which is shared
+ * by the entities is stored once, where it is first used. The positions are
+ * thus read without parsing any text, and an entity is delivered as a
+ * {@link PackedEntity} instead of an element. The other sections, and the
+ * entities which do not have the attributes written by
+ * {@link AppLoader#appToXML(String)}, are stored as elements.
+ * </p>
+ * 
+ * <p>
+ * A string which is written more than once, such as a name, a category or
+ * the image of a display, is stored once in the string table and referred to
+ * by its number. The other strings, such as the display names of the
+ * entities, are stored where they are used. The numbers are written as
+ * variable-length integers. The file is written as a stream, and it is read
+ * through a file channel: the index and then each section are mapped into
+ * memory, so that the file is never read onto the heap as a whole. The files
+ * of version 1, where every string is in the table and the entities are
+ * stored as elements, are still read.
+ * </p>
+ * 
+ * @version 1.0
+ */
+public final class BinaryModel {
+
+	/** Extension of the binary application files */
+	public static final String EXTENSION = "bsim";
+
+	/** Version of the format written */
+	public static final int VERSION = 2;
+
+	// The magic number, "BSIM"
+	private static final int MAGIC = 0x4253494D;
+
+	// The size of the header: magic number, version and offset of the index
+	private static final int HEADER_SIZE = 4 + 2 + 8;
+
+	// The tags of the items in the content of an element. In version 1 text
+	// is tagged by twice its string number instead.
+	private static final int TEXT = 0;
+
+	private static final int ELEMENT = 1;
+
+	// The layouts of a section
+	private static final int ELEMENTS = 0;
+
+	private static final int COLUMNS = 1;
+
+	// The attributes of a packed entity, in their order in the element
+	private static final String[] ENTITY_ATTRIBUTES = { "displayName",
+			"categoryName", "dynamics", "direction", "xposition", "yposition" };
+
+	// The size of the columns of an entity: three doubles, three integers
+	// and the byte of the formats of the numbers
+	private static final int COLUMN_SIZE = 3 * 8 + 3 * 4 + 1;
+
+	private BinaryModel() {
+	}
+
+	/**
+	 * An entity of a binary file, whose position, direction, category and
+	 * dynamics are read from the columns of the <code>entities</code>
+	 * section.
+	 */
+	static final class PackedEntity {
+
+		/** The attributes of the entity */
+		String displayName, categoryName, dynamics;
+
+		double x, y, direction;
+
+		/** The bits of the direction, x and y written as integers */
+		int integers;
+
+		/** The other attributes, if any */
+		List attributes = new ArrayList();
+
+		/** The display element, shared by the entities of the same display */
+		Element display;
+
+		/** The number of the display in the section, -1 if none */
+		int displayNumber = -1;
+
+		/** The content which follows the display */
+		List content;
+
+		/**
+		 * Return the entity as an element, as it is written by
+		 * {@link AppLoader#appToXML(String)}.
+		 * 
+		 * @return The element
+		 */
+		Element toElement() {
+			Element entity = new Element("entity");
+			entity.addAttribute("displayName", displayName);
+			entity.addAttribute("categoryName", categoryName);
+			entity.addAttribute("dynamics", dynamics);
+			entity.addAttribute("direction", text(direction, 0));
+			entity.addAttribute("xposition", text(x, 1));
+			entity.addAttribute("yposition", text(y, 2));
+			for (int i = 0; i < attributes.size(); i++) {
+				Attribute a = (Attribute) attributes.get(i);
+				entity.addAttribute(a.getName(), a.getValue());
+			}
+			if (display != null)
+				entity.addContent((Element) display.clone());
+			for (int i = 0; i < content.size(); i++)
+				add(entity, content.get(i));
+			return entity;
+		}
+
+		/**
+		 * Return the value of one of the other attributes.
+		 * 
+		 * @param name
+		 *            The name of the attribute
+		 * @return The value, <code>null</code> if the entity has no such
+		 *         attribute
+		 */
+		String getAttributeValue(String name) {
+			for (int i = 0; i < attributes.size(); i++) {
+				Attribute a = (Attribute) attributes.get(i);
+				if (a.getName().equals(name))
+					return a.getValue();
+			}
+			return null;
+		}
+
+		/* Return the text of the i-th number */
+		private String text(double value, int i) {
+			if ((integers & (1 << i)) != 0)
+				return String.valueOf((int) value);
+			return String.valueOf(value);
+		}
+	}
+
+	/**
+	 * Whether the file name has the extension of the binary files.
+	 * 
+	 * @param path
+	 *            The file name
+	 * @return Whether it is the name of a binary file
+	 */
+	public static boolean isBinaryModelName(String path) {
+		return path.toLowerCase().endsWith("." + EXTENSION);
+	}
+
+	/**
+	 * Whether the file is a binary application file.
+	 * 
+	 * @param file
+	 *            The file
+	 * @return Whether the file starts with the magic number
+	 * @throws IOException
+	 *             If the file can not be read
+	 */
+	public static boolean isBinaryModel(File file) throws IOException {
+		FileChannel channel = new FileInputStream(file).getChannel();
+		try {
+			ByteBuffer b = ByteBuffer.allocate(4);
+			while (b.hasRemaining() && channel.read(b) >= 0)
+				;
+			return !b.hasRemaining() && b.getInt(0) == MAGIC;
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Read the root element, without its content.
+	 * 
+	 * @param file
+	 *            The binary file
+	 * @return The root element
+	 * @throws IOException
+	 *             If the file can not be read
+	 */
+	public static Element readRoot(File file) throws IOException {
+		Reader reader = new Reader(file);
+		reader.close();
+		return reader.root;
+	}
+
+	/**
+	 * Read the file and deliver the elements to the given stream, as
+	 * {@link ElementStream#parse(File)} does for an XML file. The entities
+	 * stored as columns are delivered as {@link PackedEntity}.
+	 * 
+	 * @param file
+	 *            The binary file
+	 * @param stream
+	 *            The stream which receives the elements
+	 * @throws Exception
+	 *             If the file can not be read, or any exception thrown when
+	 *             an element is delivered
+	 */
+	static void read(File file, ElementStream stream) throws Exception {
+		Reader reader = new Reader(file);
+		try {
+			stream.deliver(null, reader.root);
+			for (int i = 0; i < reader.sections.length / 2; i++) {
+				ByteBuffer b = reader.section(i);
+				Element section = reader.readStart(b);
+				String name = section.getName();
+				boolean streamed = stream.isStreamed(name);
+				boolean columns = reader.version > 1
+						&& reader.readInt(b) == COLUMNS;
+				int n = reader.readInt(b);
+				// The columns come first, the rest of the entities follow
+				int base = b.position();
+				if (columns) {
+					b.position(base + n * COLUMN_SIZE);
+					reader.displays = new ArrayList();
+				}
+				for (int k = 0; k < n; k++) {
+					Object item = columns ? reader.readEntity(b, base, n, k)
+							: reader.readItem(b);
+					// Each child is delivered as soon as it is read
+					if (item instanceof PackedEntity) {
+						if (streamed)
+							stream.deliver(name, (PackedEntity) item);
+						else
+							section.addContent(((PackedEntity) item)
+									.toElement());
+					} else if (!streamed) {
+						add(section, item);
+					} else if (item instanceof Element) {
+						stream.deliver(name, (Element) item);
+					}
+				}
+				if (!streamed)
+					stream.deliver(name, section);
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Write the application to the binary file.
+	 * 
+	 * @param file
+	 *            The binary file
+	 * @param root
+	 *            The root element of the application
+	 * @throws IOException
+	 *             If the file can not be written
+	 */
+	public static void write(File file, Element root) throws IOException {
+		FileOutputStream stream = new FileOutputStream(file);
+		FileChannel channel = stream.getChannel();
+		try {
+			Writer writer = new Writer(new BufferedOutputStream(stream,
+					64 * 1024));
+			// Only the strings written more than once go to the table
+			List children = children(root);
+			writer.countStart(root);
+			for (int i = 0; i < children.size(); i++)
+				writer.countSection((Element) children.get(i));
+			writer.intern();
+			writer.write(new byte[HEADER_SIZE]);
+			// Sections
+			long[] sections = new long[children.size() * 2];
+			for (int i = 0; i < children.size(); i++) {
+				sections[i * 2] = writer.size;
+				writer.writeSection((Element) children.get(i));
+				sections[i * 2 + 1] = writer.size - sections[i * 2];
+			}
+			// Index, the root and the sections follow the strings they use
+			long index = writer.size;
+			Writer rootAndSections = writer.buffer();
+			rootAndSections.writeStart(root);
+			rootAndSections.writeInt(sections.length / 2);
+			for (int i = 0; i < sections.length; i++)
+				rootAndSections.writeLong(sections[i]);
+			writer.writeInt(writer.strings.size());
+			for (int i = 0; i < writer.strings.size(); i++) {
+				byte[] s = ((String) writer.strings.get(i)).getBytes("UTF-8");
+				writer.writeInt(s.length);
+				writer.write(s);
+			}
+			writer.write(rootAndSections.toByteArray());
+			writer.out.flush();
+			// Header
+			ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE);
+			b.putInt(MAGIC);
+			b.putShort((short) VERSION);
+			b.putLong(index);
+			b.flip();
+			while (b.hasRemaining())
+				channel.write(b, b.position());
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Convert an application file from XML to the binary format, or from the
+	 * binary format to XML.
+	 * 
+	 * @param args
+	 *            The file to convert and the converted file
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.err.println("Usage: java sim.core.BinaryModel "
+					+ "app.xml app." + EXTENSION + " | app." + EXTENSION
+					+ " app.xml");
+			System.exit(2);
+		}
+		try {
+			File in = new File(args[0]), out = new File(args[1]);
+			if (isBinaryModel(in))
+				toXML(in, out);
+			else
+				write(out, new SAXBuilder().build(in).getRootElement());
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/* Convert the binary file to XML, in the format of AppLoader.appToXML */
+	private static void toXML(File in, File out) throws Exception {
+		Element root = ElementStream.read(in);
+		FileWriter writer = new FileWriter(out);
+		XMLOutputter outputter = new XMLOutputter();
+		outputter.setEncoding("GB2312");
+		outputter.setExpandEmptyElements(true);
+		outputter.setIndent(true);
+		outputter.setNewlines(true);
+		outputter.output(new Document(root), writer);
+		writer.close();
+	}
+
+	/* Return the child elements of the element */
+	private static List children(Element element) {
+		List children = new ArrayList();
+		// The content is a linked list, it is not read by index
+		for (Iterator i = element.getContent().iterator(); i.hasNext();) {
+			Object item = i.next();
+			if (item instanceof Element)
+				children.add(item);
+		}
+		return children;
+	}
+
+	/*
+	 * Return the content of the element which is stored, the elements and the
+	 * text which does not only format the XML between the children
+	 */
+	private static List content(Element element) {
+		List content = element.getContent();
+		boolean children = false;
+		for (Iterator i = content.iterator(); i.hasNext() && !children;)
+			children = i.next() instanceof Element;
+		List items = new ArrayList();
+		for (Iterator i = content.iterator(); i.hasNext();) {
+			Object item = i.next();
+			String text = text(item);
+			if (item instanceof Element
+					|| (text != null && !(children && text.trim()
+							.length() == 0)))
+				items.add(item);
+		}
+		return items;
+	}
+
+	/* Return the text of an item of the content, null if it is not text */
+	private static String text(Object item) {
+		if (item instanceof String)
+			return (String) item;
+		if (item instanceof Text)
+			return ((Text) item).getValue();
+		if (item instanceof CDATA)
+			return ((CDATA) item).getText();
+		return null;
+	}
+
+	/* Add an item read, an element or text, to the content of the element */
+	private static void add(Element element, Object item) {
+		if (item instanceof Element)
+			element.addContent((Element) item);
+		else
+			element.addContent((String) item);
+	}
+
+	/* Whether the section is stored as columns */
+	private static boolean isColumns(Element section, List items) {
+		if (!section.getName().equals("entities"))
+			return false;
+		for (int i = 0; i < items.size(); i++) {
+			if (!(items.get(i) instanceof Element))
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Whether the entity is packed into the columns: it has the attributes
+	 * written by AppLoader, and its numbers are written back as the same text
+	 */
+	private static boolean isPacked(Element entity) {
+		List attributes = entity.getAttributes();
+		if (!entity.getName().equals("entity")
+				|| attributes.size() < ENTITY_ATTRIBUTES.length)
+			return false;
+		for (int i = 0; i < ENTITY_ATTRIBUTES.length; i++) {
+			Attribute a = (Attribute) attributes.get(i);
+			if (!a.getName().equals(ENTITY_ATTRIBUTES[i]))
+				return false;
+			if (i >= 3 && format(a.getValue()) < 0)
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Return the format of the number: 0 if it is written as a double by
+	 * String.valueOf, 1 if as an integer, and -1 if in another way
+	 */
+	private static int format(String s) {
+		try {
+			double d = Double.parseDouble(s);
+			if (String.valueOf(d).equals(s))
+				return 0;
+			if (d == (int) d && String.valueOf((int) d).equals(s))
+				return 1;
+		} catch (NumberFormatException e) {
+		}
+		return -1;
+	}
+
+	/* Return the value of the i-th attribute of the element */
+	private static String value(Element element, int i) {
+		return ((Attribute) element.getAttributes().get(i)).getValue();
+	}
+
+	/* Whether the element is the display of an entity */
+	private static boolean isDisplay(Object item) {
+		return item instanceof Element
+				&& ((Element) item).getName().equals("display");
+	}
+
+	/**
+	 * Writer of the elements, which collects the strings.
+	 */
+	private static class Writer {
+
+		// The stream written to
+		OutputStream out;
+
+		// Number of bytes written to the stream
+		long size = 0;
+
+		// The strings in the order of their numbers
+		List strings;
+
+		// The mapping would be "string -> Integer number"
+		Map numbers;
+
+		// The mapping would be "string -> int[] times written"
+		Map counts = new LinkedHashMap();
+
+		Writer(OutputStream out) {
+			this(out, new ArrayList(), new HashMap());
+		}
+
+		private Writer(OutputStream out, List strings, Map numbers) {
+			this.out = out;
+			this.strings = strings;
+			this.numbers = numbers;
+		}
+
+		/* Return a writer to a buffer, which shares the strings */
+		Writer buffer() {
+			return new Writer(new ByteArrayOutputStream(), strings, numbers);
+		}
+
+		/* Return the bytes written to the buffer */
+		byte[] toByteArray() {
+			return ((ByteArrayOutputStream) out).toByteArray();
+		}
+
+		/* Count the strings of the name and the attributes of the element */
+		void countStart(Element element) {
+			count(element.getName());
+			List attributes = element.getAttributes();
+			countAttributes(attributes, 0);
+		}
+
+		void countAttributes(List attributes, int from) {
+			for (int i = from; i < attributes.size(); i++) {
+				Attribute a = (Attribute) attributes.get(i);
+				count(a.getName());
+				count(a.getValue());
+			}
+		}
+
+		/* Count the strings of the element and its content */
+		void countElement(Element element) {
+			countStart(element);
+			countItems(content(element));
+		}
+
+		void countItems(List items) {
+			for (int i = 0; i < items.size(); i++) {
+				Object item = items.get(i);
+				if (item instanceof Element)
+					countElement((Element) item);
+				else
+					count(text(item));
+			}
+		}
+
+		/* Count the strings of the section as it is written */
+		void countSection(Element section) {
+			countStart(section);
+			List items = content(section);
+			if (!isColumns(section, items)) {
+				countItems(items);
+				return;
+			}
+			for (int i = 0; i < items.size(); i++) {
+				Element entity = (Element) items.get(i);
+				if (!isPacked(entity)) {
+					countElement(entity);
+					continue;
+				}
+				// The category and the dynamics are always in the table
+				number(value(entity, 1));
+				number(value(entity, 2));
+				countAttributes(entity.getAttributes(),
+						ENTITY_ATTRIBUTES.length);
+				countItems(content(entity));
+			}
+		}
+
+		void count(String s) {
+			int[] n = (int[]) counts.get(s);
+			if (n == null)
+				counts.put(s, new int[] { 1 });
+			else
+				n[0]++;
+		}
+
+		/* Add the strings counted more than once to the table */
+		void intern() {
+			for (Iterator i = counts.entrySet().iterator(); i.hasNext();) {
+				Map.Entry e = (Map.Entry) i.next();
+				if (((int[]) e.getValue())[0] > 1)
+					number((String) e.getKey());
+			}
+			counts.clear();
+		}
+
+		/* Write the name and the attributes of the element */
+		void writeStart(Element element) throws IOException {
+			writeString(element.getName());
+			List attributes = element.getAttributes();
+			writeAttributes(attributes, 0);
+		}
+
+		void writeAttributes(List attributes, int from) throws IOException {
+			writeInt(attributes.size() - from);
+			for (int i = from; i < attributes.size(); i++) {
+				Attribute a = (Attribute) attributes.get(i);
+				writeString(a.getName());
+				writeString(a.getValue());
+			}
+		}
+
+		/* Write the element and its content */
+		void writeElement(Element element) throws IOException {
+			writeStart(element);
+			writeItems(content(element));
+		}
+
+		void writeItems(List items) throws IOException {
+			writeInt(items.size());
+			for (int i = 0; i < items.size(); i++) {
+				Object item = items.get(i);
+				if (item instanceof Element) {
+					writeInt(ELEMENT);
+					writeElement((Element) item);
+				} else {
+					writeInt(TEXT);
+					writeString(text(item));
+				}
+			}
+		}
+
+		/* Write a section under the root element */
+		void writeSection(Element section) throws IOException {
+			writeStart(section);
+			List items = content(section);
+			if (isColumns(section, items)) {
+				writeInt(COLUMNS);
+				writeEntities(items);
+			} else {
+				writeInt(ELEMENTS);
+				writeItems(items);
+			}
+		}
+
+		/* Write the entities as columns, followed by the rest of them */
+		void writeEntities(List entities) throws IOException {
+			int n = entities.size();
+			double[] x = new double[n], y = new double[n];
+			double[] direction = new double[n];
+			int[] category = new int[n], dynamics = new int[n];
+			// The number of the display plus one, 0 if there is no display
+			// and -1 if the entity is not packed
+			int[] display = new int[n];
+			byte[] integers = new byte[n];
+			// The mapping would be "bytes of the display -> Integer number"
+			Map displays = new HashMap();
+			Writer rest = buffer();
+			for (int k = 0; k < n; k++) {
+				Element entity = (Element) entities.get(k);
+				if (!isPacked(entity)) {
+					display[k] = -1;
+					rest.writeElement(entity);
+					continue;
+				}
+				category[k] = number(value(entity, 1));
+				dynamics[k] = number(value(entity, 2));
+				direction[k] = Double.parseDouble(value(entity, 3));
+				x[k] = Double.parseDouble(value(entity, 4));
+				y[k] = Double.parseDouble(value(entity, 5));
+				for (int i = 0; i < 3; i++)
+					integers[k] |= format(value(entity, 3 + i)) << i;
+				rest.writeInline(value(entity, 0));
+				rest.writeAttributes(entity.getAttributes(),
+						ENTITY_ATTRIBUTES.length);
+				List items = content(entity);
+				if (!items.isEmpty() && isDisplay(items.get(0))) {
+					Writer d = buffer();
+					d.writeElement((Element) items.remove(0));
+					byte[] bytes = d.toByteArray();
+					String key = new String(bytes, "ISO-8859-1");
+					Integer number = (Integer) displays.get(key);
+					if (number == null) {
+						// The display is written where it is first used
+						number = new Integer(displays.size());
+						displays.put(key, number);
+						rest.write(bytes);
+					}
+					display[k] = number.intValue() + 1;
+				}
+				rest.writeItems(items);
+			}
+			writeInt(n);
+			for (int k = 0; k < n; k++)
+				writeFixed(Double.doubleToLongBits(x[k]), 8);
+			for (int k = 0; k < n; k++)
+				writeFixed(Double.doubleToLongBits(y[k]), 8);
+			for (int k = 0; k < n; k++)
+				writeFixed(Double.doubleToLongBits(direction[k]), 8);
+			for (int k = 0; k < n; k++)
+				writeFixed(category[k], 4);
+			for (int k = 0; k < n; k++)
+				writeFixed(dynamics[k], 4);
+			for (int k = 0; k < n; k++)
+				writeFixed(display[k], 4);
+			write(integers);
+			write(rest.toByteArray());
+		}
+
+		/*
+		 * Write the string, by twice its number if it is in the table and
+		 * otherwise inline
+		 */
+		void writeString(String s) throws IOException {
+			Integer n = (Integer) numbers.get(s);
+			if (n == null)
+				writeInline(s);
+			else
+				writeInt(n.intValue() * 2);
+		}
+
+		/* Write the string inline: twice its length plus one, then UTF-8 */
+		void writeInline(String s) throws IOException {
+			byte[] b = s.getBytes("UTF-8");
+			writeInt(b.length * 2 + 1);
+			write(b);
+		}
+
+		/* Return the number of the string, adding it if it is new */
+		int number(String s) {
+			Integer n = (Integer) numbers.get(s);
+			if (n == null) {
+				n = new Integer(strings.size());
+				numbers.put(s, n);
+				strings.add(s);
+			}
+			return n.intValue();
+		}
+
+		/* Write a variable-length integer, 7 bits per byte */
+		void writeInt(int value) throws IOException {
+			writeLong(value & 0xFFFFFFFFL);
+		}
+
+		void writeLong(long value) throws IOException {
+			while ((value & ~0x7FL) != 0) {
+				out.write((int) ((value & 0x7F) | 0x80));
+				size++;
+				value >>>= 7;
+			}
+			out.write((int) value);
+			size++;
+		}
+
+		/* Write the lowest bytes of the value, the highest first */
+		void writeFixed(long value, int bytes) throws IOException {
+			for (int i = bytes - 1; i >= 0; i--)
+				out.write((int) (value >>> (i * 8)));
+			size += bytes;
+		}
+
+		void write(byte[] b) throws IOException {
+			out.write(b, 0, b.length);
+			size += b.length;
+		}
+	}
+
+	/**
+	 * Reader of the elements.
+	 */
+	private static class Reader {
+
+		// The channel of the file
+		FileChannel channel;
+
+		// The version of the file
+		int version;
+
+		// The strings
+		String[] strings;
+
+		// The root element, without content
+		Element root;
+
+		// The offset and length of each section
+		long[] sections;
+
+		// The displays of the entities of the section being read
+		List displays;
+
+		/* Open the file and read its index */
+		Reader(File file) throws IOException {
+			channel = new FileInputStream(file).getChannel();
+			try {
+				readIndex(file);
+			} catch (IOException e) {
+				close();
+				throw e;
+			} catch (RuntimeException e) {
+				close();
+				throw e;
+			}
+		}
+
+		/* Read the header, the strings, the root and the sections */
+		void readIndex(File file) throws IOException {
+			long size = channel.size();
+			ByteBuffer header = size < HEADER_SIZE ? null : map(0,
+					HEADER_SIZE);
+			if (header == null || header.getInt(0) != MAGIC)
+				throw new IOException("'" + file + "' is not a binary "
+						+ "application file.");
+			version = header.getShort(4);
+			if (version > VERSION)
+				throw new IOException("The version " + version
+						+ " of the binary application file is not supported.");
+			long index = header.getLong(6);
+			if (index < HEADER_SIZE || index > size)
+				throw new IOException("'" + file + "' is damaged.");
+			ByteBuffer b = map(index, size - index);
+			strings = new String[readInt(b)];
+			for (int i = 0; i < strings.length; i++)
+				strings[i] = readUTF8(b, readInt(b));
+			root = readStart(b);
+			sections = new long[readInt(b) * 2];
+			for (int i = 0; i < sections.length; i++)
+				sections[i] = readLong(b);
+		}
+
+		/* Return the bytes of the section */
+		ByteBuffer section(int i) throws IOException {
+			return map(sections[i * 2], sections[i * 2 + 1]);
+		}
+
+		/* Map the bytes at the given offset */
+		ByteBuffer map(long offset, long length) throws IOException {
+			if (length > Integer.MAX_VALUE)
+				throw new IOException("A section of the file is too large.");
+			return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+		}
+
+		/* Close the file, the mapped bytes stay readable */
+		void close() throws IOException {
+			channel.close();
+		}
+
+		/* Read the name and the attributes of an element */
+		Element readStart(ByteBuffer b) throws IOException {
+			Element element = new Element(readString(b));
+			int n = readInt(b);
+			for (int i = 0; i < n; i++)
+				element.addAttribute(readString(b), readString(b));
+			return element;
+		}
+
+		/* Read an element and its content */
+		Element readElement(ByteBuffer b) throws IOException {
+			Element element = readStart(b);
+			int n = readInt(b);
+			for (int i = 0; i < n; i++)
+				add(element, readItem(b));
+			return element;
+		}
+
+		/* Read an item of the content, an element or text */
+		Object readItem(ByteBuffer b) throws IOException {
+			int tag = readInt(b);
+			if (tag == ELEMENT)
+				return readElement(b);
+			if (version == 1)
+				return strings[tag / 2];
+			return readString(b);
+		}
+
+		/*
+		 * Read the k-th of the n entities whose columns start at the given
+		 * offset, the rest of the entity is read from the current position
+		 */
+		Object readEntity(ByteBuffer b, int base, int n, int k)
+				throws IOException {
+			int display = b.getInt(base + 32 * n + 4 * k);
+			if (display < 0)
+				return readElement(b);
+			PackedEntity entity = new PackedEntity();
+			entity.x = b.getDouble(base + 8 * k);
+			entity.y = b.getDouble(base + 8 * (n + k));
+			entity.direction = b.getDouble(base + 8 * (2 * n + k));
+			entity.categoryName = strings[b.getInt(base + 24 * n + 4 * k)];
+			entity.dynamics = strings[b.getInt(base + 28 * n + 4 * k)];
+			entity.integers = b.get(base + 36 * n + k);
+			entity.displayName = readString(b);
+			int attributes = readInt(b);
+			for (int i = 0; i < attributes; i++)
+				entity.attributes.add(new Attribute(readString(b),
+						readString(b)));
+			if (display > 0) {
+				entity.displayNumber = display - 1;
+				// The display is stored where it is first used
+				if (entity.displayNumber == displays.size())
+					displays.add(readElement(b));
+				entity.display = (Element) displays.get(entity.displayNumber);
+			}
+			int items = readInt(b);
+			entity.content = new ArrayList(items);
+			for (int i = 0; i < items; i++)
+				entity.content.add(readItem(b));
+			return entity;
+		}
+
+		/* Read a string, from the table or inline */
+		String readString(ByteBuffer b) throws IOException {
+			int n = readInt(b);
+			if (version == 1)
+				return strings[n];
+			if ((n & 1) == 0)
+				return strings[n >>> 1];
+			return readUTF8(b, n >>> 1);
+		}
+
+		/* Read the given number of bytes as UTF-8 */
+		String readUTF8(ByteBuffer b, int length) throws IOException {
+			byte[] s = new byte[length];
+			b.get(s);
+			return new String(s, "UTF-8");
+		}
+
+		/* Read a variable-length integer */
+		int readInt(ByteBuffer b) {
+			return (int) readLong(b);
+		}
+
+		long readLong(ByteBuffer b) {
+			long value = 0;
+			for (int shift = 0;; shift += 7) {
+				int v = b.get();
+				value |= (long) (v & 0x7F) << shift;
+				if ((v & 0x80) == 0)
+					return value;
+			}
+		}
+	}
+
+}
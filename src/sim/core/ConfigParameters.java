@@ -75,6 +75,24 @@ public class ConfigParameters {
 	/** Should be less than 10 */
 	public static final String RECENT_FILE_PREFIX = "recent.file.";
 
+	/**
+	 * Constant names for the parallel computation of the simulation data, see
+	 * <code>ParallelTick</code>
+	 */
+	public static final String PARALLEL_COMPUTE = "compute.parallel";
+	public static final String PARALLEL_THREADS = "compute.parallel.threads";
+
+	public static final String BEHAVIOR_HISTORY = "behavior.history";
+
+	/**
+	 * Constant name for the directory where the computed time steps are
+	 * recorded, see <code>TrajectoryRecorder</code>
+	 */
+	public static final String TRAJECTORY_RECORD = "trajectory.record";
+
+	/** Minimum number of time steps kept in the behavior history */
+	public static final int MIN_BEHAVIOR_HISTORY = 2;
+
 	/** Repository for named parameters */
 	private Hashtable paramsDepository;
 
@@ -206,6 +224,53 @@ public class ConfigParameters {
 				.doubleValue();
 	}
 
+	/**
+	 * @return Whether the entities act in parallel in the computation of the
+	 *         simulation data
+	 */
+	public boolean isParallelCompute() {
+		return "true".equalsIgnoreCase(properties
+				.getProperty(PARALLEL_COMPUTE));
+	}
+
+	/**
+	 * @return Number of worker threads of the parallel computation, the
+	 *         number of available processors by default
+	 */
+	public int getParallelThreads() {
+		int threads = Runtime.getRuntime().availableProcessors();
+		try {
+			threads = Integer.parseInt(properties
+					.getProperty(PARALLEL_THREADS));
+		} catch (Exception e) {
+		}
+		return Math.max(1, threads);
+	}
+
+	/**
+	 * @return Number of time steps of behavior excitation and strength kept
+	 *         by each behavior, the current and the previous one by default
+	 */
+	public int getBehaviorHistoryDepth() {
+		int depth = MIN_BEHAVIOR_HISTORY;
+		try {
+			depth = Integer.parseInt(properties.getProperty(BEHAVIOR_HISTORY));
+		} catch (Exception e) {
+		}
+		return Math.max(MIN_BEHAVIOR_HISTORY, depth);
+	}
+
+	/**
+	 * @return The directory where the computed time steps are recorded, null
+	 *         if they are not recorded
+	 */
+	public File getTrajectoryRecordDirectory() {
+		String dir = properties.getProperty(TRAJECTORY_RECORD);
+		if (dir == null || dir.trim().length() == 0)
+			return null;
+		return new File(dir.trim());
+	}
+
 	/**
 	 * Return next available index for constructing the display name of the
 	 * entity of the specified category.
@@ -0,0 +1,276 @@
+/*
+ * BehaviorSim - version 1.0 
+ * 
+ * Copyright (C) 2010 The BehaviorSim Development Team, fasheng@cs.gsu.edu.
+ * 
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * 
+ * Info, Questions, Suggestions & Bugs Report to fasheng@cs.gsu.edu.
+ *  
+ */
+package sim.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import sim.xml.jdom.Element;
+
+/**
+ * Streaming reader of an application file.
+ * 
+ * <p>
+ * The file is parsed as a stream of SAX events and no document is built. Each
+ * element under the root element, such as <code>world</code>, is built as a
+ * JDOM element and delivered when it ends. The children of the streamed
+ * sections, such as each <code>entity</code> of <code>entities</code>, are
+ * delivered one by one instead, so that only one of them is in memory at a
+ * time.
+ * </p>
+ * 
+ * <p>
+ * A binary application file, see {@link BinaryModel}, is read in the same
+ * way. The entities it stores as columns are delivered to
+ * {@link #entity(String, BinaryModel.PackedEntity)}, whose values are read
+ * without building the element.
+ * </p>
+ * 
+ * @version 1.0
+ */
+abstract class ElementStream extends DefaultHandler {
+
+	// Signal to stop parsing the file
+	private static class StopException extends SAXException {
+		StopException() {
+			super("Stop");
+		}
+	}
+
+	// The names of the streamed sections
+	private Set streamed;
+
+	// The elements being built, from the outermost one
+	private List stack = new ArrayList();
+
+	// The text of the current element which is not added yet
+	private StringBuffer text = new StringBuffer();
+
+	// The section under the root element being read
+	private String section = null;
+
+	// Whether the current section is streamed
+	private boolean streaming = false;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param streamedSections
+	 *            The names of the sections whose children are delivered one
+	 *            by one
+	 */
+	ElementStream(String[] streamedSections) {
+		streamed = new HashSet(Arrays.asList(streamedSections));
+	}
+
+	/**
+	 * Parse the file and deliver its elements.
+	 * 
+	 * @param file
+	 *            The application file, in XML or in the binary format
+	 * @throws Exception
+	 *             If the file can not be parsed, or any exception thrown when
+	 *             an element is delivered
+	 */
+	void parse(File file) throws Exception {
+		try {
+			if (BinaryModel.isBinaryModel(file))
+				BinaryModel.read(file, this);
+			else
+				SAXParserFactory.newInstance().newSAXParser().parse(file,
+						this);
+		} catch (StopException e) {
+		} catch (SAXException e) {
+			if (e.getException() != null)
+				throw e.getException();
+			throw e;
+		}
+	}
+
+	/**
+	 * Read the whole file.
+	 * 
+	 * @param file
+	 *            The application file, in XML or in the binary format
+	 * @return The root element with all its content
+	 * @throws Exception
+	 *             If the file can not be parsed
+	 */
+	static Element read(File file) throws Exception {
+		final Element[] root = new Element[1];
+		new ElementStream(new String[0]) {
+			protected void root(Element element) {
+				root[0] = element;
+			}
+
+			protected void element(String section, Element element) {
+				root[0].addContent(element);
+			}
+		}.parse(file);
+		return root[0];
+	}
+
+	/**
+	 * Called when the root element starts. The root element has no children
+	 * when it is delivered.
+	 * 
+	 * @param root
+	 *            The root element
+	 * @throws Exception
+	 *             If the element can not be processed
+	 */
+	protected void root(Element root) throws Exception {
+	}
+
+	/**
+	 * Called when an element under the root element, or a child of a streamed
+	 * section, ends.
+	 * 
+	 * @param section
+	 *            The name of the section under the root element
+	 * @param element
+	 *            The element
+	 * @throws Exception
+	 *             If the element can not be processed
+	 */
+	protected abstract void element(String section, Element element)
+			throws Exception;
+
+	/**
+	 * Called instead of {@link #element(String, Element)} when an entity which
+	 * is stored as columns in a binary file is read. By default the entity is
+	 * delivered as an element.
+	 * 
+	 * @param section
+	 *            The name of the section under the root element
+	 * @param entity
+	 *            The entity
+	 * @throws Exception
+	 *             If the entity can not be processed
+	 */
+	protected void entity(String section, BinaryModel.PackedEntity entity)
+			throws Exception {
+		element(section, entity.toElement());
+	}
+
+	/**
+	 * Stop parsing the file, called when an element is delivered.
+	 * 
+	 * @throws SAXException
+	 *             Always, the parser is stopped by it
+	 */
+	protected void stop() throws SAXException {
+		throw new StopException();
+	}
+
+	public void startElement(String uri, String localName, String qName,
+			Attributes attributes) throws SAXException {
+		addText();
+		Element element = new Element(qName);
+		for (int i = 0; i < attributes.getLength(); i++)
+			element.addAttribute(attributes.getQName(i), attributes
+					.getValue(i));
+		if (stack.isEmpty() && section == null) {
+			// The root element is not kept
+			deliver(null, element);
+			section = "";
+			return;
+		}
+		if (stack.isEmpty()) {
+			section = qName;
+			streaming = streamed.contains(qName);
+		} else if (!(streaming && stack.size() == 1)) {
+			((Element) stack.get(stack.size() - 1)).addContent(element);
+		}
+		stack.add(element);
+	}
+
+	public void endElement(String uri, String localName, String qName)
+			throws SAXException {
+		addText();
+		if (stack.isEmpty())
+			return;
+		Element element = (Element) stack.remove(stack.size() - 1);
+		if (stack.size() == (streaming ? 1 : 0))
+			deliver(section, element);
+	}
+
+	public void characters(char[] ch, int start, int length) {
+		text.append(ch, start, length);
+	}
+
+	/* Whether the children of the section are delivered one by one */
+	boolean isStreamed(String section) {
+		return streamed.contains(section);
+	}
+
+	/* Add the text read to the current element */
+	private void addText() {
+		if (text.length() == 0)
+			return;
+		// The text of the root element and the streamed sections is ignored
+		if (!stack.isEmpty() && !(streaming && stack.size() == 1))
+			((Element) stack.get(stack.size() - 1)).addContent(text
+					.toString());
+		text.setLength(0);
+	}
+
+	/* Deliver the element, the root element if the section is null */
+	void deliver(String section, Element element) throws SAXException {
+		try {
+			if (section == null)
+				root(element);
+			else
+				element(section, element);
+		} catch (SAXException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new SAXException(e);
+		}
+	}
+
+	/* Deliver the entity read from the columns of a binary file */
+	void deliver(String section, BinaryModel.PackedEntity entity)
+			throws SAXException {
+		try {
+			entity(section, entity);
+		} catch (SAXException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new SAXException(e);
+		}
+	}
+
+}
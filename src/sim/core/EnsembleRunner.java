@@ -0,0 +1,382 @@
+/*
+ * BehaviorSim - version 1.0 
+ * 
+ * Copyright (C) 2010 The BehaviorSim Development Team, fasheng@cs.gsu.edu.
+ * 
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * 
+ * Info, Questions, Suggestions & Bugs Report to fasheng@cs.gsu.edu.
+ *  
+ */
+
+package sim.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs an ensemble of variants of one application concurrently. The variants
+ * are the combinations of the values of a parameter grid and of a number of
+ * random seeds.
+ * 
+ * <p>
+ * This is a process pool, not an in-process runner. The engine is a singleton:
+ * <code>AppEngine.getInstance()</code>, the static references of
+ * <code>SystemFunction</code> and <code>AppLoader</code>, the system, the
+ * simulation data and the dynamic classes of the categories are shared by the
+ * whole virtual machine, so two variants cannot be computed side by side in
+ * it. Each variant is therefore computed by <code>BatchRunner</code> in a
+ * virtual machine of its own, which gives it a separate system, simulation
+ * data and dynamic manager. The threads of the pool only start the
+ * processes, wait for them and collect their results; at most the given
+ * number of variants run at the same time.
+ * </p>
+ * 
+ * <p>
+ * Usage:
+ * <code>java sim.core.EnsembleRunner [-threads n] [-seeds n] [-grid Category.property=v1,v2,...]... [-trajectories] app.xml timesteps outdir</code>
+ * </p>
+ * 
+ * The output of each run is written to <code>run-N.txt</code> in the output
+ * directory, and its trajectory to <code>run-N.csv</code> if requested. A row
+ * is appended to <code>ensemble.csv</code> as soon as a run is finished.
+ * 
+ * @version 1.0
+ */
+public class EnsembleRunner {
+
+	// Columns of the aggregated results, read from the batch runner summary
+	private static final String[] SUMMARY = { "Entities", "Load time (ms)",
+			"Compute time (ms)", "Time steps per second" };
+
+	// Options of this virtual machine passed on to the batch runners, other
+	// options like debugging agents would conflict between the processes
+	private static final String[] VM_OPTIONS = { "-D", "-Xmx", "-Xms", "-Xmn",
+			"-Xss", "-XX:MaxHeapSize=", "-XX:InitialHeapSize=",
+			"-XX:NewSize=", "-XX:MaxNewSize=", "-XX:ThreadStackSize=" };
+
+	// The management agent listens on a port, it is not passed on either
+	private static final String MANAGEMENT = "-Dcom.sun.management.";
+
+	// The application configuration file
+	private String xml;
+
+	// Number of time steps of each run
+	private int timesteps;
+
+	// Output directory
+	private File outDir;
+
+	// Whether the trajectories are written
+	private boolean trajectories = false;
+
+	// Writer of the aggregated results
+	private PrintWriter results = null;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param xml
+	 *            The application configuration file
+	 * @param timesteps
+	 *            Number of time steps of each run
+	 * @param outDir
+	 *            The directory the results are written to
+	 */
+	public EnsembleRunner(String xml, int timesteps, File outDir) {
+		this.xml = new File(xml).getAbsolutePath();
+		this.timesteps = timesteps;
+		this.outDir = outDir;
+	}
+
+	/**
+	 * @param trajectories
+	 *            Whether the trajectory of each run is written
+	 */
+	public void setTrajectories(boolean trajectories) {
+		this.trajectories = trajectories;
+	}
+
+	/**
+	 * Expand the parameter grid into the list of variants. Each variant is a
+	 * list of settings in the form <code>Category.property=value</code>.
+	 * 
+	 * @param grid
+	 *            Grid entries in the form
+	 *            <code>Category.property=v1,v2,...</code>
+	 * @return All the combinations of the values
+	 */
+	public static List expandGrid(List grid) {
+		List variants = new ArrayList();
+		variants.add(new ArrayList());
+		for (int i = 0; i < grid.size(); i++) {
+			String entry = (String) grid.get(i);
+			int eq = entry.indexOf('=');
+			if (eq <= 0 || entry.indexOf('.') <= 0)
+				throw new IllegalArgumentException("Invalid grid '" + entry
+						+ "', Category.property=v1,v2,... is expected.");
+			String key = entry.substring(0, eq);
+			String[] values = entry.substring(eq + 1).split(",");
+			List expanded = new ArrayList();
+			for (int j = 0; j < variants.size(); j++) {
+				List variant = (List) variants.get(j);
+				for (int k = 0; k < values.length; k++) {
+					List v = new ArrayList(variant);
+					v.add(key + "=" + values[k].trim());
+					expanded.add(v);
+				}
+			}
+			variants = expanded;
+		}
+		return variants;
+	}
+
+	/**
+	 * Run all the variants and wait for them.
+	 * 
+	 * @param variants
+	 *            Settings of the variants, see {@link #expandGrid(List)}
+	 * @param seeds
+	 *            Number of seeds of each variant, 0 to start from the
+	 *            positions in the configuration file
+	 * @param threads
+	 *            Number of the runs at the same time
+	 * @return Number of the failed runs
+	 * @throws Exception
+	 *             If the results can not be written
+	 */
+	public int run(List variants, int seeds, int threads) throws Exception {
+
+		outDir.mkdirs();
+		results = new PrintWriter(new FileWriter(new File(outDir,
+				"ensemble.csv")));
+		StringBuffer header = new StringBuffer("run,seed,settings,status");
+		for (int i = 0; i < SUMMARY.length; i++)
+			header.append(',').append(SUMMARY[i]);
+		results.println(header.toString());
+		results.flush();
+
+		final int[] failed = { 0 };
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			int run = 0;
+			for (int i = 0; i < variants.size(); i++) {
+				for (int s = 0; s < Math.max(1, seeds); s++) {
+					final int id = run++;
+					final List settings = (List) variants.get(i);
+					final Long seed = seeds > 0 ? new Long(s + 1) : null;
+					pool.execute(new Runnable() {
+						public void run() {
+							if (!runVariant(id, seed, settings)) {
+								synchronized (failed) {
+									failed[0]++;
+								}
+							}
+						}
+					});
+				}
+			}
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} finally {
+			pool.shutdownNow();
+			results.close();
+		}
+		return failed[0];
+
+	}
+
+	/* Run one variant in a batch runner process */
+	private boolean runVariant(int id, Long seed, List settings) {
+
+		// Command line of the batch runner, with the heap options and the
+		// system properties of this virtual machine
+		List command = new ArrayList();
+		command.add(System.getProperty("java.home") + File.separator + "bin"
+				+ File.separator + "java");
+		command.addAll(vmOptions());
+		command.add("-Djava.awt.headless=true");
+		command.add("-DSIM_HOME=" + System.getProperty("SIM_HOME"));
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(BatchRunner.class.getName());
+		if (seed != null) {
+			command.add("-seed");
+			command.add(seed.toString());
+		}
+		for (int i = 0; i < settings.size(); i++) {
+			command.add("-set");
+			command.add(settings.get(i));
+		}
+		command.add(xml);
+		command.add(String.valueOf(timesteps));
+		if (trajectories)
+			command.add(new File(outDir, "run-" + id + ".csv").getPath());
+
+		// Keep the output of the run, and read its summary
+		Map summary = new HashMap();
+		int status = -1;
+		PrintWriter log = null;
+		try {
+			log = new PrintWriter(new FileWriter(new File(outDir, "run-" + id
+					+ ".txt")));
+			log.println(command);
+			ProcessBuilder pb = new ProcessBuilder(command);
+			pb.redirectErrorStream(true);
+			Process process = pb.start();
+			process.getOutputStream().close();
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+					process.getInputStream()));
+			String line;
+			while ((line = in.readLine()) != null) {
+				log.println(line);
+				int colon = line.indexOf(": ");
+				if (colon > 0)
+					summary.put(line.substring(0, colon), line
+							.substring(colon + 2));
+			}
+			in.close();
+			status = process.waitFor();
+		} catch (Exception e) {
+			e.printStackTrace();
+			if (log != null)
+				e.printStackTrace(log);
+		} finally {
+			if (log != null)
+				log.close();
+		}
+
+		// Append the aggregated result as soon as the run is finished
+		StringBuffer row = new StringBuffer();
+		row.append(id).append(',');
+		row.append(seed == null ? "" : seed.toString()).append(',');
+		for (int i = 0; i < settings.size(); i++) {
+			if (i > 0)
+				row.append(' ');
+			row.append(settings.get(i));
+		}
+		row.append(',').append(status);
+		for (int i = 0; i < SUMMARY.length; i++) {
+			Object value = summary.get(SUMMARY[i]);
+			row.append(',').append(value == null ? "" : value);
+		}
+		synchronized (results) {
+			results.println(row.toString());
+			results.flush();
+		}
+		return status == 0;
+
+	}
+
+	/* Return the options of this virtual machine passed on to a batch runner */
+	private static List vmOptions() {
+		List options = new ArrayList();
+		List arguments = ManagementFactory.getRuntimeMXBean()
+				.getInputArguments();
+		for (int i = 0; i < arguments.size(); i++) {
+			String argument = (String) arguments.get(i);
+			if (argument.startsWith(MANAGEMENT))
+				continue;
+			for (int k = 0; k < VM_OPTIONS.length; k++) {
+				if (argument.startsWith(VM_OPTIONS[k])) {
+					options.add(argument);
+					break;
+				}
+			}
+		}
+		return options;
+	}
+
+	/**
+	 * Entry point of the ensemble runner.
+	 * 
+	 * @param args
+	 *            The options, the configuration file, the number of time
+	 *            steps and the output directory
+	 */
+	public static void main(String[] args) {
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		int seeds = 0;
+		boolean trajectories = false;
+		List grid = new ArrayList();
+		int k = 0;
+		try {
+			while (k < args.length && args[k].startsWith("-")) {
+				if (args[k].equals("-trajectories")) {
+					trajectories = true;
+					k++;
+					continue;
+				}
+				if (k + 1 >= args.length)
+					break;
+				if (args[k].equals("-threads"))
+					threads = Integer.parseInt(args[k + 1]);
+				else if (args[k].equals("-seeds"))
+					seeds = Integer.parseInt(args[k + 1]);
+				else if (args[k].equals("-grid"))
+					grid.add(args[k + 1]);
+				else
+					break;
+				k += 2;
+			}
+		} catch (NumberFormatException e) {
+			k = args.length;
+		}
+
+		if (args.length - k < 3) {
+			System.err.println("Usage: java sim.core.EnsembleRunner "
+					+ "[-threads n] [-seeds n] "
+					+ "[-grid Category.property=v1,v2,...]... "
+					+ "[-trajectories] app.xml timesteps outdir");
+			System.exit(2);
+		}
+		if (System.getProperty("SIM_HOME") == null)
+			System.setProperty("SIM_HOME", System.getProperty("user.dir"));
+
+		try {
+			EnsembleRunner runner = new EnsembleRunner(args[k], Integer
+					.parseInt(args[k + 1]), new File(args[k + 2]));
+			runner.setTrajectories(trajectories);
+			List variants = expandGrid(grid);
+			long start = System.currentTimeMillis();
+			int failed = runner.run(variants, seeds, Math.max(1, threads));
+			int runs = variants.size() * Math.max(1, seeds);
+			System.out.println("Runs: " + runs);
+			System.out.println("Failed: " + failed);
+			System.out.println("Time (ms): "
+					+ (System.currentTimeMillis() - start));
+			System.exit(failed == 0 ? 0 : 1);
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+
+	}
+
+}
@@ -0,0 +1,244 @@
+/*
+ * BehaviorSim - version 1.0 
+ * 
+ * Copyright (C) 2010 The BehaviorSim Development Team, fasheng@cs.gsu.edu.
+ * 
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * 
+ * Info, Questions, Suggestions & Bugs Report to fasheng@cs.gsu.edu.
+ *  
+ */
+package sim.core;
+
+import java.awt.Component;
+import java.awt.Image;
+import java.awt.MediaTracker;
+import java.awt.Toolkit;
+import java.awt.image.FilteredImageSource;
+import java.awt.image.ImageFilter;
+import java.awt.image.ImageObserver;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import sim.util.MessageUtils;
+
+/**
+ * Cache of the decoded images of the categories, the entities and the world.
+ * 
+ * <p>
+ * An image is identified by its location and the class of the filter applied
+ * to it, such as {@link sim.model.entity.WhiteFilter}, so that the filters
+ * are expected to have no parameters. Each image is decoded once, by a pool
+ * of decoding threads, and the same image is returned to every display which
+ * refers to it.
+ * </p>
+ * 
+ * <p>
+ * {@link #getImage(URL, ImageFilter, Component)} returns without waiting for
+ * the image to be decoded, so that the images of an application are decoded
+ * while it is loaded. {@link #loadImage(URL, ImageFilter, Component)} and
+ * {@link #waitForAll()} wait for them. The component which tracks the
+ * loading may be null, e.g. in a batch run, and the toolkit is then watched
+ * directly.
+ * </p>
+ * 
+ * @version 1.0
+ */
+public class ImageCache {
+
+	/* Image decoding threads */
+	private final ExecutorService decoders;
+
+	/* The images, "location|filter class -> Entry" */
+	private final Map images = new HashMap();
+
+	// The flags of an image which is loaded, or can not be loaded
+	private static final int DONE = ImageObserver.ALLBITS
+			| ImageObserver.FRAMEBITS | ImageObserver.ERROR
+			| ImageObserver.ABORT;
+
+	/**
+	 * An image and its decoding.
+	 */
+	private static class Entry implements Runnable {
+
+		// The image
+		final Image image;
+
+		// Media tracker for image loading, null if there is none
+		final Component component;
+
+		// The decoding of the image
+		Future decoding;
+
+		Entry(Image image, Component component) {
+			this.image = image;
+			this.component = component;
+		}
+
+		public void run() {
+			try {
+				if (component == null) {
+					waitForImage();
+					return;
+				}
+				MediaTracker tracker = new MediaTracker(component);
+				tracker.addImage(image, 0);
+				tracker.waitForAll();
+			} catch (InterruptedException e) {
+			}
+		}
+
+		/* Wait for the image through the toolkit, without a component */
+		private synchronized void waitForImage() throws InterruptedException {
+			Toolkit toolkit = Toolkit.getDefaultToolkit();
+			ImageObserver observer = new ImageObserver() {
+				public boolean imageUpdate(Image img, int flags, int x, int y,
+						int width, int height) {
+					if ((flags & DONE) == 0)
+						return true;
+					synchronized (Entry.this) {
+						Entry.this.notifyAll();
+					}
+					return false;
+				}
+			};
+			while (!toolkit.prepareImage(image, -1, -1, observer)
+					&& (toolkit.checkImage(image, -1, -1, null) & DONE) == 0)
+				wait();
+		}
+
+		/* Wait for the image to be decoded */
+		void waitFor() {
+			try {
+				decoding.get();
+			} catch (InterruptedException e) {
+			} catch (ExecutionException e) {
+				MessageUtils.debug(this, "waitFor", e.getCause().toString());
+			}
+		}
+	}
+
+	/**
+	 * Constructor.
+	 */
+	public ImageCache() {
+		decoders = Executors.newFixedThreadPool(Runtime.getRuntime()
+				.availableProcessors(), new ThreadFactory() {
+			private int count = 0;
+
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "ImageDecoder-" + (++count));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Return the image at the given location, with the given filter applied.
+	 * The image is decoded on a decoding thread, it may be incomplete when it
+	 * is returned.
+	 * 
+	 * @param url
+	 *            The location of the image
+	 * @param filter
+	 *            The filter applied to the image, null if none
+	 * @param component
+	 *            Media tracker for image loading, null if there is none
+	 * @return The shared image
+	 */
+	public Image getImage(URL url, ImageFilter filter, Component component) {
+		return getEntry(url, filter, component).image;
+	}
+
+	/**
+	 * Return the image at the given location, with the given filter applied,
+	 * after it is decoded. If the image can not be decoded, its width and
+	 * height are negative.
+	 * 
+	 * @param url
+	 *            The location of the image
+	 * @param filter
+	 *            The filter applied to the image, null if none
+	 * @param component
+	 *            Media tracker for image loading, null if there is none
+	 * @return The shared image
+	 */
+	public Image loadImage(URL url, ImageFilter filter, Component component) {
+		Entry entry = getEntry(url, filter, component);
+		entry.waitFor();
+		return entry.image;
+	}
+
+	/**
+	 * Wait for all images requested to be decoded.
+	 */
+	public void waitForAll() {
+		List entries;
+		synchronized (this) {
+			entries = new ArrayList(images.values());
+		}
+		for (int i = 0; i < entries.size(); i++)
+			((Entry) entries.get(i)).waitFor();
+	}
+
+	/**
+	 * Forget all images, so that they are decoded again when they are
+	 * requested. The images already returned are not changed.
+	 */
+	public synchronized void clear() {
+		images.clear();
+	}
+
+	/**
+	 * @return Number of images in the cache
+	 */
+	public synchronized int size() {
+		return images.size();
+	}
+
+	/* Return the entry of the image, starting to decode it if it is new */
+	private synchronized Entry getEntry(URL url, ImageFilter filter,
+			Component component) {
+		StringBuffer key = new StringBuffer(url.toExternalForm());
+		key.append('|');
+		if (filter != null)
+			key.append(filter.getClass().getName());
+		Entry entry = (Entry) images.get(key.toString());
+		if (entry == null) {
+			Toolkit toolkit = Toolkit.getDefaultToolkit();
+			Image image = toolkit.createImage(url);
+			if (filter != null)
+				image = toolkit.createImage(new FilteredImageSource(image
+						.getSource(), filter));
+			entry = new Entry(image, component);
+			entry.decoding = decoders.submit(entry);
+			images.put(key.toString(), entry);
+		}
+		return entry;
+	}
+
+}
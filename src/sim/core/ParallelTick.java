@@ -0,0 +1,192 @@
+/*
+ * BehaviorSim - version 1.0 
+ * 
+ * Copyright (C) 2010 The BehaviorSim Development Team, fasheng@cs.gsu.edu.
+ * 
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * 
+ * Info, Questions, Suggestions & Bugs Report to fasheng@cs.gsu.edu.
+ *  
+ */
+package sim.core;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import sim.model.entity.Entity;
+
+/**
+ * Parallel computation of a time step of the simulation data.
+ *
+ * <p>
+ * A time step is computed in two phases. In the "decide" phase, all active
+ * entities act on a pool of worker threads. Each worker thread has its own
+ * simulation context (see {@link SimulationContext}), and the queries
+ * of <code>AppSystem</code> read the records of the previous time step, which
+ * are not changed during the phase. In the "commit" phase, the new states of
+ * the entities are stored into the simulation data by {@link TickStepper},
+ * in the order of the entity list.
+ * </p>
+ *
+ * <p>
+ * The results are the same as those of the sequential computation, as long as
+ * an entity only changes its own states and reads the states of the other
+ * entities through the system queries. Entities can not be added, removed or
+ * replaced during the "decide" phase.
+ * </p>
+ *
+ * <p>
+ * The parallel computation is enabled by the system property
+ * {@link ConfigParameters#PARALLEL_COMPUTE}.
+ * </p>
+ *
+ * @version 1.0
+ */
+class ParallelTick {
+
+	/* Worker threads */
+	private final ExecutorService workers;
+
+	/* Number of worker threads */
+	private final int threads;
+
+	/* Entities of the current time step */
+	private Entity[] entities = new Entity[0];
+
+	private int size = 0;
+
+	/* Next entity to act */
+	private int next = 0;
+
+	/* Whether an entity failed in the current time step */
+	private volatile boolean failed = false;
+
+	/**
+	 * Constructor
+	 *
+	 * @param threads
+	 *            Number of worker threads
+	 */
+	ParallelTick(int threads) {
+		this.threads = Math.max(1, threads);
+		this.workers = Executors.newFixedThreadPool(this.threads,
+				new ThreadFactory() {
+					private int count = 0;
+
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "SimulationWorker-"
+								+ (++count));
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
+
+	/**
+	 * The "decide" phase. All active entities of the given list act once.
+	 *
+	 * @param entityList
+	 *            The entities of the current time step
+	 * @throws Exception
+	 *             If any entity fails to act
+	 */
+	void act(List entityList) throws Exception {
+
+		// The entities of this time step
+		size = entityList.size();
+		if (entities.length < size)
+			entities = new Entity[size];
+		for (int i = 0; i < size; i++)
+			entities[i] = (Entity) entityList.get(i);
+		next = 0;
+		failed = false;
+
+		AppSystem system = AppEngine.getInstance().system;
+		system.setParallelPhase(true);
+		try {
+			// Each worker takes the next entity until all entities acted
+			Future[] results = new Future[threads];
+			for (int i = 0; i < threads; i++)
+				results[i] = workers.submit(new Runnable() {
+					public void run() {
+						work();
+					}
+				});
+			Throwable failure = null;
+			for (int i = 0; i < threads; i++) {
+				try {
+					results[i].get();
+				} catch (ExecutionException e) {
+					if (failure == null)
+						failure = e.getCause();
+				}
+			}
+			if (failure instanceof Exception)
+				throw (Exception) failure;
+			if (failure instanceof Error)
+				throw (Error) failure;
+		} finally {
+			system.setParallelPhase(false);
+			Arrays.fill(entities, 0, size, null);
+		}
+
+	}
+
+	/**
+	 * Stop the worker threads
+	 */
+	void shutdown() {
+		workers.shutdown();
+	}
+
+	/**
+	 * Let the entities act on the calling worker thread
+	 */
+	private void work() {
+		SimulationContext.enter(new SimulationContext(
+				AppEngine.getInstance().system));
+		try {
+			Entity current;
+			while (!failed && (current = nextEntity()) != null) {
+				if (current.isActive())
+					current.act();
+			}
+		} catch (RuntimeException e) {
+			failed = true;
+			throw e;
+		} catch (Error e) {
+			failed = true;
+			throw e;
+		} finally {
+			SimulationContext.exit();
+		}
+	}
+
+	/**
+	 * Return the next entity to act, or <code>null</code> if all entities
+	 * acted
+	 */
+	private synchronized Entity nextEntity() {
+		return next < size ? entities[next++] : null;
+	}
+
+}
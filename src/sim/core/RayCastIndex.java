@@ -0,0 +1,638 @@
+/*
+ * BehaviorSim - version 1.0
+ *
+ * Copyright (C) 2010 The BehaviorSim Development Team, fasheng@cs.gsu.edu.
+ *
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ *
+ * Info, Questions, Suggestions & Bugs Report to fasheng@cs.gsu.edu.
+ *
+ */
+
+package sim.core;
+
+import java.util.Arrays;
+import java.util.List;
+
+import sim.model.entity.Entity;
+import sim.model.entity.EntityRecord;
+
+/**
+ * Broad-phase acceleration structure for the IR distances of
+ * <code>AppSystem</code>.
+ *
+ * <p>
+ * The oriented box (the four edges) of each entity is computed once per time
+ * step from the previous simulation record of the entity, and the box is put
+ * into all cells of a uniform grid which its bounding rectangle overlaps. A
+ * ray walks the grid cell by cell (DDA) from the source and only tests the
+ * boxes of the visited cells. The walk stops as soon as the next cell is
+ * farther than the closest hit found so far.
+ * </p>
+ *
+ * <p>
+ * Entities whose previous record is not available (e.g. entities created in
+ * the current time step) are not put into the grid. Their boxes are computed
+ * from the current entity states on each query.
+ * </p>
+ *
+ * <p>
+ * The index is not changed after it is built. The scratch state of the
+ * queries is kept per thread, so the entities acting in parallel can cast
+ * rays at the same time.
+ * </p>
+ *
+ * @version 1.0
+ */
+class RayCastIndex {
+
+	/* Number of doubles of an edge: a, b, c, XBs, XBl, YBs, YBl */
+	static final int EDGE = 7;
+
+	/* Number of doubles of a box: four edges */
+	static final int BOX = 4 * EDGE;
+
+	/*
+	 * Margin of the bounding rectangles. The boundary check of an edge
+	 * truncates the coordinations into integers, so an intersection point may
+	 * lie up to two units outside the rectangle.
+	 */
+	private static final double MARGIN = 3.0D;
+
+	/* The time slice the index is built for */
+	private int time = -1;
+
+	/* The structure version of the entity list the index is built for */
+	private int version = -1;
+
+	/* Whether the index has been built */
+	private boolean built = false;
+
+	/* Number of entities */
+	private int size = 0;
+
+	/* Entities, in the order of the entity list */
+	private Entity[] entities = new Entity[0];
+
+	/* Edges of the boxes of the entities in the grid */
+	private double[] boxes = new double[0];
+
+	/* Bounding rectangles of the boxes, with margin */
+	private double[] bounds = new double[0];
+
+	/* Whether the entity is in the grid or computed on each query */
+	private boolean[] inGrid = new boolean[0];
+
+	/* Entities which are computed on each query */
+	private int[] fallback = new int[0];
+
+	private int fallbackSize = 0;
+
+	/* Grid geometry */
+	private double minX, minY, maxX, maxY, cellSize;
+
+	private int dimX, dimY;
+
+	/* Start of each cell in the cell items, the last one is the end */
+	private int[] cellStart = new int[1];
+
+	/* Entities grouped by cell */
+	private int[] cellItems = new int[0];
+
+	/* Scratch state of the queries of each thread */
+	private static final ThreadLocal queries = new ThreadLocal() {
+		protected Object initialValue() {
+			return new Query();
+		}
+	};
+
+	/**
+	 * Whether the index is valid for the given time slice and structure
+	 * version.
+	 */
+	boolean isValid(int time, int version) {
+		return built && this.time == time && this.version == version;
+	}
+
+	/**
+	 * Rebuild the index from the previous records of the given entities.
+	 *
+	 * @param entityList
+	 *            All configured entities
+	 * @param data
+	 *            The simulation data
+	 * @param time
+	 *            The current time slice
+	 * @param version
+	 *            The structure version of the entity list
+	 */
+	void rebuild(List entityList, SimulationData data, int time, int version) {
+
+		Arrays.fill(entities, 0, size, null);
+		size = 0;
+		fallbackSize = 0;
+		ensureCapacity(entityList.size());
+
+		// Boxes of the entities
+		int n = 0;
+		EntityRecord record = new EntityRecord();
+		for (int i = 0; i < entityList.size(); i++) {
+			Entity e = (Entity) entityList.get(i);
+			entities[size] = e;
+			inGrid[size] = false;
+			if (data.getPreviousEntityRecord(e, time, record)) {
+				computeBox(e.getHeight() / 2, e.getWidth() / 2,
+						record.direction, record.position.x,
+						record.position.y, boxes, size * BOX);
+				if (computeBounds(boxes, size * BOX, bounds, size * 4)) {
+					inGrid[size] = true;
+					n++;
+				}
+			}
+			if (!inGrid[size])
+				fallback[fallbackSize++] = size;
+			size++;
+		}
+
+		buildGrid(n);
+
+		this.time = time;
+		this.version = version;
+		this.built = true;
+
+	}
+
+	/**
+	 * Return the closest distance from the source along the given direction
+	 * to the boxes of the entities, the entity with the specified id and
+	 * entities not accepted by the filter are excluded.
+	 *
+	 * @param entityID
+	 *            The id of the source entity
+	 * @param catName
+	 *            The category name of the destination entities,
+	 *            <code>null</code> for all entities
+	 * @param direction
+	 *            The source direction
+	 * @param pX
+	 *            The source coordination x
+	 * @param pY
+	 *            The source coordination y
+	 * @param initial
+	 *            The initial closest distance
+	 * @return The closest IR distance, or <code>initial</code> if nothing is
+	 *         hit closer
+	 */
+	double cast(int entityID, String catName, double direction, double pX,
+			double pY, double initial) {
+		Query q = (Query) queries.get();
+		q.oneDirection[0] = direction;
+		q.oneDistance[0] = initial;
+		castAll(entityID, catName, q.oneDirection, pX, pY, q.oneDistance);
+		return q.oneDistance[0];
+	}
+
+	/**
+	 * Cast a fan of rays from the same source. The destination entities are
+	 * filtered and the boxes of the entities not in the grid are computed only
+	 * once for all rays.
+	 *
+	 * @param entityID
+	 *            The id of the source entity
+	 * @param catName
+	 *            The category name of the destination entities,
+	 *            <code>null</code> for all entities
+	 * @param directions
+	 *            The directions of the rays
+	 * @param pX
+	 *            The source coordination x
+	 * @param pY
+	 *            The source coordination y
+	 * @param distances
+	 *            The initial closest distance of each ray on input, the
+	 *            closest IR distance of each ray on output
+	 */
+	void castAll(int entityID, String catName, double[] directions,
+			double pX, double pY, double[] distances) {
+
+		// A new batch, the filter is evaluated once per entity
+		Query q = (Query) queries.get();
+		q.ensureCapacity(size);
+		if (++q.batch == 0) {
+			Arrays.fill(q.checked, 0);
+			q.batch = 1;
+		}
+
+		// Boxes of the entities which are not in the grid
+		int m = 0;
+		for (int i = 0; i < fallbackSize; i++) {
+			int k = fallback[i];
+			if (!accept(q, k, entityID, catName))
+				continue;
+			Entity e = entities[k];
+			if (q.scratch.length < (m + 1) * BOX) {
+				double[] grown = new double[q.scratch.length * 2];
+				System.arraycopy(q.scratch, 0, grown, 0, m * BOX);
+				q.scratch = grown;
+			}
+			computeBox(e.getHeight() / 2, e.getWidth() / 2, e.getDirection(),
+					e.getPosition().x, e.getPosition().y, q.scratch, m * BOX);
+			m++;
+		}
+
+		for (int r = 0; r < directions.length; r++) {
+			double cosA = Math.cos(directions[r]), sinA = Math
+					.sin(directions[r]);
+			double a1 = sinA, b1 = -1 * cosA, c1 = pY * cosA - pX * sinA;
+			double Fdistance = distances[r];
+			for (int j = 0; j < m; j++) {
+				double temp = distanceToBox(q.scratch, j * BOX, a1, b1, c1,
+						cosA, sinA, pX, pY);
+				if (temp < Fdistance)
+					Fdistance = temp;
+			}
+			distances[r] = walk(q, entityID, catName, a1, b1, c1, cosA,
+					sinA, pX, pY, Fdistance);
+		}
+
+	}
+
+	/**
+	 * Walk the grid along a single ray and test the boxes of the visited
+	 * cells.
+	 *
+	 * @return The closest IR distance, or <code>Fdistance</code> if nothing
+	 *         is hit closer
+	 */
+	private double walk(Query q, int entityID, String catName, double a1,
+			double b1, double c1, double cosA, double sinA, double pX,
+			double pY, double Fdistance) {
+
+		if (cellItems.length == 0 || Double.isNaN(cosA)
+				|| Double.isNaN(pX + pY) || Double.isInfinite(pX + pY))
+			return Fdistance;
+
+		// Clip the ray to the grid bounds
+		double tEnter = 0, tExit = Double.POSITIVE_INFINITY;
+		if (cosA != 0) {
+			double t1 = (minX - pX) / cosA, t2 = (maxX - pX) / cosA;
+			tEnter = Math.max(tEnter, Math.min(t1, t2));
+			tExit = Math.min(tExit, Math.max(t1, t2));
+		} else if (pX < minX || pX > maxX) {
+			return Fdistance;
+		}
+		if (sinA != 0) {
+			double t1 = (minY - pY) / sinA, t2 = (maxY - pY) / sinA;
+			tEnter = Math.max(tEnter, Math.min(t1, t2));
+			tExit = Math.min(tExit, Math.max(t1, t2));
+		} else if (pY < minY || pY > maxY) {
+			return Fdistance;
+		}
+		if (tEnter > tExit)
+			return Fdistance;
+
+		// Walk the grid
+		if (++q.stamp == 0) {
+			Arrays.fill(q.stamps, 0);
+			q.stamp = 1;
+		}
+		int gx = cell(pX + cosA * tEnter, minX, dimX);
+		int gy = cell(pY + sinA * tEnter, minY, dimY);
+		int stepX = cosA > 0 ? 1 : -1, stepY = sinA > 0 ? 1 : -1;
+		double tDeltaX = cosA != 0 ? cellSize / Math.abs(cosA)
+				: Double.POSITIVE_INFINITY;
+		double tDeltaY = sinA != 0 ? cellSize / Math.abs(sinA)
+				: Double.POSITIVE_INFINITY;
+		double tMaxX = cosA != 0 ? (minX + (gx + (stepX > 0 ? 1 : 0))
+				* cellSize - pX)
+				/ cosA : Double.POSITIVE_INFINITY;
+		double tMaxY = sinA != 0 ? (minY + (gy + (stepY > 0 ? 1 : 0))
+				* cellSize - pY)
+				/ sinA : Double.POSITIVE_INFINITY;
+		double tCell = tEnter;
+		while (gx >= 0 && gx < dimX && gy >= 0 && gy < dimY) {
+			// The remaining cells are farther than the closest hit
+			if (tCell > Fdistance + MARGIN)
+				break;
+			int c = gy * dimX + gx;
+			for (int j = cellStart[c]; j < cellStart[c + 1]; j++) {
+				int k = cellItems[j];
+				if (q.stamps[k] == q.stamp)
+					continue;
+				q.stamps[k] = q.stamp;
+				if (!accept(q, k, entityID, catName))
+					continue;
+				double temp = distanceToBox(boxes, k * BOX, a1, b1, c1, cosA,
+						sinA, pX, pY);
+				if (temp < Fdistance)
+					Fdistance = temp;
+			}
+			if (tMaxX < tMaxY) {
+				tCell = tMaxX;
+				tMaxX += tDeltaX;
+				gx += stepX;
+			} else {
+				tCell = tMaxY;
+				tMaxY += tDeltaY;
+				gy += stepY;
+			}
+		}
+		return Fdistance;
+	}
+
+	/**
+	 * Whether the entity is a destination of the rays. It is evaluated once
+	 * per batch of rays.
+	 */
+	private boolean accept(Query q, int k, int entityID, String catName) {
+		if (q.checked[k] != q.batch) {
+			Entity e = entities[k];
+			q.accepted[k] = e.getMyId() != entityID && e.isActive()
+					&& (catName == null || e.getEntityType().equals(catName));
+			q.checked[k] = q.batch;
+		}
+		return q.accepted[k];
+	}
+
+	/**
+	 * Compute the four edges (front, back, right and left) of a rectangle
+	 * shape. Each edge is described by a line a*x+b*y+c=0 and the boundary
+	 * of the segment on the line.
+	 *
+	 * @param LhalfSize
+	 *            Half of the destination object height
+	 * @param WhalfSize
+	 *            Half of the destination object width
+	 * @param Angle
+	 *            Moving direction of the dest. object
+	 * @param posX
+	 *            The coordination x of the dest.
+	 * @param posY
+	 *            The coordination y of the dest.
+	 * @param out
+	 *            The array to store the edges
+	 * @param offset
+	 *            The offset of the box in the array
+	 */
+	static void computeBox(double LhalfSize, double WhalfSize, double Angle,
+			double posX, double posY, double[] out, int offset) {
+		double cos = Math.cos(Angle), sin = Math.sin(Angle);
+		double absCos = Math.abs(cos), absSin = Math.abs(sin);
+		int o = offset;
+		// front edge
+		out[o++] = cos;
+		out[o++] = sin;
+		out[o++] = -1 * LhalfSize - posX * cos - posY * sin;
+		out[o++] = posX + LhalfSize * cos - WhalfSize * absSin;
+		out[o++] = posX + LhalfSize * cos + WhalfSize * absSin;
+		out[o++] = posY + LhalfSize * sin - WhalfSize * absCos;
+		out[o++] = posY + LhalfSize * sin + WhalfSize * absCos;
+		// back edge
+		out[o++] = cos;
+		out[o++] = sin;
+		out[o++] = LhalfSize - posX * cos - posY * sin;
+		out[o++] = posX - LhalfSize * cos - WhalfSize * absSin;
+		out[o++] = posX - LhalfSize * cos + WhalfSize * absSin;
+		out[o++] = posY - LhalfSize * sin - WhalfSize * absCos;
+		out[o++] = posY - LhalfSize * sin + WhalfSize * absCos;
+		// right edge
+		out[o++] = sin;
+		out[o++] = -1 * cos;
+		out[o++] = -1 * WhalfSize - posX * sin + posY * cos;
+		out[o++] = posX + WhalfSize * sin - LhalfSize * absCos;
+		out[o++] = posX + WhalfSize * sin + LhalfSize * absCos;
+		out[o++] = posY - WhalfSize * cos - LhalfSize * absSin;
+		out[o++] = posY - WhalfSize * cos + LhalfSize * absSin;
+		// left edge
+		out[o++] = sin;
+		out[o++] = -1 * cos;
+		out[o++] = WhalfSize - posX * sin + posY * cos;
+		out[o++] = posX - WhalfSize * sin - LhalfSize * absCos;
+		out[o++] = posX - WhalfSize * sin + LhalfSize * absCos;
+		out[o++] = posY + WhalfSize * cos - LhalfSize * absSin;
+		out[o++] = posY + WhalfSize * cos + LhalfSize * absSin;
+	}
+
+	/**
+	 * Return the distance from the source to the closest edge of the box
+	 * which is hit by the ray. The ray is described by the line
+	 * a1*x+b1*y+c1=0 and the direction (cosA, sinA).
+	 *
+	 * @return The distance, or <code>Double.POSITIVE_INFINITY</code> if the
+	 *         box is not hit
+	 */
+	static double distanceToBox(double[] box, int offset, double a1,
+			double b1, double c1, double cosA, double sinA, double Sx,
+			double Sy) {
+		double Fdistance = Double.POSITIVE_INFINITY, temp;
+		for (int o = offset; o < offset + BOX; o += EDGE) {
+			temp = distanceToEdge(a1, b1, c1, box[o], box[o + 1], box[o + 2],
+					box[o + 3], box[o + 4], box[o + 5], box[o + 6], Sx, Sy,
+					cosA, sinA);
+			if (temp < Fdistance)
+				Fdistance = temp;
+		}
+		return Fdistance;
+	}
+
+	/**
+	 * Return the distance from the source to the intersection point of the
+	 * ray and the edge.
+	 */
+	private static double distanceToEdge(double a1, double b1, double c1,
+			double a2, double b2, double c2, double XBs, double XBl,
+			double YBs, double YBl, double Sx, double Sy, double cosA,
+			double sinA) {
+		double intectX, intectY, D;
+		if ((a1 * b2 - a2 * b1) == 0)
+			return Double.POSITIVE_INFINITY; // two lines are parallel
+		else {
+			intectX = (b1 * c2 - c1 * b2) / (a1 * b2 - a2 * b1);
+			intectY = (c1 * a2 - a1 * c2) / (a1 * b2 - a2 * b1);
+			D = Math.sqrt((intectX - Sx) * (intectX - Sx) + (intectY - Sy)
+					* (intectY - Sy));
+			// check the intersection point is at "front" or "back"
+			if ((intectX - Sx) * cosA < 0 || (intectY - Sy) * sinA < 0)
+				return Double.POSITIVE_INFINITY;
+			else { // check if the intersection point is inside the boundary
+				if ((int) (intectX) < (int) XBs || (int) (intectX) > (int) XBl
+						|| (int) (intectY) < (int) YBs
+						|| (int) (intectY) > (int) YBl)
+					return Double.POSITIVE_INFINITY;
+				else
+					return D;
+			}
+		}
+	}
+
+	/**
+	 * Compute the bounding rectangle (with margin) of the box.
+	 *
+	 * @return Whether the rectangle is finite
+	 */
+	private static boolean computeBounds(double[] box, int offset,
+			double[] out, int o) {
+		double x0 = Double.POSITIVE_INFINITY, x1 = Double.NEGATIVE_INFINITY;
+		double y0 = Double.POSITIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+		for (int e = offset; e < offset + BOX; e += EDGE) {
+			x0 = Math.min(x0, box[e + 3]);
+			x1 = Math.max(x1, box[e + 4]);
+			y0 = Math.min(y0, box[e + 5]);
+			y1 = Math.max(y1, box[e + 6]);
+		}
+		out[o] = x0 - MARGIN;
+		out[o + 1] = y0 - MARGIN;
+		out[o + 2] = x1 + MARGIN;
+		out[o + 3] = y1 + MARGIN;
+		double sum = x0 + x1 + y0 + y1;
+		return !Double.isNaN(sum) && !Double.isInfinite(sum);
+	}
+
+	/**
+	 * Put the boxes into the grid cells.
+	 */
+	private void buildGrid(int n) {
+
+		// Bounds of all boxes and the average box extent
+		minX = minY = Double.POSITIVE_INFINITY;
+		maxX = maxY = Double.NEGATIVE_INFINITY;
+		double extent = 0;
+		for (int k = 0; k < size; k++) {
+			if (!inGrid[k])
+				continue;
+			int o = k * 4;
+			minX = Math.min(minX, bounds[o]);
+			minY = Math.min(minY, bounds[o + 1]);
+			maxX = Math.max(maxX, bounds[o + 2]);
+			maxY = Math.max(maxY, bounds[o + 3]);
+			extent += Math.max(bounds[o + 2] - bounds[o], bounds[o + 3]
+					- bounds[o + 1]);
+		}
+		if (n == 0) {
+			dimX = dimY = 0;
+			cellItems = new int[0];
+			return;
+		}
+
+		// About one box per cell, but not smaller than an average box
+		double w = maxX - minX, h = maxY - minY;
+		cellSize = Math.max(Math.sqrt(w * h / n), Math.max(w, h) / n);
+		cellSize = Math.max(cellSize, extent / n);
+		if (!(cellSize > 0))
+			cellSize = 1;
+		dimX = (int) Math.floor(w / cellSize) + 1;
+		dimY = (int) Math.floor(h / cellSize) + 1;
+
+		// Count the cells of each box, then fill them
+		int cells = dimX * dimY;
+		if (cellStart.length < cells + 1)
+			cellStart = new int[cells + 1];
+		Arrays.fill(cellStart, 0, cells + 1, 0);
+		int total = 0;
+		for (int pass = 0; pass < 2; pass++) {
+			if (pass == 1) {
+				for (int c = 0; c < cells; c++)
+					cellStart[c + 1] += cellStart[c];
+				cellItems = new int[total];
+			}
+			int[] next = pass == 1 ? new int[cells] : null;
+			if (next != null)
+				System.arraycopy(cellStart, 0, next, 0, cells);
+			for (int k = 0; k < size; k++) {
+				if (!inGrid[k])
+					continue;
+				int o = k * 4;
+				int x0 = cell(bounds[o], minX, dimX), x1 = cell(bounds[o + 2],
+						minX, dimX);
+				int y0 = cell(bounds[o + 1], minY, dimY), y1 = cell(
+						bounds[o + 3], minY, dimY);
+				for (int gy = y0; gy <= y1; gy++) {
+					for (int gx = x0; gx <= x1; gx++) {
+						int c = gy * dimX + gx;
+						if (pass == 0) {
+							cellStart[c + 1]++;
+							total++;
+						} else {
+							cellItems[next[c]++] = k;
+						}
+					}
+				}
+			}
+		}
+
+	}
+
+	private int cell(double v, double min, int dim) {
+		int index = (int) Math.floor((v - min) / cellSize);
+		if (index < 0)
+			return 0;
+		if (index >= dim)
+			return dim - 1;
+		return index;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (entities.length >= capacity)
+			return;
+		int newCapacity = Math.max(capacity, entities.length * 2);
+		entities = new Entity[newCapacity];
+		boxes = new double[newCapacity * BOX];
+		bounds = new double[newCapacity * 4];
+		inGrid = new boolean[newCapacity];
+		fallback = new int[newCapacity];
+	}
+
+	/**
+	 * Scratch state of the queries of a thread. The stamps and the batches
+	 * keep increasing, so the state can be reused by the following indexes.
+	 */
+	private static class Query {
+
+		/* Stamp of the last ray which tested the entity */
+		int[] stamps = new int[0];
+
+		int stamp = 0;
+
+		/* Batch of rays in which the filter of the entity is evaluated */
+		int[] checked = new int[0];
+
+		/* Result of the filter of the entity */
+		boolean[] accepted = new boolean[0];
+
+		int batch = 0;
+
+		/* Scratch boxes for the entities computed on each query */
+		double[] scratch = new double[BOX];
+
+		/* Scratch arrays for the single ray queries */
+		final double[] oneDirection = new double[1];
+
+		final double[] oneDistance = new double[1];
+
+		void ensureCapacity(int capacity) {
+			if (stamps.length >= capacity)
+				return;
+			int newCapacity = Math.max(capacity, stamps.length * 2);
+			stamps = new int[newCapacity];
+			stamp = 0;
+			checked = new int[newCapacity];
+			accepted = new boolean[newCapacity];
+			batch = 0;
+		}
+	}
+
+}
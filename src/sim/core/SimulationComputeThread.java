@@ -30,14 +30,14 @@ import java.awt.Dimension;
 import java.awt.Toolkit;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
 
 import javax.swing.JDialog;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.SpringLayout;
 
-import sim.model.entity.Entity;
-import sim.model.entity.EntityRecord;
 import sim.ui.SimulationView;
 import sim.util.MessageUtils;
 import sim.util.SimException;
@@ -88,6 +88,22 @@ public class SimulationComputeThread extends Object implements AppRunnable {
 	 */
 	private boolean initialRun = true;
 
+	/**
+	 * Computation of the time steps
+	 */
+	private TickStepper stepper = null;
+
+	/**
+	 * Queue of the computed time steps to be displayed
+	 */
+	private TickFrameQueue frames = null;
+
+	/**
+	 * Recorder of the computed time steps, <code>null</code> if they are not
+	 * recorded
+	 */
+	private TrajectoryRecorder recorder = null;
+
 	/**
 	 * Constructor
 	 * 
@@ -147,6 +163,80 @@ public class SimulationComputeThread extends Object implements AppRunnable {
 	 * Run to compute the simulation data
 	 */
 	public void run() {
+		ConfigParameters params = engineRef.system.systemParameters;
+		stepper = new TickStepper(engineRef.system);
+		openRecorder(params.getTrajectoryRecordDirectory());
+		// The entities act in the context of this thread
+		SimulationContext.enter(new SimulationContext(engineRef.system));
+		frames = data.getFrameQueue();
+		engineRef.tickBoundary.enter();
+		try {
+			compute();
+		} finally {
+			// No more frames, the display stops after the queued ones
+			frames.close();
+			engineRef.tickBoundary.exit();
+			SimulationContext.exit();
+			stepper.shutdown();
+			closeRecorder();
+		}
+	}
+
+	/* Create the recorder in the given directory, if any */
+	private void openRecorder(File dir) {
+		if (dir == null)
+			return;
+		StringBuffer name = new StringBuffer(String.valueOf(engineRef
+				.appManager.currentApp.getAppName()));
+		name.append('-').append(System.currentTimeMillis()).append('.')
+				.append(TrajectoryRecorder.EXTENSION);
+		try {
+			dir.mkdirs();
+			recorder = new TrajectoryRecorder(new File(dir, name.toString()));
+		} catch (IOException e) {
+			MessageUtils.debug(this, "openRecorder", e);
+		}
+	}
+
+	/* Record the time step, the recording stops if it fails */
+	private void record(long timestep, java.util.List entityList) {
+		if (recorder == null)
+			return;
+		try {
+			recorder.record(timestep, entityList);
+		} catch (IOException e) {
+			MessageUtils.debug(this, "record", e);
+			closeRecorder();
+		}
+	}
+
+	private void closeRecorder() {
+		try {
+			if (recorder != null)
+				recorder.close();
+		} catch (IOException e) {
+			MessageUtils.debug(this, "closeRecorder", e);
+		}
+		recorder = null;
+	}
+
+	/*
+	 * Hand the time step over to the display. The tasks given to the tick
+	 * boundary run while this thread waits, e.g. when the simulation is paused
+	 */
+	private boolean handOver(long timestep) throws InterruptedException {
+		engineRef.tickBoundary.park();
+		try {
+			return frames.put(timestep);
+		} finally {
+			engineRef.tickBoundary.unpark();
+		}
+	}
+
+	/**
+	 * Compute the simulation data until the thread is stopped
+	 */
+	private void compute() {
 
 		// Show Progress dialog
 		new Thread() {
@@ -165,28 +255,21 @@ public class SimulationComputeThread extends Object implements AppRunnable {
 		// Percentage
 		int percent = totalTimeTicks / 100;
 
+		// Number of computed data arrays, the main array is computed first
+		long run = 0;
+
+		// The initial states are displayed first
+		if (initialRun)
+			record(0, entityList);
+		try {
+			if (initialRun && !handOver(0))
+				return;
+		} catch (InterruptedException e) {
+			return;
+		}
+
 		// Begin the computation
 		while (!stop) {
-			if (!data.isComputeSwitched()) { // For main data
-				if (data.isMainCompleted()) { // The main data is already
-					// computed
-					data.setComputeSwitched(!data.isComputeSwitched()); // Switch
-					// to
-					// compute
-					// backup
-					// data
-					continue;
-				}
-				data.setMainCompleted(false); // The main data is not computed.
-				// Compute the main data
-			} else { // For backup data
-				if (data.isBackupCompleted()) { // The backup data is already
-					// computed
-					data.setComputeSwitched(!data.isComputeSwitched());
-					continue;
-				}
-				data.setBackupCompleted(false);
-			}
 
 			try {
 
@@ -203,49 +286,23 @@ public class SimulationComputeThread extends Object implements AppRunnable {
 					prevS = curS;
 					entityList = engineRef.system.getAvailableEntities();
 					curS = entityList.size();
-					for (int i = 0; i < curS; i++) {
-
-						// Stop?
-						if (stop) {
-							MessageUtils.debug(this, "run",
-									"Computation Tread Stopped.");
-							return;
-						}
-
-						// Let the entity do action
-						Entity current = null;
-						try {
-							current = (Entity) entityList.get(i);
-						} catch (Exception e) {
-							continue;
-						}
-						if (current.isActive()) {
-							current.act();
-						}
-
-						// Store the current state
-						EntityRecord record = data.getEntityRecord2(current,
-								simulationStep);
-						if (record == null) // The entity has been removed
-						{
-							continue;
-						}
-						if (record.position != null) {
-							record.position.x = current.getOriginalPosition().x;
-							record.position.y = current.getOriginalPosition().y;
-						} else {
-							record.position = current.getPosition();
-						}
-						record.direction = current.getDirection();
-						record.state = current.getState();
-						record.display = current.getOrdiginalDisplay();
-						/**
-						 * Basic assumption here: The display will not be
-						 * changed during the simulation.
-						 **/
-
-						data.store(current, record, simulationStep);
 
+					// Let the entities act and store their states
+					if (!stepper.step(entityList, simulationStep)) {
+						MessageUtils.debug(this, "run",
+								"Computation Tread Stopped.");
+						return;
+					}
+
+					// The states of the entities are consistent here
+					record(run * totalTimeTicks + simulationStep, entityList);
+
+					// Hand the time step over to the display, wait while the
+					// display is a whole data array behind
+					if (!handOver(run * totalTimeTicks + simulationStep)) {
+						MessageUtils.debug(this, "run",
+								"Computation Tread Stopped.");
+						return;
 					}
 
 					// Update the progress
@@ -257,6 +314,9 @@ public class SimulationComputeThread extends Object implements AppRunnable {
 
 				}
 
+			} catch (InterruptedException e) {
+				MessageUtils.debug(this, "run", "Computation Tread Stopped.");
+				return;
 			} catch (Exception e) {
 				e.printStackTrace();
 				MessageUtils.debugAndDisplay(this, "run", new SimException(
@@ -276,15 +336,9 @@ public class SimulationComputeThread extends Object implements AppRunnable {
 				noticeDialog.dispose();
 			}
 
-			// Set the completion
-			if (!data.isComputeSwitched()) // For main data
-				data.setMainCompleted(true);
-			else
-				// For backup data
-				data.setBackupCompleted(true);
-
 			// Set the initial run flag
 			initialRun = false;
+			run++;
 
 			// Switch to compute the other data
 			data.setComputeSwitched(!data.isComputeSwitched());
@@ -314,6 +368,14 @@ public class SimulationComputeThread extends Object implements AppRunnable {
 	 */
 	public void setSuspended(boolean suspended) {
 		this.stop = suspended;
+		// Stop the computation in the middle of a time step
+		TickStepper s = stepper;
+		if (suspended && s != null)
+			s.stop();
+		// Wake up the computation if it is waiting for the display
+		TickFrameQueue f = frames;
+		if (suspended && f != null)
+			f.close();
 	}
 
 	/**
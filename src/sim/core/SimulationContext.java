@@ -0,0 +1,125 @@
+/*
+ * BehaviorSim - version 1.0 
+ * 
+ * Copyright (C) 2010 The BehaviorSim Development Team, fasheng@cs.gsu.edu.
+ * 
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * 
+ * Info, Questions, Suggestions & Bugs Report to fasheng@cs.gsu.edu.
+ *  
+ */
+package sim.core;
+
+import sim.model.entity.Category;
+
+/**
+ * The context of a running simulation. It holds the current computing entity
+ * and the system object the entity belongs to.
+ *
+ * <p>
+ * A context is bound to the thread which computes the simulation data, see
+ * {@link #enter(SimulationContext)}. The behaviors, actions and mechanisms
+ * obtain the current computing entity through
+ * {@link AppEngine#getCurrentEntity()}, which returns the entity of the
+ * context of the calling thread. Several entities, or several simulations,
+ * can be computed on different threads without changing the current entity
+ * of each other.
+ * </p>
+ *
+ * <p>
+ * If no context is bound to the calling thread, e.g. the GUI thread, the
+ * current entity of the current application is used instead.
+ * </p>
+ *
+ * @version 1.0
+ */
+public class SimulationContext {
+
+	/* Context of each thread */
+	private static final ThreadLocal contexts = new ThreadLocal();
+
+	/* The system object of the simulation */
+	private final AppSystem system;
+
+	/* The current computing entity */
+	private Category currentEntity = null;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param system
+	 *            The system object of the simulation
+	 */
+	public SimulationContext(AppSystem system) {
+		this.system = system;
+	}
+
+	/**
+	 * Return the context bound to the calling thread
+	 * 
+	 * @return The context, or <code>null</code> if no context is bound
+	 */
+	public static SimulationContext getContext() {
+		return (SimulationContext) contexts.get();
+	}
+
+	/**
+	 * Bind the given context to the calling thread
+	 * 
+	 * @param context
+	 *            The context to bind
+	 */
+	public static void enter(SimulationContext context) {
+		contexts.set(context);
+	}
+
+	/**
+	 * Unbind the context from the calling thread
+	 */
+	public static void exit() {
+		contexts.set(null);
+	}
+
+	/**
+	 * Return the system object of the simulation
+	 * 
+	 * @return The system object
+	 */
+	public AppSystem getSystem() {
+		return system;
+	}
+
+	/**
+	 * Return the current computing entity
+	 * 
+	 * @return The current computing entity
+	 */
+	public Category getCurrentEntity() {
+		return currentEntity;
+	}
+
+	/**
+	 * Change the current computing entity
+	 * 
+	 * @param entity
+	 *            The new current computing entity
+	 */
+	public void setCurrentEntity(Category entity) {
+		this.currentEntity = entity;
+	}
+
+}
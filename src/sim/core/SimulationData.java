@@ -25,18 +25,32 @@
 
 package sim.core;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+import sim.model.entity.Display;
 import sim.model.entity.Entity;
 import sim.model.entity.EntityRecord;
+import sim.util.Point;
 
 /**
  * Repository of simulation data. To make the simulation faster, two arrays are
  * used alternatively and wrap-aroundly to store the simulation data (main array
  * is used first and then the backup array). The computation and display of
  * simulation results follow the same order for
- * <code>SimulationComputeThread</code> and <code>AnimateThread</code>.
+ * <code>SimulationComputeThread</code> and <code>AnimateThread</code>. Each
+ * computed time step is handed over to the display through the tick frame
+ * queue, see {@link TickFrameQueue}.
+ * 
+ * <p>
+ * The records are stored by columns. Each entity is assigned a slot, and the
+ * slot holds primitive arrays of the positions, directions and states of
+ * both the main and the backup array. The display component is kept once per
+ * entity, since it is not changed during the simulation. No object is created
+ * per record; the records are copied into and out of the columns through
+ * <code>EntityRecord</code> objects owned by the callers.
+ * </p>
  * 
  * @author Pavel, Fasheng Qiu
  * @version 1.0
@@ -44,14 +58,53 @@ import sim.model.entity.EntityRecord;
 public class SimulationData {
 
 	/**
-	 * Simulation data for each entity
+	 * State of the records which have not been stored yet
+	 */
+	private static final byte NO_RECORD = Byte.MIN_VALUE;
+
+	/**
+	 * Slot of each entity
+	 */
+	private Map slots = new HashMap(10);
+
+	/**
+	 * Position x of the records of each slot. The records of the main array
+	 * come first, followed by those of the backup array.
+	 */
+	private double[][] xs = new double[10][];
+
+	/**
+	 * Position y of the records of each slot
+	 */
+	private double[][] ys = new double[10][];
+
+	/**
+	 * Motion direction of the records of each slot
+	 */
+	private double[][] directions = new double[10][];
+
+	/**
+	 * Entity state of the records of each slot, <code>NO_RECORD</code> if the
+	 * record has not been stored
+	 */
+	private byte[][] states = new byte[10][];
+
+	/**
+	 * Display component of each slot
+	 */
+	private Display[] displays = new Display[10];
+
+	/**
+	 * Slots released by removed entities
 	 */
-	private Map data = new HashMap(10);
+	private int[] freeSlots = new int[10];
+
+	private int freeCount = 0;
 
 	/**
-	 * Backup simulation data for each entity
+	 * Number of slots ever used
 	 */
-	private Map backup = new HashMap(10);
+	private int slotCount = 0;
 
 	/**
 	 * Whether the "display" data source is switched. If false, main data will
@@ -66,14 +119,9 @@ public class SimulationData {
 	private boolean computeSwitched = false;
 
 	/**
-	 * Whether the computation of the main data is completed.
-	 */
-	private boolean mainCompleted = false;
-
-	/**
-	 * Whether the computation of the backup data is completed.
+	 * Computed time steps to be displayed
 	 */
-	private boolean backupCompleted = false;
+	private volatile TickFrameQueue frames = null;
 
 	/**
 	 * Initial size of entity simulation data
@@ -87,6 +135,7 @@ public class SimulationData {
 	 */
 	public SimulationData(int totaltimeticks) {
 		entityTotalRecords = totaltimeticks;
+		frames = new TickFrameQueue(totaltimeticks);
 	}
 
 	/**
@@ -98,10 +147,13 @@ public class SimulationData {
 	public void reset() {
 
 		// Reset the flags
-		this.setBackupCompleted(false);
 		this.setComputeSwitched(false);
 		this.setDisplaySwitched(false);
-		this.setMainCompleted(false);
+
+		// The frames of the former computation are dropped, and its compute
+		// thread is released if it is waiting for the display
+		frames.close();
+		frames = new TickFrameQueue(entityTotalRecords);
 
 	}
 
@@ -113,15 +165,24 @@ public class SimulationData {
 	 */
 	public void add(Entity entity) {
 
-		EntityRecord[] recordArray = new EntityRecord[entityTotalRecords];
-		for (int i = 0; i < recordArray.length; i++)
-			recordArray[i] = new EntityRecord();
-		data.put(entity, recordArray);
+		Integer slot = (Integer) slots.get(entity);
+		int s;
+		if (slot != null) {
+			s = slot.intValue();
+		} else {
+			s = freeCount > 0 ? freeSlots[--freeCount] : slotCount++;
+			ensureCapacity(slotCount);
+			slots.put(entity, new Integer(s));
+		}
 
-		recordArray = new EntityRecord[entityTotalRecords];
-		for (int i = 0; i < recordArray.length; i++)
-			recordArray[i] = new EntityRecord();
-		backup.put(entity, recordArray);
+		// Both the main and the backup array
+		xs[s] = new double[2 * entityTotalRecords];
+		ys[s] = new double[2 * entityTotalRecords];
+		directions[s] = new double[2 * entityTotalRecords];
+		byte[] state = new byte[2 * entityTotalRecords];
+		Arrays.fill(state, NO_RECORD);
+		states[s] = state;
+		displays[s] = null;
 
 	}
 
@@ -132,63 +193,72 @@ public class SimulationData {
 	 *            The target entity
 	 */
 	public void remove(Entity entity) {
-		data.remove(entity);
-		backup.remove(entity);
+		Integer slot = (Integer) slots.remove(entity);
+		if (slot == null)
+			return;
+		release(slot.intValue());
 	}
 
 	/**
-	 * Store the data of a specified time step of the target entity to the
-	 * repository
+	 * Hand the simulation data of an entity over to another entity, which
+	 * replaces the former one in the simulation.
 	 * 
 	 * @param entity
-	 *            The target entity
-	 * @param record
-	 *            The simulation data
-	 * @param time
-	 *            The time to set
+	 *            The entity to be replaced
+	 * @param newEntity
+	 *            The new entity
 	 */
-	public void store(Entity entity, EntityRecord record, int time) {
-		EntityRecord[] records = null;
-		if (!computeSwitched)
-			records = (EntityRecord[]) data.get(entity);
-		else
-			records = (EntityRecord[]) backup.get(entity);
-		if (records != null)
-			records[time % entityTotalRecords] = record;
+	public void replace(Entity entity, Entity newEntity) {
+		Integer slot = (Integer) slots.remove(entity);
+		if (slot == null)
+			return;
+		Integer previous = (Integer) slots.put(newEntity, slot);
+		if (previous != null && previous.intValue() != slot.intValue())
+			release(previous.intValue());
 	}
 
 	/**
-	 * Save the simulation data of a target entity
+	 * Store the data of a specified time step of the target entity to the
+	 * repository. The values of the record are copied.
 	 * 
 	 * @param entity
 	 *            The target entity
 	 * @param record
 	 *            The simulation data
+	 * @param time
+	 *            The time to set
 	 */
-	public void put(Entity entity, EntityRecord[] record) {
-		if (!computeSwitched)
-			data.put(entity, record);
-		else
-			backup.put(entity, record);
+	public void store(Entity entity, EntityRecord record, int time) {
+		int s = slotOf(entity);
+		if (s < 0)
+			return;
+		int i = index(computeSwitched, time % entityTotalRecords);
+		if (record.position != null) {
+			xs[s][i] = record.position.x;
+			ys[s][i] = record.position.y;
+			states[s][i] = (byte) record.state;
+		} else {
+			states[s][i] = NO_RECORD;
+		}
+		directions[s][i] = record.direction;
+		if (record.display != null)
+			displays[s] = record.display;
 	}
 
 	/**
-	 * Return the simulation data of an entity
+	 * Whether the simulation data of the entity is kept in this repository
 	 * 
 	 * @param entity
 	 *            The target entity
-	 * @return The simulation data
+	 * @return Whether the simulation data of the entity is kept
 	 */
-	public EntityRecord[] getEntityRecord(Entity entity) {
-		if (!displaySwitched)
-			return (EntityRecord[]) data.get(entity);
-		else
-			return (EntityRecord[]) backup.get(entity);
+	public boolean contains(Entity entity) {
+		return slots.containsKey(entity);
 	}
 
 	/**
-	 * Return the previous simulation record of a specified time of an entity.
-	 * Wrap around is used to retrieve the record.
+	 * Copy the previous simulation record of a specified time of an entity
+	 * into the given record. Wrap around is used to retrieve the record.
 	 * 
 	 * Since two arrays are used alternatively and wrap-aroundly to store the
 	 * simulation data (main array is used first and then the backup array). For
@@ -211,87 +281,139 @@ public class SimulationData {
 	 *            The target entity
 	 * @param time
 	 *            The current simulation time
-	 * @return The simulation data
+	 * @param record
+	 *            The record to copy the simulation data to
+	 * @return Whether the record has been stored. If not, the given record is
+	 *         not changed.
 	 */
-	public EntityRecord getPreviousEntityRecord(Entity entity, int time) {
+	public boolean getPreviousEntityRecord(Entity entity, int time,
+			EntityRecord record) {
 
 		// Wrap around first
 		int currentTime = time % entityTotalRecords;
 
-		// Get the previous record of the special cases
-		EntityRecord[] records = null;
-		if (!computeSwitched) {
-			// The previous record of the first record of main array should be
-			// returned
-			if (currentTime == 0) {
-				return ((EntityRecord[]) backup.get(entity))[entityTotalRecords - 1];
-			}
-			records = (EntityRecord[]) data.get(entity);
-		} else {
-			// The previous record of the first record of backup array should be
-			// returned
-			if (currentTime == 0) {
-				return ((EntityRecord[]) data.get(entity))[entityTotalRecords - 1];
-			}
-			records = (EntityRecord[]) backup.get(entity);
-		}
-
-		// Wrap around implementation. Project the index into the approximate
-		// position
-		return records[currentTime - 1];
+		// The previous record of the first record of one array is the last
+		// record of the other array
+		int i;
+		if (currentTime == 0)
+			i = index(!computeSwitched, entityTotalRecords - 1);
+		else
+			i = index(computeSwitched, currentTime - 1);
+		return read(entity, i, record);
 	}
 
 	/**
-	 * Return the simulation data of a specified time of an entity. Wrap around
-	 * is used to retrieve the record.
+	 * Copy the simulation data of a specified time of an entity into the given
+	 * record. Wrap around is used to retrieve the record.
 	 * 
 	 * 
 	 * @param entity
 	 *            The target entity
 	 * @param time
 	 *            The simulation time
-	 * @return The simulation data
+	 * @param record
+	 *            The record to copy the simulation data to
+	 * @return Whether the record has been stored. If not, the given record is
+	 *         not changed.
 	 */
-	public EntityRecord getEntityRecord(Entity entity, int time) {
-		EntityRecord[] records = null;
-		if (!displaySwitched)
-			records = (EntityRecord[]) data.get(entity);
-		else
-			records = (EntityRecord[]) backup.get(entity);
-
-		// Wrap around implementation. Project the index into the approximate
-		// position
-		return records[time % entityTotalRecords];
+	public boolean getEntityRecord(Entity entity, int time, EntityRecord record) {
+		return read(entity, index(displaySwitched, time % entityTotalRecords),
+				record);
 	}
 
 	/**
-	 * Return the simulation data of a specified time of an entity. Wrap around
-	 * is used to retrieve the record. This routine is ONLY used in
-	 * <code>SimulationComputeThread</code> and
-	 * <code>AppSystem.changeEntityInitialParameters</code>, where the wrap
-	 * around is based on the computation status. If the computation is done for
-	 * both arrays, then <code>null</code> will be returned. Otherwise, If the
-	 * computation is done for main array, the backup array will be retrieved.
-	 * Otherwise, the main array will be returned.
-	 * 
+	 * Return the entity state of a specified time of an entity. Wrap around is
+	 * used to retrieve the state.
 	 * 
 	 * @param entity
 	 *            The target entity
 	 * @param time
 	 *            The simulation time
-	 * @return The simulation data
+	 * @return The entity state, <code>Entity.ACTIVE</code> if the record has
+	 *         not been stored
 	 */
-	public EntityRecord getEntityRecord2(Entity entity, int time) {
-		EntityRecord[] records = null;
-		if (!computeSwitched) {
-			records = (EntityRecord[]) data.get(entity);
-		} else {
-			records = (EntityRecord[]) backup.get(entity);
+	public int getEntityState(Entity entity, int time) {
+		int s = slotOf(entity);
+		if (s < 0)
+			return Entity.ACTIVE;
+		byte state = states[s][index(displaySwitched, time
+				% entityTotalRecords)];
+		return state == NO_RECORD ? Entity.ACTIVE : state;
+	}
+
+	/**
+	 * Copy the record of the given slot and index into the given record
+	 */
+	private boolean read(Entity entity, int i, EntityRecord record) {
+		int s = slotOf(entity);
+		if (s < 0 || states[s][i] == NO_RECORD)
+			return false;
+		if (record.position == null)
+			record.position = new Point(xs[s][i], ys[s][i]);
+		else {
+			record.position.x = xs[s][i];
+			record.position.y = ys[s][i];
 		}
-		if (records == null) {
-			return null;
+		record.direction = directions[s][i];
+		record.state = states[s][i];
+		record.display = displays[s];
+		return true;
+	}
+
+	/**
+	 * Return the slot of the entity, or -1 if the entity is not added
+	 */
+	private int slotOf(Entity entity) {
+		Integer slot = (Integer) slots.get(entity);
+		return slot == null ? -1 : slot.intValue();
+	}
+
+	/**
+	 * Index of the record of the given array and time in a slot
+	 */
+	private int index(boolean backupArray, int time) {
+		return backupArray ? entityTotalRecords + time : time;
+	}
+
+	/**
+	 * Release the columns of the slot for reuse
+	 */
+	private void release(int s) {
+		xs[s] = null;
+		ys[s] = null;
+		directions[s] = null;
+		states[s] = null;
+		displays[s] = null;
+		if (freeSlots.length == freeCount) {
+			int[] f = new int[freeCount * 2];
+			System.arraycopy(freeSlots, 0, f, 0, freeCount);
+			freeSlots = f;
 		}
-		return records[time % entityTotalRecords];
+		freeSlots[freeCount++] = s;
+	}
+
+	/**
+	 * Make room for the given number of slots
+	 */
+	private void ensureCapacity(int capacity) {
+		if (xs.length >= capacity)
+			return;
+		int newCapacity = Math.max(capacity, xs.length * 2);
+		double[][] x = new double[newCapacity][];
+		System.arraycopy(xs, 0, x, 0, xs.length);
+		xs = x;
+		double[][] y = new double[newCapacity][];
+		System.arraycopy(ys, 0, y, 0, ys.length);
+		ys = y;
+		double[][] d = new double[newCapacity][];
+		System.arraycopy(directions, 0, d, 0, directions.length);
+		directions = d;
+		byte[][] st = new byte[newCapacity][];
+		System.arraycopy(states, 0, st, 0, states.length);
+		states = st;
+		Display[] ds = new Display[newCapacity];
+		System.arraycopy(displays, 0, ds, 0, displays.length);
+		displays = ds;
 	}
 
 	/**
@@ -325,33 +447,13 @@ public class SimulationData {
 	}
 
 	/**
-	 * @return the mainCompleted
-	 */
-	public boolean isMainCompleted() {
-		return mainCompleted;
-	}
-
-	/**
-	 * @param mainCompleted
-	 *            the mainCompleted to set
-	 */
-	public void setMainCompleted(boolean mainCompleted) {
-		this.mainCompleted = mainCompleted;
-	}
-
-	/**
-	 * @return the backupCompleted
-	 */
-	public boolean isBackupCompleted() {
-		return backupCompleted;
-	}
-
-	/**
-	 * @param backupCompleted
-	 *            the backupCompleted to set
+	 * Return the queue of the computed time steps of the current computation.
+	 * The queue is replaced when the data is reset.
+	 * 
+	 * @return the tick frame queue
 	 */
-	public void setBackupCompleted(boolean backupCompleted) {
-		this.backupCompleted = backupCompleted;
+	TickFrameQueue getFrameQueue() {
+		return frames;
 	}
 
 }
@@ -49,6 +49,10 @@ public class SimulationDisplayThread implements AppRunnable {
 	// Current time interval between two time steps
 	private int delta_t = 50;
 
+	// Time to wait for a computed time step before the progress window is
+	// shown
+	private static final long WAIT_INTERVAL = 200;
+
 	// Application engine
 	private AppEngine engineRef = AppEngine.getInstance();
 	
@@ -110,88 +114,93 @@ public class SimulationDisplayThread implements AppRunnable {
 	}
 
 	/**
-	 * Run
+	 * Run. Each time step is drawn as soon as it is computed, see
+	 * {@link TickFrameQueue}.
 	 */
 	public void run() {
 
 		// Total time ticks
 		int totaltime = engineRef.getTotalTimeticks();
 
-		// Number of runs
-		int runs = -1;
+		// Whether the progress window is shown, it is shown by the
+		// computation at first
+		boolean waiting = true;
 
 		while (!isSuspended) {
-			if (!data.isDisplaySwitched()) { // For main data
-				if (!data.isMainCompleted()) { // The main data is not already
-					// computed
-					t.showProgressWin(true); // Show the progress window
-					continue; // Wait for the computation
+
+			// Wait for the next computed time step
+			TickFrameQueue frames = data.getFrameQueue();
+			long frame;
+			try {
+				frame = frames.take(WAIT_INTERVAL);
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (frame < 0) {
+				if (frames != data.getFrameQueue())
+					continue; // The simulation is reset
+				if (frames.isClosed()) {
+					MessageUtils.debug(this, "run", "Animation Tread Stopped.");
+					return; // The computation is stopped
 				}
-				t.showProgressWin(false);
-			} else { // For backup data
-				if (!data.isBackupCompleted()) { // The backup data is not
-					// already computed
+				if (!waiting) {
 					t.showProgressWin(true); // Show the progress window
-					continue; // Wait for the computation
+					waiting = true;
 				}
+				continue; // Wait for the computation
+			}
+			if (waiting) {
 				t.showProgressWin(false);
+				waiting = false;
 			}
 
-			// Increment the number of runs
-			runs++;
+			// The number of runs tells the data array of the time step
+			long runs = frame / totaltime;
+			int prevTime = simulationTime;
+			simulationTime = (int) (frame % totaltime);
+			data.setDisplaySwitched(runs % 2 == 1);
 
 			// Draw the simulation results
 			try {
-				for (; simulationTime <= totaltime - 1 && !isSuspended; simulationTime++) {
 
-					// Set the label of current time step
-					t.setTimeStepLabel(runs * totaltime + simulationTime);
+				// Set the label of current time step
+				t.setTimeStepLabel((int) frame);
 
-					// Draw the simulation result
-					drawSimulation(simulationTime, simulationTime + 1);
+				// Draw the simulation result
+				drawSimulation(prevTime, simulationTime);
 
-					// Wait for a while
-					try {
-						Thread.sleep(delta_t);
-					} catch (InterruptedException e) {
-					}
+				// Wait for a while
+				try {
+					Thread.sleep(delta_t);
+				} catch (InterruptedException e) {
+				}
 
-					// Check for simulation suspension
-					if (isSuspended) {
-						MessageUtils.debug(this, "run",
-								"Animation Tread Stopped.");
-						return;
-					}
+				// Check for simulation suspension
+				if (isSuspended) {
+					MessageUtils.debug(this, "run", "Animation Tread Stopped.");
+					return;
+				}
 
-					// Update the progress slider
-					if (progressSlider != null)
-						progressSlider.setValue(simulationTime);					
-					t.setDisplayTime(simulationTime);
+				// Update the progress slider
+				if (progressSlider != null)
+					progressSlider.setValue(simulationTime);
+				t.setDisplayTime(simulationTime);
 
-				}
 			} catch (Exception e) {
 				MessageUtils.debugAndDisplay(this, "run", new SimException(
-						"SIM-S-TF001A",
-						"An exception arised during simulation", e));
+						"SIM-S-TF001A", "An exception arised during simulation",
+						e));
 				return;
 			}
 
-			// Reset the data to be un-computed
-			if (!data.isDisplaySwitched()) { // For main data
-				data.setMainCompleted(false);
-			} else { // For backup data
-				data.setBackupCompleted(false);
-			}
-
-			// Draw the other simulation results
-			data.setDisplaySwitched(!data.isDisplaySwitched());
+			// The data array is drawn, reset the simulation time
+			if (simulationTime == totaltime - 1) {
+				simulationTime = 0;
+				t.setDisplayTime(simulationTime);
 
-			// Reset the simulation time
-			simulationTime = 0;
-			t.setDisplayTime(simulationTime);
-
-			// Reset the slider to 0
-			progressSlider.setValue(0);
+				// Reset the slider to 0
+				progressSlider.setValue(0);
+			}
 
 		}
 
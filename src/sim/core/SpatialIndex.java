@@ -0,0 +1,481 @@
+/*
+ * BehaviorSim - version 1.0
+ *
+ * Copyright (C) 2010 The BehaviorSim Development Team, fasheng@cs.gsu.edu.
+ *
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ *
+ * Info, Questions, Suggestions & Bugs Report to fasheng@cs.gsu.edu.
+ *
+ */
+
+package sim.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import sim.model.entity.Entity;
+import sim.model.entity.EntityRecord;
+import sim.util.Point;
+
+/**
+ * Uniform-grid spatial index of the entity positions of the previous time
+ * step. It is used by <code>AppSystem</code> to answer the neighbour queries
+ * ({@link AppSystem#getClosestEntity(Entity, int, double)} etc.) without
+ * walking every configured entity.
+ *
+ * <p>
+ * The index is rebuilt from the previous simulation records of
+ * <code>SimulationData</code> once per time step. Since those records are not
+ * changed during the computation of a time step, the index keeps consistent
+ * with the brute-force scan during the whole step.
+ * </p>
+ *
+ * <p>
+ * Each entity is assigned an ordinal which is the order of the entity in the
+ * brute-force scan (type by type of the entity table, and then entity by
+ * entity of each type). Ties of distances are broken by the ordinal, so the
+ * results are exactly the same as those of the brute-force scan. Entities
+ * whose previous position is not available are not put into the grid; their
+ * positions are evaluated on each query, in the same way as the brute-force
+ * scan does.
+ * </p>
+ *
+ * @version 1.0
+ */
+class SpatialIndex {
+
+	/* The time slice the index is built for */
+	private int time = -1;
+
+	/* The structure version of the entity table the index is built for */
+	private int version = -1;
+
+	/* Whether the index has been built */
+	private boolean built = false;
+
+	/* Number of indexed entities */
+	private int size = 0;
+
+	/* Indexed entities, in the order of the brute-force scan */
+	private Entity[] entities = new Entity[0];
+
+	/* Type (index of the entity table key) of each indexed entity */
+	private int[] types = new int[0];
+
+	/* Previous position of each indexed entity */
+	private double[] xs = new double[0];
+
+	private double[] ys = new double[0];
+
+	/* Whether the entity is in the grid or evaluated on each query */
+	private boolean[] inGrid = new boolean[0];
+
+	/* Ordinals of entities which are evaluated on each query */
+	private int[] fallback = new int[0];
+
+	private int fallbackSize = 0;
+
+	/* Type name to type index */
+	private Map typeIds = new HashMap();
+
+	/* Grid geometry */
+	private double minX, minY, cellSize;
+
+	private int dimX, dimY;
+
+	/* Start of each cell in the cell items, the last one is the end */
+	private int[] cellStart = new int[1];
+
+	/* Ordinals of the entities, grouped by cell */
+	private int[] cellItems = new int[0];
+
+	/**
+	 * Whether the index is valid for the given time slice and structure
+	 * version of the entity table.
+	 *
+	 * @param time
+	 *            The time slice
+	 * @param version
+	 *            The structure version of the entity table
+	 * @return Whether the index is valid
+	 */
+	boolean isValid(int time, int version) {
+		return built && this.time == time && this.version == version;
+	}
+
+	/**
+	 * Rebuild the index from the previous records of all entities in the
+	 * entity table.
+	 *
+	 * @param table
+	 *            The entity table, category name to entity list
+	 * @param data
+	 *            The simulation data
+	 * @param time
+	 *            The current time slice
+	 * @param version
+	 *            The structure version of the entity table
+	 */
+	void rebuild(Hashtable table, SimulationData data, int time, int version) {
+
+		// Collect the entities in the order of the brute-force scan
+		Arrays.fill(entities, 0, size, null);
+		typeIds.clear();
+		size = 0;
+		fallbackSize = 0;
+		int typeId = 0;
+		EntityRecord record = new EntityRecord();
+		Iterator keys = table.keySet().iterator();
+		while (keys.hasNext()) {
+			String type = (String) keys.next();
+			List entitiesOfType = (List) table.get(type);
+			typeIds.put(type, new Integer(typeId));
+			if (entitiesOfType != null) {
+				ensureCapacity(size + entitiesOfType.size());
+				for (int i = 0; i < entitiesOfType.size(); i++) {
+					Entity current = (Entity) entitiesOfType.get(i);
+					entities[size] = current;
+					types[size] = typeId;
+					inGrid[size] = false;
+					if (data.getPreviousEntityRecord(current, time, record)
+							&& isFinite(record.position.x)
+							&& isFinite(record.position.y)) {
+						xs[size] = record.position.x;
+						ys[size] = record.position.y;
+						inGrid[size] = true;
+					} else {
+						fallback[fallbackSize++] = size;
+					}
+					size++;
+				}
+			}
+			typeId++;
+		}
+
+		buildGrid();
+
+		this.time = time;
+		this.version = version;
+		this.built = true;
+
+	}
+
+	/**
+	 * Return the closest entity from the given entity.
+	 *
+	 * @param system
+	 *            The system object, used to evaluate the positions which are
+	 *            not in the grid
+	 * @param fromEntity
+	 *            The entity from which the closest entity is based on
+	 * @param type
+	 *            The entity type, <code>null</code> for all types
+	 * @param searchRadius
+	 *            The search radius the closest entity locates in
+	 * @return The closest entity, or <code>null</code> if none exists
+	 */
+	Entity closest(AppSystem system, Entity fromEntity, String type,
+			double searchRadius) {
+
+		int typeId = -1;
+		if (type != null) {
+			Integer id = (Integer) typeIds.get(type);
+			if (id == null)
+				return null;
+			typeId = id.intValue();
+		}
+
+		Point from = fromEntity.getPosition();
+		double closestDistance = Double.MAX_VALUE;
+		int closest = -1;
+
+		// Entities which are not in the grid
+		for (int i = 0; i < fallbackSize; i++) {
+			int k = fallback[i];
+			if (!accept(k, fromEntity, typeId))
+				continue;
+			double distance = from.dist(system.getPreviousEntityPosition(
+					entities[k], time));
+			if (distance <= searchRadius
+					&& (distance < closestDistance || (closest != -1
+							&& distance == closestDistance && k < closest))) {
+				closestDistance = distance;
+				closest = k;
+			}
+		}
+
+		// Non-finite source position, the grid can not be used
+		if (!isFinite(from.x) || !isFinite(from.y)) {
+			for (int k = 0; k < size; k++) {
+				if (!inGrid[k] || !accept(k, fromEntity, typeId))
+					continue;
+				double distance = dist(from, k);
+				if (distance <= searchRadius
+						&& (distance < closestDistance || (closest != -1
+								&& distance == closestDistance && k < closest))) {
+					closestDistance = distance;
+					closest = k;
+				}
+			}
+			return closest == -1 ? null : entities[closest];
+		}
+
+		// Search the grid ring by ring around the source cell
+		int cx = cellX(from.x), cy = cellY(from.y);
+		int maxRing = Math.max(Math.max(cx, dimX - 1 - cx), Math.max(cy, dimY
+				- 1 - cy));
+		for (int ring = 0; ring <= maxRing; ring++) {
+			// Entities in the rings outside are at least (ring - 1) cells
+			// away. One more cell is kept for the rounding errors.
+			double bound = (ring - 2) * cellSize;
+			if (ring > 2 && (bound > searchRadius || bound > closestDistance))
+				break;
+			for (int gy = cy - ring; gy <= cy + ring; gy++) {
+				if (gy < 0 || gy >= dimY)
+					continue;
+				boolean edgeRow = (gy == cy - ring || gy == cy + ring);
+				int step = edgeRow ? 1 : 2 * ring;
+				for (int gx = cx - ring; gx <= cx + ring; gx += step) {
+					if (gx < 0 || gx >= dimX)
+						continue;
+					int cell = gy * dimX + gx;
+					for (int c = cellStart[cell]; c < cellStart[cell + 1]; c++) {
+						int k = cellItems[c];
+						if (!accept(k, fromEntity, typeId))
+							continue;
+						double distance = dist(from, k);
+						if (distance <= searchRadius
+								&& (distance < closestDistance || (closest != -1
+										&& distance == closestDistance && k < closest))) {
+							closestDistance = distance;
+							closest = k;
+						}
+					}
+				}
+			}
+		}
+		return closest == -1 ? null : entities[closest];
+	}
+
+	/**
+	 * Return the entities within the given distance from the given entity, in
+	 * the order of the brute-force scan.
+	 *
+	 * @param system
+	 *            The system object, used to evaluate the positions which are
+	 *            not in the grid
+	 * @param fromEntity
+	 *            The entity from which the distance is computed
+	 * @param searchRadius
+	 *            The distance range
+	 * @return The entities within the distance range
+	 */
+	List withinDistance(AppSystem system, Entity fromEntity,
+			double searchRadius) {
+
+		Point from = fromEntity.getPosition();
+		int count = 0;
+		// Queries may run on several threads, so the buffer is not shared
+		int[] found = new int[size];
+
+		// Entities which are not in the grid
+		for (int i = 0; i < fallbackSize; i++) {
+			int k = fallback[i];
+			if (!accept(k, fromEntity, -1))
+				continue;
+			double distance = from.dist(system.getPreviousEntityPosition(
+					entities[k], time));
+			if (distance <= searchRadius)
+				found[count++] = k;
+		}
+
+		if (!isFinite(from.x) || !isFinite(from.y)) {
+			// Non-finite source position, the grid can not be used
+			for (int k = 0; k < size; k++) {
+				if (inGrid[k] && accept(k, fromEntity, -1)
+						&& dist(from, k) <= searchRadius)
+					found[count++] = k;
+			}
+		} else if (searchRadius >= 0) {
+			// Cells overlapping the search range, one more cell is kept for
+			// the rounding errors
+			int x0 = clamp(cellX(from.x - searchRadius) - 1, dimX);
+			int x1 = clamp(cellX(from.x + searchRadius) + 1, dimX);
+			int y0 = clamp(cellY(from.y - searchRadius) - 1, dimY);
+			int y1 = clamp(cellY(from.y + searchRadius) + 1, dimY);
+			for (int gy = y0; gy <= y1; gy++) {
+				for (int gx = x0; gx <= x1; gx++) {
+					int cell = gy * dimX + gx;
+					for (int c = cellStart[cell]; c < cellStart[cell + 1]; c++) {
+						int k = cellItems[c];
+						if (accept(k, fromEntity, -1)
+								&& dist(from, k) <= searchRadius)
+							found[count++] = k;
+					}
+				}
+			}
+		}
+
+		// Keep the order of the brute-force scan
+		Arrays.sort(found, 0, count);
+		List ret = new ArrayList(count);
+		for (int i = 0; i < count; i++)
+			ret.add(entities[found[i]]);
+		return ret;
+	}
+
+	/**
+	 * Whether the indexed entity is a candidate of the query
+	 */
+	private boolean accept(int k, Entity fromEntity, int typeId) {
+		if (typeId != -1 && types[k] != typeId)
+			return false;
+		Entity current = entities[k];
+		return current != fromEntity && current.isActive();
+	}
+
+	/**
+	 * Distance from the source to the indexed entity. The same computation as
+	 * <code>Point.dist</code>.
+	 */
+	private double dist(Point from, int k) {
+		double dx = from.x - xs[k];
+		double dy = from.y - ys[k];
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	/**
+	 * Put the entities with known positions into the grid cells.
+	 */
+	private void buildGrid() {
+
+		// Bounds of the positions
+		double maxX = 0, maxY = 0;
+		int n = 0;
+		minX = 0;
+		minY = 0;
+		for (int k = 0; k < size; k++) {
+			if (!inGrid[k])
+				continue;
+			if (n == 0) {
+				minX = maxX = xs[k];
+				minY = maxY = ys[k];
+			} else {
+				minX = Math.min(minX, xs[k]);
+				maxX = Math.max(maxX, xs[k]);
+				minY = Math.min(minY, ys[k]);
+				maxY = Math.max(maxY, ys[k]);
+			}
+			n++;
+		}
+
+		// About one entity per cell
+		double w = maxX - minX, h = maxY - minY;
+		if (n == 0 || !isFinite(w) || !isFinite(h)) {
+			cellSize = Double.POSITIVE_INFINITY;
+			dimX = dimY = 1;
+		} else {
+			// Never more than n + 1 cells along either axis
+			cellSize = Math.max(Math.sqrt(w * h / n), Math.max(w, h) / n);
+			if (!(cellSize > 0))
+				cellSize = 1;
+			dimX = (int) Math.floor(w / cellSize) + 1;
+			dimY = (int) Math.floor(h / cellSize) + 1;
+		}
+
+		// Counting sort of the entities into the cells, ordinals keep
+		// ascending in each cell
+		int cells = dimX * dimY;
+		if (cellStart.length < cells + 1)
+			cellStart = new int[cells + 1];
+		Arrays.fill(cellStart, 0, cells + 1, 0);
+		if (cellItems.length < n)
+			cellItems = new int[n];
+		for (int k = 0; k < size; k++) {
+			if (inGrid[k])
+				cellStart[cellOf(k) + 1]++;
+		}
+		for (int c = 0; c < cells; c++)
+			cellStart[c + 1] += cellStart[c];
+		int[] next = new int[cells];
+		System.arraycopy(cellStart, 0, next, 0, cells);
+		for (int k = 0; k < size; k++) {
+			if (inGrid[k])
+				cellItems[next[cellOf(k)]++] = k;
+		}
+
+	}
+
+	private int cellOf(int k) {
+		return cellY(ys[k]) * dimX + cellX(xs[k]);
+	}
+
+	private int cellX(double x) {
+		if (dimX == 1)
+			return 0;
+		return clamp((int) Math.floor((x - minX) / cellSize), dimX);
+	}
+
+	private int cellY(double y) {
+		if (dimY == 1)
+			return 0;
+		return clamp((int) Math.floor((y - minY) / cellSize), dimY);
+	}
+
+	private static int clamp(int index, int dim) {
+		if (index < 0)
+			return 0;
+		if (index >= dim)
+			return dim - 1;
+		return index;
+	}
+
+	private static boolean isFinite(double d) {
+		return !Double.isNaN(d) && !Double.isInfinite(d);
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (entities.length >= capacity)
+			return;
+		int newCapacity = Math.max(capacity, entities.length * 2);
+		Entity[] e = new Entity[newCapacity];
+		System.arraycopy(entities, 0, e, 0, size);
+		entities = e;
+		int[] t = new int[newCapacity];
+		System.arraycopy(types, 0, t, 0, size);
+		types = t;
+		double[] x = new double[newCapacity];
+		System.arraycopy(xs, 0, x, 0, size);
+		xs = x;
+		double[] y = new double[newCapacity];
+		System.arraycopy(ys, 0, y, 0, size);
+		ys = y;
+		boolean[] g = new boolean[newCapacity];
+		System.arraycopy(inGrid, 0, g, 0, size);
+		inGrid = g;
+		int[] f = new int[newCapacity];
+		System.arraycopy(fallback, 0, f, 0, fallbackSize);
+		fallback = f;
+	}
+
+}
@@ -0,0 +1,195 @@
+/*
+ * BehaviorSim - version 1.0 
+ * 
+ * Copyright (C) 2010 The BehaviorSim Development Team, fasheng@cs.gsu.edu.
+ * 
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * 
+ * Info, Questions, Suggestions & Bugs Report to fasheng@cs.gsu.edu.
+ *  
+ */
+package sim.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import sim.util.MessageUtils;
+
+/**
+ * Boundary between two time steps of the simulation computation.
+ * 
+ * <p>
+ * While the simulation data is computed, the states of the entities are only
+ * consistent after all entities acted and their states are stored. The tasks
+ * given to {@link #invoke(Runnable)}, such as taking a snapshot of the
+ * application to save it, are run by the computation thread at the next
+ * boundary. If no simulation is computed, or the computation thread waits
+ * for the display, e.g. when the simulation is paused, they are run at once.
+ * </p>
+ * 
+ * <p>
+ * When the simulation is restarted, the new computation thread may enter
+ * before the old one exits. Only the thread which entered last owns the
+ * boundary, the calls of the other threads are ignored.
+ * </p>
+ * 
+ * @version 1.0
+ */
+class TickBoundary {
+
+	// The computation thread, null if no simulation is computed
+	private Thread computing = null;
+
+	// The tasks to run at the next boundary
+	private List tasks = new ArrayList();
+
+	// Whether the computation thread waits at the boundary
+	private boolean parked = false;
+
+	// Number of tasks run by other threads while the computation thread waits
+	private int running = 0;
+
+	/**
+	 * Called by the computation thread when it starts. It waits until the
+	 * tasks run by the other threads for the previous computation thread are
+	 * done.
+	 */
+	synchronized void enter() {
+		computing = Thread.currentThread();
+		parked = false;
+		awaitRunning();
+	}
+
+	/**
+	 * Called by the computation thread when it stops. The waiting tasks are
+	 * run.
+	 */
+	void exit() {
+		List waiting;
+		synchronized (this) {
+			if (computing != Thread.currentThread())
+				return;
+			computing = null;
+			waiting = takeTasks();
+		}
+		run(waiting);
+	}
+
+	/**
+	 * Called by the computation thread after each time step. The waiting
+	 * tasks are run.
+	 */
+	void reached() {
+		List waiting;
+		synchronized (this) {
+			if (computing != Thread.currentThread())
+				return;
+			waiting = takeTasks();
+		}
+		run(waiting);
+	}
+
+	/* Take the waiting tasks */
+	private List takeTasks() {
+		List waiting = tasks;
+		tasks = new ArrayList();
+		return waiting;
+	}
+
+	/* Run the given tasks */
+	private void run(List waiting) {
+		for (int i = 0; i < waiting.size(); i++) {
+			try {
+				((Runnable) waiting.get(i)).run();
+			} catch (RuntimeException e) {
+				MessageUtils.debug(this, "reached", e);
+			}
+		}
+	}
+
+	/**
+	 * Called by the computation thread before it waits at the boundary. The
+	 * waiting tasks are run, and the tasks given while it waits are run at
+	 * once by the threads giving them.
+	 */
+	void park() {
+		synchronized (this) {
+			if (computing != Thread.currentThread())
+				return;
+			parked = true;
+		}
+		reached();
+	}
+
+	/**
+	 * Called by the computation thread when it continues after the wait. It
+	 * waits until the tasks run by the other threads are done.
+	 */
+	synchronized void unpark() {
+		if (computing != Thread.currentThread())
+			return;
+		parked = false;
+		awaitRunning();
+	}
+
+	/* Wait until the tasks run by the other threads are done */
+	private void awaitRunning() {
+		boolean interrupted = false;
+		while (running > 0) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Run the task at the next boundary, or at once if no simulation is
+	 * computed by another thread or the computation thread waits at the
+	 * boundary.
+	 * 
+	 * @param task
+	 *            The task
+	 */
+	void invoke(Runnable task) {
+		boolean counted = false;
+		synchronized (this) {
+			if (computing != null && computing != Thread.currentThread()) {
+				if (!parked) {
+					tasks.add(task);
+					return;
+				}
+				running++;
+				counted = true;
+			}
+		}
+		try {
+			task.run();
+		} finally {
+			if (counted) {
+				synchronized (this) {
+					running--;
+					notifyAll();
+				}
+			}
+		}
+	}
+
+}
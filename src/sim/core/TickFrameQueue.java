@@ -0,0 +1,137 @@
+/*
+ * BehaviorSim - version 1.0 
+ * 
+ * Copyright (C) 2010 The BehaviorSim Development Team, fasheng@cs.gsu.edu.
+ * 
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * 
+ * Info, Questions, Suggestions & Bugs Report to fasheng@cs.gsu.edu.
+ *  
+ */
+package sim.core;
+
+/**
+ * Bounded queue of the computed time steps (tick frames) between
+ * <code>SimulationComputeThread</code> (the only producer) and
+ * <code>SimulationDisplayThread</code> (the only consumer).
+ *
+ * <p>
+ * A frame is the sequence number of a computed time step since the start of
+ * the simulation, that is, <code>run * totalTimeTicks + timeStep</code>, where
+ * the run also tells which data array (main or backup) of
+ * <code>SimulationData</code> holds the records. The producer blocks when the
+ * queue is full, so it never gets more than the capacity ahead of the
+ * display and never overwrites the records which are still to be drawn. The
+ * consumer blocks until the next frame is computed.
+ * </p>
+ *
+ * <p>
+ * A closed queue accepts no more frames. The frames already queued can still
+ * be taken.
+ * </p>
+ *
+ * @version 1.0
+ */
+class TickFrameQueue {
+
+	/* Ring buffer of the frames */
+	private final long[] frames;
+
+	/* Index of the next frame to take */
+	private int head = 0;
+
+	/* Number of queued frames */
+	private int count = 0;
+
+	/* Whether the queue is closed */
+	private boolean closed = false;
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity
+	 *            The maximum number of queued frames
+	 */
+	TickFrameQueue(int capacity) {
+		frames = new long[Math.max(1, capacity)];
+	}
+
+	/**
+	 * Put a computed frame into the queue, waiting while the queue is full.
+	 *
+	 * @param frame
+	 *            The frame
+	 * @return Whether the frame is queued, <code>false</code> if the queue is
+	 *         closed
+	 * @throws InterruptedException
+	 *             If the producer is interrupted while waiting
+	 */
+	synchronized boolean put(long frame) throws InterruptedException {
+		while (count == frames.length && !closed)
+			wait();
+		if (closed)
+			return false;
+		frames[(head + count) % frames.length] = frame;
+		count++;
+		notifyAll();
+		return true;
+	}
+
+	/**
+	 * Take the next frame from the queue, waiting at most the given time
+	 * while the queue is empty.
+	 *
+	 * @param timeout
+	 *            The maximum time to wait, in milliseconds
+	 * @return The frame, or -1 if no frame is available in time or the queue
+	 *         is closed and empty
+	 * @throws InterruptedException
+	 *             If the consumer is interrupted while waiting
+	 */
+	synchronized long take(long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (count == 0 && !closed) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0)
+				return -1;
+			wait(remaining);
+		}
+		if (count == 0)
+			return -1;
+		long frame = frames[head];
+		head = (head + 1) % frames.length;
+		count--;
+		notifyAll();
+		return frame;
+	}
+
+	/**
+	 * Close the queue. The waiting producer and consumer are woken up.
+	 */
+	synchronized void close() {
+		closed = true;
+		notifyAll();
+	}
+
+	/**
+	 * @return Whether the queue is closed
+	 */
+	synchronized boolean isClosed() {
+		return closed;
+	}
+
+}
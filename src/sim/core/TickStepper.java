@@ -0,0 +1,134 @@
+/*
+ * BehaviorSim - version 1.0 
+ * 
+ * Copyright (C) 2010 The BehaviorSim Development Team, fasheng@cs.gsu.edu.
+ * 
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * 
+ * Info, Questions, Suggestions & Bugs Report to fasheng@cs.gsu.edu.
+ *  
+ */
+package sim.core;
+
+import java.util.List;
+
+import sim.model.entity.Entity;
+import sim.model.entity.EntityRecord;
+
+/**
+ * Computation of a time step of the simulation data, without any user
+ * interface. All the active entities act, sequentially or in parallel (see
+ * {@link ParallelTick}), and then their states are stored into the
+ * simulation data in the order of the entity list.
+ * 
+ * <p>
+ * It is used by <code>SimulationComputeThread</code>, which hands the time
+ * steps over to the display, and by <code>BatchRunner</code>, which computes
+ * them without any views. The thread which computes the time steps is
+ * expected to be in a simulation context, see {@link SimulationContext}.
+ * </p>
+ * 
+ * @version 1.0
+ */
+class TickStepper {
+
+	/* Simulation data the states are stored into */
+	private final SimulationData data;
+
+	/* Parallel computation, null for the sequential computation */
+	private ParallelTick parallel = null;
+
+	/* The record used to store the states, the values are copied */
+	private final EntityRecord record = new EntityRecord();
+
+	/* Whether the computation is stopped */
+	private volatile boolean stopped = false;
+
+	/**
+	 * Constructor. The parallel computation is used if it is enabled in the
+	 * parameters of the system.
+	 * 
+	 * @param system
+	 *            The system whose entities are computed
+	 */
+	TickStepper(AppSystem system) {
+		data = system.getSimulationData();
+		ConfigParameters params = system.systemParameters;
+		if (params.isParallelCompute())
+			parallel = new ParallelTick(params.getParallelThreads());
+	}
+
+	/**
+	 * Compute a time step. The entities act and their states are stored at
+	 * the given step of the current data array.
+	 * 
+	 * @param entityList
+	 *            The available entities
+	 * @param simulationStep
+	 *            The step in the data array
+	 * @return Whether the time step is computed, false if the computation is
+	 *         stopped during it
+	 * @throws Exception
+	 *             If any entity fails to act
+	 */
+	boolean step(List entityList, int simulationStep) throws Exception {
+		int size = entityList.size();
+		if (parallel != null)
+			parallel.act(entityList);
+		for (int i = 0; i < size; i++) {
+			if (stopped)
+				return false;
+			Entity current = null;
+			try {
+				current = (Entity) entityList.get(i);
+			} catch (Exception e) {
+				continue;
+			}
+			if (parallel == null && current.isActive())
+				current.act();
+			// The entity has been removed
+			if (!data.contains(current))
+				continue;
+			record.position = current.getOriginalPosition();
+			record.direction = current.getDirection();
+			record.state = current.getState();
+			record.display = current.getOrdiginalDisplay();
+			// Basic assumption here: The display will not be changed during
+			// the simulation.
+			data.store(current, record, simulationStep);
+		}
+		return true;
+	}
+
+	/**
+	 * Stop the computation, the time step being computed is not completed.
+	 * It may be called from any thread.
+	 */
+	void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Release the worker threads of the parallel computation.
+	 */
+	void shutdown() {
+		if (parallel != null)
+			parallel.shutdown();
+		parallel = null;
+	}
+
+}
@@ -0,0 +1,486 @@
+/*
+ * BehaviorSim - version 1.0 
+ * 
+ * Copyright (C) 2010 The BehaviorSim Development Team, fasheng@cs.gsu.edu.
+ * 
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * 
+ * Info, Questions, Suggestions & Bugs Report to fasheng@cs.gsu.edu.
+ *  
+ */
+package sim.core;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.List;
+
+import sim.model.behavior.Behavior;
+import sim.model.entity.BNCategory;
+import sim.model.entity.Entity;
+import sim.util.Point;
+
+/**
+ * Recorder of the states of the entities in every time step.
+ * 
+ * <p>
+ * The simulation data only keeps the time steps of its two data arrays. The
+ * recorder writes the positions, directions, states and winning behaviors of
+ * all entities in each time step into a file, as the computation thread
+ * produces them, so that the whole run can be analysed afterwards. The file
+ * is written through memory-mapped windows of {@link #WINDOW} bytes, so that
+ * its size is not limited by the heap.
+ * </p>
+ * 
+ * <p>
+ * The file (version 1) starts with a header: the magic number "BSTR", the
+ * version, the length of the data and the number of time steps. The data is
+ * a sequence of records:
+ * </p>
+ * <ul>
+ * <li><code>'E'</code>: the id, category and name of an entity, written
+ * when an id is first seen or describes another entity;</li>
+ * <li><code>'B'</code>: the id and name of a behavior, written when it is
+ * first selected;</li>
+ * <li><code>'T'</code>: a time step, its number and the number of entities,
+ * followed by one column for each of the ids, x and y positions, directions,
+ * states and the ids of the winning behaviors (-1 if none).</li>
+ * </ul>
+ * 
+ * <p>
+ * The numbers are big-endian, the strings are UTF-8 after their length. A
+ * recorded file is converted to comma separated values by {@link #main}.
+ * </p>
+ * 
+ * @version 1.0
+ */
+public class TrajectoryRecorder {
+
+	/** Extension of the recorded files */
+	public static final String EXTENSION = "bstr";
+
+	/** Version of the format written */
+	public static final int VERSION = 1;
+
+	/** Size of the memory-mapped windows */
+	public static final int WINDOW = 64 << 20;
+
+	// The magic number, "BSTR"
+	private static final int MAGIC = 0x42535452;
+
+	// The size of the header: magic number, version, length and time steps
+	private static final int HEADER_SIZE = 4 + 2 + 8 + 8;
+
+	// The record types
+	private static final byte ENTITY = 'E';
+
+	private static final byte BEHAVIOR = 'B';
+
+	private static final byte TIMESTEP = 'T';
+
+	// The size of a time step record, without its columns
+	private static final int TIMESTEP_SIZE = 1 + 8 + 4;
+
+	// The size of the columns of an entity
+	private static final int ENTITY_SIZE = 4 + 8 + 8 + 8 + 1 + 4;
+
+	// The file
+	private RandomAccessFile file;
+
+	private FileChannel channel;
+
+	// The header
+	private MappedByteBuffer header;
+
+	// The current window and its position in the file
+	private MappedByteBuffer window = null;
+
+	private long windowStart = HEADER_SIZE;
+
+	// The number of time steps recorded
+	private long timesteps = 0;
+
+	// The category and name written for each entity id
+	private String[] categories = new String[16];
+
+	private String[] names = new String[16];
+
+	// The behaviors written
+	private BitSet behaviors = new BitSet();
+
+	// The columns of the current time step
+	private int[] ids = new int[0];
+
+	private double[] xs = new double[0];
+
+	private double[] ys = new double[0];
+
+	private double[] directions = new double[0];
+
+	private byte[] states = new byte[0];
+
+	private int[] winners = new int[0];
+
+	/**
+	 * Create the recorder, the file is replaced.
+	 * 
+	 * @param path
+	 *            The file to record to
+	 * @throws IOException
+	 *             If the file can not be created
+	 */
+	public TrajectoryRecorder(File path) throws IOException {
+		file = new RandomAccessFile(path, "rw");
+		file.setLength(0);
+		channel = file.getChannel();
+		header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+		header.putInt(0, MAGIC);
+		header.putShort(4, (short) VERSION);
+		update();
+	}
+
+	/**
+	 * Record the states of the entities in the given time step.
+	 * 
+	 * @param timestep
+	 *            The time step
+	 * @param entityList
+	 *            The entities
+	 * @throws IOException
+	 *             If the file can not be written
+	 */
+	public void record(long timestep, List entityList) throws IOException {
+		int n = entityList.size();
+		if (ids.length < n) {
+			ids = new int[n];
+			xs = new double[n];
+			ys = new double[n];
+			directions = new double[n];
+			states = new byte[n];
+			winners = new int[n];
+		}
+		for (int i = 0; i < n; i++) {
+			Entity entity = (Entity) entityList.get(i);
+			describe(entity);
+			Point p = entity.getOriginalPosition();
+			ids[i] = entity.getMyId();
+			xs[i] = p.x;
+			ys[i] = p.y;
+			directions[i] = entity.getDirection();
+			states[i] = (byte) entity.getState();
+			winners[i] = winner(entity);
+		}
+
+		reserve(TIMESTEP_SIZE + n * ENTITY_SIZE);
+		window.put(TIMESTEP).putLong(timestep).putInt(n);
+		window.asIntBuffer().put(ids, 0, n);
+		skip(n * 4);
+		window.asDoubleBuffer().put(xs, 0, n);
+		skip(n * 8);
+		window.asDoubleBuffer().put(ys, 0, n);
+		skip(n * 8);
+		window.asDoubleBuffer().put(directions, 0, n);
+		skip(n * 8);
+		window.put(states, 0, n);
+		window.asIntBuffer().put(winners, 0, n);
+		skip(n * 4);
+
+		timesteps++;
+		update();
+	}
+
+	/**
+	 * @return Number of time steps recorded
+	 */
+	public long getTimesteps() {
+		return timesteps;
+	}
+
+	/**
+	 * Close the file.
+	 * 
+	 * @throws IOException
+	 *             If the file can not be written
+	 */
+	public void close() throws IOException {
+		if (channel == null)
+			return;
+		try {
+			if (window != null)
+				window.force();
+			header.force();
+			// The rest of the last window is not needed
+			try {
+				channel.truncate(length());
+			} catch (IOException e) {
+				// The mapped file can not be truncated on some platforms
+			}
+		} finally {
+			file.close();
+			channel = null;
+			window = null;
+			header = null;
+		}
+	}
+
+	/* Write the category and name of the entity if they are new */
+	private void describe(Entity entity) throws IOException {
+		int id = entity.getMyId();
+		if (id < 0)
+			return;
+		if (id >= names.length) {
+			int size = Math.max(id + 1, names.length * 2);
+			String[] c = new String[size], d = new String[size];
+			System.arraycopy(categories, 0, c, 0, categories.length);
+			System.arraycopy(names, 0, d, 0, names.length);
+			categories = c;
+			names = d;
+		}
+		String category = entity.getEntityType();
+		String name = entity.getDisplayName();
+		if (same(category, categories[id]) && same(name, names[id]))
+			return;
+		categories[id] = category;
+		names[id] = name;
+		byte[] c = utf(category), d = utf(name);
+		reserve(1 + 4 + 4 + c.length + 4 + d.length);
+		window.put(ENTITY).putInt(id);
+		window.putInt(category == null ? -1 : c.length).put(c);
+		window.putInt(name == null ? -1 : d.length).put(d);
+	}
+
+	/* Return the id of the winning behavior, writing it if it is new */
+	private int winner(Entity entity) throws IOException {
+		if (!(entity instanceof BNCategory))
+			return -1;
+		Behavior winner = ((BNCategory) entity).getWinningBehavior();
+		if (winner == null)
+			return -1;
+		int id = winner.getMyId();
+		if (id >= 0 && !behaviors.get(id)) {
+			behaviors.set(id);
+			byte[] name = utf(winner.getBehaviorName());
+			reserve(1 + 4 + 4 + name.length);
+			window.put(BEHAVIOR).putInt(id).putInt(name.length).put(name);
+		}
+		return id;
+	}
+
+	/* Make sure the window has the given number of bytes left */
+	private void reserve(int size) throws IOException {
+		if (window != null && window.remaining() >= size)
+			return;
+		long position = length();
+		window = channel.map(FileChannel.MapMode.READ_WRITE, position, Math
+				.max(WINDOW, size));
+		windowStart = position;
+	}
+
+	/* Skip the bytes written through a view of the window */
+	private void skip(int size) {
+		window.position(window.position() + size);
+	}
+
+	/* The length of the file written */
+	private long length() {
+		return window == null ? HEADER_SIZE : windowStart + window.position();
+	}
+
+	/* Write the length and the number of time steps into the header */
+	private void update() {
+		header.putLong(6, length());
+		header.putLong(14, timesteps);
+	}
+
+	private static boolean same(String a, String b) {
+		return a == b || (a != null && a.equals(b));
+	}
+
+	private static byte[] utf(String s) throws IOException {
+		return s == null ? new byte[0] : s.getBytes("UTF-8");
+	}
+
+	/**
+	 * Write a recorded file as comma separated values, one line for each
+	 * entity in each time step.
+	 * 
+	 * @param path
+	 *            The recorded file
+	 * @param out
+	 *            The writer
+	 * @throws IOException
+	 *             If the file can not be read
+	 */
+	public static void export(File path, PrintWriter out) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(path, "r");
+		try {
+			Reader reader = new Reader(in.getChannel());
+			String[] categories = new String[16];
+			String[] names = new String[16];
+			String[] behaviors = new String[16];
+			out.println("timestep,id,category,name,x,y,direction,state,"
+					+ "behavior");
+			while (reader.hasMore()) {
+				ByteBuffer b = reader.next(1);
+				byte type = b.get();
+				if (type == ENTITY) {
+					int id = reader.next(4).getInt();
+					categories = grow(categories, id);
+					names = grow(names, id);
+					categories[id] = reader.nextString();
+					names[id] = reader.nextString();
+				} else if (type == BEHAVIOR) {
+					int id = reader.next(4).getInt();
+					behaviors = grow(behaviors, id);
+					behaviors[id] = reader.nextString();
+				} else if (type == TIMESTEP) {
+					b = reader.next(TIMESTEP_SIZE - 1);
+					long timestep = b.getLong();
+					int n = b.getInt();
+					b = reader.next(n * ENTITY_SIZE);
+					// The columns
+					int id = b.position(), x = id + n * 4, y = x + n * 8;
+					int d = y + n * 8, state = d + n * 8, w = state + n;
+					for (int i = 0; i < n; i++) {
+						int entity = b.getInt(id + i * 4);
+						int winner = b.getInt(w + i * 4);
+						boolean known = entity >= 0 && entity < names.length;
+						StringBuffer line = new StringBuffer();
+						line.append(timestep).append(',');
+						line.append(entity).append(',');
+						line.append(known ? categories[entity] : null);
+						line.append(',');
+						line.append(known ? names[entity] : null).append(',');
+						line.append(b.getDouble(x + i * 8)).append(',');
+						line.append(b.getDouble(y + i * 8)).append(',');
+						line.append(b.getDouble(d + i * 8)).append(',');
+						line.append(b.get(state + i)).append(',');
+						if (winner >= 0 && winner < behaviors.length)
+							line.append(behaviors[winner]);
+						out.println(line.toString());
+					}
+				} else {
+					throw new IOException("Unknown record type " + type
+							+ " in '" + path + "'.");
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static String[] grow(String[] array, int id) {
+		if (id < array.length)
+			return array;
+		String[] grown = new String[Math.max(id + 1, array.length * 2)];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	/**
+	 * Reader of a recorded file, through memory-mapped windows.
+	 */
+	private static class Reader {
+
+		private FileChannel channel;
+
+		// The length of the data
+		private long length;
+
+		// The current window and its position in the file
+		private ByteBuffer window = null;
+
+		private long windowStart = HEADER_SIZE;
+
+		Reader(FileChannel channel) throws IOException {
+			this.channel = channel;
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					HEADER_SIZE);
+			if (header.getInt(0) != MAGIC)
+				throw new IOException("Not a recorded trajectory file.");
+			if (header.getShort(4) > VERSION)
+				throw new IOException("The version " + header.getShort(4)
+						+ " of the recorded file is not supported.");
+			length = header.getLong(6);
+		}
+
+		boolean hasMore() {
+			return position() < length;
+		}
+
+		/* Return the window positioned at the next given number of bytes */
+		ByteBuffer next(int size) throws IOException {
+			long position = position();
+			if (position + size > length)
+				throw new IOException("The recorded file is truncated.");
+			if (window == null || window.remaining() < size) {
+				window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+						Math.min(Math.max(WINDOW, size), length - position));
+				windowStart = position;
+			}
+			ByteBuffer b = window.duplicate();
+			window.position(window.position() + size);
+			return b;
+		}
+
+		String nextString() throws IOException {
+			int n = next(4).getInt();
+			if (n < 0)
+				return null;
+			byte[] s = new byte[n];
+			next(n).get(s);
+			return new String(s, "UTF-8");
+		}
+
+		private long position() {
+			return window == null ? HEADER_SIZE : windowStart
+					+ window.position();
+		}
+	}
+
+	/**
+	 * Convert a recorded file to comma separated values.
+	 * 
+	 * @param args
+	 *            The recorded file and the output file
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.err.println("Usage: java sim.core.TrajectoryRecorder "
+					+ "run." + EXTENSION + " trajectory.csv");
+			System.exit(2);
+		}
+		try {
+			PrintWriter out = new PrintWriter(new FileWriter(args[1]));
+			try {
+				export(new File(args[0]), out);
+			} finally {
+				out.close();
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+}
@@ -0,0 +1,450 @@
+/*
+ * BehaviorSim - version 1.0 
+ * 
+ * Copyright (C) 2010 The BehaviorSim Development Team, fasheng@cs.gsu.edu.
+ * 
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * 
+ * Info, Questions, Suggestions & Bugs Report to fasheng@cs.gsu.edu.
+ *  
+ */
+package sim.core.dclass;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtMethod;
+import javassist.CtNewMethod;
+import javassist.Modifier;
+import javassist.NotFoundException;
+import sim.util.MessageUtils;
+
+/**
+ * Persistent cache of the compiled methods of the dynamic categories.
+ * 
+ * <p>
+ * Each method compiled by the dynamic manager is saved in the cache directory
+ * as a small class file which contains the method only. The file is named by
+ * a hash of the BehaviorSim version, the classes of the BehaviorSim runtime
+ * (the <code>sim</code> package), the definition of the category class the
+ * method is compiled in (its super class, fields and methods) and the source
+ * of the method, so a cached method is only reused when the compiler would
+ * produce the same bytecode, and the methods it calls still exist. On a hit
+ * the method is copied into the category class and the compilation is
+ * skipped.
+ * </p>
+ * 
+ * <p>
+ * A method may also refer to other dynamic categories, e.g. to cast an entity
+ * to its category. The definitions of these classes are not part of the key,
+ * they are saved with the method instead, and the method is compiled again
+ * when one of them has changed or does not exist any more.
+ * </p>
+ * 
+ * <p>
+ * The cache is best effort: a file that can not be read or written is
+ * compiled again, and nothing is cached if the runtime classes can not be
+ * read. At most {@link #MAX_METHODS} methods are kept, the least recently
+ * used ones are removed, e.g. those cached by a former build.
+ * </p>
+ * 
+ * @see DynamicManager#setBytecodeCacheDirectory(File)
+ * @version 1.0
+ */
+public class BytecodeCache {
+
+	/** Version of the code generation, part of every key */
+	public static final String VERSION = "BehaviorSim 1.0/1";
+
+	/** Name of the cache directory in the application resource directory */
+	public static final String DIRECTORY = "classcache";
+
+	/** Most methods kept in the cache directory */
+	public static final int MAX_METHODS = 1000;
+
+	// The hash of the runtime classes, empty if they can not be read
+	private static String runtime = null;
+
+	// Package of the class files which carry the cached methods
+	private static final String PACKAGE = "simulation.cache.M";
+
+	// Package of the dynamic categories
+	private static final String CATEGORIES = "simulation.newmodel.";
+
+	// Prefix of the fields which record the referenced categories
+	private static final String REFERENCE = "ref";
+
+	// The cache directory
+	private File dir = null;
+
+	// The class pool used to read the cached class files
+	private ClassPool carriers = null;
+
+	// Whether the least recently used methods are removed already
+	private boolean evicted = false;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param dir
+	 *            The cache directory, created when the first method is saved
+	 * @param pool
+	 *            The class pool of the dynamic categories
+	 */
+	public BytecodeCache(File dir, ClassPool pool) {
+		this.dir = dir;
+		this.carriers = new ClassPool(pool);
+	}
+
+	/**
+	 * Return the key of the method source compiled in the given class.
+	 * 
+	 * @param cc
+	 *            The category class the method is compiled in
+	 * @param src
+	 *            The translated source of the method
+	 * @return The key of the method, <code>null</code> if the method can not
+	 *         be cached
+	 * @throws Exception
+	 *             If the definition of the class can not be read
+	 */
+	public String key(CtClass cc, String src) throws Exception {
+		String runtime = runtime();
+		if (runtime == null)
+			return null;
+		StringBuffer sb = new StringBuffer(VERSION).append('\n');
+		sb.append(runtime).append('\n');
+		define(sb, cc);
+		sb.append('\n').append(src);
+		return hash(sb);
+	}
+
+	/**
+	 * Return a copy of the cached method in the given class.
+	 * 
+	 * @param key
+	 *            The key of the method
+	 * @param cc
+	 *            The category class the method is compiled in
+	 * @return The method, which is not added to the class yet, or
+	 *         <code>null</code> if the method is not cached
+	 */
+	public CtMethod get(String key, CtClass cc) {
+		File file = new File(dir, key + ".class");
+		if (!file.isFile())
+			return null;
+		InputStream in = null;
+		CtClass carrier = null;
+		try {
+			in = new FileInputStream(file);
+			carrier = carriers.makeClass(in);
+			CtMethod[] methods = carrier.getDeclaredMethods();
+			if (methods.length != 1 || !isValid(carrier))
+				return null;
+			CtMethod method = CtNewMethod.copy(methods[0], cc, null);
+			// The recently used methods are kept by the eviction
+			file.setLastModified(System.currentTimeMillis());
+			return method;
+		} catch (Exception e) {
+			MessageUtils.debug(this, "get", e);
+			return null;
+		} finally {
+			if (carrier != null)
+				carrier.detach();
+			close(in);
+		}
+	}
+
+	/**
+	 * Save the method compiled in the given class.
+	 * 
+	 * @param key
+	 *            The key of the method
+	 * @param method
+	 *            The compiled method
+	 */
+	public void put(String key, CtMethod method) {
+		OutputStream out = null;
+		CtClass carrier = null;
+		File tmp = null;
+		try {
+			carrier = carriers.makeClass(PACKAGE + key, method
+					.getDeclaringClass().getSuperclass());
+			carrier.addMethod(CtNewMethod.copy(method, carrier, null));
+			if (!addReferences(carrier))
+				return;
+			byte[] b = carrier.toBytecode();
+			// Write a temporary file first, a partial file is never read
+			dir.mkdirs();
+			tmp = new File(dir, key + ".tmp");
+			out = new FileOutputStream(tmp);
+			out.write(b);
+			out.close();
+			out = null;
+			if (!tmp.renameTo(new File(dir, key + ".class")))
+				tmp.delete();
+			if (!evicted) {
+				evicted = true;
+				evict();
+			}
+		} catch (Exception e) {
+			MessageUtils.debug(this, "put", e);
+			if (tmp != null)
+				tmp.delete();
+		} finally {
+			if (carrier != null)
+				carrier.detach();
+			close(out);
+		}
+	}
+
+	/*
+	 * Record the definitions of the categories the method of the carrier
+	 * refers to. Return false if one of them can not be read
+	 */
+	private boolean addReferences(CtClass carrier) throws Exception {
+		List names = references(carrier);
+		CtClass string = carriers.get(String.class.getName());
+		for (int i = 0; i < names.size(); i++) {
+			String name = (String) names.get(i);
+			String definition = definition(name);
+			if (definition == null)
+				return false;
+			CtField field = new CtField(string, REFERENCE + i, carrier);
+			field.setModifiers(Modifier.STATIC | Modifier.FINAL);
+			carrier.addField(field, CtField.Initializer.constant(name + ' '
+					+ definition));
+		}
+		return true;
+	}
+
+	/*
+	 * Return whether the categories the method of the carrier refers to are
+	 * all recorded with their current definitions
+	 */
+	private boolean isValid(CtClass carrier) throws Exception {
+		Map recorded = new HashMap();
+		CtField[] fields = carrier.getDeclaredFields();
+		for (int i = 0; i < fields.length; i++) {
+			Object value = fields[i].getConstantValue();
+			if (fields[i].getName().startsWith(REFERENCE)
+					&& value instanceof String) {
+				String reference = (String) value;
+				int space = reference.indexOf(' ');
+				recorded.put(reference.substring(0, space), reference
+						.substring(space + 1));
+			}
+		}
+		List names = references(carrier);
+		for (int i = 0; i < names.size(); i++) {
+			String name = (String) names.get(i);
+			String definition = definition(name);
+			if (definition == null || !definition.equals(recorded.get(name))) {
+				MessageUtils.debug(this, "isValid", "The category '" + name
+						+ "' has changed");
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/* Return the names of the categories the carrier refers to, sorted */
+	private static List references(CtClass carrier) {
+		List names = new ArrayList();
+		for (Iterator i = carrier.getRefClasses().iterator(); i.hasNext();) {
+			String name = (String) i.next();
+			if (name.startsWith(CATEGORIES))
+				names.add(name);
+		}
+		Collections.sort(names);
+		return names;
+	}
+
+	/*
+	 * Return the hash of the current definition of the category, or null if it
+	 * is not in the class pool
+	 */
+	private String definition(String name) throws Exception {
+		CtClass cc = null;
+		try {
+			cc = carriers.get(name);
+		} catch (NotFoundException e) {
+			return null;
+		}
+		StringBuffer sb = new StringBuffer();
+		define(sb, cc);
+		return hash(sb);
+	}
+
+	/* Append the super class, the fields and the methods of the class */
+	private static void define(StringBuffer sb, CtClass cc) throws Exception {
+		sb.append(cc.getSuperclass().getName()).append('\n');
+		CtField[] fields = cc.getDeclaredFields();
+		for (int i = 0; i < fields.length; i++)
+			sb.append(fields[i].getName()).append(' ').append(
+					fields[i].getSignature()).append('\n');
+		CtMethod[] methods = cc.getDeclaredMethods();
+		for (int i = 0; i < methods.length; i++)
+			sb.append(methods[i].getName()).append(
+					methods[i].getSignature()).append('\n');
+	}
+
+	/* Return the hexadecimal SHA-1 hash of the text */
+	private static String hash(StringBuffer sb) throws Exception {
+		return hex(MessageDigest.getInstance("SHA-1").digest(
+				sb.toString().getBytes("UTF-8")));
+	}
+
+	/* Remove the least recently used methods, if there are too many */
+	private void evict() {
+		File[] files = dir.listFiles();
+		List methods = new ArrayList();
+		for (int i = 0; files != null && i < files.length; i++) {
+			if (files[i].getName().endsWith(".class"))
+				methods.add(files[i]);
+		}
+		if (methods.size() <= MAX_METHODS)
+			return;
+		Collections.sort(methods, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				long m1 = ((File) o1).lastModified();
+				long m2 = ((File) o2).lastModified();
+				return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+			}
+		});
+		for (int i = 0; i < methods.size() - MAX_METHODS; i++)
+			((File) methods.get(i)).delete();
+	}
+
+	/*
+	 * Return the hash of the classes of the runtime, which the compiled
+	 * methods call, or null if they can not be read. It is computed once
+	 */
+	private static synchronized String runtime() {
+		if (runtime == null) {
+			try {
+				MessageDigest md = MessageDigest.getInstance("SHA-1");
+				File source = new File(BytecodeCache.class
+						.getProtectionDomain().getCodeSource().getLocation()
+						.toURI());
+				if (source.isDirectory())
+					digest(md, new File(source, "sim"), "sim/");
+				else
+					digest(md, new JarFile(source));
+				runtime = hex(md.digest());
+			} catch (Exception e) {
+				MessageUtils.debug(BytecodeCache.class, "runtime", e);
+				runtime = "";
+			}
+		}
+		return runtime.length() == 0 ? null : runtime;
+	}
+
+	/* Digest the class files in the directory, in the order of their names */
+	private static void digest(MessageDigest md, File dir, String path)
+			throws Exception {
+		File[] files = dir.listFiles();
+		if (files == null)
+			throw new IllegalStateException("'" + dir + "' can not be read.");
+		Arrays.sort(files);
+		for (int i = 0; i < files.length; i++) {
+			String name = path + files[i].getName();
+			if (files[i].isDirectory()) {
+				digest(md, files[i], name + "/");
+			} else if (name.endsWith(".class")) {
+				InputStream in = new FileInputStream(files[i]);
+				try {
+					digest(md, name, in);
+				} finally {
+					close(in);
+				}
+			}
+		}
+	}
+
+	/* Digest the class files of the sim package in the jar */
+	private static void digest(MessageDigest md, JarFile jar) throws Exception {
+		try {
+			List names = new ArrayList();
+			for (Enumeration e = jar.entries(); e.hasMoreElements();) {
+				String name = ((JarEntry) e.nextElement()).getName();
+				if (name.startsWith("sim/") && name.endsWith(".class"))
+					names.add(name);
+			}
+			Collections.sort(names);
+			for (int i = 0; i < names.size(); i++) {
+				String name = (String) names.get(i);
+				InputStream in = jar.getInputStream(jar.getEntry(name));
+				try {
+					digest(md, name, in);
+				} finally {
+					close(in);
+				}
+			}
+		} finally {
+			jar.close();
+		}
+	}
+
+	/* Digest the name and the content of the class file */
+	private static void digest(MessageDigest md, String name, InputStream in)
+			throws Exception {
+		md.update(name.getBytes("UTF-8"));
+		byte[] b = new byte[8192];
+		int n;
+		while ((n = in.read(b)) > 0)
+			md.update(b, 0, n);
+	}
+
+	/* Return the hexadecimal form of the digest */
+	private static String hex(byte[] digest) {
+		StringBuffer hex = new StringBuffer();
+		for (int i = 0; i < digest.length; i++) {
+			hex.append(Character.forDigit((digest[i] >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(digest[i] & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	/* Close the stream quietly */
+	private static void close(Closeable stream) {
+		try {
+			if (stream != null)
+				stream.close();
+		} catch (Exception e) {
+		}
+	}
+}
@@ -25,6 +25,8 @@
 
 package sim.core.dclass;
 
+import java.util.regex.Pattern;
+
 /**
  * A helper class Used to translated the source code from the GUI input to the
  * format which the computer can handle.
@@ -46,4 +48,138 @@ public class CodeHelper {
 	public static String translate(String input) {
 		return input;
 	}
+
+	/** The system functions which return a movement command */
+	private static final String[] MOVE_FUNCTIONS = { "moveForward",
+			"moveBackward", "move" };
+
+	/** A method declared to return a string */
+	private static final Pattern STRING_METHOD = Pattern
+			.compile("^\\s*((public|protected|private|static|final|"
+					+ "synchronized)\\s+)*String\\s+\\w+\\s*\\(");
+
+	/** A string variable given the result of a move system function */
+	private static final Pattern STRING_MOVE = Pattern
+			.compile("\\bString\\s+\\w+\\s*=\\s*"
+					+ "(move|moveForward|moveBackward)\\s*\\(");
+
+	/**
+	 * Whether the source code of a method expects the move system functions to
+	 * return strings, as they did before they returned a
+	 * <code>MoveCommand</code>: the method is declared to return a string, or
+	 * a string variable is given the result of a move function. The compiler
+	 * does not reject such a method, but its class fails to load.
+	 * 
+	 * @param input
+	 *            The source code of a method
+	 * @return Whether the results of the move functions should be converted
+	 * @see #moveCommandsToStrings(String)
+	 */
+	public static boolean expectsMoveStrings(String input) {
+		return STRING_MOVE.matcher(input).find()
+				|| (STRING_METHOD.matcher(input).find() && !input
+						.equals(moveCommandsToStrings(input)));
+	}
+
+	/**
+	 * Convert the results of the move system functions in the source code to
+	 * strings. The functions returned the movement as a string before they
+	 * returned a <code>MoveCommand</code>, whose <code>toString()</code> has
+	 * the same format, so that the methods written for the strings, e.g.
+	 * declared to return a <code>String</code>, are still compiled.
+	 * 
+	 * @param input
+	 *            The source code of a method
+	 * @return The source code with <code>.toString()</code> appended to the
+	 *         calls of the move system functions
+	 */
+	public static String moveCommandsToStrings(String input) {
+		StringBuffer output = new StringBuffer(input.length() + 32);
+		int length = input.length();
+		int i = 0;
+		while (i < length) {
+			char c = input.charAt(i);
+			// Copy the string and character literals as they are
+			if (c == '"' || c == '\'') {
+				int end = skipLiteral(input, i);
+				output.append(input.substring(i, end));
+				i = end;
+				continue;
+			}
+			String function = moveFunctionAt(input, i);
+			if (function == null) {
+				output.append(c);
+				i++;
+				continue;
+			}
+			int open = input.indexOf('(', i + function.length());
+			int close = closingParenthesis(input, open);
+			if (close < 0) {
+				output.append(input.substring(i));
+				break;
+			}
+			output.append(input.substring(i, open + 1));
+			output.append(moveCommandsToStrings(input.substring(open + 1,
+					close)));
+			output.append(").toString()");
+			i = close + 1;
+		}
+		return output.toString();
+	}
+
+	/* The move function called at the given position, or null */
+	private static String moveFunctionAt(String input, int index) {
+		if (index > 0) {
+			char before = input.charAt(index - 1);
+			if (before == '.' || Character.isJavaIdentifierPart(before))
+				return null;
+		}
+		for (int k = 0; k < MOVE_FUNCTIONS.length; k++) {
+			String function = MOVE_FUNCTIONS[k];
+			if (!input.startsWith(function, index))
+				continue;
+			int i = index + function.length();
+			while (i < input.length()
+					&& Character.isWhitespace(input.charAt(i)))
+				i++;
+			if (i < input.length() && input.charAt(i) == '(')
+				return function;
+		}
+		return null;
+	}
+
+	/* The position of the parenthesis closing the given one, or -1 */
+	private static int closingParenthesis(String input, int open) {
+		int depth = 0;
+		int i = open;
+		while (i < input.length()) {
+			char c = input.charAt(i);
+			if (c == '"' || c == '\'') {
+				i = skipLiteral(input, i);
+				continue;
+			}
+			if (c == '(')
+				depth++;
+			else if (c == ')' && --depth == 0)
+				return i;
+			i++;
+		}
+		return -1;
+	}
+
+	/* The position after the literal starting at the given position */
+	private static int skipLiteral(String input, int start) {
+		char quote = input.charAt(start);
+		int i = start + 1;
+		while (i < input.length()) {
+			char c = input.charAt(i);
+			if (c == '\\')
+				i += 2;
+			else if (c == quote)
+				return i + 1;
+			else
+				i++;
+		}
+		return i;
+	}
 }
@@ -27,6 +27,10 @@ package sim.core.dclass;
 
 import java.io.File;
 import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -34,11 +38,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import javassist.CannotCompileException;
 import javassist.ClassPool;
 import javassist.CtClass;
 import javassist.CtConstructor;
 import javassist.CtField;
 import javassist.CtMethod;
+import javassist.CtNewConstructor;
 import javassist.NotFoundException;
 import sim.core.AppClassLoader;
 import sim.core.AppEngine;
@@ -51,6 +57,7 @@ import sim.model.entity.PropertyType;
 import sim.model.mechanism.CooperativeMechanism;
 import sim.model.mechanism.IMechanism;
 import sim.model.mechanism.MutualInhibitionMechanism;
+import sim.util.MessageUtils;
 import sim.util.MethodUtils;
 import sim.util.SimException;
 
@@ -102,6 +109,30 @@ public class DynamicManager {
 	// <methodmap> is "methodName -> CtMethod object"
 	protected Map categoryMethods = new HashMap();
 
+	// The categories with an open batch of new methods
+	// The mapping would be "categoryName -> int[]{nesting depth, number of
+	// methods added in the batch}"
+	protected Map methodBatches = new HashMap();
+
+	// The direct invokers of the generated methods
+	// The mapping would be "className.methodName -> ProxyInvoker object"
+	protected Map proxyInvokers = new HashMap();
+
+	// The accessors of the user-defined properties
+	// The mapping would be "className -> PropertyAccessor object"
+	protected Map propertyAccessors = new HashMap();
+
+	// The loaded latest versions of the dynamic classes
+	// The mapping would be "className -> Class object". Superseded versions
+	// are removed so that they can be unloaded with their class loaders.
+	protected Map versionClasses = new HashMap();
+
+	// The weak references to all loaded versions which are not unloaded yet
+	protected List liveVersions = new ArrayList();
+
+	// The persistent cache of the compiled methods, null if not used
+	protected BytecodeCache bytecodeCache = null;
+
 	// The class pool
 	protected ClassPool pool = null;
 
@@ -120,6 +151,38 @@ public class DynamicManager {
 		}
 	}
 
+	/**
+	 * Class loader of a single version of a dynamic class and the direct
+	 * invokers of its methods. Once the version is superseded and no entity
+	 * refers to it any more, the loader and its classes can be unloaded.
+	 */
+	class VersionClassLoader extends ClassLoader {
+		VersionClassLoader() {
+			super(cl);
+		}
+
+		/* Define the class, or return it if it is already defined */
+		synchronized Class define(CtClass cc) throws Exception {
+			Class c = findLoadedClass(cc.getName());
+			if (c == null) {
+				byte[] b = cc.toBytecode();
+				c = defineClass(cc.getName(), b, 0, b.length);
+			}
+			return c;
+		}
+
+		/* The other dynamic classes are resolved to their latest versions */
+		protected Class findClass(String name) throws ClassNotFoundException {
+			Class c = null;
+			synchronized (DynamicManager.this) {
+				c = (Class) versionClasses.get(name);
+			}
+			if (c == null)
+				throw new ClassNotFoundException(name);
+			return c;
+		}
+	}
+
 	/**
 	 * Constructor. Construct a new dynamic manager
 	 * 
@@ -308,6 +371,18 @@ public class DynamicManager {
 		return this.latestClassVersions;
 	}
 
+	/**
+	 * Set the directory of the persistent cache of the compiled methods. The
+	 * methods compiled later are saved in the directory, and the methods
+	 * already cached there are not compiled again.
+	 * 
+	 * @param dir
+	 *            The cache directory, <code>null</code> to disable the cache
+	 */
+	public void setBytecodeCacheDirectory(File dir) {
+		bytecodeCache = dir == null ? null : new BytecodeCache(dir, pool);
+	}
+
 	/**
 	 * Return all defined categories methods
 	 * 
@@ -399,23 +474,15 @@ public class DynamicManager {
 		// Get the original class definition
 		Object o = null;
 		try {
-			o = cl.loadClass("simulation.newmodel." + key).newInstance();
-		} catch (Exception e1) {
+			o = loadVersion("simulation.newmodel." + key).newInstance();
+		} catch (Exception e) {
 			try {
 				o = Thread.currentThread().getContextClassLoader().loadClass(
 						"simulation.newmodel." + key).newInstance();
-			} catch (Exception e11) {
-				try {
-					Class clz = pool.get("simulation.newmodel." + key)
-							.toClass();
-					o = clz.newInstance();
-				} catch (Exception e) {
-					e.printStackTrace();
-					throw (new SimException(
-							"CAT-S-NF-001A",
-							"The category class '" + k + "' can not be loaded.",
-							e));
-				}
+			} catch (Exception e1) {
+				e.printStackTrace();
+				throw (new SimException("CAT-S-NF-001A", "The category class '"
+						+ k + "' can not be loaded.", e));
 			}
 		}
 		try {
@@ -493,8 +560,7 @@ public class DynamicManager {
 		// Get the original class definition
 		Object o = null;
 		try {
-			Class clz = pool.get("simulation.newmodel." + key).toClass();
-			o = clz.newInstance();
+			o = loadVersion("simulation.newmodel." + key).newInstance();
 		} catch (Exception e) {
 			try {
 				o = Thread.currentThread().getContextClassLoader().loadClass(
@@ -529,6 +595,8 @@ public class DynamicManager {
 			// Get the key
 			if (v > 0)
 				key += v;
+			// Release the loaded class
+			releaseVersion("simulation.newmodel." + key);
 			try {
 				// Get the class
 				CtClass cc = pool.get("simulation.newmodel." + key);
@@ -630,6 +698,7 @@ public class DynamicManager {
 		if (needBehaviorNetwork && !(old instanceof BNCategory))
 			cc.setSuperclass(pool.get("sim.model.entity.BNCategory"));
 		// Rename it
+		releaseVersion(cc.getName());
 		cc.setName("simulation.newmodel." + (className + (v + 1)));
 		// Remove the old definition of properties
 		try {
@@ -844,7 +913,7 @@ public class DynamicManager {
 				method.transSuccess = true;
 				CtMethod methodByte = null;
 				try {
-					methodByte = CtMethod.make(translatedCode, cc);
+					methodByte = makeMethod(translatedCode, cc);
 					cc.addMethod(methodByte);
 					method.bytecode = methodByte;
 				} catch (Exception e) {
@@ -865,8 +934,8 @@ public class DynamicManager {
 		// the instance is created
 		Category o = null;
 		try {
-			o = (Category) pool.get("simulation.newmodel." + className)
-					.toClass().newInstance();
+			o = (Category) loadVersion("simulation.newmodel." + className)
+					.newInstance();
 			o.setEntityType(className);
 			o.setDisplay(category.getDisplay());
 			o.setImagePath(category.getImagePath());
@@ -1038,7 +1107,7 @@ public class DynamicManager {
 		// the instance is created
 		Object o = null;
 		try {
-			o = pool.get("simulation.newmodel." + className).toClass()
+			o = loadVersion("simulation.newmodel." + className)
 					.newInstance();
 			MethodUtils.invokeExactMethod(o, "setEntityType", className);
 			MethodUtils.invokeExactMethod(o, "setImagePath", iconPath);
@@ -1171,7 +1240,7 @@ public class DynamicManager {
 				method.transSuccess = true;
 				CtMethod methodByte = null;
 				try {
-					methodByte = CtMethod.make(translatedCode, cc);
+					methodByte = makeMethod(translatedCode, cc);
 					cc.addMethod(methodByte);
 				} catch (Exception e) {
 					throw (new SimException("CAT-S-MF-011B", "Method '"
@@ -1191,7 +1260,7 @@ public class DynamicManager {
 		// the instance is created
 		Object o = null;
 		try {
-			o = pool.get("simulation.newmodel." + className).toClass()
+			o = loadVersion("simulation.newmodel." + className)
 					.newInstance();
 			MethodUtils.invokeExactMethod(o, "setEntityType", className);
 			MethodUtils.invokeExactMethod(o, "setImagePath", iconPath);
@@ -1337,7 +1406,7 @@ public class DynamicManager {
 				method.transSuccess = true;
 				CtMethod methodByte = null;
 				try {
-					methodByte = CtMethod.make(translatedCode, cc);
+					methodByte = makeMethod(translatedCode, cc);
 					cc.addMethod(methodByte);
 				} catch (Exception e) {
 					throw (new SimException("CAT-S-MF-011B", "Method '"
@@ -1357,7 +1426,7 @@ public class DynamicManager {
 		// the instance is created
 		Object o = null;
 		try {
-			o = pool.get("simulation.newmodel." + className).toClass()
+			o = loadVersion("simulation.newmodel." + className)
 					.newInstance();
 			MethodUtils.invokeExactMethod(o, "setEntityType", className);
 			MethodUtils.invokeExactMethod(o, "setImagePath", display
@@ -1457,7 +1526,7 @@ public class DynamicManager {
 		cc.defrost();
 		String translatedCode = CodeHelper.translate(inputCode);
 		try {
-			CtMethod methodByte = CtMethod.make(translatedCode, cc);
+			CtMethod methodByte = makeMethod(translatedCode, cc);
 			cc.addMethod(methodByte);
 			// Save the method bytes for further use
 			Map methodMap = (Map) categoryMethods.get(categoryName);
@@ -1484,16 +1553,77 @@ public class DynamicManager {
 								+ "' can not be invoked.", e));
 			}
 		}
+		// Defer the new version until the batch is committed
+		int batch[] = (int[]) methodBatches.get(categoryName);
+		if (batch != null) {
+			batch[1]++;
+			return;
+		}
+		newMethodsVersion(categoryName, cc);
+		// sim.util.MethodUtils.probeMethodsList(c);
+
+	}
+
+	/**
+	 * Start a batch of new methods in the specified category. The methods
+	 * created by {@link #createMethod(String, boolean, String, String)} until
+	 * the matching {@link #commitMethods(String)} are compiled into the
+	 * current class definition, and only one new version of the category class
+	 * is generated for all of them. The methods can not be invoked before the
+	 * batch is committed. Batches can be nested, the outermost one generates
+	 * the new version.
+	 * 
+	 * @param categoryName
+	 *            The category name where the methods are created
+	 */
+	public void beginMethods(String categoryName) {
+		int batch[] = (int[]) methodBatches.get(categoryName);
+		if (batch == null)
+			methodBatches.put(categoryName, batch = new int[2]);
+		batch[0]++;
+	}
+
+	/**
+	 * Commit the batch of new methods in the specified category. If it is the
+	 * outermost batch and any method has been created, a new version of the
+	 * category class is generated with all of them.
+	 * 
+	 * @param categoryName
+	 *            The category name where the methods are created
+	 * @throws Exception
+	 *             If the new version of the class can not be loaded
+	 */
+	public void commitMethods(String categoryName) throws Exception {
+		int batch[] = (int[]) methodBatches.get(categoryName);
+		if (batch == null || --batch[0] > 0)
+			return;
+		methodBatches.remove(categoryName);
+		if (batch[1] == 0)
+			return;
+		// Get the latest class version
+		String cName = categoryName;
+		Object version = latestClassVersions.get(categoryName);
+		if (version != null
+				&& (version instanceof Integer && ((Integer) version)
+						.intValue() != 0)) {
+			cName += ((Integer) version).intValue();
+		}
+		newMethodsVersion(categoryName, pool.get("simulation.newmodel."
+				+ cName));
+	}
+
+	/* Save the class with the new methods as a new version of the category */
+	private void newMethodsVersion(String categoryName, CtClass cc)
+			throws Exception {
 		// Save a new version of this dynamic class
-		int v = ((Integer) version).intValue() + 1;
+		int v = ((Integer) latestClassVersions.get(categoryName)).intValue() + 1;
 		latestClassVersions.put(categoryName, new Integer(v));
 		// Put the new dynamic class into the class pool (change the class name)
 		// And remove the older version of the dynamic class
+		releaseVersion(cc.getName());
 		cc.setName("simulation.newmodel." + categoryName + v);
 
 		getCategory(categoryName);
-		// sim.util.MethodUtils.probeMethodsList(c);
-
 	}
 
 	/**
@@ -1539,10 +1669,10 @@ public class DynamicManager {
 					+ categoryName + "' is not found.", e));
 		}
 		cc.defrost();
-		// Try to compile the method
+		// Try to compile the method, the trial is not cached
 		String translatedCode = CodeHelper.translate(inputCode);
 		try {
-			CtMethod.make(translatedCode, cc);
+			compileMethod(translatedCode, cc);
 		} catch (Exception e) {
 			throw (new SimException("CAT-S-MF-011C",
 					"The method definition is not legal.", e));
@@ -1590,7 +1720,7 @@ public class DynamicManager {
 					.get(categoryName)).get(newMethod.name);
 			if (methodByte != null)
 				cc.removeMethod(methodByte);
-			methodByte = CtMethod.make(translatedCode, cc);
+			methodByte = makeMethod(translatedCode, cc);
 			cc.addMethod(methodByte);
 			// Save the new method bytes, may override the old method bytes
 			Map methodMap = (Map) categoryMethods.get(categoryName);
@@ -1618,6 +1748,7 @@ public class DynamicManager {
 		latestClassVersions.put(categoryName, new Integer(v));
 		// Put the new dynamic class into the class pool (change the class name)
 		// And remove the older version of the dynamic class
+		releaseVersion(cc.getName());
 		cc.setName("simulation.newmodel." + categoryName + v);
 	}
 
@@ -1731,6 +1862,7 @@ public class DynamicManager {
 
 		// Put the new dynamic class into the class pool (change the class name)
 		// And remove the older version of the dynamic class
+		releaseVersion(cc.getName());
 		cc.setName("simulation.newmodel." + categoryName + v);
 
 		return true;
@@ -1809,21 +1941,280 @@ public class DynamicManager {
 		}
 		Class o = null;
 		try {
-			o = cl.loadClass("simulation.newmodel." + cName);
-			if (o == null) {
-				throw new RuntimeException();
-			}
-		} catch (Exception e1) {
+			o = loadVersion(cc.getName());
+		} catch (Exception e) {
+			throw (new SimException("CAT-S-NF-001A", "The category '"
+					+ categoryName + "' can not be loaded.", e));
+		}
+
+		// Check method
+		return MethodUtils.checkIfMethodExist(o, methodName);
+	}
+
+	/* Compile the method in the class, or copy it from the bytecode cache */
+	private CtMethod makeMethod(String translatedCode, CtClass cc)
+			throws Exception {
+		if (bytecodeCache == null)
+			return compileMethod(translatedCode, cc);
+		String key = bytecodeCache.key(cc, translatedCode);
+		if (key == null)
+			return compileMethod(translatedCode, cc);
+		CtMethod method = bytecodeCache.get(key, cc);
+		if (method == null) {
+			method = compileMethod(translatedCode, cc);
+			bytecodeCache.put(key, method);
+		}
+		return method;
+	}
+
+	/*
+	 * Compile the method in the class. A method written when the move system
+	 * functions returned strings, e.g. one declared to return a String, is
+	 * compiled with the results of the functions converted to strings.
+	 */
+	private CtMethod compileMethod(String translatedCode, CtClass cc)
+			throws CannotCompileException {
+		if (CodeHelper.expectsMoveStrings(translatedCode)) {
 			try {
-				o = cc.toClass();
-			} catch (Exception e) {
-				throw (new SimException("CAT-S-NF-001A", "The category '"
-						+ categoryName + "' can not be loaded.", e));
+				CtMethod method = CtMethod.make(CodeHelper
+						.moveCommandsToStrings(translatedCode), cc);
+				MessageUtils.debug(this, "compileMethod",
+						"Move commands converted to strings in "
+								+ method.getName());
+				return method;
+			} catch (CannotCompileException e) {
+				// Compile it as it is
 			}
+		}
+		return CtMethod.make(translatedCode, cc);
+	}
+
+	/**
+	 * Return the direct invoker of the given method, which has no parameter,
+	 * of the given dynamic class. The invoker is generated on the first
+	 * request and reused later. It invokes the method through reflection if
+	 * it can not be generated.
+	 * 
+	 * @param type
+	 *            The dynamic class, or a version of it
+	 * @param methodName
+	 *            The method to invoke
+	 * @return The invoker of the method
+	 * @throws Exception
+	 *             If the method does not exist
+	 */
+	public synchronized ProxyInvoker getProxyInvoker(Class type,
+			String methodName) throws Exception {
+		String key = type.getName() + "." + methodName;
+		ProxyInvoker invoker = (ProxyInvoker) proxyInvokers.get(key);
+		if (invoker != null)
+			return invoker;
+		Method method = MethodUtils.getAccessibleMethod(type, methodName,
+				new Class[0]);
+		if (method == null)
+			throw new NoSuchMethodException("No such accessible method: "
+					+ methodName + "() on class: " + type.getName());
+		try {
+			invoker = createProxyInvoker(type, method);
+		} catch (Exception e) {
+			MessageUtils.debug(this, "getProxyInvoker", e);
+			invoker = new ProxyInvoker.ReflectiveInvoker(method);
+		}
+		if (!isReleased(type))
+			proxyInvokers.put(key, invoker);
+		return invoker;
+	}
 
+	/* Generate the direct invoker of the method */
+	private ProxyInvoker createProxyInvoker(Class type, Method method)
+			throws Exception {
+		Class r = method.getReturnType();
+		if (r.isPrimitive() && r != Double.TYPE && r != Void.TYPE)
+			return new ProxyInvoker.ReflectiveInvoker(method);
+		CtClass cc = pool.makeClass(type.getName() + "$" + method.getName()
+				+ "Invoker", pool.get(ProxyInvoker.class.getName()));
+		String call = "((" + type.getName() + ") target)." + method.getName()
+				+ "()";
+		if (r == Double.TYPE) {
+			cc.addMethod(CtMethod.make("public double invokeDouble(Object target) "
+					+ "throws Exception { return " + call + "; }", cc));
+			cc.addMethod(CtMethod.make("public Object invoke(Object target) "
+					+ "throws Exception { return new Double(" + call + "); }",
+					cc));
+		} else if (r == Void.TYPE) {
+			cc.addMethod(CtMethod.make("public Object invoke(Object target) "
+					+ "throws Exception { " + call + "; return null; }", cc));
+		} else {
+			cc.addMethod(CtMethod.make("public Object invoke(Object target) "
+					+ "throws Exception { return " + call + "; }", cc));
 		}
+		// The invoker is defined by the class loader of the version, so that
+		// it is unloaded together with the version
+		ClassLoader loader = type.getClassLoader();
+		Class c = null;
+		if (loader instanceof VersionClassLoader)
+			c = ((VersionClassLoader) loader).define(cc);
+		else
+			c = cc.toClass();
+		cc.detach();
+		return (ProxyInvoker) c.newInstance();
+	}
 
-		// Check method
-		return MethodUtils.checkIfMethodExist(o, methodName);
+	/**
+	 * Return the accessor of the user-defined properties of the given dynamic
+	 * class. The accessor is generated on the first request and reused later.
+	 * It accesses the properties through reflection if it can not be
+	 * generated, or if the class is not generated by this manager.
+	 * 
+	 * @param type
+	 *            The dynamic class, or a version of it
+	 * @return The accessor of the properties
+	 */
+	public synchronized PropertyAccessor getPropertyAccessor(Class type) {
+		String key = type.getName();
+		PropertyAccessor accessor = (PropertyAccessor) propertyAccessors
+				.get(key);
+		if (accessor != null)
+			return accessor;
+		Field[] fields = PropertyAccessor.getPropertyFields(type);
+		try {
+			accessor = createPropertyAccessor(type, fields);
+		} catch (Exception e) {
+			MessageUtils.debug(this, "getPropertyAccessor", e);
+			accessor = null;
+		}
+		if (accessor == null)
+			accessor = new PropertyAccessor.ReflectiveAccessor(fields);
+		if (!isReleased(type))
+			propertyAccessors.put(key, accessor);
+		return accessor;
 	}
+
+	/* Generate the direct accessor of the fields, null if it is not needed */
+	private PropertyAccessor createPropertyAccessor(Class type, Field[] fields)
+			throws Exception {
+		// A released version is no longer in the class pool
+		ClassLoader loader = type.getClassLoader();
+		if (!(loader instanceof VersionClassLoader) || isReleased(type)
+				|| fields.length == 0)
+			return null;
+		String[] names = new String[fields.length];
+		Class[] types = new Class[fields.length];
+		StringBuffer get = new StringBuffer(), set = new StringBuffer();
+		StringBuffer getDouble = new StringBuffer();
+		StringBuffer setDouble = new StringBuffer();
+		for (int i = 0; i < fields.length; i++) {
+			names[i] = fields[i].getName();
+			types[i] = fields[i].getType();
+			String field = "t." + names[i];
+			if (types[i] == Double.TYPE) {
+				get.append("case " + i + ": return new Double(" + field
+						+ ");");
+				set.append("case " + i + ": " + field
+						+ " = ((Number) value).doubleValue(); return;");
+				getDouble.append("case " + i + ": return " + field + ";");
+				setDouble.append("case " + i + ": " + field
+						+ " = value; return;");
+			} else if (!types[i].isPrimitive() && !types[i].isArray()) {
+				get.append("case " + i + ": return " + field + ";");
+				set.append("case " + i + ": " + field + " = ("
+						+ types[i].getName() + ") value; return;");
+			} else {
+				return null;
+			}
+		}
+		String cast = type.getName() + " t = (" + type.getName()
+				+ ") target; ";
+		CtClass cc = pool.makeClass(type.getName() + "$PropertyAccessor", pool
+				.get(PropertyAccessor.class.getName()));
+		cc.addConstructor(CtNewConstructor.make("public "
+				+ cc.getSimpleName() + "(String[] names, Class[] types) "
+				+ "{ super(names, types); }", cc));
+		cc.addMethod(CtMethod.make("public Object get(Object target, "
+				+ "int index) { " + cast + "switch (index) { " + get
+				+ " } return super.get(target, index); }", cc));
+		cc.addMethod(CtMethod.make("public void set(Object target, "
+				+ "int index, Object value) { " + cast + "switch (index) { "
+				+ set + " } super.set(target, index, value); }", cc));
+		if (getDouble.length() > 0) {
+			cc.addMethod(CtMethod.make("public double getDouble(Object target, "
+					+ "int index) { " + cast + "switch (index) { " + getDouble
+					+ " } return super.getDouble(target, index); }", cc));
+			cc.addMethod(CtMethod.make("public void setDouble(Object target, "
+					+ "int index, double value) { " + cast + "switch (index) { "
+					+ setDouble + " } super.setDouble(target, index, value); }",
+					cc));
+		}
+		// The accessor is defined by the class loader of the version, so that
+		// it is unloaded together with the version
+		Class c = ((VersionClassLoader) loader).define(cc);
+		cc.detach();
+		return (PropertyAccessor) c.getConstructor(
+				new Class[] { String[].class, Class[].class }).newInstance(
+				new Object[] { names, types });
+	}
+
+	/**
+	 * Return the given version of a dynamic class. The version is defined by
+	 * its own class loader on the first request.
+	 * 
+	 * @param className
+	 *            The full name of the version
+	 * @return The class of the version
+	 * @throws Exception
+	 *             If the version can not be found or defined
+	 */
+	protected synchronized Class loadVersion(String className)
+			throws Exception {
+		Class c = (Class) versionClasses.get(className);
+		if (c == null) {
+			c = new VersionClassLoader().define(pool.get(className));
+			versionClasses.put(className, c);
+			liveVersions.add(new WeakReference(c));
+		}
+		return c;
+	}
+
+	/**
+	 * Release the given version of a dynamic class which is superseded by a
+	 * newer version or removed. The version is unloaded by the garbage
+	 * collector once no entity refers to it.
+	 * 
+	 * @param className
+	 *            The full name of the version
+	 */
+	protected synchronized void releaseVersion(String className) {
+		if (versionClasses.remove(className) == null)
+			return;
+		propertyAccessors.remove(className);
+		String prefix = className + ".";
+		for (Iterator it = proxyInvokers.keySet().iterator(); it.hasNext();) {
+			if (((String) it.next()).startsWith(prefix))
+				it.remove();
+		}
+	}
+
+	/*
+	 * Whether the class is a version of a dynamic class which is released.
+	 * Nothing of a released version is kept, so that it can be unloaded.
+	 */
+	private synchronized boolean isReleased(Class type) {
+		return type.getClassLoader() instanceof VersionClassLoader
+				&& versionClasses.get(type.getName()) != type;
+	}
+
+	/**
+	 * Return the number of the versions of the dynamic classes which are
+	 * loaded and not unloaded yet, including the latest ones.
+	 * 
+	 * @return The number of the live versions
+	 */
+	public synchronized int getLiveClassVersions() {
+		for (Iterator it = liveVersions.iterator(); it.hasNext();) {
+			if (((WeakReference) it.next()).get() == null)
+				it.remove();
+		}
+		return liveVersions.size();
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,312 @@
+/*
+ * BehaviorSim - version 1.0 
+ * 
+ * Copyright (C) 2010 The BehaviorSim Development Team, fasheng@cs.gsu.edu.
+ * 
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * 
+ * Info, Questions, Suggestions & Bugs Report to fasheng@cs.gsu.edu.
+ *  
+ */
+package sim.core.dclass;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Accessor of the user-defined properties of a dynamic category class, which
+ * are the public fields declared by the class. A property is accessed by its
+ * index, which is the order of the field in the class, or by its name.
+ * 
+ * <p>
+ * The dynamic manager generates one subclass for each version of a dynamic
+ * category class, which reads and writes the fields without reflection and
+ * without boxing the numbers. If the subclass can not be generated, the
+ * fields are accessed through reflection.
+ * </p>
+ * 
+ * @see DynamicManager#getPropertyAccessor(Class)
+ * @version 1.0
+ */
+public abstract class PropertyAccessor {
+
+	// The names of the properties
+	private String[] names;
+
+	// The types of the properties
+	private Class[] types;
+
+	// The mapping would be "name -> Integer index"
+	private Map indexes = new HashMap();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param names
+	 *            The names of the properties
+	 * @param types
+	 *            The types of the properties
+	 */
+	protected PropertyAccessor(String[] names, Class[] types) {
+		this.names = names;
+		this.types = types;
+		for (int i = 0; i < names.length; i++)
+			indexes.put(names[i], new Integer(i));
+	}
+
+	/**
+	 * Return the number of the properties.
+	 * 
+	 * @return The number of the properties
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * Return the name of the property at the given index.
+	 * 
+	 * @param index
+	 *            The index of the property
+	 * @return The name of the property
+	 */
+	public String getName(int index) {
+		return names[index];
+	}
+
+	/**
+	 * Return the type of the property at the given index.
+	 * 
+	 * @param index
+	 *            The index of the property
+	 * @return The type of the property
+	 */
+	public Class getType(int index) {
+		return types[index];
+	}
+
+	/**
+	 * Return the index of the property of the given name.
+	 * 
+	 * @param name
+	 *            The name of the property
+	 * @return The index of the property, -1 if there is no such property
+	 */
+	public int indexOf(String name) {
+		Integer index = (Integer) indexes.get(name);
+		return index == null ? -1 : index.intValue();
+	}
+
+	/**
+	 * Return the value of the property at the given index.
+	 * 
+	 * @param target
+	 *            The entity of the category
+	 * @param index
+	 *            The index of the property
+	 * @return The value of the property, a number is boxed
+	 */
+	public Object get(Object target, int index) {
+		throw new IndexOutOfBoundsException("Property index: " + index);
+	}
+
+	/**
+	 * Set the value of the property at the given index.
+	 * 
+	 * @param target
+	 *            The entity of the category
+	 * @param index
+	 *            The index of the property
+	 * @param value
+	 *            The new value, a <code>Number</code> for a number property
+	 */
+	public void set(Object target, int index, Object value) {
+		throw new IndexOutOfBoundsException("Property index: " + index);
+	}
+
+	/**
+	 * Return the value of the number property at the given index.
+	 * 
+	 * @param target
+	 *            The entity of the category
+	 * @param index
+	 *            The index of the property
+	 * @return The value of the property
+	 * @throws RuntimeException
+	 *             If the value is not a number
+	 */
+	public double getDouble(Object target, int index) {
+		Object o = get(target, index);
+		if (o != null && o instanceof Number) {
+			return ((Number) o).doubleValue();
+		}
+		throw new RuntimeException("The returned value is not a double!");
+	}
+
+	/**
+	 * Set the value of the number property at the given index.
+	 * 
+	 * @param target
+	 *            The entity of the category
+	 * @param index
+	 *            The index of the property
+	 * @param value
+	 *            The new value
+	 */
+	public void setDouble(Object target, int index, double value) {
+		set(target, index, new Double(value));
+	}
+
+	/**
+	 * Return the value of the property of the given name.
+	 * 
+	 * @param target
+	 *            The entity of the category
+	 * @param name
+	 *            The name of the property
+	 * @return The value of the property, a number is boxed
+	 * @throws NoSuchFieldException
+	 *             If there is no such property
+	 */
+	public Object get(Object target, String name) throws NoSuchFieldException {
+		return get(target, index(name));
+	}
+
+	/**
+	 * Set the value of the property of the given name.
+	 * 
+	 * @param target
+	 *            The entity of the category
+	 * @param name
+	 *            The name of the property
+	 * @param value
+	 *            The new value, a <code>Number</code> for a number property
+	 * @throws NoSuchFieldException
+	 *             If there is no such property
+	 */
+	public void set(Object target, String name, Object value)
+			throws NoSuchFieldException {
+		set(target, index(name), value);
+	}
+
+	/**
+	 * Return the value of the number property of the given name.
+	 * 
+	 * @param target
+	 *            The entity of the category
+	 * @param name
+	 *            The name of the property
+	 * @return The value of the property
+	 * @throws NoSuchFieldException
+	 *             If there is no such property
+	 */
+	public double getDouble(Object target, String name)
+			throws NoSuchFieldException {
+		return getDouble(target, index(name));
+	}
+
+	/* Return the index of the property, which must exist */
+	private int index(String name) throws NoSuchFieldException {
+		Integer index = (Integer) indexes.get(name);
+		if (index == null)
+			throw new NoSuchFieldException("No such accessible field: "
+					+ name);
+		return index.intValue();
+	}
+
+	/**
+	 * Return the accessor of the properties of the given class, which
+	 * accesses the properties through reflection.
+	 * 
+	 * @param type
+	 *            The class
+	 * @return The accessor of the properties
+	 */
+	public static PropertyAccessor getReflectiveAccessor(Class type) {
+		return new ReflectiveAccessor(getPropertyFields(type));
+	}
+
+	/**
+	 * Return the public fields declared by the given class, which are the
+	 * user-defined properties of a dynamic category class.
+	 * 
+	 * @param type
+	 *            The class
+	 * @return The fields
+	 */
+	static Field[] getPropertyFields(Class type) {
+		Field[] fields = type.getDeclaredFields();
+		List properties = new ArrayList(fields.length);
+		for (int i = 0; i < fields.length; i++) {
+			int m = fields[i].getModifiers();
+			if (Modifier.isPublic(m) && !Modifier.isStatic(m))
+				properties.add(fields[i]);
+		}
+		return (Field[]) properties.toArray(new Field[properties.size()]);
+	}
+
+	/**
+	 * Accessor through reflection, used if the direct accessor can not be
+	 * generated.
+	 */
+	static class ReflectiveAccessor extends PropertyAccessor {
+
+		// The fields of the properties
+		private Field[] fields;
+
+		ReflectiveAccessor(Field[] fields) {
+			super(names(fields), types(fields));
+			this.fields = fields;
+		}
+
+		public Object get(Object target, int index) {
+			try {
+				return fields[index].get(target);
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		public void set(Object target, int index, Object value) {
+			try {
+				fields[index].set(target, value);
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		private static String[] names(Field[] fields) {
+			String[] names = new String[fields.length];
+			for (int i = 0; i < fields.length; i++)
+				names[i] = fields[i].getName();
+			return names;
+		}
+
+		private static Class[] types(Field[] fields) {
+			Class[] types = new Class[fields.length];
+			for (int i = 0; i < fields.length; i++)
+				types[i] = fields[i].getType();
+			return types;
+		}
+
+	}
+
+}
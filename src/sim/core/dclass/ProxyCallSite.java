@@ -0,0 +1,119 @@
+/*
+ * BehaviorSim - version 1.0 
+ * 
+ * Copyright (C) 2010 The BehaviorSim Development Team, fasheng@cs.gsu.edu.
+ * 
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * 
+ * Info, Questions, Suggestions & Bugs Report to fasheng@cs.gsu.edu.
+ *  
+ */
+
+package sim.core.dclass;
+
+import sim.core.AppEngine;
+
+/**
+ * Call site of a generated method. The method is bound to a direct invoker
+ * once for the class of the target, and bound again only when an entity of
+ * another class (such as a newer version of the dynamic class) is the target.
+ * 
+ * <p>
+ * A call site may be shared by the threads of the parallel computation, the
+ * binding is replaced as a whole.
+ * </p>
+ * 
+ * @version 1.0
+ */
+public final class ProxyCallSite {
+
+	/** Binding of the method of a class to its invoker */
+	private static final class Binding {
+
+		final Class type;
+
+		final ProxyInvoker invoker;
+
+		Binding(Class type, ProxyInvoker invoker) {
+			this.type = type;
+			this.invoker = invoker;
+		}
+
+	}
+
+	// Name of the generated method
+	private final String methodName;
+
+	// The current binding, null before the first call
+	private volatile Binding binding = null;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param methodName
+	 *            Name of the generated method
+	 */
+	public ProxyCallSite(String methodName) {
+		this.methodName = methodName;
+	}
+
+	/**
+	 * @return the name of the generated method
+	 */
+	public String getMethodName() {
+		return methodName;
+	}
+
+	/**
+	 * Invoke the method on the target.
+	 * 
+	 * @param target
+	 *            The entity that defines the method
+	 * @return The result of the method, <code>null</code> for void
+	 * @throws Exception
+	 *             Any exception thrown by the method
+	 */
+	public Object invoke(Object target) throws Exception {
+		return bind(target).invoke(target);
+	}
+
+	/**
+	 * Invoke a method which returns a number on the target.
+	 * 
+	 * @param target
+	 *            The entity that defines the method
+	 * @return The result of the method
+	 * @throws Exception
+	 *             Any exception thrown by the method
+	 */
+	public double invokeDouble(Object target) throws Exception {
+		return bind(target).invokeDouble(target);
+	}
+
+	/* Return the invoker for the class of the target */
+	private ProxyInvoker bind(Object target) throws Exception {
+		Binding b = binding;
+		if (b == null || b.type != target.getClass()) {
+			Class type = target.getClass();
+			b = new Binding(type, AppEngine.getInstance().appManager.currentApp.dm
+					.getProxyInvoker(type, methodName));
+			binding = b;
+		}
+		return b.invoker;
+	}
+
+}
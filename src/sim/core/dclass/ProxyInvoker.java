@@ -0,0 +1,100 @@
+/*
+ * BehaviorSim - version 1.0 
+ * 
+ * Copyright (C) 2010 The BehaviorSim Development Team, fasheng@cs.gsu.edu.
+ * 
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * 
+ * Info, Questions, Suggestions & Bugs Report to fasheng@cs.gsu.edu.
+ *  
+ */
+
+package sim.core.dclass;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Direct invoker of a generated method, such as the <code>_proxyN</code>
+ * methods of the behavior equations and the task queue set up routines.
+ * 
+ * <p>
+ * The dynamic manager generates one subclass for each pair of a dynamic class
+ * and a method, which calls the method on the target without reflection and
+ * without boxing a double result. If the subclass can not be generated, the
+ * method is invoked through reflection.
+ * </p>
+ * 
+ * @see DynamicManager#getProxyInvoker(Class, String)
+ * @version 1.0
+ */
+public abstract class ProxyInvoker {
+
+	/**
+	 * Invoke the method on the target.
+	 * 
+	 * @param target
+	 *            The entity that defines the method
+	 * @return The result of the method, <code>null</code> for void
+	 * @throws Exception
+	 *             Any exception thrown by the method
+	 */
+	public abstract Object invoke(Object target) throws Exception;
+
+	/**
+	 * Invoke a method which returns a number on the target.
+	 * 
+	 * @param target
+	 *            The entity that defines the method
+	 * @return The result of the method
+	 * @throws Exception
+	 *             Any exception thrown by the method
+	 */
+	public double invokeDouble(Object target) throws Exception {
+		Object result = invoke(target);
+		if (result == null || !(result instanceof Number)) {
+			throw new RuntimeException("The returned result should be double.");
+		}
+		return ((Number) result).doubleValue();
+	}
+
+	/**
+	 * Invoker through reflection, used if the direct invoker can not be
+	 * generated.
+	 */
+	static class ReflectiveInvoker extends ProxyInvoker {
+
+		// The method to invoke
+		private Method method;
+
+		ReflectiveInvoker(Method method) {
+			this.method = method;
+		}
+
+		public Object invoke(Object target) throws Exception {
+			try {
+				return method.invoke(target, (Object[]) null);
+			} catch (InvocationTargetException e) {
+				if (e.getCause() instanceof Exception)
+					throw (Exception) e.getCause();
+				throw e;
+			}
+		}
+
+	}
+
+}
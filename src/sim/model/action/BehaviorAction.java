@@ -28,8 +28,8 @@ package sim.model.action;
 import java.util.ArrayList;
 import java.util.List;
 
+import sim.core.dclass.ProxyCallSite;
 import sim.util.MessageUtils;
-import sim.util.MethodUtils;
 
 /**
  * The wrapper for behavior action.
@@ -82,6 +82,9 @@ public class BehaviorAction extends Action {
 	/* Method for setting up the children list of this action */
 	protected String methodNameToSetupTaskQueue = null;
 
+	/** Call site of the method for setting up the task queue */
+	private ProxyCallSite setupTaskQueueCallSite = null;
+
 	/** Constructor */
 	public BehaviorAction() {
 		this.children = new ArrayList();
@@ -102,13 +105,14 @@ public class BehaviorAction extends Action {
 				|| (methodNameToSetupTaskQueue = this.methodNameToSetupTaskQueue
 						.trim()).length() == 0)
 			return;
+		ProxyCallSite site = setupTaskQueueCallSite;
+		if (site == null
+				|| !site.getMethodName().equals(methodNameToSetupTaskQueue))
+			setupTaskQueueCallSite = site = new ProxyCallSite(
+					methodNameToSetupTaskQueue);
 		try {
 			// MethodUtils.probeMethodsList(engine.appManager.currentApp.currentEntity);
-			MethodUtils.invokeExactMethod(
-					engine.appManager.currentApp.currentEntity,
-					methodNameToSetupTaskQueue, 
-					null
-			);
+			site.invoke(engine.getCurrentEntity());
 		} catch (Exception e) {
 			e.printStackTrace();
 			MessageUtils.debug(this, "setupTaskQueue", e);
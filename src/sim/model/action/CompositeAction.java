@@ -25,6 +25,7 @@
 
 package sim.model.action;
 
+import sim.core.ActionCall;
 import sim.model.entity.Entity;
 import sim.util.MessageUtils;
 
@@ -50,6 +51,12 @@ public class CompositeAction extends Action {
 	/* as a method, the method name is generated in the creator of this action */
 	private String statements = null;
 
+	/*
+	 * The statements compiled for the class of the current entity, compiled
+	 * again only if the class is changed
+	 */
+	private ActionCall call = null;
+
 	public String getStatements() {
 		return this.statements;
 	}
@@ -72,7 +79,9 @@ public class CompositeAction extends Action {
 	 * @return a copy of this action
 	 */
 	public Action copy() {
-		return new CompositeAction(this.getStatements());
+		CompositeAction copy = new CompositeAction(this.getStatements());
+		copy.call = call;
+		return copy;
 	}
 
 	/**
@@ -83,8 +92,11 @@ public class CompositeAction extends Action {
 	public ActionResult execute() {
 		ActionResult result = new ActionResult();
 		try {
-			result.speedAndDirection = engine.evaluateAction(
-					getCurrentEntity(), this.statements);
+			Entity current = getCurrentEntity();
+			ActionCall c = call;
+			if (c == null || c.getType() != current.getClass())
+				call = c = engine.compileAction(current, this.statements);
+			result.speedAndDirection = c.invoke(current);
 		} catch (Exception e) {
 			e.printStackTrace();
 			MessageUtils.error(this, "execute", e);
@@ -119,7 +131,7 @@ public class CompositeAction extends Action {
 	 * @return The current active entity
 	 */
 	public Entity getCurrentEntity() {
-		return engine.appManager.currentApp.currentEntity;
+		return engine.getCurrentEntity();
 	}
 	// ////////////////////////END//////////////////////////////////////
 
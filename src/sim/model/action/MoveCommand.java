@@ -0,0 +1,101 @@
+/*
+ * BehaviorSim - version 1.0 
+ * 
+ * Copyright (C) 2010 The BehaviorSim Development Team, fasheng@cs.gsu.edu.
+ * 
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * 
+ * Info, Questions, Suggestions & Bugs Report to fasheng@cs.gsu.edu.
+ *  
+ */
+
+package sim.model.action;
+
+import sim.model.entity.SystemFunction;
+
+/**
+ * A movement command returned by a behavior action.
+ * 
+ * <p>
+ * The <code>move*</code> system functions return a command instead of a
+ * "speed,direction,type" string, so the action selection mechanisms can read
+ * the speed and direction directly. Strings built by hand in the user code
+ * are still accepted and parsed by {@link #valueOf(Object)}.
+ * </p>
+ * 
+ * @version 1.0
+ */
+public final class MoveCommand {
+
+	/** Moving speed */
+	public final double speed;
+
+	/** Moving direction */
+	public final double direction;
+
+	/** The type of move (<code>MOVEFORWARD, MOVEBACKWARD</code>) */
+	public final int type;
+
+	/**
+	 * Create a movement command
+	 * 
+	 * @param speed
+	 *            Moving speed
+	 * @param direction
+	 *            Moving direction
+	 * @param type
+	 *            The type of move (<code>MOVEFORWARD, MOVEBACKWARD</code>)
+	 */
+	public MoveCommand(double speed, double direction, int type) {
+		this.speed = speed;
+		this.direction = direction;
+		this.type = type;
+	}
+
+	/**
+	 * Return the movement command of the given action result, which is either
+	 * a command or a "speed,direction,type" string.
+	 * 
+	 * @param result
+	 *            The value returned by the behavior action
+	 * @return the movement command, or null if nothing to move
+	 */
+	public static MoveCommand valueOf(Object result) {
+		if (result instanceof MoveCommand)
+			return (MoveCommand) result;
+		if (!(result instanceof String))
+			return null;
+		String sd = (String) result;
+		double speed = Double.parseDouble(sd.substring(0, sd.indexOf(',')));
+		double direction = Double.parseDouble(sd.substring(
+				sd.indexOf(',') + 1, sd.lastIndexOf(',')));
+		int type = SystemFunction.MOVEFORWARD;
+		try {
+			type = Integer.parseInt(sd.substring(sd.lastIndexOf(',') + 1));
+		} catch (Exception e) {
+		}
+		return new MoveCommand(speed, direction, type);
+	}
+
+	/**
+	 * Return the string form, in the format "speed,direction,type"
+	 */
+	public String toString() {
+		return speed + "," + direction + "," + type;
+	}
+
+}
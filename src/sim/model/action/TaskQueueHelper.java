@@ -129,7 +129,7 @@ public class TaskQueueHelper {
 	private void _addCompositeActionForMoveForDistance(String actionString) {
 		/** Get parameters */
 		AppEngine ae = AppEngine.getInstance();
-		Entity entity = ae.appManager.currentApp.currentEntity;
+		Entity entity = ae.getCurrentEntity();
 		String speedStr = actionString.substring(0, actionString.indexOf(','))
 				.trim();
 		double speed = 0.0D;
@@ -230,7 +230,7 @@ public class TaskQueueHelper {
 	private void _addCompositeActionForTurnForAngle(String actionString) {
 		/** Get parameters */
 		AppEngine ae = AppEngine.getInstance();
-		Entity entity = ae.appManager.currentApp.currentEntity;
+		Entity entity = ae.getCurrentEntity();
 		String angleStr = actionString.substring(0, actionString.indexOf(','))
 				.trim();
 		double angleSpeed = 0.0D;
@@ -311,7 +311,7 @@ public class TaskQueueHelper {
 			String actionString) {
 		/** Get parameters */
 		AppEngine ae = AppEngine.getInstance();
-		Entity entity = ae.appManager.currentApp.currentEntity;
+		Entity entity = ae.getCurrentEntity();
 		String speedStr = actionString.substring(0, actionString.indexOf(','))
 				.trim();
 		double speed = 0.0D;
@@ -413,7 +413,7 @@ public class TaskQueueHelper {
 	private void _addCompositeActionForTurnRightForAngle(String actionString) {
 		/** Get parameters */
 		AppEngine ae = AppEngine.getInstance();
-		Entity entity = ae.appManager.currentApp.currentEntity;
+		Entity entity = ae.getCurrentEntity();
 		String angleStr = actionString.substring(0, actionString.indexOf(','))
 				.trim();
 		double angleSpeed = 0.0D;
@@ -25,7 +25,11 @@
 
 package sim.model.behavior;
 
+import java.util.Arrays;
+
 import sim.core.AppEngine;
+import sim.core.ConfigParameters;
+import sim.core.dclass.ProxyCallSite;
 import sim.model.action.BehaviorAction;
 import sim.model.entity.BNCategory;
 
@@ -50,11 +54,14 @@ public class Behavior {
 	/** Identification of this behavior */
 	private int myId;
 
-	/** Behavior strength of each time step */
-	private double[] behaviorStrength;
+	/** Behavior strength of the recent time steps */
+	private History behaviorStrength;
+
+	/** Behavior activation level of the recent time steps */
+	private History behaviorExcitation;
 
-	/** Behavior activation level of each time step */
-	private double[] behaviorExcitation;
+	/** Number of time steps kept in the history */
+	private int historyDepth;
 
 	/** Behavior name */
 	private String behavName = null;
@@ -70,6 +77,9 @@ public class Behavior {
 	 */
 	private String behavEquationMethodName = null;
 
+	/** Call site of the method of the behavior equation */
+	private ProxyCallSite behavEquationCallSite = null;
+
 	/** The action of this behavior once it is chosen */
 	private String behaviorActionName = null;
 	private boolean resumable = false;
@@ -105,6 +115,7 @@ public class Behavior {
 		behaviorAction = action;
 		resumable = r;
 		totalTimeSteps = (AppEngine.getInstance().getTotalTimeticks());
+		historyDepth = AppEngine.getInstance().getBehaviorHistoryDepth();
 		configure(totalTimeSteps);
 	}
 
@@ -136,8 +147,28 @@ public class Behavior {
 
 	/** Setup arrays */
 	public void configure(int totalticks) {
-		behaviorStrength = new double[totalticks];
-		behaviorExcitation = new double[totalticks];
+		behaviorStrength = new History(totalticks, historyDepth);
+		behaviorExcitation = new History(totalticks, historyDepth);
+	}
+
+	/**
+	 * Change the number of time steps kept in the history of behavior
+	 * excitation and strength. The history of the previous time steps is
+	 * cleared.
+	 * 
+	 * @param depth
+	 *            Number of time steps to keep, at least the current and the
+	 *            previous one. All time steps are kept if it is not less than
+	 *            the total time steps.
+	 */
+	public void setHistoryDepth(int depth) {
+		historyDepth = Math.max(ConfigParameters.MIN_BEHAVIOR_HISTORY, depth);
+		configure(totalTimeSteps);
+	}
+
+	/** Get the number of time steps kept in the history */
+	public int getHistoryDepth() {
+		return historyDepth;
 	}
 
 	/** Get the name of the behavior action */
@@ -171,22 +202,22 @@ public class Behavior {
 
 	/** Update the excitation at the specified time instance */
 	public void updateExcitation(double value, int timetick) {
-		behaviorExcitation[timetick] = ((value < 20) ? value : 20);
+		behaviorExcitation.set(timetick, (value < 20) ? value : 20);
 	}
 
 	/** Get the excitation of the specified time instance */
 	public double getExcitation(int timetick) {
-		return behaviorExcitation[timetick];
+		return behaviorExcitation.get(timetick);
 	}
 
 	/** Update the behavior strength of the specified time instance */
 	public void setBehaviorStrength(double value, int timetick) {
-		behaviorStrength[timetick] = ((value > 0) ? value : 0);
+		behaviorStrength.set(timetick, (value > 0) ? value : 0);
 	}
 
 	/** Get the behavior strength at the specified time instance */
 	public double getBehaviorStrength(int timetick) {
-		return behaviorStrength[timetick];
+		return behaviorStrength.get(timetick);
 	}
 
 	/** Reset the behavior action */
@@ -194,8 +225,8 @@ public class Behavior {
 		if (behaviorAction != null) {
 			behaviorAction.resetChildren();
 			AppEngine engine = AppEngine.getInstance();
-			if (engine.appManager.currentApp.currentEntity instanceof BNCategory) {
-				((BNCategory) engine.appManager.currentApp.currentEntity)
+			if (engine.getCurrentEntity() instanceof BNCategory) {
+				((BNCategory) engine.getCurrentEntity())
 						.setTASKQUEUE(behaviorAction.getHelper());
 				behaviorAction.setupTaskQueue();
 			}
@@ -256,6 +287,23 @@ public class Behavior {
 		this.behavEquationMethodName = behavEquationMethodName;
 	}
 
+	/**
+	 * Return the call site of the method of the behavior equation, which is
+	 * bound once for the class of the owner.
+	 * 
+	 * @return the call site, <code>null</code> if no method is set
+	 */
+	public ProxyCallSite getBehavEquationCallSite() {
+		ProxyCallSite site = behavEquationCallSite;
+		if (behavEquationMethodName == null)
+			return null;
+		if (site == null
+				|| !site.getMethodName().equals(behavEquationMethodName))
+			behavEquationCallSite = site = new ProxyCallSite(
+					behavEquationMethodName);
+		return site;
+	}
+
 	public void setBehaviorAction(BehaviorAction behaviorAction) {
 		this.behaviorAction = behaviorAction;
 	}
@@ -306,4 +354,64 @@ public class Behavior {
 		return myId;
 	}
 
+
+	/**
+	 * Values of a behavior over the time steps. If all time steps are kept,
+	 * the value of a time step is stored at its index. Otherwise, only the
+	 * most recent time steps are kept in a ring, each slot tagged with its time
+	 * step.
+	 */
+	private static final class History {
+
+		/** Values of the kept time steps */
+		private final double values[];
+
+		/** Time step of each slot, <code>null</code> if all are kept */
+		private final int ticks[];
+
+		/** Slot of the most recent time step */
+		private int last = -1;
+
+		History(int totalticks, int depth) {
+			if (depth >= totalticks) {
+				values = new double[totalticks];
+				ticks = null;
+			} else {
+				values = new double[depth];
+				ticks = new int[depth];
+				Arrays.fill(ticks, -1);
+			}
+		}
+
+		void set(int timetick, double value) {
+			if (ticks == null) {
+				values[timetick] = value;
+				return;
+			}
+			int slot = find(timetick);
+			if (slot == -1) {
+				slot = last = (last + 1) % ticks.length;
+				ticks[slot] = timetick;
+			}
+			values[slot] = value;
+		}
+
+		double get(int timetick) {
+			if (ticks == null)
+				return values[timetick];
+			int slot = find(timetick);
+			return slot == -1 ? 0 : values[slot];
+		}
+
+		/* Search the slots from the most recent one backwards */
+		private int find(int timetick) {
+			int slot = last;
+			for (int i = 0; i < ticks.length && slot != -1; i++) {
+				if (ticks[slot] == timetick)
+					return slot;
+				slot = (slot == 0 ? ticks.length : slot) - 1;
+			}
+			return -1;
+		}
+	}
 }
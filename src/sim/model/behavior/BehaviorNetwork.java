@@ -33,6 +33,7 @@ import java.util.Map;
 
 import sim.core.AppEngine;
 import sim.core.ConfigParameters;
+import sim.core.dclass.ProxyCallSite;
 import sim.model.entity.BNCategory;
 
 /**
@@ -73,6 +74,18 @@ public class BehaviorNetwork {
 	/** The name of method call which contains the code to construct the table */
 	private String dynamicStrMethodName = null;
 
+	/** Call site of the method to update the coefficients dynamically */
+	private ProxyCallSite dynamicStrCallSite = null;
+
+	/**
+	 * Behaviors and coefficients indexed by behavior position, built on demand
+	 * and dropped whenever the behaviors or edges change
+	 */
+	private volatile CoefficientMatrix coefficientMatrix = null;
+
+	/** Number of time steps kept in the behavior history, 0 for the default */
+	private int historyDepth = 0;
+
 	/**
 	 * Default constructor
 	 */
@@ -91,6 +104,7 @@ public class BehaviorNetwork {
 	 */
 	public BehaviorNetwork copy(boolean newBehaviorId) {
 		BehaviorNetwork copy = new BehaviorNetwork();
+		copy.historyDepth = historyDepth;
 		// Add behaviors, and edges
 		if (map.entrySet().size() > 0) {
 			for (Iterator i = map.entrySet().iterator(); i.hasNext();) {
@@ -237,6 +251,7 @@ public class BehaviorNetwork {
 		map.clear();
 		list.clear();
 		behaviorIds.clear();
+		coefficientMatrix = null;
 	}
 
 	/**
@@ -284,6 +299,21 @@ public class BehaviorNetwork {
 		this.dynamicStrMethodName = dynamicStrMethodName;
 	}
 
+	/**
+	 * Return the call site of the method to update the coefficients
+	 * dynamically, which is bound once for the class of the owner.
+	 * 
+	 * @return the call site, <code>null</code> if no method is set
+	 */
+	public ProxyCallSite getDynamicStrCallSite() {
+		ProxyCallSite site = dynamicStrCallSite;
+		if (dynamicStrMethodName == null)
+			return null;
+		if (site == null || !site.getMethodName().equals(dynamicStrMethodName))
+			dynamicStrCallSite = site = new ProxyCallSite(dynamicStrMethodName);
+		return site;
+	}
+
 	/**
 	 * Setup the behavior network dynamically. Typically, it is the
 	 * coefficients/weights which are setup dynamically through the dynamic
@@ -319,6 +349,7 @@ public class BehaviorNetwork {
 		// ;// FIXME:: IGNORE???
 		// }
 		this.dynamicStrMethodName = methodName;
+		bn.markChanged();
 		// return ret;
 	}
 
@@ -355,6 +386,7 @@ public class BehaviorNetwork {
 		// ;// FIXME:: IGNORE???
 		// }
 		this.dynamicStrMethodName = methodName;
+		ae.appManager.currentApp.currentEntity.markChanged();
 		// return ret;
 	}
 
@@ -399,8 +431,36 @@ public class BehaviorNetwork {
 				addEdge(edge);
 			}
 		}
+		if (historyDepth > 0)
+			behavior.setHistoryDepth(historyDepth);
 		map.put(position, behavior);
 		behaviorIds.add(new Integer(behavior.getMyId()));
+		coefficientMatrix = null;
+	}
+
+	/**
+	 * Change the number of time steps kept in the history of each behavior,
+	 * including the behaviors added later. A long history is only needed to
+	 * chart the behaviors of the entity.
+	 * 
+	 * @param depth
+	 *            Number of time steps to keep, 0 for the default one
+	 */
+	public void setHistoryDepth(int depth) {
+		historyDepth = Math.max(0, depth);
+		if (depth <= 0)
+			depth = AppEngine.getInstance().getBehaviorHistoryDepth();
+		for (Iterator i = map.values().iterator(); i.hasNext();)
+			((Behavior) i.next()).setHistoryDepth(depth);
+	}
+
+	/**
+	 * Return the number of time steps kept in the history of each behavior
+	 * 
+	 * @return the history depth, 0 if the default one is used
+	 */
+	public int getHistoryDepth() {
+		return historyDepth;
 	}
 
 	/**
@@ -441,6 +501,7 @@ public class BehaviorNetwork {
 			}
 			behaviorIds.remove(new Integer(behavior.getMyId()));
 			map.remove(position);
+			coefficientMatrix = null;
 		}
 	}
 
@@ -542,6 +603,7 @@ public class BehaviorNetwork {
 	 */
 	public void addEdge(Edge e) {
 		list.add(e);
+		coefficientMatrix = null;
 	}
 
 	/**
@@ -749,6 +811,7 @@ public class BehaviorNetwork {
 			}
 
 		}
+		coefficientMatrix = null;
 
 	}
 
@@ -772,6 +835,7 @@ public class BehaviorNetwork {
 				}
 
 			}
+		coefficientMatrix = null;
 	}
 
 	/**
@@ -781,6 +845,7 @@ public class BehaviorNetwork {
 	 */
 	public void removeEdge(Edge e) {
 		list.remove(e);
+		coefficientMatrix = null;
 	}
 
 	/**
@@ -875,58 +940,34 @@ public class BehaviorNetwork {
 	 */
 	public void updateBehaviorStrengths(int timetick) {
 
-		// Get behavior list
-		List behaviors = getBehaviorList();
+		// Get behaviors and coefficients
+		CoefficientMatrix matrix = getCoefficientMatrix();
+		Behavior behaviors[] = matrix.behaviors;
+		double coefficients[][] = matrix.coefficients;
+		int n = behaviors.length;
 
 		// Set initial behavior strength as the behavior excitation
-		for (int i = 0; i < behaviors.size(); i++) {
-			Behavior behavior = (Behavior) behaviors.get(i);
+		for (int i = 0; i < n; i++) {
+			Behavior behavior = behaviors[i];
 			behavior.setBehaviorStrength(behavior.getExcitation(timetick),
 					timetick);
 		}
 
-		// Update coefficients
-		double coefficients[][] = new double[behaviors.size()][behaviors.size()];
-		for (int m = 0; m < list.size(); m++) {
-			Behavior fB = ((Edge) list.get(m)).fromB();
-			Behavior tB = ((Edge) list.get(m)).toB();
-			int f, t;
-			for (f = 0; f < behaviors.size(); f++) {
-				if (fB.getMyId() == (
-						((Behavior) behaviors.get(f)).getMyId())) {
-					for (t = 0; t < behaviors.size(); t++)
-						if (tB.getMyId()
-								 == (
-										((Behavior) behaviors.get(t))
-												.getMyId())) {
-							coefficients[f][t] = ((Edge) list.get(m))
-									.inhibitionFT();
-							coefficients[t][f] = ((Edge) list.get(m))
-									.inhibitionTF();
-							break;
-						}
-					break;
-				}
-			}
-		}
-
 		// Calculate the behavior strength
-		for (int i = 0; i < behaviors.size(); i++) {
-
-			// Get behavior
-			Behavior behavior = (Behavior) behaviors.get(i);
+		for (int i = 0; i < n; i++) {
 
 			// Wrap around implementation
+			Behavior behavior = behaviors[i];
 			double bStrength_i_minus_1 = timetick != 0 ? behavior
 					.getBehaviorStrength(timetick - 1) : behavior
 					.getBehaviorStrength(behavior.getTotalTimeSteps() - 1);
 
 			// Mutual inhibition
 			if (bStrength_i_minus_1 > BEHAVIORSTRENGTHTHRESHOLD) {
-				for (int j = 0; j < behaviors.size(); j++) {
-					behavior = (Behavior) behaviors.get(j);
-					double bStrength_i = behavior.getBehaviorStrength(timetick);
-					behavior.setBehaviorStrength(bStrength_i
+				for (int j = 0; j < n; j++) {
+					behavior = behaviors[j];
+					behavior.setBehaviorStrength(behavior
+							.getBehaviorStrength(timetick)
 							- coefficients[j][i] * bStrength_i_minus_1,
 							timetick);
 				}
@@ -936,6 +977,45 @@ public class BehaviorNetwork {
 
 	}
 
+	/**
+	 * Return the behaviors and the coefficients between them, indexed by the
+	 * position of the behavior in the behavior list. The matrix is built once
+	 * and reused until the behaviors or edges change.
+	 * 
+	 * @return the coefficient matrix
+	 */
+	private CoefficientMatrix getCoefficientMatrix() {
+		CoefficientMatrix matrix = coefficientMatrix;
+		if (matrix != null)
+			return matrix;
+		List behaviorList = getBehaviorList();
+		Behavior behaviors[] = (Behavior[]) behaviorList
+				.toArray(new Behavior[behaviorList.size()]);
+		double coefficients[][] = new double[behaviors.length][behaviors.length];
+		for (int m = 0; m < list.size(); m++) {
+			Edge edge = (Edge) list.get(m);
+			int f = indexOf(behaviors, edge.fromB().getMyId());
+			if (f == -1)
+				continue;
+			int t = indexOf(behaviors, edge.toB().getMyId());
+			if (t == -1)
+				continue;
+			coefficients[f][t] = edge.inhibitionFT();
+			coefficients[t][f] = edge.inhibitionTF();
+		}
+		coefficientMatrix = matrix = new CoefficientMatrix(behaviors,
+				coefficients);
+		return matrix;
+	}
+
+	/* Return the index of the behavior with the given id, or -1 */
+	private static int indexOf(Behavior behaviors[], int id) {
+		for (int i = 0; i < behaviors.length; i++)
+			if (behaviors[i].getMyId() == id)
+				return i;
+		return -1;
+	}
+
 	/**
 	 * Select the winner. It would be <code>NO_BEHAVIOR</code> if all the
 	 * behavior strength is too low.
@@ -945,13 +1025,13 @@ public class BehaviorNetwork {
 	 * @return The winner.
 	 */
 	public Behavior selectBehavior(int timetick) {
-		List behaviors = getBehaviorList();
+		Behavior behaviors[] = getCoefficientMatrix().behaviors;
 		Behavior result = Behavior.NO_BEHAVIOR;
 
 		double threshold = BEHAVIORTHRESHOLD;
 		double temp = threshold;
-		for (int i = 0; i < behaviors.size(); i++) {
-			Behavior behavior = (Behavior) behaviors.get(i);
+		for (int i = 0; i < behaviors.length; i++) {
+			Behavior behavior = behaviors[i];
 			double bStrength = behavior.getBehaviorStrength(timetick);
 			if (bStrength > temp) {
 				result = behavior;
@@ -961,4 +1041,23 @@ public class BehaviorNetwork {
 		}
 		return result;
 	}
+
+	/**
+	 * Behaviors of the network and the inhibition coefficients between them.
+	 * The network has at most <code>NETWORK_SQUARES</code> squared behaviors,
+	 * so a dense matrix is used.
+	 */
+	private static final class CoefficientMatrix {
+
+		/** Behaviors, in the order of the behavior list */
+		final Behavior behaviors[];
+
+		/** coefficients[f][t] is the inhibition from behavior f to t */
+		final double coefficients[][];
+
+		CoefficientMatrix(Behavior behaviors[], double coefficients[][]) {
+			this.behaviors = behaviors;
+			this.coefficients = coefficients;
+		}
+	}
 }
@@ -26,11 +26,15 @@
 package sim.model.behavior;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
 
 import sim.core.AppEngine;
 import sim.core.ConfigParameters;
+import sim.core.dclass.DynamicManager;
+import sim.core.dclass.ProxyCallSite;
 import sim.model.action.BehaviorAction;
 import sim.model.entity.BNCategory;
 import sim.model.entity.CMethod;
@@ -53,6 +57,14 @@ public class BehaviorNetworkEditor {
 	// For behavior based simulation
 	public BehaviorRepository repository = new BehaviorRepository();
 
+	/**
+	 * Methods generated for the behaviors of each category. The key is made of
+	 * the category name, behavior equation and action code, the value is the
+	 * name of the excitation method and the task queue setting up method. All
+	 * entities of a category with the same behavior share these methods.
+	 */
+	private Map compiledBehaviors = new HashMap();
+
 	/**
 	 * Create a new behavior with the given name, equation and actionString. And
 	 * put the behavior into the behaviors list.
@@ -112,11 +124,11 @@ public class BehaviorNetworkEditor {
 	public double getBehaviorActivation(String behaviorName) {
 		AppEngine engine = AppEngine.getInstance();
 		/** Get the behavior */
-		BehaviorNetwork bn = ((BNCategory) engine.appManager.currentApp.currentEntity)
+		BehaviorNetwork bn = ((BNCategory) engine.getCurrentEntity())
 				.getBehaviorNetwork();
 		Behavior behavior = bn.getBehavior(behaviorName);
 		/** Get the current time instance */
-		int c = ((BNCategory) engine.appManager.currentApp.currentEntity)
+		int c = ((BNCategory) engine.getCurrentEntity())
 				.getTime();
 		/** Get the strength */
 		return behavior.getBehaviorStrength(c - 1 >= 0 ? c - 1 : 0);
@@ -139,9 +151,9 @@ public class BehaviorNetworkEditor {
 		}
 		/** Update the coefficients */
 		AppEngine engine = AppEngine.getInstance();
-		boolean bn = ((BNCategory) engine.appManager.currentApp.currentEntity)
+		boolean bn = ((BNCategory) engine.getCurrentEntity())
 				.isMutualInhibitionMechanism();
-		((BNCategory) engine.appManager.currentApp.currentEntity)
+		((BNCategory) engine.getCurrentEntity())
 				.getBehaviorNetwork().updateEdgesFromCoefficientsList(bn,
 						coefficients);
 	}
@@ -157,7 +169,7 @@ public class BehaviorNetworkEditor {
 	public void setBehaviorWeight(String behaviorName, double weight) {
 		/** Update the weight */
 		AppEngine engine = AppEngine.getInstance();
-		((BNCategory) engine.appManager.currentApp.currentEntity)
+		((BNCategory) engine.getCurrentEntity())
 				.getBehaviorNetwork().updateWeight(behaviorName, weight);
 	}
 
@@ -178,19 +190,21 @@ public class BehaviorNetworkEditor {
 	 */
 	public double computeBehaviorExcitation(Behavior behavior) {
 		/** Prepare objects */
-		String methodName = behavior.getBehavEquationMethodName();
-		Entity current = AppEngine.getInstance().appManager.currentApp.currentEntity;
+		ProxyCallSite site = behavior.getBehavEquationCallSite();
+		Entity current = AppEngine.getInstance().getCurrentEntity();
+		if (site == null) {
+			throw new RuntimeException(
+					"The behavior equation of the behavior '"
+							+ behavior.getBehaviorName() + "' is not set up.");
+		}
 		/** Make method call */
-		Object result = null;
 		try {
-			result = MethodUtils.invokeExactMethod(current, methodName, null);
+			return site.invokeDouble(current);
+		} catch (RuntimeException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
-		if (result == null || !(result instanceof Number)) {
-			throw new RuntimeException("The returned result should be double.");
-		}
-		return ((Number) result).doubleValue();
 	}
 
 	/**
@@ -199,17 +213,17 @@ public class BehaviorNetworkEditor {
 	public void updateCoefficients() {
 		/** Current behavior network */
 		AppEngine engine = AppEngine.getInstance();
-		BehaviorNetwork bn = ((BNCategory) engine.appManager.currentApp.currentEntity)
+		BehaviorNetwork bn = ((BNCategory) engine.getCurrentEntity())
 				.getBehaviorNetwork();
 		if (!bn.isDynamic()) {
 			return;
 		}
 		/** Prepare objects */
-		String methodName = bn.getDynamicStrMethodName();
-		Entity current = AppEngine.getInstance().appManager.currentApp.currentEntity;
+		ProxyCallSite site = bn.getDynamicStrCallSite();
+		Entity current = AppEngine.getInstance().getCurrentEntity();
 		/** Make method call */
 		try {
-			MethodUtils.invokeExactMethod(current, methodName, null);
+			site.invoke(current);
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -279,7 +293,7 @@ public class BehaviorNetworkEditor {
 		if (body.indexOf("TASKQUEUE.add") == -1) {
 			String methodNameOfSingleCompositeAction = "_proxy"
 					+ (ConfigParameters.methodIndex++);
-			code.append("public String ").append(
+			code.append("public Object ").append(
 					methodNameOfSingleCompositeAction).append("(){");
 			code.append(body);
 			code.append("}");
@@ -338,76 +352,160 @@ public class BehaviorNetworkEditor {
 		 */
 		/** Get engine */
 		AppEngine engine = AppEngine.getInstance();
-		/** Initialize the behavior excitation computation code */
-		String methodNameOfExcitationComputationCode = "_proxy"
-				+ (ConfigParameters.methodIndex++);
-		StringBuffer code = new StringBuffer();
-		code.append("public double ").append(
-				methodNameOfExcitationComputationCode).append("(){").append(
-				behavior.getBehaviorEquation()).append("}");
-		engine.createANewMethod(e.getEntityType(), false, false,
-				methodNameOfExcitationComputationCode, code.toString());
-
 		/** Get behavior action */
 		BehaviorAction ba = (BehaviorAction) engine.getAction(id, behavior
 				.getBehaviorActionName());
-		/** Create a method to setup the task queue setting up helper */
-		// If no calls of "TASKQUEUE.add", then all code blocks should be
-		// treated as single composite action
+		/** Reuse the methods of the category if already generated */
 		String body = ba.getActionString();
-		String methodNameOfSingleCompositeAction = null;
-		if (body.indexOf("TASKQUEUE.add") == -1) {
-			// create a method which represents the composite action
-			methodNameOfSingleCompositeAction = "_proxy"
-					+ (ConfigParameters.methodIndex++);
-			code = new StringBuffer();
-			code.append("public String ").append(
-					methodNameOfSingleCompositeAction).append("(){");
-			code.append(body);
-			// See if anything returned. If not, add a return state
-			// Temporary solution
-			if (body.indexOf("return") == -1) {
-				code.append("return null;");
-			}
-			code.append("}");
-			engine.createANewMethod(e.getEntityType(), false, false,
-					methodNameOfSingleCompositeAction, code.toString());
+		String key = getCompiledBehaviorKey(e.getEntityType(), behavior
+				.getBehaviorEquation(), body);
+		String methodNames[] = getCompiledBehavior(key, e.getEntityType());
+		if (methodNames == null) {
+			methodNames = compileBehavior(e, behavior.getBehaviorEquation(),
+					body);
+			compiledBehaviors.put(key, methodNames);
 		}
-		String methodNameOfTaskQueueAdder = "_proxy"
-				+ (ConfigParameters.methodIndex++);
-		code = new StringBuffer();
-		if (methodNameOfSingleCompositeAction == null) {
-			// normal task queue fashion
-			code.append("public void ").append(methodNameOfTaskQueueAdder)
-					.append("(){").append(body).append("}");
-		} else {
-			// a single code block, construct the task queue automatically
-			code.append("public void ").append(methodNameOfTaskQueueAdder)
-					.append("(){").append("TASKQUEUE.add(\"").append(
-							methodNameOfSingleCompositeAction).append("()\");")
-					.append("}");
-		}
-		engine.createANewMethod(e.getEntityType(), false, false,
-				methodNameOfTaskQueueAdder, code.toString());
-		if (true) {
-			/** Set method names */
-			behavior
-					.setBehavEquationMethodName(methodNameOfExcitationComputationCode);
-			ba.setMethodNameToSetupTaskQueue(methodNameOfTaskQueueAdder);
-			/**
-			 * Update the entities' definition - Not necessary, since it is done
-			 * in creating new method calls
-			 */
+		/** Set method names */
+		behavior.setBehavEquationMethodName(methodNames[0]);
+		ba.setMethodNameToSetupTaskQueue(methodNames[1]);
+		/**
+		 * Update the entities' definition, if the class of the entity is
+		 * older than the generated methods
+		 */
+		if (!MethodUtils.checkIfMethodExist(e.getClass(), methodNames[1])) {
 			try {
 				engine.system.updateEntity(e.getEntityType(), e);
 			} catch (Exception ex) {
 				MessageUtils.debug(this, "addBehaviorToNetwork", ex);
 				throw new RuntimeException(ex);
 			}
-			/** Setup behavior action */
-			behavior.setBehaviorAction(ba);
-			/** Add to the current behavior network */
-			e.getBehaviorNetwork().addBehavior(behavior, position);
+		}
+		/** Setup behavior action */
+		behavior.setBehaviorAction(ba);
+		/** Add to the current behavior network */
+		e.getBehaviorNetwork().addBehavior(behavior, position);
+	}
+
+	/**
+	 * Whether the methods of the given behavior are already generated in the
+	 * category of the given entity, by another entity of the category with the
+	 * same behavior. The definition of such a behavior needs no verification.
+	 * 
+	 * @param e
+	 *            The target entity
+	 * @param id
+	 *            The behavior's id
+	 * @return Whether the methods can be shared
+	 */
+	public boolean isBehaviorCompiled(BNCategory e, int id) {
+		Behavior behavior = repository.getBehaviorById(e, id);
+		if (behavior == Behavior.NO_BEHAVIOR)
+			return false;
+		BehaviorAction ba = (BehaviorAction) AppEngine.getInstance()
+				.getAction(id, behavior.getBehaviorActionName());
+		if (ba == null)
+			return false;
+		return getCompiledBehavior(getCompiledBehaviorKey(e.getEntityType(),
+				behavior.getBehaviorEquation(), ba.getActionString()), e
+				.getEntityType()) != null;
+	}
+
+	/* Return the key of the generated methods of a behavior */
+	private static String getCompiledBehaviorKey(String categoryName,
+			String equation, String actionString) {
+		return categoryName + '\0' + equation + '\0' + actionString;
+	}
+
+	/*
+	 * Return the generated methods of a behavior, or null if they are not
+	 * generated or removed from the category since
+	 */
+	private String[] getCompiledBehavior(String key, String categoryName) {
+		String methodNames[] = (String[]) compiledBehaviors.get(key);
+		if (methodNames == null)
+			return null;
+		Map methods = (Map) AppEngine.getInstance().appManager.currentApp.dm
+				.getCategoryMethods().get(categoryName);
+		if (methods == null || !methods.containsKey(methodNames[0])
+				|| !methods.containsKey(methodNames[1])) {
+			compiledBehaviors.remove(key);
+			return null;
+		}
+		return methodNames;
+	}
+
+	/**
+	 * Generate the methods of a behavior in the category of the given entity.
+	 * 
+	 * <p>
+	 * The excitation computation code is wrapped in a method. If the action
+	 * contains no explicit task queue implementation (no "TASKQUEUE.add" is
+	 * found), the code block will be treated as the body of a single composite
+	 * action, which will be added to the task queue automatically. Otherwise,
+	 * normal task queue implementation is used, the above step is not involved.
+	 * </p>
+	 * 
+	 * @return the name of the excitation method and the task queue setting up
+	 *         method
+	 */
+	private String[] compileBehavior(BNCategory e, String equation,
+			String body) throws Exception {
+		AppEngine engine = AppEngine.getInstance();
+		DynamicManager dm = engine.appManager.currentApp.dm;
+		/** Generate all methods in one new version of the category class */
+		dm.beginMethods(e.getEntityType());
+		try {
+			/** Initialize the behavior excitation computation code */
+			String methodNameOfExcitationComputationCode = "_proxy"
+					+ (ConfigParameters.methodIndex++);
+			StringBuffer code = new StringBuffer();
+			code.append("public double ").append(
+					methodNameOfExcitationComputationCode).append("(){")
+					.append(equation).append("}");
+			engine.createANewMethod(e.getEntityType(), false, false,
+					methodNameOfExcitationComputationCode, code.toString());
+
+			/** Create a method to setup the task queue setting up helper */
+			// If no calls of "TASKQUEUE.add", then all code blocks should be
+			// treated as single composite action
+			String methodNameOfSingleCompositeAction = null;
+			if (body.indexOf("TASKQUEUE.add") == -1) {
+				// create a method which represents the composite action
+				methodNameOfSingleCompositeAction = "_proxy"
+						+ (ConfigParameters.methodIndex++);
+				code = new StringBuffer();
+				code.append("public Object ").append(
+						methodNameOfSingleCompositeAction).append("(){");
+				code.append(body);
+				// See if anything returned. If not, add a return state
+				// Temporary solution
+				if (body.indexOf("return") == -1) {
+					code.append("return null;");
+				}
+				code.append("}");
+				engine.createANewMethod(e.getEntityType(), false, false,
+						methodNameOfSingleCompositeAction, code.toString());
+			}
+			String methodNameOfTaskQueueAdder = "_proxy"
+					+ (ConfigParameters.methodIndex++);
+			code = new StringBuffer();
+			if (methodNameOfSingleCompositeAction == null) {
+				// normal task queue fashion
+				code.append("public void ").append(methodNameOfTaskQueueAdder)
+						.append("(){").append(body).append("}");
+			} else {
+				// a single code block, construct the task queue automatically
+				code.append("public void ").append(methodNameOfTaskQueueAdder)
+						.append("(){").append("TASKQUEUE.add(\"").append(
+								methodNameOfSingleCompositeAction).append(
+								"()\");").append("}");
+			}
+			engine.createANewMethod(e.getEntityType(), false, false,
+					methodNameOfTaskQueueAdder, code.toString());
+			return new String[] { methodNameOfExcitationComputationCode,
+					methodNameOfTaskQueueAdder };
+		} finally {
+			dm.commitMethods(e.getEntityType());
 		}
 	}
 
@@ -459,62 +557,76 @@ public class BehaviorNetworkEditor {
 		AppEngine engine = AppEngine.getInstance();
 		String methodNameOfExcitationComputationCode = null;
 		StringBuffer code = null;
-		if (updateExcitM) {
-			/** Initialize the behavior excitation computation code */
-			methodNameOfExcitationComputationCode = "_proxy"
-					+ (ConfigParameters.methodIndex++);
-			code = new StringBuffer();
-			code.append("public double ").append(
-					methodNameOfExcitationComputationCode).append("(){")
-					.append(behavior.getBehaviorEquation()).append("}");
-			engine.createANewMethod(e.getEntityType(), false, false,
-					methodNameOfExcitationComputationCode, code.toString());
-		}
-
 		BehaviorAction ba = null;
 		String methodNameOfTaskQueueAdder = null;
-		if (updateActM) {
-			/** Get behavior action */
-			ba = (BehaviorAction) engine.getAction(id, behavior
-					.getBehaviorActionName());
-			/** Create a method to setup the task queue setting up helper */
-			// If no calls of "TASKQUEUE.add", then all code blocks should be
-			// treated as single composite action
-			String body = ba.getActionString();
-			String methodNameOfSingleCompositeAction = null;
-			if (body.indexOf("TASKQUEUE.add") == -1) {
-				// create a method which represents the composite action
-				methodNameOfSingleCompositeAction = "_proxy"
+		/** Generate all methods in one new version of the category class */
+		DynamicManager dm = engine.appManager.currentApp.dm;
+		dm.beginMethods(e.getEntityType());
+		try {
+			if (updateExcitM) {
+				/** Initialize the behavior excitation computation code */
+				methodNameOfExcitationComputationCode = "_proxy"
 						+ (ConfigParameters.methodIndex++);
 				code = new StringBuffer();
-				code.append("public String ").append(
-						methodNameOfSingleCompositeAction).append("(){");
-				code.append(body);
-				// See if anything returned. If not, add a return state
-				// Temporary solution
-				if (body.indexOf("return") == -1) {
-					code.append("return null;");
-				}
-				code.append("}");
+				code.append("public double ").append(
+						methodNameOfExcitationComputationCode).append("(){")
+						.append(behavior.getBehaviorEquation()).append("}");
 				engine.createANewMethod(e.getEntityType(), false, false,
-						methodNameOfSingleCompositeAction, code.toString());
+						methodNameOfExcitationComputationCode, code
+								.toString());
 			}
-			methodNameOfTaskQueueAdder = "_proxy"
-					+ (ConfigParameters.methodIndex++);
-			code = new StringBuffer();
-			if (methodNameOfSingleCompositeAction == null) {
-				// normal task queue fashion
-				code.append("public void ").append(methodNameOfTaskQueueAdder)
-						.append("(){").append(body).append("}");
-			} else {
-				// a single code block, construct the task queue automatically
-				code.append("public void ").append(methodNameOfTaskQueueAdder)
-						.append("(){").append("TASKQUEUE.add(\"").append(
-								methodNameOfSingleCompositeAction).append(
-								"()\");").append("}");
+
+			if (updateActM) {
+				/** Get behavior action */
+				ba = (BehaviorAction) engine.getAction(id, behavior
+						.getBehaviorActionName());
+				/**
+				 * Create a method to setup the task queue setting up helper
+				 */
+				// If no calls of "TASKQUEUE.add", then all code blocks should
+				// be treated as single composite action
+				String body = ba.getActionString();
+				String methodNameOfSingleCompositeAction = null;
+				if (body.indexOf("TASKQUEUE.add") == -1) {
+					// create a method which represents the composite action
+					methodNameOfSingleCompositeAction = "_proxy"
+							+ (ConfigParameters.methodIndex++);
+					code = new StringBuffer();
+					code.append("public Object ").append(
+							methodNameOfSingleCompositeAction).append("(){");
+					code.append(body);
+					// See if anything returned. If not, add a return state
+					// Temporary solution
+					if (body.indexOf("return") == -1) {
+						code.append("return null;");
+					}
+					code.append("}");
+					engine.createANewMethod(e.getEntityType(), false,
+							false, methodNameOfSingleCompositeAction, code
+									.toString());
+				}
+				methodNameOfTaskQueueAdder = "_proxy"
+						+ (ConfigParameters.methodIndex++);
+				code = new StringBuffer();
+				if (methodNameOfSingleCompositeAction == null) {
+					// normal task queue fashion
+					code.append("public void ").append(
+							methodNameOfTaskQueueAdder).append("(){").append(
+							body).append("}");
+				} else {
+					// a single code block, construct the task queue
+					// automatically
+					code.append("public void ").append(
+							methodNameOfTaskQueueAdder).append("(){").append(
+							"TASKQUEUE.add(\"").append(
+							methodNameOfSingleCompositeAction).append(
+							"()\");").append("}");
+				}
+				engine.createANewMethod(e.getEntityType(), false, false,
+						methodNameOfTaskQueueAdder, code.toString());
 			}
-			engine.createANewMethod(e.getEntityType(), false, false,
-					methodNameOfTaskQueueAdder, code.toString());
+		} finally {
+			dm.commitMethods(e.getEntityType());
 		}
 
 		if (updateExcitM || updateActM) {
@@ -674,7 +786,7 @@ public class BehaviorNetworkEditor {
 	 */
 	public void updateEdges(Edge edges[]) {
 
-		((BNCategory) (AppEngine.getInstance().appManager.currentApp.currentEntity))
+		((BNCategory) (AppEngine.getInstance().getCurrentEntity()))
 				.getBehaviorNetwork().updateEdges(edges);
 	}
 
@@ -688,6 +800,7 @@ public class BehaviorNetworkEditor {
 	 */
 	public void removeAllBehaviors() {
 		repository.removeAllBehaviors();
+		compiledBehaviors.clear();
 	}
 
 	/**
@@ -26,7 +26,10 @@
 package sim.model.entity;
 
 import sim.core.AppEngine;
+import sim.core.dclass.DynamicManager;
+import sim.core.dclass.PropertyAccessor;
 import sim.model.action.TaskQueueHelper;
+import sim.model.behavior.Behavior;
 import sim.model.behavior.BehaviorNetwork;
 import sim.model.mechanism.CooperativeMechanism;
 import sim.model.mechanism.IMechanism;
@@ -53,6 +56,15 @@ public class BNCategory extends Category {
 	// The entity's task queue setting up helper of a specific behavior action
 	protected TaskQueueHelper TASKQUEUE = null;
 
+	// Reusable copy of this entity to perform the behaviors against
+	private BNCategory scratch = null;
+
+	// Version of the category class the scratch copy is created from
+	private Object scratchVersion = null;
+
+	// Values of the user-defined fields of the new scratch copy
+	private Object[] scratchValues = null;
+
 	/**
 	 * Constructor
 	 * 
@@ -93,6 +105,38 @@ public class BNCategory extends Category {
 		// the execution of all behaviors
 	}
 
+	/**
+	 * Return the scratch copy of this entity, used by the cooperative mechanism
+	 * to perform each behavior without affecting the state of this entity. The
+	 * copy is created once and reused, and only created again when the category
+	 * class is changed. Its user-defined fields are reset to the values of a
+	 * new copy, so that the values written by the behaviors are not kept. The
+	 * caller refreshes the other states with {@link #copyTo(BNCategory)}.
+	 * 
+	 * @return the scratch copy
+	 * @throws Exception
+	 *             if the category class can not be instantiated
+	 */
+	public BNCategory getScratchCopy() throws Exception {
+		DynamicManager dm = AppEngine.getInstance().appManager.currentApp.dm;
+		Object version = dm.getCategoryVersions().get(getEntityType());
+		if (scratch == null
+				|| (version == null ? scratchVersion != null : !version
+						.equals(scratchVersion))) {
+			scratch = (BNCategory) dm.getCategory(getEntityType());
+			scratchVersion = version;
+			PropertyAccessor accessor = scratch.getPropertyAccessor();
+			scratchValues = new Object[accessor.size()];
+			for (int i = 0; i < scratchValues.length; i++)
+				scratchValues[i] = accessor.get(scratch, i);
+		} else {
+			PropertyAccessor accessor = scratch.getPropertyAccessor();
+			for (int i = 0; i < scratchValues.length; i++)
+				accessor.set(scratch, i, scratchValues[i]);
+		}
+		return scratch;
+	}
+
 	/**
 	 * Central process. Update the states by executing pre-defined actions.
 	 */
@@ -128,6 +172,30 @@ public class BNCategory extends Category {
 		// throw new
 		// RuntimeException("No behavior network can be setup for entity with General Dynamics.");
 		network = bNet;
+		markChanged();
+	}
+
+	/**
+	 * Keep the given number of time steps in the history of the behaviors of
+	 * this entity, e.g. to chart them. Other entities only keep the current and
+	 * the previous time step.
+	 * 
+	 * @param depth
+	 *            Number of time steps to keep, 0 for the default one
+	 */
+	public void setBehaviorHistoryDepth(int depth) {
+		network.setHistoryDepth(depth);
+		markChanged();
+	}
+
+	/**
+	 * Return the number of time steps kept in the history of the behaviors of
+	 * this entity
+	 * 
+	 * @return The history depth, 0 if the default one is used
+	 */
+	public int getBehaviorHistoryDepth() {
+		return network.getHistoryDepth();
 	}
 
 	/**
@@ -211,6 +279,19 @@ public class BNCategory extends Category {
 		return asm.getConcreteMechanism().copy();
 	}
 
+	/**
+	 * Return the behavior selected in the last time step. Only the mutual
+	 * inhibition mechanism selects a single winner.
+	 * 
+	 * @return The winning behavior, null if there is none
+	 */
+	public Behavior getWinningBehavior() {
+		IMechanism mechanism = asm.getConcreteMechanism();
+		if (mechanism instanceof MutualInhibitionMechanism)
+			return ((MutualInhibitionMechanism) mechanism).getWinner();
+		return null;
+	}
+
 	/**
 	 * Get the general dynamics.
 	 */
@@ -244,6 +325,7 @@ public class BNCategory extends Category {
 					"Can not define general dynamics for entity with behavior network.");
 		SystemDynamicMechanism ism = (SystemDynamicMechanism) getOriginalActionSelectionMechanism();
 		ism.set(this, code);
+		markChanged();
 	}
 
 	/**
@@ -263,6 +345,7 @@ public class BNCategory extends Category {
 	 */
 	public void setActionSelectionMechanism(IMechanism asm) {
 		this.asm.setConcreteMechanism(asm);
+		markChanged();
 	}
 
 	/**
@@ -25,20 +25,17 @@
 
 package sim.model.entity;
 
+import java.awt.Component;
 import java.awt.Image;
-import java.awt.MediaTracker;
-import java.awt.Toolkit;
-import java.awt.image.FilteredImageSource;
-import java.awt.image.ImageFilter;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.swing.JComponent;
-
 import org.apache.commons.beanutils.BeanUtils;
 
+import sim.core.AppEngine;
+import sim.core.dclass.PropertyAccessor;
+import sim.core.dclass.ResourceLoader;
 import sim.util.MessageUtils;
-import sim.util.MethodUtils;
 
 /**
  * The entity category wrappers. It is the supper class of all categories in the
@@ -117,6 +114,7 @@ public class Category extends Entity {
 	 */
 	public void registerPropertyName(Property p) {
 		properties.add(p);
+		markChanged();
 	}
 
 	/**
@@ -129,6 +127,7 @@ public class Category extends Entity {
 		if (p != null && p.size() > 0) {
 			properties.addAll(p);
 		}
+		markChanged();
 	}
 
 	/**
@@ -182,10 +181,11 @@ public class Category extends Entity {
 	 */
 	public List getAllProperties() {
 		List p = new ArrayList(properties.size());
+		PropertyAccessor accessor = getPropertyAccessor();
 		for (int i = 0; i < properties.size(); i++) {
 			Property temp = ((Property) properties.get(i)).copy();
 			try {
-				temp.value = MethodUtils.invokeExactField(this, temp.name);
+				temp.value = accessor.get(this, temp.name);
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
@@ -215,10 +215,11 @@ public class Category extends Entity {
 	 * </p>
 	 */
 	public void _initInternal() {
+		PropertyAccessor accessor = getPropertyAccessor();
 		for (int i = 0; i < properties.size(); i++) {
 			Property property = (Property) properties.get(i);
 			try {
-				MethodUtils.invokeSetField(this, property.name, property.value);
+				accessor.set(this, property.name, property.value);
 			} catch (Exception e) {
 			}
 		}
@@ -266,7 +267,7 @@ public class Category extends Entity {
 					return;
 				}
 			}
-			MethodUtils.invokeSetField(this, propertyName, propertyV);
+			getPropertyAccessor().set(this, propertyName, propertyV);
 		}
 	}
 
@@ -285,6 +286,7 @@ public class Category extends Entity {
 			if (property.name.equals(propertyName))
 				property.value = propertyValue;
 		}
+		markChanged();
 	}
 
 	/**
@@ -303,6 +305,7 @@ public class Category extends Entity {
 	public void registerMethod(CMethod m) {
 		if (m != null && m.transSuccess) {
 			this.methods.add(m);
+			markChanged();
 			return;
 		}
 		throw new IllegalStateException("The method '" + m.name
@@ -322,6 +325,7 @@ public class Category extends Entity {
 		for (int i = 0; i < methods.size(); i++) {
 			if (((CMethod) methods.get(i)).name.equals(newMethod.name.trim())) {
 				methods.set(i, newMethod);
+				markChanged();
 				break;
 			}
 		}
@@ -355,6 +359,7 @@ public class Category extends Entity {
 	 */
 	public void removeProperties() {
 		this.properties.clear();
+		markChanged();
 	}
 
 	/**
@@ -362,6 +367,7 @@ public class Category extends Entity {
 	 */
 	public void removeMethods() {
 		this.methods.clear();
+		markChanged();
 	}
 
 	/**
@@ -370,13 +376,13 @@ public class Category extends Entity {
 	 * 
 	 * @param c
 	 *            The component used to load the image, usually it is
-	 *            SystemEditorPanel
+	 *            SystemEditorPanel, null if there is none
 	 * @param name
 	 *            The name of the category
 	 * @param iconPath
 	 *            The icon image path of the category
 	 */
-	public void init(JComponent c, String name, String iconPath) {
+	public void init(Component c, String name, String iconPath) {
 		/** Set the name and icon path */
 		this.name = name;
 		/** Initialize internal states if any */
@@ -388,22 +394,16 @@ public class Category extends Entity {
 	/**
 	 * Prepare the entity image
 	 */
-	protected void prepareEntityImage(JComponent c, String path) {
-		// Prepare the entity image
-		super.prepareEntityImage(c, path);
-		// Adjust the image
-		ImageFilter filter = new WhiteFilter();
-		FilteredImageSource filteredImage = new FilteredImageSource(display
-				.getImage().getSource(), filter);
-		Image image = Toolkit.getDefaultToolkit().createImage(filteredImage);
-		MediaTracker tracker = new MediaTracker(c);
+	protected void prepareEntityImage(Component c, String path) {
 		try {
-			tracker.addImage(image, 0);
-			tracker.waitForAll();
-		} catch (InterruptedException e) {
+			// Prepare the entity image, adjusted by the filter
+			Image image = AppEngine.getInstance().images.loadImage(
+					ResourceLoader.getResource(path, getClass()),
+					new WhiteFilter(), c);
+			display.setImage(image);
+			display.setImagePath(path);
+		} catch (Exception e) {
 		}
-		display.setImage(image);
-		display.setImagePath(path);
 	}
 
 	/**
@@ -431,7 +431,8 @@ public class Category extends Entity {
 	 * <p>
 	 * All fields and user-defined properties are copied. The fields are copied
 	 * using <code>org.apache.commons.beanutils.BeanUtils.</code> and the
-	 * user-defined properties are copied using <code>MethodUtils</code>
+	 * user-defined properties are copied using the property accessors of the
+	 * two classes.
 	 * </p>
 	 * 
 	 * @param toEntity
@@ -452,11 +453,12 @@ public class Category extends Entity {
 		((Category) toEntity).properties.clear();
 		((Category) toEntity).registerProperties(getProperties());
 		// Set the current value of each property on the target entity
+		PropertyAccessor from = getPropertyAccessor();
+		PropertyAccessor to = toEntity.getPropertyAccessor();
 		for (int i = 0; i < properties.size(); i++) {
 			Property temp = (Property) properties.get(i);
 			try {
-				Object value = MethodUtils.invokeExactField(this, temp.name);
-				MethodUtils.invokeSetField(toEntity, temp.name, value);
+				to.set(toEntity, temp.name, from.get(this, temp.name));
 			} catch (NoSuchFieldException e) {
 				;// MessageUtils.debug(this, "copyState", e);
 			}
@@ -478,6 +480,7 @@ public class Category extends Entity {
 	 */
 	public void setEntityType(String name) {
 		this.name = name;
+		markChanged();
 	}
 
 }
\ No newline at end of file
@@ -25,12 +25,9 @@
 
 package sim.model.entity;
 
+import java.awt.Component;
 import java.awt.Image;
-import java.awt.MediaTracker;
 import java.awt.Rectangle;
-import java.awt.Toolkit;
-
-import javax.swing.JComponent;
 
 import sim.core.AppEngine;
 import sim.core.dclass.ResourceLoader;
@@ -84,6 +81,13 @@ public abstract class Entity extends SystemFunction implements Timed {
 	// Current simulation time tick
 	protected int timetick = 0;
 
+	// Whether the saved state is changed since the application is journaled
+	private volatile boolean changed = true;
+
+	// The position and direction when the changed mark was cleared, the
+	// actions may write the fields directly
+	private double clearedX, clearedY, clearedDirection = Double.NaN;
+
 	// Constructor
 	public Entity() {
 		display = new Display();
@@ -133,6 +137,7 @@ public abstract class Entity extends SystemFunction implements Timed {
 	 */
 	public void setDisplayName(String name) {
 		displayName = name;
+		changed = true;
 	}
 
 	/**
@@ -211,21 +216,15 @@ public abstract class Entity extends SystemFunction implements Timed {
 	 * Prepare the entity image by using specified component tracker.
 	 * 
 	 * @param c
-	 *            The media tracker
+	 *            The media tracker, null if there is none
 	 * @param path
 	 *            The image path
 	 */
-	protected void prepareEntityImage(JComponent c, String path) {
+	protected void prepareEntityImage(Component c, String path) {
 		try {
-			// Is it the only way to read the local images?
-			Image image = Toolkit.getDefaultToolkit().createImage(
-					ResourceLoader.getResource(path, getClass()));
-			MediaTracker tracker = new MediaTracker(c);
-			try {
-				tracker.addImage(image, 0);
-				tracker.waitForAll();
-			} catch (InterruptedException e) {
-			}
+			// The image is shared with the entities showing the same file
+			Image image = AppEngine.getInstance().images.loadImage(
+					ResourceLoader.getResource(path, getClass()), null, c);
 			display.setImage(image);
 			display.setImagePath(path);
 		} catch (Exception e) {
@@ -243,6 +242,7 @@ public abstract class Entity extends SystemFunction implements Timed {
 	public void setEntityWidthHeight(int w, int h) {
 		display.setWidth(w);
 		display.setHeight(h);
+		changed = true;
 	}
 
 	/**
@@ -259,6 +259,7 @@ public abstract class Entity extends SystemFunction implements Timed {
 		position.y = y;
 		setDetectPoint((int) (x - getWidth() / 2 - 4), (int) (y - getHeight()
 				/ 2 - 4));
+		changed = true;
 
 	}
 
@@ -272,6 +273,7 @@ public abstract class Entity extends SystemFunction implements Timed {
 		position = p;
 		setDetectPoint((int) (p.x - getWidth() / 2 - 4), (int) (p.y
 				- getHeight() / 2 - 4));
+		changed = true;
 	}
 
 	/** Get the initial display direction for the entity */
@@ -398,7 +400,7 @@ public abstract class Entity extends SystemFunction implements Timed {
 	 * The actual processing logic.
 	 */
 	public void act() {
-		AppEngine.getInstance().appManager.currentApp.currentEntity = ((Category) this);
+		AppEngine.getInstance().setCurrentEntity((Category) this);
 		this.increaseTimeInstance();
 		this.preprocess();
 		this.process();
@@ -511,6 +513,7 @@ public abstract class Entity extends SystemFunction implements Timed {
 	 */
 	public void setImagePath(String imagePath) {
 		display.setImagePath(imagePath);
+		changed = true;
 	}
 
 	/**
@@ -529,6 +532,7 @@ public abstract class Entity extends SystemFunction implements Timed {
 	 */
 	public void setRelativeImagePath(String imagePath) {
 		display.setRelativeImagePath(imagePath);
+		changed = true;
 	}
 
 	/**
@@ -547,6 +551,7 @@ public abstract class Entity extends SystemFunction implements Timed {
 	 */
 	public void setWidth(int imageWidth) {
 		display.setWidth(imageWidth);
+		changed = true;
 	}
 
 	/**
@@ -556,6 +561,7 @@ public abstract class Entity extends SystemFunction implements Timed {
 	 */
 	public void setHeight(int imageHeight) {
 		display.setHeight(imageHeight);
+		changed = true;
 	}
 
 	/**
@@ -569,6 +575,7 @@ public abstract class Entity extends SystemFunction implements Timed {
 		// else if (direction < -Math.PI)
 		// currentMotionDirection = 2 * Math.PI + currentMotionDirection;
 		this.direction = currentMotionDirection;
+		changed = true;
 	}
 
 	/**
@@ -635,6 +642,33 @@ public abstract class Entity extends SystemFunction implements Timed {
 	 */
 	public void setDisplay(Display display) {
 		this.display = display.copy();
+		changed = true;
+	}
+
+	/**
+	 * Mark the saved state of this entity as changed, so that the entity is
+	 * written with the next save of the application.
+	 */
+	public void markChanged() {
+		changed = true;
+	}
+
+	/**
+	 * Clear the changed mark of this entity. The entity is changed as well if
+	 * it moved since the last call.
+	 * 
+	 * @return Whether the saved state is changed since the last call
+	 */
+	public boolean clearChanged() {
+		boolean moved = position.x != clearedX || position.y != clearedY
+				|| direction != clearedDirection;
+		clearedX = position.x;
+		clearedY = position.y;
+		clearedDirection = direction;
+		if (!changed && !moved)
+			return false;
+		changed = false;
+		return true;
 	}
 
 	/**
@@ -31,8 +31,10 @@ import java.util.Random;
 
 import sim.core.AppEngine;
 import sim.core.AppSystem;
+import sim.core.dclass.DynamicManager;
+import sim.core.dclass.PropertyAccessor;
+import sim.model.action.MoveCommand;
 import sim.util.MessageUtils;
-import sim.util.MethodUtils;
 import sim.util.Point;
 import sim.util.Vect;
 
@@ -56,9 +58,6 @@ public class SystemFunction extends Object {
 	/** Application Engine */
 	protected static final AppEngine engine = AppEngine.getInstance();
 
-	/** Application system object */
-	private static final AppSystem system = engine.system;
-
 	/** Move forward, internal use only */
 	public static final int MOVEFORWARD = 0;
 
@@ -73,6 +72,19 @@ public class SystemFunction extends Object {
 
 	// public static final int ACCELERATION = 4;
 
+	// The accessor of the user-defined fields, see getPropertyAccessor()
+	private transient PropertyAccessor propertyAccessor = null;
+
+	/**
+	 * Return the application system object, which is the system object of the
+	 * simulation context when called by a simulation thread.
+	 * 
+	 * @return The system object
+	 */
+	private static AppSystem system() {
+		return engine.getSystem();
+	}
+
 	// -----------------------------------------------
 	// System functions, which can be used by users
 	//
@@ -84,7 +96,7 @@ public class SystemFunction extends Object {
 	 * @return the width of the simulation world
 	 */
 	public static int getWorldWidth() {
-		return system.env.getWidth();
+		return system().env.getWidth();
 	}
 
 	/**
@@ -93,7 +105,18 @@ public class SystemFunction extends Object {
 	 * @return the height of the simulation world
 	 */
 	public static int getWorldHeight() {
-		return system.env.getHeight();
+		return system().env.getHeight();
+	}
+
+	/**
+	 * Seed the generator of random numbers, so that a simulation can be
+	 * repeated.
+	 * 
+	 * @param seed
+	 *            The seed
+	 */
+	public static void setRandomSeed(long seed) {
+		randomer.setSeed(seed);
 	}
 
 	/**
@@ -170,7 +193,7 @@ public class SystemFunction extends Object {
 	 *         returned
 	 */
 	public static int getEntityId(String displayName) {
-		Entity entity = system.getEntityByDisplayName(displayName);
+		Entity entity = system().getEntityByDisplayName(displayName);
 		if (entity == null || !entity.isActive())
 			return -1;
 		return entity.getMyId();
@@ -203,7 +226,7 @@ public class SystemFunction extends Object {
 	 * @return The entity of the specified display name
 	 */
 	private static Entity getEntity(int entityID) {
-		Entity entity = system.getEntityById(entityID);
+		Entity entity = system().getEntityById(entityID);
 		if (entity == null || !entity.isActive())
 			return null;
 		return entity;
@@ -223,11 +246,11 @@ public class SystemFunction extends Object {
 	private static Entity getClosestEntity(int entityID, String categoryName) {
 		Entity self = getEntity(entityID);
 		if (categoryName.trim().equalsIgnoreCase("all"))
-			return system.getClosestEntity(self,
+			return system().getClosestEntity(self,
 					self.getTime() /*- 1 >= 0 ? self.getTime() - 1 : 0*/,
 					Double.MAX_VALUE);
 		else
-			return system.getClosestEntityByType(self, categoryName, self
+			return system().getClosestEntityByType(self, categoryName, self
 					.getTime() /*- 1 >= 0 ? self.getTime() - 1 : 0*/,
 					Double.MAX_VALUE);
 	}
@@ -243,7 +266,7 @@ public class SystemFunction extends Object {
 	 */
 	public static EntityList getListOfEntitiesWithinDistance(double distance) {
 		Entity self = engine.getCurrentEntity();
-		return new EntityList(system.getEntitiesWithinDistance(self, self
+		return new EntityList(system().getEntitiesWithinDistance(self, self
 				.getTime() /*- 1 >= 0 ? self.getTime() - 1 : 0*/, distance));
 	}
 
@@ -282,7 +305,7 @@ public class SystemFunction extends Object {
 	 * @return The list of entities which belong to the given category name
 	 */
 	public static EntityList getListOfEntitiesInCategory(String categoryName) {
-		return new EntityList(system.getEntityByCategoryName(categoryName));
+		return new EntityList(system().getEntityByCategoryName(categoryName));
 	}
 
 	/**
@@ -353,7 +376,7 @@ public class SystemFunction extends Object {
 	 * @return The entity with the id.
 	 */
 	public static Entity getEntityById(int entityID) {
-		Entity entity = system.getEntityById(entityID);
+		Entity entity = system().getEntityById(entityID);
 		if (entity == null || !entity.isActive())
 			return null;
 		return entity;
@@ -369,7 +392,7 @@ public class SystemFunction extends Object {
 	 * @return whether the entity is removed successfully.
 	 */
 	public static boolean removeEntity(int entityID) {
-		Entity entity = system.getEntityById(entityID);
+		Entity entity = system().getEntityById(entityID);
 		if (entity == null)
 			return false;
 		return engine.removeEntity(entityID);
@@ -402,7 +425,7 @@ public class SystemFunction extends Object {
 	 * @return The id of the newly copied entity
 	 */
 	public static int createNewEntityByCopyEntity(int originalEntityID) {
-		Entity entity = system.getEntityById(originalEntityID);
+		Entity entity = system().getEntityById(originalEntityID);
 		if (entity == null)
 			return -1;
 		try {
@@ -419,7 +442,7 @@ public class SystemFunction extends Object {
 	 * @return The number of system entities.
 	 */
 	public static int getEntityCount() {
-		return system.getAvailableEntities().size();
+		return system().getAvailableEntities().size();
 	}
 
 	/**
@@ -808,7 +831,7 @@ public class SystemFunction extends Object {
 		Point p = null;
 		Entity entity = getEntityById(entityID);
 		if (entity != null)
-			p = system.getPreviousEntityPosition(entity, timeStick);
+			p = system().getPreviousEntityPosition(entity, timeStick);
 		return p;
 	}
 
@@ -905,7 +928,7 @@ public class SystemFunction extends Object {
 		// Position of self entity
 		Point currentPosition = self.getPosition();
 		// Position of another entity
-		Point anotherPosition = system.getPreviousEntityPosition(other, self
+		Point anotherPosition = system().getPreviousEntityPosition(other, self
 				.getTime()/*- 1 <= 0 ? 0 : self.getTime()*/);
 		// Compute the difference of two positions
 		Vect diff = anotherPosition.difference(currentPosition);
@@ -945,7 +968,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, double direction,
 			double posX, double posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -964,7 +987,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, double direction,
 			double posX, int posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -983,7 +1006,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, double direction,
 			double posX, float posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -1002,7 +1025,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, double direction,
 			float posX, double posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -1021,7 +1044,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, double direction,
 			float posX, int posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -1040,7 +1063,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, double direction,
 			float posX, float posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -1059,7 +1082,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, double direction,
 			int posX, double posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -1078,7 +1101,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, double direction,
 			int posX, int posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -1097,7 +1120,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, double direction,
 			int posX, float posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -1116,7 +1139,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, float direction,
 			double posX, double posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -1135,7 +1158,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, float direction,
 			double posX, int posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -1154,7 +1177,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, float direction,
 			double posX, float posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -1173,7 +1196,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, float direction,
 			float posX, double posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -1192,7 +1215,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, float direction,
 			float posX, int posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -1211,7 +1234,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, float direction,
 			float posX, float posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -1230,7 +1253,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, float direction, int posX,
 			double posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -1249,7 +1272,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, float direction, int posX,
 			int posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -1268,7 +1291,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, float direction, int posX,
 			float posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -1287,7 +1310,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, int direction,
 			double posX, double posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -1306,7 +1329,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, int direction,
 			double posX, int posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -1325,7 +1348,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, int direction,
 			double posX, float posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -1344,7 +1367,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, int direction, float posX,
 			double posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -1363,7 +1386,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, int direction, float posX,
 			int posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -1382,7 +1405,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, int direction, float posX,
 			float posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -1401,7 +1424,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, int direction, int posX,
 			double posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -1420,7 +1443,7 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, int direction, int posX,
 			int posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
 	}
 
 	/**
@@ -1439,7 +1462,55 @@ public class SystemFunction extends Object {
 	 */
 	public static double getIRDistance(int entityID, int direction, int posX,
 			float posY) {
-		return system.getIRDistance(entityID, direction, posX, posY);
+		return system().getIRDistance(entityID, direction, posX, posY);
+	}
+
+	/**
+	 * Get the closest IR distances of a fan of rays from the given source to
+	 * all other entities, including the simulation environment. It is much
+	 * faster than calling <code>getIRDistance</code> once for each ray, e.g.
+	 * for a ring of IR sensors.
+	 * 
+	 * @param entityID
+	 *            The id of the source
+	 * @param directions
+	 *            The directions of the rays
+	 * @param posX
+	 *            The position x of the source
+	 * @param posY
+	 *            The position y of the source
+	 * @param distances
+	 *            The array to store the closest IR distance of each ray. If it
+	 *            is <code>null</code>, a new array will be created.
+	 * @return The closest IR distance of each ray
+	 */
+	public static double[] getIRDistances(int entityID, double[] directions,
+			double posX, double posY, double[] distances) {
+		if (distances == null)
+			distances = new double[directions.length];
+		system().getIRDistances(entityID, directions, posX, posY, distances);
+		return distances;
+	}
+
+	/**
+	 * Get the closest IR distances of a fan of rays from this entity to all
+	 * other entities, including the simulation environment.
+	 * 
+	 * @param directions
+	 *            The directions of the rays
+	 * @param posX
+	 *            The position x of this entity
+	 * @param posY
+	 *            The position y of this entity
+	 * @param distances
+	 *            The array to store the closest IR distance of each ray. If it
+	 *            is <code>null</code>, a new array will be created.
+	 * @return The closest IR distance of each ray
+	 */
+	public double[] getIRDistances(double[] directions, double posX,
+			double posY, double[] distances) {
+		return getIRDistances(((Entity) this).getMyId(), directions, posX,
+				posY, distances);
 	}
 
 	/**
@@ -1471,7 +1542,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(double direction, double positionX,
 			double positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -1492,7 +1563,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(double direction, double positionX,
 			float positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -1513,7 +1584,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(double direction, double positionX,
 			int positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -1535,7 +1606,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(double direction, float positionX,
 			double positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -1556,7 +1627,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(double direction, float positionX,
 			float positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -1577,7 +1648,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(double direction, float positionX,
 			int positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -1598,7 +1669,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(double direction, int positionX,
 			double positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -1619,7 +1690,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(double direction, int positionX,
 			float positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -1640,7 +1711,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(double direction, int positionX,
 			int positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -1662,7 +1733,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(float direction, double positionX,
 			double positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -1683,7 +1754,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(float direction, double positionX,
 			float positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -1704,7 +1775,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(float direction, double positionX,
 			int positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -1726,7 +1797,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(float direction, float positionX,
 			double positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -1747,7 +1818,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(float direction, float positionX,
 			float positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -1768,7 +1839,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(float direction, float positionX,
 			int positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -1789,7 +1860,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(float direction, int positionX,
 			double positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -1810,7 +1881,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(float direction, int positionX,
 			float positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -1831,7 +1902,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(float direction, int positionX,
 			int positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -1852,7 +1923,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(int direction, double positionX,
 			double positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -1873,7 +1944,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(int direction, double positionX,
 			float positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -1894,7 +1965,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(int direction, double positionX,
 			int positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -1916,7 +1987,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(int direction, float positionX,
 			double positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -1937,7 +2008,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(int direction, float positionX,
 			float positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -1958,7 +2029,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(int direction, float positionX,
 			int positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -1979,7 +2050,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(int direction, int positionX,
 			double positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -2000,7 +2071,7 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(int direction, int positionX,
 			float positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
@@ -2021,10 +2092,38 @@ public class SystemFunction extends Object {
 	public double getIRDistanceToCategory(int direction, int positionX,
 			int positionY, String catName) {
 		int entityID = ((Entity) this).getMyId();
-		return system.getIRDistanceToCategory(entityID, direction, positionX,
+		return system().getIRDistanceToCategory(entityID, direction, positionX,
 				positionY, catName);
 	}
 
+	/**
+	 * Get the closest IR distances of a fan of rays from this entity to all
+	 * other entities belonging to the given category.
+	 * 
+	 * @param directions
+	 *            The directions of the rays
+	 * @param positionX
+	 *            The position x of the source entity
+	 * @param positionY
+	 *            The position y of the source entity
+	 * @param catName
+	 *            The category name of destination entities
+	 * @param distances
+	 *            The array to store the closest IR distance of each ray. If it
+	 *            is <code>null</code>, a new array will be created.
+	 * @return The closest IR distance of each ray
+	 */
+	public double[] getIRDistancesToCategory(double[] directions,
+			double positionX, double positionY, String catName,
+			double[] distances) {
+		int entityID = ((Entity) this).getMyId();
+		if (distances == null)
+			distances = new double[directions.length];
+		system().getIRDistancesToCategory(entityID, directions, positionX,
+				positionY, catName, distances);
+		return distances;
+	}
+
 	/**
 	 * Get the behavior activation of the last time step. Note that, only
 	 * the activation of the first behavior with the given name will be 
@@ -2334,14 +2433,14 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String move(double speed, double direction) {
-		return system.getSpeedVector(speed, direction, MOVEFORWARD);
+	public static MoveCommand move(double speed, double direction) {
+		return system().getMoveCommand(speed, direction, MOVEFORWARD);
 	}
 
 	/**
-	 * Return a string representing moving forward this entity at the speed and
+	 * Return a command representing moving forward this entity at the speed and
 	 * direction in the next time step. The actual movement is NOT carried out
 	 * in the method call until the call of the corresponding action selection
 	 * mechanism is finished. It is mainly used in the behavior-based control
@@ -2351,14 +2450,14 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String move(double speed, float direction) {
-		return system.getSpeedVector(speed, direction, MOVEFORWARD);
+	public static MoveCommand move(double speed, float direction) {
+		return system().getMoveCommand(speed, direction, MOVEFORWARD);
 	}
 
 	/**
-	 * Return a string representing moving forward compute entity at the speed
+	 * Return a command representing moving forward compute entity at the speed
 	 * and direction in the next time step. The actual movement is NOT carried
 	 * out in the method call until the call of the corresponding action
 	 * selection mechanism is finished. It is mainly used in the behavior-based
@@ -2368,14 +2467,14 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String move(double speed, int direction) {
-		return system.getSpeedVector(speed, direction, MOVEFORWARD);
+	public static MoveCommand move(double speed, int direction) {
+		return system().getMoveCommand(speed, direction, MOVEFORWARD);
 	}
 
 	/**
-	 * Return a string representing moving forward this entity at the speed and
+	 * Return a command representing moving forward this entity at the speed and
 	 * direction in the next time step. The actual movement is NOT carried out
 	 * in the method call until the call of the corresponding action selection
 	 * mechanism is finished. It is mainly used in the behavior-based control
@@ -2385,14 +2484,14 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String move(float speed, double direction) {
-		return system.getSpeedVector(speed, direction, MOVEFORWARD);
+	public static MoveCommand move(float speed, double direction) {
+		return system().getMoveCommand(speed, direction, MOVEFORWARD);
 	}
 
 	/**
-	 * Return a string representing moving forward compute entity at the speed
+	 * Return a command representing moving forward compute entity at the speed
 	 * and direction in the next time step. The actual movement is NOT carried
 	 * out in the method call until the call of the corresponding action
 	 * selection mechanism is finished. It is mainly used in the behavior-based
@@ -2402,14 +2501,14 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String move(float speed, float direction) {
-		return system.getSpeedVector(speed, direction, MOVEFORWARD);
+	public static MoveCommand move(float speed, float direction) {
+		return system().getMoveCommand(speed, direction, MOVEFORWARD);
 	}
 
 	/**
-	 * Return a string representing moving forward this entity at the speed and
+	 * Return a command representing moving forward this entity at the speed and
 	 * direction in the next time step. The actual movement is NOT carried out
 	 * in the method call until the call of the corresponding action selection
 	 * mechanism is finished. It is mainly used in the behavior-based control
@@ -2419,14 +2518,14 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String move(float speed, int direction) {
-		return system.getSpeedVector(speed, direction, MOVEFORWARD);
+	public static MoveCommand move(float speed, int direction) {
+		return system().getMoveCommand(speed, direction, MOVEFORWARD);
 	}
 
 	/**
-	 * Return a string representing moving forward compute entity at the speed
+	 * Return a command representing moving forward compute entity at the speed
 	 * and direction in the next time step. The actual movement is NOT carried
 	 * out in the method call until the call of the corresponding action
 	 * selection mechanism is finished. It is mainly used in the behavior-based
@@ -2436,15 +2535,15 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
 
-	public static String move(int speed, double direction) {
-		return system.getSpeedVector(speed, direction, MOVEFORWARD);
+	public static MoveCommand move(int speed, double direction) {
+		return system().getMoveCommand(speed, direction, MOVEFORWARD);
 	}
 
 	/**
-	 * Return a string representing moving forward this entity at the speed and
+	 * Return a command representing moving forward this entity at the speed and
 	 * direction in the next time step. The actual movement is NOT carried out
 	 * in the method call until the call of the corresponding action selection
 	 * mechanism is finished. It is mainly used in the behavior-based control
@@ -2454,14 +2553,14 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String move(int speed, float direction) {
-		return system.getSpeedVector(speed, direction, MOVEFORWARD);
+	public static MoveCommand move(int speed, float direction) {
+		return system().getMoveCommand(speed, direction, MOVEFORWARD);
 	}
 
 	/**
-	 * Return a string representing moving forward compute entity at the speed
+	 * Return a command representing moving forward compute entity at the speed
 	 * and direction in the next time step. The actual movement is NOT carried
 	 * out in the method call until the call of the corresponding action
 	 * selection mechanism is finished. It is mainly used in the behavior-based
@@ -2471,14 +2570,14 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String move(int speed, int direction) {
-		return system.getSpeedVector(speed, direction, MOVEFORWARD);
+	public static MoveCommand move(int speed, int direction) {
+		return system().getMoveCommand(speed, direction, MOVEFORWARD);
 	}
 
 	/**
-	 * Return a string representing moving forward this entity at the speed and
+	 * Return a command representing moving forward this entity at the speed and
 	 * direction in the next time step. The actual movement is NOT carried out
 	 * in the method call until the call of the corresponding action selection
 	 * mechanism is finished. It is mainly used in the behavior-based control
@@ -2488,14 +2587,14 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String moveForward(double speed, double direction) {
+	public static MoveCommand moveForward(double speed, double direction) {
 		return move(speed, direction);
 	}
 
 	/**
-	 * Return a string representing moving forward compute entity at the speed
+	 * Return a command representing moving forward compute entity at the speed
 	 * and direction in the next time step. The actual movement is NOT carried
 	 * out in the method call until the call of the corresponding action
 	 * selection mechanism is finished. It is mainly used in the behavior-based
@@ -2505,14 +2604,14 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String moveForward(double speed, float direction) {
+	public static MoveCommand moveForward(double speed, float direction) {
 		return move(speed, direction);
 	}
 
 	/**
-	 * Return a string representing moving forward this entity at the speed and
+	 * Return a command representing moving forward this entity at the speed and
 	 * direction in the next time step. The actual movement is NOT carried out
 	 * in the method call until the call of the corresponding action selection
 	 * mechanism is finished. It is mainly used in the behavior-based control
@@ -2522,14 +2621,14 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String moveForward(double speed, int direction) {
+	public static MoveCommand moveForward(double speed, int direction) {
 		return move(speed, direction);
 	}
 
 	/**
-	 * Return a string representing moving forward compute entity at the speed
+	 * Return a command representing moving forward compute entity at the speed
 	 * and direction in the next time step. The actual movement is NOT carried
 	 * out in the method call until the call of the corresponding action
 	 * selection mechanism is finished. It is mainly used in the behavior-based
@@ -2539,14 +2638,14 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String moveForward(float speed, double direction) {
+	public static MoveCommand moveForward(float speed, double direction) {
 		return move(speed, direction);
 	}
 
 	/**
-	 * Return a string representing moving forward compute entity at the speed
+	 * Return a command representing moving forward compute entity at the speed
 	 * and direction in the next time step. The actual movement is NOT carried
 	 * out in the method call until the call of the corresponding action
 	 * selection mechanism is finished. It is mainly used in the behavior-based
@@ -2556,14 +2655,14 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String moveForward(float speed, float direction) {
+	public static MoveCommand moveForward(float speed, float direction) {
 		return move(speed, direction);
 	}
 
 	/**
-	 * Return a string representing moving forward compute entity at the speed
+	 * Return a command representing moving forward compute entity at the speed
 	 * and direction in the next time step. The actual movement is NOT carried
 	 * out in the method call until the call of the corresponding action
 	 * selection mechanism is finished. It is mainly used in the behavior-based
@@ -2573,14 +2672,14 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String moveForward(float speed, int direction) {
+	public static MoveCommand moveForward(float speed, int direction) {
 		return move(speed, direction);
 	}
 
 	/**
-	 * Return a string representing moving forward compute entity at the speed
+	 * Return a command representing moving forward compute entity at the speed
 	 * and direction in the next time step. The actual movement is NOT carried
 	 * out in the method call until the call of the corresponding action
 	 * selection mechanism is finished. It is mainly used in the behavior-based
@@ -2590,14 +2689,14 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String moveForward(int speed, double direction) {
+	public static MoveCommand moveForward(int speed, double direction) {
 		return move(speed, direction);
 	}
 
 	/**
-	 * Return a string representing moving forward compute entity at the speed
+	 * Return a command representing moving forward compute entity at the speed
 	 * and direction in the next time step. The actual movement is NOT carried
 	 * out in the method call until the call of the corresponding action
 	 * selection mechanism is finished. It is mainly used in the behavior-based
@@ -2607,14 +2706,14 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String moveForward(int speed, float direction) {
+	public static MoveCommand moveForward(int speed, float direction) {
 		return move(speed, direction);
 	}
 
 	/**
-	 * Return a string representing moving forward compute entity at the speed
+	 * Return a command representing moving forward compute entity at the speed
 	 * and direction in the next time step. The actual movement is NOT carried
 	 * out in the method call until the call of the corresponding action
 	 * selection mechanism is finished. It is mainly used in the behavior-based
@@ -2624,14 +2723,14 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String moveForward(int speed, int direction) {
+	public static MoveCommand moveForward(int speed, int direction) {
 		return move(speed, direction);
 	}
 
 	/**
-	 * Return a string representing moving backward compute entity at the speed
+	 * Return a command representing moving backward compute entity at the speed
 	 * and direction in the next time step. The actual movement is NOT carried
 	 * out in the method call until the call of the corresponding action
 	 * selection mechanism is finished. It is mainly used in the behavior-based
@@ -2641,14 +2740,14 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String moveBackward(double speed, double direction) {
-		return system.getSpeedVector(speed, direction, MOVEBACKWARD);
+	public static MoveCommand moveBackward(double speed, double direction) {
+		return system().getMoveCommand(speed, direction, MOVEBACKWARD);
 	}
 
 	/**
-	 * Return a string representing moving backward compute entity at the speed
+	 * Return a command representing moving backward compute entity at the speed
 	 * and direction in the next time step. The actual movement is NOT carried
 	 * out in the method call until the call of the corresponding action
 	 * selection mechanism is finished. It is mainly used in the behavior-based
@@ -2658,14 +2757,14 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String moveBackward(double speed, float direction) {
-		return system.getSpeedVector(speed, direction, MOVEBACKWARD);
+	public static MoveCommand moveBackward(double speed, float direction) {
+		return system().getMoveCommand(speed, direction, MOVEBACKWARD);
 	}
 
 	/**
-	 * Return a string representing moving backward compute entity at the speed
+	 * Return a command representing moving backward compute entity at the speed
 	 * and direction in the next time step. The actual movement is NOT carried
 	 * out in the method call until the call of the corresponding action
 	 * selection mechanism is finished. It is mainly used in the behavior-based
@@ -2675,14 +2774,14 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String moveBackward(double speed, int direction) {
-		return system.getSpeedVector(speed, direction, MOVEBACKWARD);
+	public static MoveCommand moveBackward(double speed, int direction) {
+		return system().getMoveCommand(speed, direction, MOVEBACKWARD);
 	}
 
 	/**
-	 * Return a string representing moving backward compute entity at the speed
+	 * Return a command representing moving backward compute entity at the speed
 	 * and direction in the next time step. The actual movement is NOT carried
 	 * out in the method call until the call of the corresponding action
 	 * selection mechanism is finished. It is mainly used in the behavior-based
@@ -2692,14 +2791,14 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String moveBackward(float speed, double direction) {
-		return system.getSpeedVector(speed, direction, MOVEBACKWARD);
+	public static MoveCommand moveBackward(float speed, double direction) {
+		return system().getMoveCommand(speed, direction, MOVEBACKWARD);
 	}
 
 	/**
-	 * Return a string representing moving backward compute entity at the speed
+	 * Return a command representing moving backward compute entity at the speed
 	 * and direction in the next time step. The actual movement is NOT carried
 	 * out in the method call until the call of the corresponding action
 	 * selection mechanism is finished. It is mainly used in the behavior-based
@@ -2709,14 +2808,14 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String moveBackward(float speed, float direction) {
-		return system.getSpeedVector(speed, direction, MOVEBACKWARD);
+	public static MoveCommand moveBackward(float speed, float direction) {
+		return system().getMoveCommand(speed, direction, MOVEBACKWARD);
 	}
 
 	/**
-	 * Return a string representing moving backward compute entity at the speed
+	 * Return a command representing moving backward compute entity at the speed
 	 * and direction in the next time step. The actual movement is NOT carried
 	 * out in the method call until the call of the corresponding action
 	 * selection mechanism is finished. It is mainly used in the behavior-based
@@ -2726,14 +2825,14 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String moveBackward(float speed, int direction) {
-		return system.getSpeedVector(speed, direction, MOVEBACKWARD);
+	public static MoveCommand moveBackward(float speed, int direction) {
+		return system().getMoveCommand(speed, direction, MOVEBACKWARD);
 	}
 
 	/**
-	 * Return a string representing moving backward compute entity at the speed
+	 * Return a command representing moving backward compute entity at the speed
 	 * and direction in the next time step. The actual movement is NOT carried
 	 * out in the method call until the call of the corresponding action
 	 * selection mechanism is finished. It is mainly used in the behavior-based
@@ -2743,14 +2842,14 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String moveBackward(int speed, double direction) {
-		return system.getSpeedVector(speed, direction, MOVEBACKWARD);
+	public static MoveCommand moveBackward(int speed, double direction) {
+		return system().getMoveCommand(speed, direction, MOVEBACKWARD);
 	}
 
 	/**
-	 * Return a string representing moving backward compute entity at the speed
+	 * Return a command representing moving backward compute entity at the speed
 	 * and direction in the next time step. The actual movement is NOT carried
 	 * out in the method call until the call of the corresponding action
 	 * selection mechanism is finished. It is mainly used in the behavior-based
@@ -2760,14 +2859,14 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String moveBackward(int speed, float direction) {
-		return system.getSpeedVector(speed, direction, MOVEBACKWARD);
+	public static MoveCommand moveBackward(int speed, float direction) {
+		return system().getMoveCommand(speed, direction, MOVEBACKWARD);
 	}
 
 	/**
-	 * Return a string representing moving backward compute entity at the speed
+	 * Return a command representing moving backward compute entity at the speed
 	 * and direction in the next time step. The actual movement is NOT carried
 	 * out in the method call until the call of the corresponding action
 	 * selection mechanism is finished. It is mainly used in the behavior-based
@@ -2777,10 +2876,10 @@ public class SystemFunction extends Object {
 	 *            Moving speed
 	 * @param direction
 	 *            Moving direction
-	 * @return speed vector, in the format "speed+","+direction"
+	 * @return the movement command
 	 */
-	public static String moveBackward(int speed, int direction) {
-		return system.getSpeedVector(speed, direction, MOVEBACKWARD);
+	public static MoveCommand moveBackward(int speed, int direction) {
+		return system().getMoveCommand(speed, direction, MOVEBACKWARD);
 	}
 
 	/**
@@ -2793,7 +2892,7 @@ public class SystemFunction extends Object {
 	 *            Moving direction
 	 */
 	public void move2(double speed, double direction) {
-		system.move((Entity) this, speed, direction, MOVEFORWARD);
+		system().move((Entity) this, speed, direction, MOVEFORWARD);
 	}
 
 	/**
@@ -2806,7 +2905,7 @@ public class SystemFunction extends Object {
 	 *            Moving direction
 	 */
 	public void move2(double speed, float direction) {
-		system.move((Entity) this, speed, direction, MOVEFORWARD);
+		system().move((Entity) this, speed, direction, MOVEFORWARD);
 	}
 
 	/**
@@ -2819,7 +2918,7 @@ public class SystemFunction extends Object {
 	 *            Moving direction
 	 */
 	public void move2(double speed, int direction) {
-		system.move((Entity) this, speed, direction, MOVEFORWARD);
+		system().move((Entity) this, speed, direction, MOVEFORWARD);
 	}
 
 	/**
@@ -2832,7 +2931,7 @@ public class SystemFunction extends Object {
 	 *            Moving direction
 	 */
 	public void move2(float speed, double direction) {
-		system.move((Entity) this, speed, direction, MOVEFORWARD);
+		system().move((Entity) this, speed, direction, MOVEFORWARD);
 	}
 
 	/**
@@ -2845,7 +2944,7 @@ public class SystemFunction extends Object {
 	 *            Moving direction
 	 */
 	public void move2(float speed, float direction) {
-		system.move((Entity) this, speed, direction, MOVEFORWARD);
+		system().move((Entity) this, speed, direction, MOVEFORWARD);
 	}
 
 	/**
@@ -2858,7 +2957,7 @@ public class SystemFunction extends Object {
 	 *            Moving direction
 	 */
 	public void move2(float speed, int direction) {
-		system.move((Entity) this, speed, direction, MOVEFORWARD);
+		system().move((Entity) this, speed, direction, MOVEFORWARD);
 	}
 
 	/**
@@ -2871,7 +2970,7 @@ public class SystemFunction extends Object {
 	 *            Moving direction
 	 */
 	public void move2(int speed, double direction) {
-		system.move((Entity) this, speed, direction, MOVEFORWARD);
+		system().move((Entity) this, speed, direction, MOVEFORWARD);
 	}
 
 	/**
@@ -2884,7 +2983,7 @@ public class SystemFunction extends Object {
 	 *            Moving direction
 	 */
 	public void move2(int speed, float direction) {
-		system.move((Entity) this, speed, direction, MOVEFORWARD);
+		system().move((Entity) this, speed, direction, MOVEFORWARD);
 	}
 
 	/**
@@ -2897,7 +2996,7 @@ public class SystemFunction extends Object {
 	 *            Moving direction
 	 */
 	public void move2(int speed, int direction) {
-		system.move((Entity) this, speed, direction, MOVEFORWARD);
+		system().move((Entity) this, speed, direction, MOVEFORWARD);
 	}
 
 	/**
@@ -3153,7 +3252,7 @@ public class SystemFunction extends Object {
 	 *            Moving direction
 	 */
 	public void moveBackward2(double speed, double direction) {
-		system.move((Entity) this, speed, direction, MOVEBACKWARD);
+		system().move((Entity) this, speed, direction, MOVEBACKWARD);
 	}
 
 	/**
@@ -3166,7 +3265,7 @@ public class SystemFunction extends Object {
 	 *            Moving direction
 	 */
 	public void moveBackward2(double speed, float direction) {
-		system.move((Entity) this, speed, direction, MOVEBACKWARD);
+		system().move((Entity) this, speed, direction, MOVEBACKWARD);
 	}
 
 	/**
@@ -3179,7 +3278,7 @@ public class SystemFunction extends Object {
 	 *            Moving direction
 	 */
 	public void moveBackward2(double speed, int direction) {
-		system.move((Entity) this, speed, direction, MOVEBACKWARD);
+		system().move((Entity) this, speed, direction, MOVEBACKWARD);
 	}
 
 	/**
@@ -3192,7 +3291,7 @@ public class SystemFunction extends Object {
 	 *            Moving direction
 	 */
 	public void moveBackward2(float speed, double direction) {
-		system.move((Entity) this, speed, direction, MOVEBACKWARD);
+		system().move((Entity) this, speed, direction, MOVEBACKWARD);
 	}
 
 	/**
@@ -3205,7 +3304,7 @@ public class SystemFunction extends Object {
 	 *            Moving direction
 	 */
 	public void moveBackward2(float speed, float direction) {
-		system.move((Entity) this, speed, direction, MOVEBACKWARD);
+		system().move((Entity) this, speed, direction, MOVEBACKWARD);
 	}
 
 	/**
@@ -3218,7 +3317,7 @@ public class SystemFunction extends Object {
 	 *            Moving direction
 	 */
 	public void moveBackward2(float speed, int direction) {
-		system.move((Entity) this, speed, direction, MOVEBACKWARD);
+		system().move((Entity) this, speed, direction, MOVEBACKWARD);
 	}
 
 	/**
@@ -3231,7 +3330,7 @@ public class SystemFunction extends Object {
 	 *            Moving direction
 	 */
 	public void moveBackward2(int speed, double direction) {
-		system.move((Entity) this, speed, direction, MOVEBACKWARD);
+		system().move((Entity) this, speed, direction, MOVEBACKWARD);
 	}
 
 	/**
@@ -3244,7 +3343,7 @@ public class SystemFunction extends Object {
 	 *            Moving direction
 	 */
 	public void moveBackward2(int speed, float direction) {
-		system.move((Entity) this, speed, direction, MOVEBACKWARD);
+		system().move((Entity) this, speed, direction, MOVEBACKWARD);
 	}
 
 	/**
@@ -3257,7 +3356,7 @@ public class SystemFunction extends Object {
 	 *            Moving direction
 	 */
 	public void moveBackward2(int speed, int direction) {
-		system.move((Entity) this, speed, direction, MOVEBACKWARD);
+		system().move((Entity) this, speed, direction, MOVEBACKWARD);
 	}
 
 	/**
@@ -3267,7 +3366,7 @@ public class SystemFunction extends Object {
 	 *            The turning speed
 	 */
 	public static void turn(double angularSpeed) {
-		system.turnWithAngularSpeed(angularSpeed, ROTATECOUNTERCLOCKWISE);
+		system().turnWithAngularSpeed(angularSpeed, ROTATECOUNTERCLOCKWISE);
 	}
 
 	/**
@@ -3277,7 +3376,7 @@ public class SystemFunction extends Object {
 	 *            The turning speed
 	 */
 	public static void turn(float angularSpeed) {
-		system.turnWithAngularSpeed(angularSpeed, ROTATECOUNTERCLOCKWISE);
+		system().turnWithAngularSpeed(angularSpeed, ROTATECOUNTERCLOCKWISE);
 	}
 
 	/**
@@ -3287,7 +3386,7 @@ public class SystemFunction extends Object {
 	 *            The turning speed
 	 */
 	public static void turn(int angularSpeed) {
-		system.turnWithAngularSpeed(angularSpeed, ROTATECOUNTERCLOCKWISE);
+		system().turnWithAngularSpeed(angularSpeed, ROTATECOUNTERCLOCKWISE);
 	}
 
 	/**
@@ -3327,7 +3426,7 @@ public class SystemFunction extends Object {
 	 *            The turning speed
 	 */
 	public static void turnRight(double angularSpeed) {
-		system.turnWithAngularSpeed(angularSpeed, ROTATECLOCKWISE);
+		system().turnWithAngularSpeed(angularSpeed, ROTATECLOCKWISE);
 	}
 
 	/**
@@ -3337,7 +3436,7 @@ public class SystemFunction extends Object {
 	 *            The turning speed
 	 */
 	public static void turnRight(float angularSpeed) {
-		system.turnWithAngularSpeed(angularSpeed, ROTATECLOCKWISE);
+		system().turnWithAngularSpeed(angularSpeed, ROTATECLOCKWISE);
 	}
 
 	/**
@@ -3347,7 +3446,7 @@ public class SystemFunction extends Object {
 	 *            The turning speed
 	 */
 	public static void turnRight(int angularSpeed) {
-		system.turnWithAngularSpeed(angularSpeed, ROTATECLOCKWISE);
+		system().turnWithAngularSpeed(angularSpeed, ROTATECLOCKWISE);
 	}
 
 	/**
@@ -3362,7 +3461,7 @@ public class SystemFunction extends Object {
 	 *             the value can not be returned successfully
 	 */
 	public Object getValue(String fieldName) throws Exception {
-		return MethodUtils.invokeExactField(this, fieldName);
+		return getPropertyAccessor().get(this, fieldName);
 	}
 
 	/**
@@ -3377,11 +3476,7 @@ public class SystemFunction extends Object {
 	 *             the value can not be returned successfully
 	 */
 	public double getDoubleValue(String fieldName) throws Exception {
-		Object o = MethodUtils.invokeExactField(this, fieldName);
-		if (o != null && o instanceof Number) {
-			return ((Number) o).doubleValue();
-		}
-		throw new RuntimeException("The returned value is not a double!");
+		return getPropertyAccessor().getDouble(this, fieldName);
 	}
 
 	/**
@@ -3396,11 +3491,7 @@ public class SystemFunction extends Object {
 	 *             the value can not be returned successfully
 	 */
 	public float getFloatValue(String fieldName) throws Exception {
-		Object o = MethodUtils.invokeExactField(this, fieldName);
-		if (o != null && o instanceof Number) {
-			return ((Number) o).floatValue();
-		}
-		throw new RuntimeException("The returned value is not a double!");
+		return (float) getPropertyAccessor().getDouble(this, fieldName);
 	}
 	
 	/**
@@ -3415,7 +3506,7 @@ public class SystemFunction extends Object {
 	 *             the value can not be returned successfully
 	 */
 	public String getStringValue(String fieldName) throws Exception {
-		Object o = MethodUtils.invokeExactField(this, fieldName);
+		Object o = getPropertyAccessor().get(this, fieldName);
 		if (o != null && o instanceof String) {
 			return (String) o;
 		}
@@ -3449,7 +3540,8 @@ public class SystemFunction extends Object {
 	 *             If the property value can not be set properly.
 	 */
 	public void setDoubleValue(String fieldName, double value) throws Exception {
-		setValue(fieldName, new Double(value));
+		if (!setDoubleField(fieldName, value))
+			setValue(fieldName, new Double(value));
 	}
 
 	/**
@@ -3480,7 +3572,8 @@ public class SystemFunction extends Object {
 	 *             the value can not be returned successfully
 	 */
 	public Object getValue(int entityID, String fieldName) throws Exception {
-		return MethodUtils.invokeExactField(getEntityById(entityID), fieldName);
+		Entity e = getEntityById(entityID);
+		return e.getPropertyAccessor().get(e, fieldName);
 	}
 
 	/**
@@ -3497,12 +3590,8 @@ public class SystemFunction extends Object {
 	 */
 	public double getDoubleValue(int entityID, String fieldName)
 			throws Exception {
-		Object o = MethodUtils.invokeExactField(getEntityById(entityID),
-				fieldName);
-		if (o != null && o instanceof Number) {
-			return ((Number) o).doubleValue();
-		}
-		throw new RuntimeException("The returned value is not a double!");
+		Entity e = getEntityById(entityID);
+		return e.getPropertyAccessor().getDouble(e, fieldName);
 	}
 
 	/**
@@ -3519,8 +3608,8 @@ public class SystemFunction extends Object {
 	 */
 	public String getStringValue(int entityID, String fieldName)
 			throws Exception {
-		Object o = MethodUtils.invokeExactField(getEntityById(entityID),
-				fieldName);
+		Entity e = getEntityById(entityID);
+		Object o = e.getPropertyAccessor().get(e, fieldName);
 		if (o != null && o instanceof String) {
 			return (String) o;
 		}
@@ -3559,7 +3648,8 @@ public class SystemFunction extends Object {
 	 */
 	public void setDoubleValue(int entityID, String fieldName, double value)
 			throws Exception {
-		setValue(entityID, fieldName, new Double(value));
+		if (!getEntityById(entityID).setDoubleField(fieldName, value))
+			setValue(entityID, fieldName, new Double(value));
 	}
 
 	/**
@@ -3578,4 +3668,36 @@ public class SystemFunction extends Object {
 			throws Exception {
 		setValue(entityID, fieldName, value);
 	}
+
+	/**
+	 * Return the accessor of the user-defined fields of this entity, which
+	 * is generated for the class of the entity by the dynamic manager.
+	 * 
+	 * @return The accessor of the fields
+	 */
+	protected PropertyAccessor getPropertyAccessor() {
+		if (propertyAccessor == null) {
+			DynamicManager dm = engine.appManager.currentApp == null ? null
+					: engine.appManager.currentApp.dm;
+			propertyAccessor = dm == null ? PropertyAccessor
+					.getReflectiveAccessor(getClass()) : dm
+					.getPropertyAccessor(getClass());
+		}
+		return propertyAccessor;
+	}
+
+	/*
+	 * Set the value of a user-defined number field directly, which is what
+	 * setValue() does after formatting and parsing the number. Return false
+	 * if the field is not a number field.
+	 */
+	boolean setDoubleField(String fieldName, double value) {
+		PropertyAccessor accessor = getPropertyAccessor();
+		int index = accessor.indexOf(fieldName);
+		if (index < 0 || accessor.getType(index) != Double.TYPE
+				|| fieldName.equals("name"))
+			return false;
+		accessor.setDouble(this, index, value);
+		return true;
+	}
 }
@@ -28,6 +28,7 @@ package sim.model.mechanism;
 import java.util.List;
 
 import sim.core.AppEngine;
+import sim.model.action.MoveCommand;
 import sim.model.behavior.Behavior;
 import sim.model.behavior.BehaviorNetwork;
 import sim.model.entity.BNCategory;
@@ -97,70 +98,61 @@ public class CooperativeMechanism implements IMechanism {
 		// A copy entity of the current computing entity
 		BNCategory copy = null;
 		try {
-			copy = (BNCategory) engine.appManager.currentApp.dm
-					.getCategory(current.getEntityType());
+			copy = current.getScratchCopy();
 		} catch (Exception e) {
 			MessageUtils.debug(this, "execute", e);
 			MessageUtils.displayError(e);
 			return;
 		}
 		// Obtain the behavior network of the current computing entity
-		BehaviorNetwork network = ((BNCategory) engine.appManager.currentApp.currentEntity)
+		BehaviorNetwork network = ((BNCategory) engine.getCurrentEntity())
 				.getBehaviorNetwork();
 		// Save the increment of speed and direction corresponding to each
 		// behavior
 		double deltaX = 0.0D, deltaY = 0.0D;
 		// Compute behavior excitation and strength
 		List behaviors = network.getBehaviorList();
-		// System.out.println(((Behavior)behaviors.get(0)).getWeight());
-		for (int i = 0; i < behaviors.size(); i++) {
-			// Perform each behavior
-			Behavior behavior = (Behavior) behaviors.get(i);
-			// Change the current computing entity to the copy temporally
-			current.copyTo(copy);
-			engine.appManager.currentApp.currentEntity = copy;
-			// Compute the behavior activation
-			try {
-				double excitation = engine.bnEditor
-						.computeBehaviorExcitation(behavior);
-				behavior.setBehaviorStrength(excitation, timeTick);
-			} catch (Exception e) {
-				MessageUtils.debug(this, "execute", e);
-			}
-			// Perform the behavior
-			Object speedANDDirection = behavior.performAction();
-			// Save the new result
-			if (speedANDDirection != null) {
-				if (speedANDDirection instanceof String) {
-					String sd = (String) speedANDDirection;
-					double speed = Double.parseDouble(sd.substring(0, sd
-							.indexOf(',')));
-					double direction = Double.parseDouble(sd.substring(sd
-							.indexOf(',') + 1, sd.lastIndexOf(',')));
-					int type = sim.model.entity.SystemFunction.MOVEFORWARD;
-					try {
-						type = Integer.parseInt(sd.substring(sd
-								.lastIndexOf(',') + 1));
-					} catch (Exception e) {
-					}
-					if (type == SystemFunction.MOVEFORWARD) {
-						deltaX += behavior.getWeight() * speed
-								* Math.cos(direction);
-						deltaY += behavior.getWeight() * speed
-								* Math.sin(direction);
-					} else if (type == SystemFunction.MOVEBACKWARD) {
-						deltaX -= behavior.getWeight() * speed
-								* Math.cos(direction);
-						deltaY -= behavior.getWeight() * speed
-								* Math.sin(direction);
+		// The current computing entity is restored even if a behavior fails
+		try {
+			// System.out.println(((Behavior)behaviors.get(0)).getWeight());
+			for (int i = 0; i < behaviors.size(); i++) {
+				// Perform each behavior
+				Behavior behavior = (Behavior) behaviors.get(i);
+				// Change the current computing entity to the copy temporally
+				current.copyTo(copy);
+				engine.setCurrentEntity(copy);
+				// Compute the behavior activation
+				try {
+					double excitation = engine.bnEditor
+							.computeBehaviorExcitation(behavior);
+					behavior.setBehaviorStrength(excitation, timeTick);
+				} catch (Exception e) {
+					MessageUtils.debug(this, "execute", e);
+				}
+				// Perform the behavior
+				MoveCommand command = MoveCommand.valueOf(behavior
+						.performAction());
+				// Save the new result
+				if (command != null) {
+					if (command.type == SystemFunction.MOVEFORWARD) {
+						deltaX += behavior.getWeight() * command.speed
+								* Math.cos(command.direction);
+						deltaY += behavior.getWeight() * command.speed
+								* Math.sin(command.direction);
+					} else if (command.type == SystemFunction.MOVEBACKWARD) {
+						deltaX -= behavior.getWeight() * command.speed
+								* Math.cos(command.direction);
+						deltaY -= behavior.getWeight() * command.speed
+								* Math.sin(command.direction);
 					}
 				}
 			}
+		} finally {
+			// Restore the current computing entity
+			engine.setCurrentEntity(current);
 		}
 		// Just vector sum the direction, the speed is not changed!!!!!!
 
-		// Restore the current computing entity
-		engine.appManager.currentApp.currentEntity = (current);
 		// Obtain the vector summation of all speed and directions
 		if (deltaX != 0.0D || deltaY != 0.0D) {
 			// double sqrt = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
@@ -172,7 +164,7 @@ public class CooperativeMechanism implements IMechanism {
 			// deltaY = 3 * deltaY / sqrt;
 			// }
 			// System.out.println(deltaX + "," + deltaY);
-			engine.system.move(current, deltaX, deltaY);
+			engine.getSystem().move(current, deltaX, deltaY);
 		}
 	}
 
@@ -28,6 +28,7 @@ package sim.model.mechanism;
 import java.util.List;
 
 import sim.core.AppEngine;
+import sim.model.action.MoveCommand;
 import sim.model.behavior.Behavior;
 import sim.model.behavior.BehaviorNetwork;
 import sim.model.entity.Entity;
@@ -54,6 +55,11 @@ public class MutualInhibitionMechanism implements IMechanism {
 	 */
 	private int previousWinner = -1;
 
+	/**
+	 * The behavior selected in the last time step, null if none
+	 */
+	private Behavior winner = null;
+
 	/**
 	 * Return the current time step of the current computing entity. Should not
 	 * be called because the time step is wrapped around. It is not the global
@@ -87,7 +93,7 @@ public class MutualInhibitionMechanism implements IMechanism {
 		// Application engine
 		AppEngine engine = AppEngine.getInstance();
 		// Obtain the behavior network of the current computing entity
-		BehaviorNetwork network = ((sim.model.entity.BNCategory) engine.appManager.currentApp.currentEntity)
+		BehaviorNetwork network = ((sim.model.entity.BNCategory) engine.getCurrentEntity())
 				.getBehaviorNetwork();
 		// Compute behavior excitation and strength
 		List behaviors = network.getBehaviorList();
@@ -111,6 +117,7 @@ public class MutualInhibitionMechanism implements IMechanism {
 		Behavior selectedBehavior = network.selectBehavior(timeTick);
 		if (selectedBehavior == Behavior.NO_BEHAVIOR) {
 			previousWinner = -1;
+			winner = null;
 			return;
 		}
 		// System.out.println(engine.getCurrentEntity().getDisplayName() + ", "
@@ -126,24 +133,25 @@ public class MutualInhibitionMechanism implements IMechanism {
 			// to reset the index?
 		}
 		previousWinner = selectedBehavior.getMyId();
+		winner = selectedBehavior;
 		// Execute the next action
-		Object speedAndDirection = selectedBehavior.performAction();
-		if (speedAndDirection == null)
+		MoveCommand command = MoveCommand.valueOf(selectedBehavior
+				.performAction());
+		if (command == null)
 			return;
 		// Move the entity in the specified speed and direction
-		if (speedAndDirection instanceof String) {
-			String sd = (String) speedAndDirection;
-			double speed = Double.parseDouble(sd.substring(0, sd.indexOf(',')));
-			double direction = Double.parseDouble(sd.substring(
-					sd.indexOf(',') + 1, sd.lastIndexOf(',')));
-			int type = sim.model.entity.SystemFunction.MOVEFORWARD;
-			try {
-				type = Integer.parseInt(sd.substring(sd.lastIndexOf(',') + 1));
-			} catch (Exception e) {
-			}
-			Entity current = engine.getCurrentEntity();
-			engine.system.move(current, speed, direction, type);
-		}
+		Entity current = engine.getCurrentEntity();
+		engine.getSystem().move(current, command.speed, command.direction,
+				command.type);
+	}
+
+	/**
+	 * Return the behavior selected in the last time step.
+	 * 
+	 * @return The winner, null if no behavior was selected
+	 */
+	public Behavior getWinner() {
+		return winner;
 	}
 
 	/**
@@ -27,6 +27,7 @@ package sim.model.mechanism;
 
 import sim.core.AppEngine;
 import sim.core.ConfigParameters;
+import sim.core.dclass.ProxyCallSite;
 import sim.model.entity.BNCategory;
 import sim.model.entity.CMethod;
 
@@ -42,6 +43,11 @@ public class SystemDynamicMechanism implements IMechanism {
 	 */
 	private CMethod code;
 
+	/**
+	 * Call site of the associated method
+	 */
+	private ProxyCallSite site = null;
+
 	/**
 	 * For copy function only
 	 */
@@ -166,10 +172,12 @@ public class SystemDynamicMechanism implements IMechanism {
 		if (code.name == null)
 			return;
 		try {
-			engine.evaluateAction(engine.appManager.currentApp.currentEntity,
-					code.name + "()");
-			engine.system.env
-					.handleEnvironmentBounds(engine.appManager.currentApp.currentEntity);
+			ProxyCallSite s = site;
+			if (s == null || !s.getMethodName().equals(code.name))
+				site = s = new ProxyCallSite(code.name);
+			s.invoke(engine.getCurrentEntity());
+			engine.getSystem().env.handleEnvironmentBounds(engine
+					.getCurrentEntity());
 		} catch (Exception e) {
 
 			e.printStackTrace();
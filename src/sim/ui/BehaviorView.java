@@ -185,6 +185,7 @@ public class BehaviorView extends AppView /* implements ActionListener */{
 
 		// Update weights
 		engineRef.updateWeights(entity.getBehaviorNetwork(), weights, ids);
+		entity.markChanged();
 
 	}
 
@@ -201,6 +202,7 @@ public class BehaviorView extends AppView /* implements ActionListener */{
 		// Update coefficients
 		engineRef.updateCoefficients(entity.getBehaviorNetwork(), coefficients,
 				ids);
+		entity.markChanged();
 
 		// Update the behavior network
 		pad.updateBehaviorNetwork(entity.getBehaviorNetwork());
@@ -663,7 +663,8 @@ public class DefineAppWindow extends JDialog {
 				}
 			}
 			fileChooser.setFileFilter(new FileFilterUtils(
-					new String[] { "xml" }, true, "XML File (*.xml)"));
+					new String[] { "xml", "bsim" }, true,
+					"Application File (*.xml, *.bsim)"));
 			int result = fileChooser.showOpenDialog(this);
 			// if we selected an image, load the image
 			if (result == JFileChooser.APPROVE_OPTION) {
@@ -241,8 +241,8 @@ public class MainApplet extends JApplet {
 	 */
 	public void saveAsFile() {
 		JFileChooser fileChooser = new JFileChooser();
-		fileChooser.setFileFilter(new FileFilterUtils(new String[] { "xml" },
-				true, "XML File (*.xml)"));
+		fileChooser.setFileFilter(new FileFilterUtils(new String[] { "xml",
+				"bsim" }, true, "Application File (*.xml, *.bsim)"));
 		int result = fileChooser.showSaveDialog(this);
 		// if we selected an image, load the image
 		if (result == JFileChooser.APPROVE_OPTION) {
@@ -98,8 +98,8 @@ class ExitAction extends AbstractAction {
 	 */
 	private void saveAsFile() {
 		JFileChooser fileChooser = new JFileChooser();
-		fileChooser.setFileFilter(new FileFilterUtils(new String[] { "xml" },
-				true, "XML File (*.xml)"));
+		fileChooser.setFileFilter(new FileFilterUtils(new String[] { "xml",
+				"bsim" }, true, "Application File (*.xml, *.bsim)"));
 		int result = fileChooser.showSaveDialog(sim.ui.MainFrame.getInstance());
 		// if we selected an image, load the image
 		if (result == JFileChooser.APPROVE_OPTION) {
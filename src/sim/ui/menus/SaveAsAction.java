@@ -33,6 +33,7 @@ import javax.swing.Action;
 import javax.swing.JFileChooser;
 
 import sim.core.AppEngine;
+import sim.core.BinaryModel;
 import sim.ui.MainApplet;
 import sim.util.FileFilterUtils;
 import sim.util.GUIUtils;
@@ -88,14 +89,15 @@ class SaveAsAction extends AbstractAction {
 		JFileChooser fileChooser = new JFileChooser();
 		if (dir != null)
 			fileChooser.setCurrentDirectory(new File(dir));
-		fileChooser.setFileFilter(new FileFilterUtils(new String[] { "xml" },
-				true, "XML File (*.xml)"));
+		fileChooser.setFileFilter(new FileFilterUtils(new String[] { "xml",
+				"bsim" }, true, "Application File (*.xml, *.bsim)"));
 		fileChooser.setDialogTitle("Save As");
 		int result = fileChooser.showSaveDialog(sim.ui.MainFrame.getInstance());
 		if (result == JFileChooser.APPROVE_OPTION) {
 			String path = fileChooser.getSelectedFile().getPath();
 			// Add a suffix if necessary
-			if (!path.trim().toLowerCase().endsWith(".xml")) {
+			if (!path.trim().toLowerCase().endsWith(".xml")
+					&& !BinaryModel.isBinaryModelName(path.trim())) {
 				path = path + ".xml";
 			}
 			saveAsFile0(path);
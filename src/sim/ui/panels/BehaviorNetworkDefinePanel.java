@@ -358,6 +358,7 @@ public class BehaviorNetworkDefinePanel extends BasePanel2 implements
 
 		/** Mark the application as dirty */
 		AppEngine.getInstance().setAppStatus(sim.core.App.DIRTY);
+		entity.markChanged();
 		/** Reset panels */
 		try {
 			behaviorNetworkPanel = new BehaviorView(engineRef, entity);
@@ -41,6 +41,7 @@ package sim.util;
  *
  */
 import java.awt.Component;
+import java.awt.GraphicsEnvironment;
 import java.io.File;
 
 import javax.swing.Icon;
@@ -51,8 +52,9 @@ import org.apache.log4j.xml.DOMConfigurator;
 
 public final class MessageUtils {
 
-	// Dialog to show exception information
-	private static ExceptionDialog dlg = new ExceptionDialog();
+	// Dialog to show exception information, created on the first use since
+	// it can not be created in the headless mode
+	private static ExceptionDialog dlg = null;
 
 	/**
 	 * Initialize the logging setting in the system.
@@ -159,7 +161,13 @@ public final class MessageUtils {
 	}
 
 	public static void displayError(Exception e) {
-		
+		// No user to display to, log it instead
+		if (GraphicsEnvironment.isHeadless()) {
+			Logger.getLogger(MessageUtils.class).error(e.getMessage(), e);
+			return;
+		}
+		if (dlg == null)
+			dlg = new ExceptionDialog();
 		dlg.setException(e);
 		dlg.setModal(true);
 		dlg.show();
@@ -228,6 +236,11 @@ public final class MessageUtils {
 
 	private static void display(Component parent, String message, String title,
 			int messageType, Icon icon) {
+		// No status bar in the headless mode, log it instead
+		if (GraphicsEnvironment.isHeadless()) {
+			Logger.getLogger(MessageUtils.class).info(title + ": " + message);
+			return;
+		}
 		sim.ui.AppStatusbar.getInstance().changeMessage(message);
 		// JOptionPane.showMessageDialog(parent, message, title, messageType,
 		// icon);